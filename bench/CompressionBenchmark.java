@@ -0,0 +1,127 @@
+/**
+ * This benchmark fetches 1000-symbol Google batches from a local stand-in
+ * server through QuoteHttpClient, first uncompressed and then with gzip
+ * negotiated, and reports the wall time and CPU time of each. The server
+ * compresses each response once up front, as a provider's cache would, and
+ * can be limited to a given bandwidth to show the effect of a real link. The
+ * server paces a limited link by spinning, so in that case the process CPU
+ * includes the server's pacing and only the caller CPU is comparable.
+ * 
+ * Usage: CompressionBenchmark [iterations] [megabits per second, 0 for
+ * unlimited]
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class CompressionBenchmark {
+	private static final int SYMBOLS = 1000;
+
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+	private static final com.sun.management.OperatingSystemMXBean SYSTEM = (com.sun.management.OperatingSystemMXBean) ManagementFactory
+			.getOperatingSystemMXBean();
+
+	/**
+	 * This is used to keep the JIT from discarding the parsed results.
+	 */
+	private static double sink;
+
+	/**
+	 * Write the body in slices paced to the given bandwidth.
+	 */
+	private static void send(OutputStream os, byte[] body, double megabits) throws IOException {
+		if (megabits <= 0) {
+			os.write(body);
+			return;
+		}
+		int slice = 4096;
+		long nanosPerSlice = (long) (slice * 8 / (megabits * 1e6) * 1e9);
+		for (int offset = 0; offset < body.length; offset += slice) {
+			long deadline = System.nanoTime() + nanosPerSlice;
+			os.write(body, offset, Math.min(slice, body.length - offset));
+			os.flush();
+			while (System.nanoTime() < deadline) {
+				Thread.onSpinWait();
+			}
+		}
+	}
+
+	private static void measure(String label, QuoteHttpClient client, String url, int iterations) throws IOException {
+		GoogleJSONQuoteParser parser = new GoogleJSONQuoteParser();
+		for (int index = 0; index < Math.max(5, iterations / 5); index++) {
+			client.get(url, parser);
+		}
+		long threadId = Thread.currentThread().getId();
+		long threadCpu = THREADS.getThreadCpuTime(threadId);
+		long processCpu = SYSTEM.getProcessCpuTime();
+		long start = System.nanoTime();
+		for (int index = 0; index < iterations; index++) {
+			List<StockQuoteInterface> quotes = client.get(url, parser);
+			sink += quotes.get(quotes.size() - 1).getLastTrade();
+		}
+		long wall = System.nanoTime() - start;
+		threadCpu = THREADS.getThreadCpuTime(threadId) - threadCpu;
+		processCpu = SYSTEM.getProcessCpuTime() - processCpu;
+		System.out.printf("   %-12s: %8.2f ms wall, %8.2f ms caller CPU, %8.2f ms process CPU per fetch%n", label,
+				wall / 1e6 / iterations, threadCpu / 1e6 / iterations, processCpu / 1e6 / iterations);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		double megabits = args.length > 1 ? Double.parseDouble(args[1]) : 0;
+
+		byte[] plain = ResponseAllocationBenchmark.googleResponse(SYMBOLS);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+			gzip.write(plain);
+		}
+		byte[] compressed = bytes.toByteArray();
+
+		// Otherwise Nagle's algorithm holds a small body back until the headers
+		// are acknowledged, which costs more than the transfer itself.
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+		ExecutorService executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.createContext("/finance/info", exchange -> {
+			String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			byte[] body = plain;
+			if (accept != null && accept.contains("gzip")) {
+				exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+				body = compressed;
+			}
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				send(os, body, megabits);
+			}
+		});
+		server.start();
+		String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/finance/info?q=batch";
+
+		try {
+			System.out.printf("%d symbols: %d bytes plain, %d bytes gzip (%.1f%%), %s%n", SYMBOLS, plain.length,
+					compressed.length, 100.0 * compressed.length / plain.length,
+					megabits > 0 ? megabits + " Mbit/s link" : "unlimited loopback");
+			QuoteHttpClient client = new QuoteHttpClient(5000, 30000);
+			client.setConditionalRequests(false);
+			client.setCompression(false);
+			measure("identity", client, url, iterations);
+			client.setCompression(true);
+			measure("gzip", client, url, iterations);
+		} finally {
+			server.stop(0);
+			executor.shutdownNow();
+		}
+		System.out.println(sink > 0 ? "" : " ");
+	}
+}
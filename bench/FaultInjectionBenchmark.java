@@ -0,0 +1,111 @@
+/**
+ * This benchmark measures the tail of MarketAnalyzer.updateData() cycle times
+ * under a series of fault profiles, with quotes made up in memory by
+ * RandomWalkQuoteGenerator and made to misbehave by
+ * FaultInjectingQuoteGenerator. Each cycle makes one batch request for every
+ * watched symbol, so a cycle's time is that request's latency, its fault if
+ * any, and the analysis.
+ *
+ * For each profile it reports the 50th, 90th, 99th and 99.9th percentile and
+ * the maximum cycle time, and how many cycles' fetches failed. The table is
+ * printed to a null stream.
+ *
+ * Usage: FaultInjectionBenchmark [cycles] [symbols]
+ */
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+public class FaultInjectionBenchmark {
+	private static class SilentAudio implements StockTickerAudioInterface {
+		public void playHappyMusic() {
+		}
+
+		public void playSadMusic() {
+		}
+
+		public void playErrorMusic() {
+		}
+	}
+
+	/**
+	 * This is a named set of faults.
+	 */
+	private static class Profile {
+		private final String name;
+		private final Consumer<FaultInjectingQuoteGenerator> settings;
+
+		Profile(String name, Consumer<FaultInjectingQuoteGenerator> settings) {
+			this.name = name;
+			this.settings = settings;
+		}
+	}
+
+	private static final FaultInjectingQuoteGenerator.LatencyDistribution HEALTHY = FaultInjectingQuoteGenerator
+			.logNormalLatency(10, 0.3);
+
+	private static final Profile[] PROFILES = {
+			new Profile("healthy", generator -> generator.setLatency(HEALTHY)),
+			new Profile("heavy tail",
+					generator -> generator.setLatency(FaultInjectingQuoteGenerator.paretoLatency(5, 1.5))),
+			new Profile("timeouts 2%", generator -> {
+				generator.setLatency(HEALTHY);
+				generator.setTimeout(250, 0.02);
+			}), new Profile("partial 5%", generator -> {
+				generator.setLatency(HEALTHY);
+				generator.setPartialBodyRate(0.05);
+			}), new Profile("malformed 5%", generator -> {
+				generator.setLatency(HEALTHY);
+				generator.setMalformedRate(0.05);
+			}), new Profile("everything", generator -> {
+				generator.setLatency(FaultInjectingQuoteGenerator.paretoLatency(5, 1.5));
+				generator.setTimeout(250, 0.02);
+				generator.setPartialBodyRate(0.05);
+				generator.setMalformedRate(0.05);
+			}) };
+
+	public static void main(String[] args) throws Exception {
+		int cycles = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+		int size = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+
+		List<String> symbols = new RandomWalkQuoteGenerator(1).getSymbols().subList(0, size);
+		System.out.println(String.format("%-14s %9s %9s %9s %9s %9s %8s", "profile", "p50 ms", "p90 ms", "p99 ms",
+				"p99.9 ms", "max ms", "failed"));
+		for (Profile profile : PROFILES) {
+			FaultInjectingQuoteGenerator generator = new FaultInjectingQuoteGenerator(new RandomWalkQuoteGenerator(1),
+					1);
+			profile.settings.accept(generator);
+			MarketAnalyzer analyzer = new MarketAnalyzer(symbols.toArray(new String[0]), generator, new SilentAudio());
+			analyzer.setOut(discard);
+
+			// Warm up, so that the first cycles do not count loading classes.
+			for (int cycle = 0; cycle < 20; cycle++) {
+				analyzer.updateData();
+			}
+			long warmUpFailures = analyzer.getFetchTimes().getFailureCount();
+
+			double[] times = new double[cycles];
+			for (int cycle = 0; cycle < cycles; cycle++) {
+				long start = System.nanoTime();
+				analyzer.updateData();
+				times[cycle] = (System.nanoTime() - start) / 1e6;
+			}
+			Arrays.sort(times);
+			System.out.println(String.format("%-14s %9.1f %9.1f %9.1f %9.1f %9.1f %8d", profile.name,
+					percentile(times, 50), percentile(times, 90), percentile(times, 99), percentile(times, 99.9),
+					times[cycles - 1], analyzer.getFetchTimes().getFailureCount() - warmUpFailures));
+		}
+	}
+
+	/**
+	 * @return The given percentile of the sorted times, by the nearest rank.
+	 */
+	private static double percentile(double[] sorted, double percentile) {
+		int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+		return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+	}
+}
@@ -0,0 +1,72 @@
+/**
+ * This benchmark measures how many quote messages a second MulticastQuoteGenerator
+ * can read from a MulticastQuotePublisher on the loopback interface.
+ *
+ * For each encoding, full records or changes against a periodic refresh, and
+ * each burst size it publishes the given number of messages in bursts of that
+ * size, waits until the handler has read up to the last sequence number, and
+ * reports the messages a second, the bytes read per message, the gaps found
+ * and the snapshots and refreshes applied. Larger bursts send faster than the
+ * handler reads, so some datagrams may overflow the socket's buffer and be
+ * recovered by snapshot.
+ *
+ * Usage: MulticastFeedBenchmark [messages]
+ */
+
+import java.util.Arrays;
+
+public class MulticastFeedBenchmark {
+	private static final int[] BURSTS = { 100, 1000, 10000 };
+
+	public static void main(String[] args) throws Exception {
+		int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+
+		System.out.println(String.format("%8s %8s %12s %10s %8s %8s %8s %10s", "encoding", "burst", "messages/s",
+				"datagrams", "bytes", "gaps", "missed", "snapshots"));
+		for (boolean delta : new boolean[] { false, true }) {
+			for (int burst : BURSTS) {
+				run(messages, delta, burst);
+			}
+		}
+	}
+
+	private static void run(int messages, boolean delta, int burst) throws Exception {
+		try (MulticastQuotePublisher publisher = new MulticastQuotePublisher();
+				MulticastQuoteGenerator handler = new MulticastQuoteGenerator(publisher.getGroup(),
+						publisher.getSnapshotAddress())) {
+			publisher.setDeltaEncoding(delta);
+			handler.getCurrentQuotes(Arrays.asList("IBM"));
+			// Warm up.
+			publisher.publish(messages / 10);
+			awaitCaughtUp(publisher, handler);
+
+			long gaps = handler.getGapCount();
+			long missed = handler.getMissedCount();
+			long snapshots = handler.getSnapshotCount();
+			long packets = handler.getPacketCount();
+			long bytes = handler.getByteCount();
+			long start = System.nanoTime();
+			for (int sent = 0; sent < messages; sent += burst) {
+				publisher.publish(burst);
+				Thread.yield();
+			}
+			awaitCaughtUp(publisher, handler);
+			double seconds = (System.nanoTime() - start) / 1e9;
+
+			System.out.println(String.format("%8s %8d %12.0f %10d %8.1f %8d %8d %10d", delta ? "delta" : "full",
+					burst, messages / seconds, handler.getPacketCount() - packets,
+					(handler.getByteCount() - bytes) / (double) messages, handler.getGapCount() - gaps,
+					handler.getMissedCount() - missed, handler.getSnapshotCount() - snapshots));
+		}
+	}
+
+	private static void awaitCaughtUp(MulticastQuotePublisher publisher, MulticastQuoteGenerator handler)
+			throws Exception {
+		// A last message, in case the last datagram was lost with nothing
+		// after it to show the gap.
+		publisher.publish(1);
+		while (handler.getExpectedSequence() != publisher.getSequence() || handler.isRecovering()) {
+			Thread.sleep(1);
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ * This benchmark measures the bytes allocated on the calling thread to read
+ * and parse one Google response, first with the original readLine() and
+ * text += line loop, and then with the channel, reusable direct buffer and
+ * byte parser pipeline used by QuoteHttpClient.
+ * 
+ * Usage: ResponseAllocationBenchmark [iterations]
+ */
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+public class ResponseAllocationBenchmark {
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	/**
+	 * This is used to keep the JIT from discarding the parsed results.
+	 */
+	private static double sink;
+
+	/**
+	 * Build a response in the layout Google uses, one field per line.
+	 */
+	static byte[] googleResponse(int symbols) {
+		StringBuilder text = new StringBuilder("\n// [\n");
+		for (int index = 0; index < symbols; index++) {
+			text.append(index == 0 ? "{\n" : ",{\n");
+			text.append("\"id\": \"").append(358464 + index).append("\"\n");
+			text.append(",\"t\" : \"SYM").append(index).append("\"\n");
+			text.append(",\"e\" : \"NASDAQ\"\n");
+			text.append(",\"l\" : \"").append(50 + index % 100).append(".25\"\n");
+			text.append(",\"l_fix\" : \"").append(50 + index % 100).append(".25\"\n");
+			text.append(",\"lt\" : \"Jun 8, 4:00PM EDT\"\n");
+			text.append(",\"c\" : \"+0.50\"\n");
+			text.append(",\"cp\" : \"0.69\"\n");
+			text.append(",\"pcls_fix\" : \"").append(49 + index % 100).append(".75\"\n");
+			text.append("}\n");
+		}
+		return text.append("]\n").toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static void readWithStrings(byte[] response) throws IOException {
+		BufferedReader bufferedReader = new BufferedReader(
+				new InputStreamReader(new ByteArrayInputStream(response)));
+		String text = "";
+		String line = bufferedReader.readLine();
+
+		while (line != null) {
+			text += line + "\n";
+			line = bufferedReader.readLine();
+		}
+		bufferedReader.close();
+
+		int start = text.indexOf('{');
+		while (start >= 0) {
+			int end = text.indexOf('}', start);
+			sink += new GoogleJSONStockQuote("//" + text.substring(start, end + 1)).getLastTrade();
+			start = text.indexOf('{', end);
+		}
+	}
+
+	private static void readWithChannel(byte[] response, GoogleJSONQuoteParser parser) throws IOException {
+		try (ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(response))) {
+			for (StockQuoteInterface quote : parser.parse(QuoteResponseReader.read(channel))) {
+				sink += quote.getLastTrade();
+			}
+		}
+	}
+
+	private static void measure(int symbols, int iterations) throws IOException {
+		byte[] response = googleResponse(symbols);
+		GoogleJSONQuoteParser parser = new GoogleJSONQuoteParser();
+		long threadId = Thread.currentThread().getId();
+
+		// Warm up both paths so the JIT has settled before measuring.
+		for (int index = 0; index < iterations; index++) {
+			readWithStrings(response);
+			readWithChannel(response, parser);
+		}
+
+		long before = THREADS.getThreadAllocatedBytes(threadId);
+		long start = System.nanoTime();
+		for (int index = 0; index < iterations; index++) {
+			readWithStrings(response);
+		}
+		long stringTime = System.nanoTime() - start;
+		long stringBytes = THREADS.getThreadAllocatedBytes(threadId) - before;
+
+		before = THREADS.getThreadAllocatedBytes(threadId);
+		start = System.nanoTime();
+		for (int index = 0; index < iterations; index++) {
+			readWithChannel(response, parser);
+		}
+		long channelTime = System.nanoTime() - start;
+		long channelBytes = THREADS.getThreadAllocatedBytes(threadId) - before;
+
+		System.out.printf("%5d symbols (%7d byte response)%n", symbols, response.length);
+		System.out.printf("   readLine / text += : %12d bytes allocated per fetch, %9.1f us per fetch%n",
+				stringBytes / iterations, stringTime / 1000.0 / iterations);
+		System.out.printf("   channel / ByteBuffer: %12d bytes allocated per fetch, %9.1f us per fetch%n",
+				channelBytes / iterations, channelTime / 1000.0 / iterations);
+	}
+
+	public static void main(String[] args) throws IOException {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		measure(1, iterations * 10);
+		measure(100, iterations);
+		measure(1000, Math.max(1, iterations / 10));
+		System.out.println(sink > 0 ? "" : " ");
+	}
+}
@@ -0,0 +1,180 @@
+/**
+ * This simulation compares the cycle time of MarketAnalyzer's batch fetch
+ * when every symbol is always sent to one provider, failing over to the other
+ * only on error, with LatencyAwareQuoteRouter. It runs in virtual time: the
+ * simulated providers advance a shared clock by their latency rather than
+ * sleeping, so thousands of cycles take well under a second.
+ * 
+ * Provider A is quick for NYSE symbols and slow for NASDAQ ones, and provider
+ * B the reverse. Both have an occasional slow tail, and for a stretch of the
+ * run provider A's NYSE service degrades and starts failing.
+ * 
+ * Usage: RoutingSimulation [cycles] [seed]
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import exceptions.WebsiteConnectionError;
+
+public class RoutingSimulation {
+	private static final int SYMBOLS_PER_EXCHANGE = 25;
+
+	/**
+	 * This is the time a failed request costs, in milliseconds.
+	 */
+	private static final double TIMEOUT = 500;
+
+	/**
+	 * This provider answers batches after a latency drawn from its profile
+	 * for the exchanges in the batch.
+	 */
+	private static class SimulatedProvider implements StockQuoteGeneratorInterface {
+		private final String name;
+		private final double nyseMedian;
+		private final double nasdaqMedian;
+		private final AtomicLong clock;
+		private final Random random;
+		private int cycle;
+		private int degradedFrom;
+		private int degradedTo;
+		private String symbol;
+
+		SimulatedProvider(String name, double nyseMedian, double nasdaqMedian, AtomicLong clock, Random random) {
+			this.name = name;
+			this.nyseMedian = nyseMedian;
+			this.nasdaqMedian = nasdaqMedian;
+			this.clock = clock;
+			this.random = random;
+		}
+
+		private boolean degraded() {
+			return cycle >= degradedFrom && cycle < degradedTo;
+		}
+
+		/**
+		 * @return A latency in milliseconds: log-normal around the median,
+		 *         with a 3% chance of an eight times slower tail.
+		 */
+		private double sample(double median) {
+			double latency = median * Math.exp(0.3 * random.nextGaussian());
+			return random.nextDouble() < 0.03 ? latency * 8 : latency;
+		}
+
+		public Map<String, StockQuoteInterface> getCurrentQuotes(Collection<String> symbols) throws Exception {
+			boolean nyse = false;
+			boolean nasdaq = false;
+			for (String symbol : symbols) {
+				if ("NYSE".equals(StockTickerListing.getSingleton().getExchange(symbol))) {
+					nyse = true;
+				} else {
+					nasdaq = true;
+				}
+			}
+			// A mixed batch is as slow as its slowest part.
+			double latency = 0;
+			if (nyse) {
+				latency = sample(degraded() ? nyseMedian * 6 : nyseMedian);
+				if (degraded() && random.nextDouble() < 0.2) {
+					clock.addAndGet((long) (TIMEOUT * 1e6));
+					throw new WebsiteConnectionError(name + " timed out");
+				}
+			}
+			if (nasdaq) {
+				latency = Math.max(latency, sample(nasdaqMedian));
+			}
+			clock.addAndGet((long) (latency * 1e6));
+			Map<String, StockQuoteInterface> retVal = new LinkedHashMap<String, StockQuoteInterface>();
+			for (String symbol : symbols) {
+				retVal.put(symbol, new StockQuote(symbol, 10.0, 10.0, 0.0));
+			}
+			return retVal;
+		}
+
+		public StockQuoteInterface getCurrentQuote() throws Exception {
+			return getCurrentQuotes(Arrays.asList(symbol)).get(symbol);
+		}
+
+		public String getSymbol() {
+			return symbol;
+		}
+
+		public void setSymbol(String symbol) {
+			this.symbol = symbol;
+		}
+
+		public StockQuoteGeneratorInterface createNewInstance(String symbol) {
+			return this;
+		}
+	}
+
+	private static List<String> symbols() {
+		List<String> nyse = new ArrayList<String>();
+		List<String> nasdaq = new ArrayList<String>();
+		for (String symbol : new TreeSet<String>(StockTickerListing.getSingleton().keySet())) {
+			List<String> list = "NYSE".equals(StockTickerListing.getSingleton().getExchange(symbol)) ? nyse : nasdaq;
+			if (list.size() < SYMBOLS_PER_EXCHANGE) {
+				list.add(symbol);
+			}
+		}
+		nyse.addAll(nasdaq);
+		return nyse;
+	}
+
+	private static double[] run(String label, int cycles, long seed, boolean routed) throws Exception {
+		AtomicLong clock = new AtomicLong();
+		Random random = new Random(seed);
+		SimulatedProvider a = new SimulatedProvider("A", 40, 120, clock, random);
+		SimulatedProvider b = new SimulatedProvider("B", 90, 50, clock, random);
+		a.degradedFrom = cycles * 2 / 5;
+		a.degradedTo = cycles * 3 / 5;
+		List<StockQuoteGeneratorInterface> providers = Arrays.<StockQuoteGeneratorInterface>asList(a, b);
+
+		StockQuoteGeneratorInterface source;
+		if (routed) {
+			source = new LatencyAwareQuoteRouter(providers,
+					symbol -> StockTickerListing.getSingleton().getExchange(symbol), clock::get);
+		} else {
+			// The breaker never opens, so every request tries A first.
+			source = new FailoverQuoteGenerator(providers, Integer.MAX_VALUE, 0);
+		}
+
+		List<String> symbols = symbols();
+		double[] cycleTimes = new double[cycles];
+		for (int cycle = 0; cycle < cycles; cycle++) {
+			a.cycle = cycle;
+			b.cycle = cycle;
+			long start = clock.get();
+			if (source.getCurrentQuotes(symbols).size() != symbols.size()) {
+				throw new IllegalStateException("Quotes were lost in cycle " + cycle);
+			}
+			cycleTimes[cycle] = (clock.get() - start) / 1e6;
+		}
+		Arrays.sort(cycleTimes);
+		System.out.printf("%-22s p50 %7.1f ms   p95 %7.1f ms   p99 %7.1f ms   max %7.1f ms%n", label,
+				percentile(cycleTimes, 50), percentile(cycleTimes, 95), percentile(cycleTimes, 99),
+				cycleTimes[cycles - 1]);
+		return cycleTimes;
+	}
+
+	private static double percentile(double[] sorted, double percentile) {
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, index)];
+	}
+
+	public static void main(String[] args) throws Exception {
+		int cycles = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+		System.out.printf("%d cycles of %d symbols, provider A degraded for cycles %d to %d%n", cycles,
+				2 * SYMBOLS_PER_EXCHANGE, cycles * 2 / 5, cycles * 3 / 5);
+		run("fixed (A, then B)", cycles, seed, false);
+		run("latency-aware routing", cycles, seed, true);
+	}
+}
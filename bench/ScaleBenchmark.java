@@ -0,0 +1,83 @@
+/**
+ * This benchmark measures how MarketAnalyzer and the quote source scale from
+ * ten thousand to a hundred thousand symbols, with quotes made up in memory by
+ * RandomWalkQuoteGenerator so that no network is involved.
+ * 
+ * For each size it reports the time and the bytes allocated per batch fetch
+ * of that many distinct symbols, and per MarketAnalyzer.updateData() cycle
+ * over that many analyzers. StockQuoteAnalyzer only accepts listed symbols,
+ * so beyond the 6,320 in the listing the analyzers watch them again in turn;
+ * the table is printed to a null stream.
+ * 
+ * Usage: ScaleBenchmark [cycles]
+ */
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+public class ScaleBenchmark {
+	private static final int[] SIZES = { 10000, 50000, 100000 };
+
+	private static class SilentAudio implements StockTickerAudioInterface {
+		public void playHappyMusic() {
+		}
+
+		public void playSadMusic() {
+		}
+
+		public void playErrorMusic() {
+		}
+	}
+
+	/**
+	 * @return The bytes allocated by this thread so far.
+	 */
+	private static long allocated() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+	}
+
+	public static void main(String[] args) throws Exception {
+		int cycles = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+
+		for (int size : SIZES) {
+			RandomWalkQuoteGenerator generator = new RandomWalkQuoteGenerator(size, 1, 0,
+					RandomWalkQuoteGenerator.DEFAULT_VOLATILITY);
+			List<String> symbols = generator.getSymbols();
+
+			for (int cycle = 0; cycle < cycles; cycle++) {
+				generator.getCurrentQuotes(symbols);
+			}
+			long bytes = allocated();
+			long start = System.nanoTime();
+			for (int cycle = 0; cycle < cycles; cycle++) {
+				generator.getCurrentQuotes(symbols);
+			}
+			double fetchTime = (System.nanoTime() - start) / 1e6 / cycles;
+			double fetchBytes = (allocated() - bytes) / (double) cycles / size;
+
+			String[] watched = new String[size];
+			List<String> listed = symbols.subList(0, StockTickerListing.getSingleton().size());
+			for (int index = 0; index < size; index++) {
+				watched[index] = listed.get(index % listed.size());
+			}
+			MarketAnalyzer analyzer = new MarketAnalyzer(watched, generator, new SilentAudio());
+			analyzer.setOut(discard);
+			for (int cycle = 0; cycle < cycles; cycle++) {
+				analyzer.updateData();
+			}
+			bytes = allocated();
+			start = System.nanoTime();
+			for (int cycle = 0; cycle < cycles; cycle++) {
+				analyzer.updateData();
+			}
+			double cycleTime = (System.nanoTime() - start) / 1e6 / cycles;
+			double cycleBytes = (allocated() - bytes) / (double) cycles / size;
+
+			System.out.printf("%6d symbols: fetch %7.2f ms (%5.0f B/symbol)   updateData %8.2f ms (%6.0f B/symbol)%n",
+					size, fetchTime, fetchBytes, cycleTime, cycleBytes);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * This simulation runs a whole trading day of MarketAnalyzer, from the open
+ * at 09:30 to the close at 16:00 Eastern, with one cycle a minute, on a
+ * VirtualMarketClock. The quotes are made up in memory by
+ * RandomWalkQuoteGenerator and delayed by FaultInjectingQuoteGenerator's
+ * latencies on the same clock, with a slow spell over lunch, so nothing ever
+ * waits in real time.
+ *
+ * A task scheduled on the clock every hour prints the simulated time and the
+ * fetch times so far; at the end the real time the day took is printed. The
+ * table itself is printed to a null stream.
+ *
+ * Usage: TradingDaySimulation [symbols] [refresh seconds]
+ */
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class TradingDaySimulation {
+	private static final ZoneId EASTERN = ZoneId.of("America/New_York");
+
+	private static class SilentAudio implements StockTickerAudioInterface {
+		public void playHappyMusic() {
+		}
+
+		public void playSadMusic() {
+		}
+
+		public void playErrorMusic() {
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		int refreshRate = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+
+		long open = LocalDateTime.of(2017, 6, 8, 9, 30).atZone(EASTERN).toInstant().toEpochMilli();
+		VirtualMarketClock clock = new VirtualMarketClock(open);
+
+		RandomWalkQuoteGenerator market = new RandomWalkQuoteGenerator(1);
+		FaultInjectingQuoteGenerator source = new FaultInjectingQuoteGenerator(market, 1);
+		source.setClock(clock);
+		source.setLatency(FaultInjectingQuoteGenerator.logNormalLatency(80, 0.3));
+		source.setTimeout(2000, 0.002);
+
+		// Things slow down over lunch.
+		clock.schedule(() -> source.setLatency(FaultInjectingQuoteGenerator.paretoLatency(150, 1.5)), 150,
+				TimeUnit.MINUTES);
+		clock.schedule(() -> source.setLatency(FaultInjectingQuoteGenerator.logNormalLatency(80, 0.3)), 210,
+				TimeUnit.MINUTES);
+
+		List<String> symbols = market.getSymbols().subList(0, size);
+		MarketAnalyzer analyzer = new MarketAnalyzer(symbols.toArray(new String[0]), source, new SilentAudio());
+		analyzer.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		analyzer.setClock(clock);
+		analyzer.setRefreshRate(refreshRate);
+		analyzer.setRunCount((int) (TimeUnit.MINUTES.toSeconds(390) / refreshRate));
+
+		Runnable[] report = new Runnable[1];
+		report[0] = () -> {
+			ProviderStatistics fetches = analyzer.getFetchTimes();
+			System.out.println(String.format("%s  %5d cycles  fetch p50 %6.1f ms  p99 %7.1f ms  failed %d",
+					LocalDateTime.ofInstant(Instant.ofEpochMilli(clock.currentTimeMillis()), EASTERN).toLocalTime(),
+					fetches.getSuccessCount() + fetches.getFailureCount(), fetches.getLatencyPercentile(50),
+					fetches.getLatencyPercentile(99), fetches.getFailureCount()));
+			clock.schedule(report[0], 1, TimeUnit.HOURS);
+		};
+		clock.schedule(report[0], 1, TimeUnit.HOURS);
+
+		long start = System.nanoTime();
+		analyzer.run();
+		System.out.println(String.format("Simulated %.1f hours of %d symbols in %.2f s", clock.nanoTime() / 3.6e12,
+				size, (System.nanoTime() - start) / 1e9));
+	}
+}
@@ -0,0 +1,195 @@
+/**
+ * This benchmark measures how long MarketAnalyzer's first updateData() cycle
+ * takes in a freshly started JVM, with and without MarketAnalyzer.warmUp()
+ * beforehand, against a local stand-in for the Google provider. Each trial
+ * runs in its own JVM so that nothing is loaded, resolved, connected or
+ * compiled before it starts; the stand-in server runs in this one.
+ * 
+ * Usage: WarmupBenchmark [trials]
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class WarmupBenchmark {
+	private static final String[] SYMBOLS = { "IBM", "GE", "F", "T", "KO", "PG", "JNJ", "XOM", "CVX", "WMT", "AAPL",
+			"MSFT", "INTC", "CSCO", "ORCL", "QCOM", "AMZN", "NFLX", "SBUX", "COST" };
+
+	/**
+	 * This generator downloads Google's format from the stand-in server the
+	 * same way GoogleStockQuoteJSONDownloader does from Google.
+	 */
+	private static class LocalGoogleGenerator implements StockQuoteGeneratorInterface {
+		private static final GoogleJSONQuoteParser PARSER = new GoogleJSONQuoteParser();
+		private final String baseURL;
+		private String symbol;
+
+		LocalGoogleGenerator(String baseURL, String symbol) {
+			this.baseURL = baseURL;
+			this.symbol = symbol;
+		}
+
+		public Map<String, StockQuoteInterface> getCurrentQuotes(Collection<String> symbols) throws Exception {
+			Map<String, StockQuoteInterface> retVal = new LinkedHashMap<String, StockQuoteInterface>();
+			for (StockQuoteInterface quote : QuoteHttpClient.getSingleton()
+					.get(baseURL + "?q=NSE:" + String.join(",NSE:", symbols), PARSER)) {
+				retVal.put(quote.getSymbol(), quote);
+			}
+			return retVal;
+		}
+
+		public StockQuoteInterface getCurrentQuote() throws Exception {
+			return getCurrentQuotes(Arrays.asList(symbol)).get(symbol);
+		}
+
+		public void warmUp() throws Exception {
+			QuoteWarmup.exercise(PARSER, QuoteWarmup.googlePayload(QuoteWarmup.SYMBOLS), QuoteWarmup.ITERATIONS);
+			QuoteHttpClient.getSingleton().warmUp(baseURL, QuoteWarmup.CONNECTIONS);
+		}
+
+		public String getSymbol() {
+			return symbol;
+		}
+
+		public void setSymbol(String symbol) {
+			this.symbol = symbol;
+		}
+
+		public StockQuoteGeneratorInterface createNewInstance(String symbol) {
+			return new LocalGoogleGenerator(baseURL, symbol);
+		}
+	}
+
+	private static class SilentAudio implements StockTickerAudioInterface {
+		public void playHappyMusic() {
+		}
+
+		public void playSadMusic() {
+		}
+
+		public void playErrorMusic() {
+		}
+	}
+
+	/**
+	 * Run one trial and print the warm-up, first cycle and steady cycle times.
+	 */
+	private static void child(String baseURL, boolean warm) {
+		long start = System.nanoTime();
+		MarketAnalyzer analyzer = new MarketAnalyzer(SYMBOLS, new LocalGoogleGenerator(baseURL, null),
+				new SilentAudio());
+		analyzer.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		double warmUp = warm ? analyzer.warmUp() : 0.0;
+
+		long cycle = System.nanoTime();
+		analyzer.updateData();
+		double first = (System.nanoTime() - cycle) / 1e6;
+		double steady = Double.MAX_VALUE;
+		for (int index = 0; index < 20; index++) {
+			cycle = System.nanoTime();
+			analyzer.updateData();
+			steady = Math.min(steady, (System.nanoTime() - cycle) / 1e6);
+		}
+		System.out.printf("%f %f %f %f%n", warmUp, first, steady, (System.nanoTime() - start) / 1e6);
+	}
+
+	private static double[] trial(String baseURL, boolean warm) throws IOException, InterruptedException {
+		Process process = new ProcessBuilder(System.getProperty("java.home") + "/bin/java", "-cp",
+				System.getProperty("java.class.path"), "WarmupBenchmark", "child", baseURL, Boolean.toString(warm))
+						.redirectErrorStream(true).start();
+		String line;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+			line = reader.readLine();
+		}
+		process.waitFor();
+		String[] fields = line.trim().split(" ");
+		double[] retVal = new double[fields.length];
+		for (int index = 0; index < fields.length; index++) {
+			retVal[index] = Double.parseDouble(fields[index]);
+		}
+		return retVal;
+	}
+
+	private static double median(List<Double> values) {
+		Double[] sorted = values.toArray(new Double[0]);
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+
+	private static void report(String label, List<double[]> results) {
+		List<Double> warmUp = new ArrayList<Double>();
+		List<Double> first = new ArrayList<Double>();
+		List<Double> steady = new ArrayList<Double>();
+		for (double[] result : results) {
+			warmUp.add(result[0]);
+			first.add(result[1]);
+			steady.add(result[2]);
+		}
+		System.out.printf("%-10s warm-up %7.1f ms   first cycle %7.1f ms   steady cycle %6.2f ms%n", label,
+				median(warmUp), median(first), median(steady));
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 3 && args[0].equals("child")) {
+			child(args[1], Boolean.parseBoolean(args[2]));
+			return;
+		}
+		int trials = args.length > 0 ? Integer.parseInt(args[0]) : 7;
+
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+		ExecutorService executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.createContext("/finance/info", exchange -> {
+			StringBuilder text = new StringBuilder("// [");
+			String query = exchange.getRequestURI().getQuery();
+			if (query == null) {
+				exchange.sendResponseHeaders(400, -1);
+				exchange.close();
+				return;
+			}
+			String[] symbols = query.substring(query.indexOf('=') + 1).split(",");
+			for (int index = 0; index < symbols.length; index++) {
+				String symbol = symbols[index].substring(symbols[index].indexOf(':') + 1);
+				text.append(index == 0 ? " " : ",").append("{ \"t\" : \"").append(symbol)
+						.append("\" ,\"l\" : \"100.50\" ,\"c\" : \"+0.50\" ,\"pcls_fix\" : \"100.00\" }");
+			}
+			byte[] body = text.append("]").toString().getBytes("US-ASCII");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(body);
+			}
+		});
+		server.start();
+		String baseURL = "http://localhost:" + server.getAddress().getPort() + "/finance/info";
+
+		try {
+			List<double[]> cold = new ArrayList<double[]>();
+			List<double[]> warm = new ArrayList<double[]>();
+			for (int index = 0; index < trials; index++) {
+				cold.add(trial(baseURL, false));
+				warm.add(trial(baseURL, true));
+			}
+			System.out.printf("Medians of %d fresh JVMs, %d symbols per cycle%n", trials, SYMBOLS.length);
+			report("cold", cold);
+			report("warmed", warm);
+		} finally {
+			server.stop(0);
+			executor.shutdownNow();
+		}
+	}
+}
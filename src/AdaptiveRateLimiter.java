@@ -0,0 +1,189 @@
+/**
+ * This class paces the requests made to one quote provider. Requests are
+ * admitted by a token bucket which refills at the current rate, and the rate
+ * itself adapts by additive increase, multiplicative decrease (AIMD): every
+ * successful request raises it a little, and every sign of throttling (HTTP
+ * 429 or 503, or a timeout) cuts it by a constant factor. The rate therefore
+ * settles just below the highest rate the provider accepts without failures.
+ *
+ * A burst of throttled responses to requests that were already in flight only
+ * cuts the rate once per backoff interval.
+ *
+ */
+
+import java.util.function.LongSupplier;
+
+public class AdaptiveRateLimiter {
+	/**
+	 * This is the default amount by which the rate grows for each second's
+	 * worth of successful requests, in requests per second.
+	 */
+	public static final double DEFAULT_ADDITIVE_INCREASE = 1.0;
+
+	/**
+	 * This is the default factor applied to the rate when throttled.
+	 */
+	public static final double DEFAULT_MULTIPLICATIVE_DECREASE = 0.7;
+
+	/**
+	 * This is the default time after one cut before the rate may be cut again,
+	 * in milliseconds.
+	 */
+	public static final long DEFAULT_BACKOFF_INTERVAL = 1000;
+
+	/**
+	 * This is how many seconds' worth of requests may be saved up in the bucket
+	 * for a burst.
+	 */
+	private static final double BURST_SECONDS = 0.1;
+
+	private final double minimumRate;
+	private final double maximumRate;
+	private final double additiveIncrease;
+	private final double multiplicativeDecrease;
+	private final long backoffInterval;
+	private final LongSupplier clock;
+
+	private double rate;
+	private double tokens;
+	private long lastRefill;
+	private long lastBackoff;
+	private long successCount;
+	private long throttleCount;
+
+	/**
+	 * @param initialRate
+	 *            This is the rate at which requests are first admitted, in
+	 *            requests per second.
+	 * @param minimumRate
+	 *            This is the lowest the rate will ever be cut to.
+	 * @param maximumRate
+	 *            This is the highest the rate will ever grow to.
+	 */
+	public AdaptiveRateLimiter(double initialRate, double minimumRate, double maximumRate) {
+		this(initialRate, minimumRate, maximumRate, DEFAULT_ADDITIVE_INCREASE, DEFAULT_MULTIPLICATIVE_DECREASE,
+				DEFAULT_BACKOFF_INTERVAL, System::nanoTime);
+	}
+
+	/**
+	 * @param initialRate
+	 *            This is the rate at which requests are first admitted, in
+	 *            requests per second.
+	 * @param minimumRate
+	 *            This is the lowest the rate will ever be cut to.
+	 * @param maximumRate
+	 *            This is the highest the rate will ever grow to.
+	 * @param additiveIncrease
+	 *            This is how much the rate grows for each second's worth of
+	 *            successful requests.
+	 * @param multiplicativeDecrease
+	 *            This is the factor, between 0 and 1, applied to the rate when
+	 *            throttled.
+	 * @param backoffInterval
+	 *            This is the time after one cut before the rate may be cut
+	 *            again, in milliseconds.
+	 * @param clock
+	 *            This is the source of the current time, in nanoseconds.
+	 */
+	public AdaptiveRateLimiter(double initialRate, double minimumRate, double maximumRate, double additiveIncrease,
+			double multiplicativeDecrease, long backoffInterval, LongSupplier clock) {
+		super();
+		if (minimumRate <= 0 || minimumRate > maximumRate) {
+			throw new IllegalArgumentException("The rate limits must satisfy 0 < minimum <= maximum.");
+		}
+		if (multiplicativeDecrease <= 0 || multiplicativeDecrease >= 1) {
+			throw new IllegalArgumentException("The multiplicative decrease must be between 0 and 1.");
+		}
+		this.minimumRate = minimumRate;
+		this.maximumRate = maximumRate;
+		this.additiveIncrease = additiveIncrease;
+		this.multiplicativeDecrease = multiplicativeDecrease;
+		this.backoffInterval = backoffInterval * 1000000L;
+		this.clock = clock;
+		this.rate = Math.max(minimumRate, Math.min(maximumRate, initialRate));
+		this.tokens = 1.0;
+		this.lastRefill = clock.getAsLong();
+		this.lastBackoff = this.lastRefill - this.backoffInterval;
+	}
+
+	/**
+	 * Reserve permission for one request. The caller must wait for the
+	 * returned time before sending it.
+	 *
+	 * @return The time to wait before sending the request, in nanoseconds.
+	 */
+	public synchronized long reserve() {
+		refill();
+		tokens -= 1.0;
+		if (tokens >= 0) {
+			return 0;
+		}
+		return (long) (-tokens / rate * 1e9);
+	}
+
+	/**
+	 * Reserve permission for one request and wait until it may be sent.
+	 *
+	 * @throws InterruptedException
+	 *             Will be thrown if the thread is interrupted while waiting.
+	 */
+	public void acquire() throws InterruptedException {
+		long wait = reserve();
+		if (wait > 0) {
+			Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+		}
+	}
+
+	/**
+	 * Record that a request succeeded, raising the rate a little.
+	 */
+	public synchronized void onSuccess() {
+		successCount++;
+		rate = Math.min(maximumRate, rate + additiveIncrease / rate);
+	}
+
+	/**
+	 * Record that the provider throttled a request, cutting the rate unless it
+	 * was cut within the last backoff interval.
+	 */
+	public synchronized void onThrottle() {
+		throttleCount++;
+		long now = clock.getAsLong();
+		if (now - lastBackoff >= backoffInterval) {
+			refill();
+			rate = Math.max(minimumRate, rate * multiplicativeDecrease);
+			// Do not let requests saved up before the cut go out as a burst.
+			tokens = Math.min(tokens, 0.0);
+			lastBackoff = now;
+		}
+	}
+
+	private void refill() {
+		long now = clock.getAsLong();
+		double burst = Math.max(1.0, rate * BURST_SECONDS);
+		tokens = Math.min(burst, tokens + (now - lastRefill) / 1e9 * rate);
+		lastRefill = now;
+	}
+
+	/**
+	 * @return The rate at which requests are currently admitted, in requests
+	 *         per second.
+	 */
+	public synchronized double getRate() {
+		return rate;
+	}
+
+	/**
+	 * @return The number of successful requests recorded.
+	 */
+	public synchronized long getSuccessCount() {
+		return successCount;
+	}
+
+	/**
+	 * @return The number of throttled requests recorded.
+	 */
+	public synchronized long getThrottleCount() {
+		return throttleCount;
+	}
+}
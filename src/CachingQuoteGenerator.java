@@ -0,0 +1,163 @@
+/**
+ * This class wraps another stock quote generator and serves quotes from a
+ * QuoteCache while they are younger than the cache's time to live. Only a
+ * miss is fetched from the underlying generator.
+ *
+ * All of the instances created through createNewInstance share the cache of
+ * the instance they were created from.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+public class CachingQuoteGenerator implements StockQuoteGeneratorInterface {
+	/**
+	 * This is the generator which obtains the quotes on a miss.
+	 */
+	private final StockQuoteGeneratorInterface delegate;
+
+	/**
+	 * This is the cache, shared by every instance created from the same
+	 * original generator.
+	 */
+	private final QuoteCache cache;
+
+	/**
+	 * @param delegate
+	 *            This is the generator which is to obtain the quotes.
+	 * @param timeToLive
+	 *            This is how long a quote may be served from the cache, in
+	 *            milliseconds.
+	 * @param maximumSize
+	 *            This is the largest number of symbols that will be cached.
+	 */
+	public CachingQuoteGenerator(StockQuoteGeneratorInterface delegate, long timeToLive, int maximumSize) {
+		this(delegate, new QuoteCache(timeToLive, maximumSize));
+	}
+
+	/**
+	 * @param delegate
+	 *            This is the generator which is to obtain the quotes.
+	 * @param cache
+	 *            This is the cache from which quotes are to be served.
+	 */
+	public CachingQuoteGenerator(StockQuoteGeneratorInterface delegate, QuoteCache cache) {
+		super();
+		if (delegate == null) {
+			throw new NullPointerException("The source for stock quotes can not be null");
+		}
+		this.delegate = delegate;
+		this.cache = cache;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuote()
+	 */
+	public StockQuoteInterface getCurrentQuote() throws Exception {
+		String symbol = delegate.getSymbol();
+		StockQuoteInterface quote = cache.get(symbol);
+		if (quote == null) {
+			quote = delegate.getCurrentQuote();
+			cache.put(symbol, quote);
+		}
+		return quote;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuoteAsync()
+	 */
+	public CompletableFuture<StockQuoteInterface> getCurrentQuoteAsync() {
+		String symbol = delegate.getSymbol();
+		StockQuoteInterface quote = cache.get(symbol);
+		if (quote != null) {
+			return CompletableFuture.completedFuture(quote);
+		}
+		return delegate.getCurrentQuoteAsync().thenApply(fetched -> {
+			cache.put(symbol, fetched);
+			return fetched;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuotes(java.util.Collection)
+	 */
+	public Map<String, StockQuoteInterface> getCurrentQuotes(Collection<String> symbols) throws Exception {
+		Map<String, StockQuoteInterface> retVal = new LinkedHashMap<String, StockQuoteInterface>();
+		List<String> missing = new ArrayList<String>();
+
+		for (String symbol : symbols) {
+			StockQuoteInterface quote = cache.get(symbol);
+			if (quote != null) {
+				retVal.put(symbol, quote);
+			} else {
+				missing.add(symbol);
+			}
+		}
+
+		if (missing.isEmpty() == false) {
+			try {
+				for (Map.Entry<String, StockQuoteInterface> fetched : delegate.getCurrentQuotes(missing).entrySet()) {
+					cache.put(fetched.getKey(), fetched.getValue());
+					retVal.put(fetched.getKey(), fetched.getValue());
+				}
+			} catch (Exception e) {
+				if (retVal.isEmpty()) {
+					throw e;
+				}
+			}
+		}
+		return retVal;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#warmUp()
+	 */
+	public void warmUp() throws Exception {
+		delegate.warmUp();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#createNewInstance(java.lang.String)
+	 */
+	public StockQuoteGeneratorInterface createNewInstance(String symbol) {
+		return new CachingQuoteGenerator(delegate.createNewInstance(symbol), cache);
+	}
+
+	/**
+	 * @return the symbol
+	 */
+	public String getSymbol() {
+		return delegate.getSymbol();
+	}
+
+	/**
+	 * @param symbol
+	 *            the symbol to set
+	 */
+	public void setSymbol(String symbol) {
+		delegate.setSymbol(symbol);
+	}
+
+	/**
+	 * @return The cache from which quotes are served, which also reports the
+	 *         hit and miss ratios.
+	 */
+	public QuoteCache getCache() {
+		return cache;
+	}
+}
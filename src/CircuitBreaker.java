@@ -0,0 +1,148 @@
+/**
+ * This class protects callers from a quote provider which is failing. While
+ * the breaker is closed, every request is allowed. After a number of
+ * consecutive failures it trips open, and requests are refused at once rather
+ * than waiting for the provider to time out. Once the open interval has
+ * passed, the breaker is half open: a single probe request is let through,
+ * and its outcome decides whether the breaker closes again or stays open for
+ * another interval.
+ *
+ */
+
+import java.util.function.LongSupplier;
+
+public class CircuitBreaker {
+	/**
+	 * These are the states a circuit breaker can be in.
+	 */
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	};
+
+	/**
+	 * This is the default number of consecutive failures which trip the
+	 * breaker.
+	 */
+	public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+
+	/**
+	 * This is the default time the breaker stays open before a probe, in
+	 * milliseconds.
+	 */
+	public static final long DEFAULT_OPEN_INTERVAL = 30000;
+
+	private final int failureThreshold;
+	private final long openInterval;
+	private final LongSupplier clock;
+
+	private State state = State.CLOSED;
+	private int consecutiveFailures;
+	private long openedAt;
+	private boolean probeInFlight;
+	private long tripCount;
+
+	/**
+	 * @param failureThreshold
+	 *            This is the number of consecutive failures which trip the
+	 *            breaker.
+	 * @param openInterval
+	 *            This is the time the breaker stays open before a probe, in
+	 *            milliseconds.
+	 */
+	public CircuitBreaker(int failureThreshold, long openInterval) {
+		this(failureThreshold, openInterval, System::nanoTime);
+	}
+
+	/**
+	 * @param failureThreshold
+	 *            This is the number of consecutive failures which trip the
+	 *            breaker.
+	 * @param openInterval
+	 *            This is the time the breaker stays open before a probe, in
+	 *            milliseconds.
+	 * @param clock
+	 *            This is the source of the current time, in nanoseconds.
+	 */
+	public CircuitBreaker(int failureThreshold, long openInterval, LongSupplier clock) {
+		super();
+		if (failureThreshold < 1) {
+			throw new IllegalArgumentException("The failure threshold must be at least 1.");
+		}
+		this.failureThreshold = failureThreshold;
+		this.openInterval = openInterval * 1000000L;
+		this.clock = clock;
+	}
+
+	/**
+	 * Ask whether a request may be sent to the provider. Every request which is
+	 * allowed must be followed by a call to onSuccess(), onFailure() or
+	 * onCancel().
+	 *
+	 * @return True if the request may be sent.
+	 */
+	public synchronized boolean allowRequest() {
+		switch (state) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			if (clock.getAsLong() - openedAt < openInterval) {
+				return false;
+			}
+			state = State.HALF_OPEN;
+			probeInFlight = true;
+			return true;
+		default:
+			if (probeInFlight) {
+				return false;
+			}
+			probeInFlight = true;
+			return true;
+		}
+	}
+
+	/**
+	 * Record that a request to the provider succeeded, closing the breaker.
+	 */
+	public synchronized void onSuccess() {
+		consecutiveFailures = 0;
+		probeInFlight = false;
+		state = State.CLOSED;
+	}
+
+	/**
+	 * Record that a request to the provider failed, tripping the breaker if
+	 * the threshold has been reached or the failed request was a probe.
+	 */
+	public synchronized void onFailure() {
+		consecutiveFailures++;
+		if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+			state = State.OPEN;
+			openedAt = clock.getAsLong();
+			probeInFlight = false;
+			tripCount++;
+		}
+	}
+
+	/**
+	 * Record that a request to the provider was abandoned before it finished,
+	 * which says nothing about the provider's health. If it was the probe,
+	 * the next request may probe instead.
+	 */
+	public synchronized void onCancel() {
+		probeInFlight = false;
+	}
+
+	/**
+	 * @return the current state of the breaker
+	 */
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @return The number of times the breaker has tripped open.
+	 */
+	public synchronized long getTripCount() {
+		return tripCount;
+	}
+}
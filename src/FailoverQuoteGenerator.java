@@ -0,0 +1,314 @@
+/**
+ * This class combines several stock quote generators, in order of preference,
+ * so that quotes keep arriving when a provider goes down. Each provider sits
+ * behind its own circuit breaker. While a provider's breaker is open, requests
+ * skip straight to the next provider rather than waiting for the failing one
+ * to time out. Once the open interval has passed, a single probe is sent to
+ * the provider, and if it succeeds the provider takes its place at the front
+ * of the queue again.
+ *
+ * All of the instances created through createNewInstance share their circuit
+ * breakers and statistics with the instance they were created from, so one
+ * analyzer discovering that a provider is down spares all of the others.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import exceptions.WebsiteConnectionError;
+
+public class FailoverQuoteGenerator implements StockQuoteGeneratorInterface {
+	/**
+	 * These are the generators which actually obtain the quotes, in order of
+	 * preference.
+	 */
+	private final List<StockQuoteGeneratorInterface> providers;
+
+	/**
+	 * These are the circuit breakers and statistics for each provider. They are
+	 * shared by every instance created from the same original generator.
+	 */
+	private final List<CircuitBreaker> breakers;
+	private final List<ProviderStatistics> statistics;
+
+	/**
+	 * @param providers
+	 *            These are the generators which are to obtain the quotes, in
+	 *            order of preference.
+	 */
+	public FailoverQuoteGenerator(StockQuoteGeneratorInterface... providers) {
+		this(Arrays.asList(providers), CircuitBreaker.DEFAULT_FAILURE_THRESHOLD, CircuitBreaker.DEFAULT_OPEN_INTERVAL);
+	}
+
+	/**
+	 * @param providers
+	 *            These are the generators which are to obtain the quotes, in
+	 *            order of preference.
+	 * @param failureThreshold
+	 *            This is the number of consecutive failures which take a
+	 *            provider out of service.
+	 * @param openInterval
+	 *            This is how long a provider stays out of service before it is
+	 *            probed again, in milliseconds.
+	 */
+	public FailoverQuoteGenerator(List<StockQuoteGeneratorInterface> providers, int failureThreshold,
+			long openInterval) {
+		this(providers, newBreakers(providers.size(), failureThreshold, openInterval), newStatistics(providers));
+	}
+
+	private FailoverQuoteGenerator(List<StockQuoteGeneratorInterface> providers, List<CircuitBreaker> breakers,
+			List<ProviderStatistics> statistics) {
+		super();
+		if (providers.isEmpty()) {
+			throw new IllegalArgumentException("At least one source for stock quotes is required");
+		}
+		for (StockQuoteGeneratorInterface provider : providers) {
+			if (provider == null) {
+				throw new NullPointerException("The source for stock quotes can not be null");
+			}
+		}
+		this.providers = new ArrayList<StockQuoteGeneratorInterface>(providers);
+		this.breakers = breakers;
+		this.statistics = statistics;
+	}
+
+	private static List<CircuitBreaker> newBreakers(int count, int failureThreshold, long openInterval) {
+		List<CircuitBreaker> retVal = new ArrayList<CircuitBreaker>();
+		for (int index = 0; index < count; index++) {
+			retVal.add(new CircuitBreaker(failureThreshold, openInterval));
+		}
+		return retVal;
+	}
+
+	private static List<ProviderStatistics> newStatistics(List<StockQuoteGeneratorInterface> providers) {
+		List<ProviderStatistics> retVal = new ArrayList<ProviderStatistics>();
+		for (StockQuoteGeneratorInterface provider : providers) {
+			retVal.add(new ProviderStatistics(provider.getClass().getSimpleName()));
+		}
+		return retVal;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuote()
+	 */
+	public StockQuoteInterface getCurrentQuote() throws Exception {
+		Exception failure = null;
+		for (int index = 0; index < providers.size(); index++) {
+			if (breakers.get(index).allowRequest() == false) {
+				continue;
+			}
+			long start = System.nanoTime();
+			try {
+				StockQuoteInterface quote = providers.get(index).getCurrentQuote();
+				succeeded(index, start);
+				return quote;
+			} catch (Exception e) {
+				failed(index);
+				failure = e;
+			}
+		}
+		throw failure != null ? failure : unavailable();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuoteAsync()
+	 */
+	public CompletableFuture<StockQuoteInterface> getCurrentQuoteAsync() {
+		CompletableFuture<StockQuoteInterface> retVal = new CompletableFuture<StockQuoteInterface>();
+		AtomicReference<CompletableFuture<StockQuoteInterface>> attempt = new AtomicReference<CompletableFuture<StockQuoteInterface>>();
+		// Cancelling the quote cancels whichever provider's request is in
+		// flight.
+		retVal.whenComplete((quote, error) -> {
+			CompletableFuture<StockQuoteInterface> current = attempt.get();
+			if (error instanceof CancellationException && current != null) {
+				current.cancel(true);
+			}
+		});
+		tryAsync(0, null, retVal, attempt);
+		return retVal;
+	}
+
+	/**
+	 * Send the request to the first provider, from the given one onwards,
+	 * whose breaker allows it, moving on to the next if it fails.
+	 *
+	 * @param first
+	 *            This is the index of the first provider to consider.
+	 * @param failure
+	 *            This is the failure of the previous provider, if any.
+	 * @param result
+	 *            This is the future which is to receive the quote.
+	 * @param current
+	 *            This receives the request in flight, so that it can be
+	 *            cancelled along with the result.
+	 */
+	private void tryAsync(int first, Throwable failure, CompletableFuture<StockQuoteInterface> result,
+			AtomicReference<CompletableFuture<StockQuoteInterface>> current) {
+		if (result.isDone()) {
+			return;
+		}
+		int index = first;
+		while (index < providers.size() && breakers.get(index).allowRequest() == false) {
+			index++;
+		}
+		if (index == providers.size()) {
+			result.completeExceptionally(failure != null ? failure : unavailable());
+			return;
+		}
+
+		int provider = index;
+		long start = System.nanoTime();
+		CompletableFuture<StockQuoteInterface> attempt;
+		try {
+			attempt = providers.get(provider).getCurrentQuoteAsync();
+		} catch (RuntimeException e) {
+			attempt = CompletableFuture.failedFuture(e);
+		}
+		current.set(attempt);
+		if (result.isCancelled()) {
+			attempt.cancel(true);
+		}
+		attempt.whenComplete((quote, error) -> {
+			Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+			if (error == null) {
+				succeeded(provider, start);
+				result.complete(quote);
+			} else if (cause instanceof CancellationException || result.isCancelled()) {
+				// The request was abandoned, not failed, so the provider is
+				// not held to blame.
+				breakers.get(provider).onCancel();
+				result.completeExceptionally(cause);
+			} else {
+				failed(provider);
+				tryAsync(provider + 1, cause, result, current);
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuotes(java.util.Collection)
+	 */
+	public Map<String, StockQuoteInterface> getCurrentQuotes(Collection<String> symbols) throws Exception {
+		Map<String, StockQuoteInterface> retVal = new LinkedHashMap<String, StockQuoteInterface>();
+		List<String> remaining = new ArrayList<String>(new LinkedHashSet<String>(symbols));
+		Exception failure = null;
+
+		// Any symbols one provider could not supply are asked of the next.
+		for (int index = 0; index < providers.size() && remaining.isEmpty() == false; index++) {
+			if (breakers.get(index).allowRequest() == false) {
+				continue;
+			}
+			long start = System.nanoTime();
+			try {
+				Map<String, StockQuoteInterface> quotes = providers.get(index).getCurrentQuotes(remaining);
+				succeeded(index, start);
+				retVal.putAll(quotes);
+				remaining.removeAll(quotes.keySet());
+			} catch (Exception e) {
+				failed(index);
+				failure = e;
+			}
+		}
+		if (retVal.isEmpty() && remaining.isEmpty() == false) {
+			throw failure != null ? failure : unavailable();
+		}
+		return retVal;
+	}
+
+	private void succeeded(int index, long start) {
+		breakers.get(index).onSuccess();
+		statistics.get(index).recordSuccess(System.nanoTime() - start);
+	}
+
+	private void failed(int index) {
+		breakers.get(index).onFailure();
+		statistics.get(index).recordFailure();
+	}
+
+	private WebsiteConnectionError unavailable() {
+		return new WebsiteConnectionError("Every source of quotes for " + getSymbol() + " is out of service");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#warmUp()
+	 */
+	public void warmUp() throws Exception {
+		Exception failure = null;
+		for (StockQuoteGeneratorInterface provider : providers) {
+			try {
+				provider.warmUp();
+			} catch (Exception e) {
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#createNewInstance(java.lang.String)
+	 */
+	public StockQuoteGeneratorInterface createNewInstance(String symbol) {
+		List<StockQuoteGeneratorInterface> instances = new ArrayList<StockQuoteGeneratorInterface>();
+		for (StockQuoteGeneratorInterface provider : providers) {
+			instances.add(provider.createNewInstance(symbol));
+		}
+		return new FailoverQuoteGenerator(instances, breakers, statistics);
+	}
+
+	/**
+	 * @return the symbol
+	 */
+	public String getSymbol() {
+		return providers.get(0).getSymbol();
+	}
+
+	/**
+	 * @param symbol
+	 *            the symbol to set
+	 */
+	public void setSymbol(String symbol) {
+		for (StockQuoteGeneratorInterface provider : providers) {
+			provider.setSymbol(symbol);
+		}
+	}
+
+	/**
+	 * @param index
+	 *            This is the position of the provider, in order of preference.
+	 * @return The circuit breaker guarding the provider.
+	 */
+	public CircuitBreaker getCircuitBreaker(int index) {
+		return breakers.get(index);
+	}
+
+	/**
+	 * @return The success, failure and latency figures of every provider, in
+	 *         order of preference.
+	 */
+	public List<ProviderStatistics> getStatistics() {
+		return Collections.unmodifiableList(statistics);
+	}
+}
@@ -0,0 +1,428 @@
+/**
+ * This class wraps another stock quote generator and makes it misbehave the
+ * way real providers do, so that the tail of MarketAnalyzer's cycle time can
+ * be studied without waiting for a bad day on the network. Every request is
+ * delayed by a latency drawn from a configurable distribution, and may then
+ * be made to fail in one of three ways, each at its own rate:
+ *
+ * a timeout, which holds the request for the timeout and then throws the
+ * HttpTimeoutException the HTTP client would;
+ *
+ * a partial body, in which the connection drops at a random byte of the
+ * response, so the caller sees the EOFException the HTTP client throws when
+ * a body falls short of its Content-Length;
+ *
+ * a malformed payload, in which the quotes are rendered as a provider's
+ * response with one digit garbled and run through the real parser, so the
+ * caller sees whatever the parser makes of it: an error, or fewer quotes.
+ *
+ * Responses are rendered in Google's JSON or Yahoo's CSV at random and read
+ * back by GoogleJSONQuoteParser or YahooCSVQuoteParser.
+ *
+ * All of the instances created through createNewInstance share the settings,
+ * the random numbers and the counts of faults injected.
+ *
+ */
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import exceptions.WebsiteConnectionError;
+
+public class FaultInjectingQuoteGenerator implements StockQuoteGeneratorInterface {
+	/**
+	 * This is the default time a timed out request is held, in milliseconds.
+	 */
+	public static final long DEFAULT_TIMEOUT = 1000;
+
+	/**
+	 * This is a distribution of latencies, in milliseconds.
+	 */
+	public interface LatencyDistribution {
+		/**
+		 * @param random
+		 *            This is the source of the randomness.
+		 * @return A latency, in milliseconds.
+		 */
+		public abstract double sample(Random random);
+	}
+
+	/**
+	 * @return The same latency every time.
+	 */
+	public static LatencyDistribution constantLatency(double latency) {
+		return random -> latency;
+	}
+
+	/**
+	 * @return Latencies spread evenly between the minimum and maximum.
+	 */
+	public static LatencyDistribution uniformLatency(double minimum, double maximum) {
+		return random -> minimum + (maximum - minimum) * random.nextDouble();
+	}
+
+	/**
+	 * @param median
+	 *            This is the median latency.
+	 * @param sigma
+	 *            This is the standard deviation of the latency's logarithm;
+	 *            0.3 is typical of a healthy service.
+	 * @return Log-normal latencies, the usual shape of a service's response
+	 *         times.
+	 */
+	public static LatencyDistribution logNormalLatency(double median, double sigma) {
+		return random -> median * Math.exp(sigma * random.nextGaussian());
+	}
+
+	/**
+	 * @param minimum
+	 *            This is the smallest latency.
+	 * @param alpha
+	 *            This is the shape; the smaller it is, the heavier the tail.
+	 *            Below 2 the variance is infinite.
+	 * @return Pareto latencies, for a tail that is heavy at every scale.
+	 */
+	public static LatencyDistribution paretoLatency(double minimum, double alpha) {
+		return random -> minimum / Math.pow(1 - random.nextDouble(), 1 / alpha);
+	}
+
+	/**
+	 * This holds everything shared by the instances created from one original
+	 * generator.
+	 */
+	private static class FaultState {
+		private final Random random;
+		private volatile MarketClock clock = MarketClock.SYSTEM;
+		private volatile LatencyDistribution latency = constantLatency(0);
+		private volatile long timeout = DEFAULT_TIMEOUT;
+		private volatile double timeoutRate;
+		private volatile double partialBodyRate;
+		private volatile double malformedRate;
+
+		private final LongAdder requestCount = new LongAdder();
+		private final LongAdder timeoutCount = new LongAdder();
+		private final LongAdder partialBodyCount = new LongAdder();
+		private final LongAdder malformedCount = new LongAdder();
+
+		private FaultState(long seed) {
+			this.random = new Random(seed);
+		}
+	}
+
+	/**
+	 * These are the kinds of fault which can be injected into a request.
+	 */
+	private enum Fault {
+		NONE, TIMEOUT, PARTIAL_BODY, MALFORMED
+	}
+
+	private static final GoogleJSONQuoteParser GOOGLE = new GoogleJSONQuoteParser();
+	private static final YahooCSVQuoteParser YAHOO = new YahooCSVQuoteParser();
+
+	/**
+	 * This is the generator which actually obtains the quotes.
+	 */
+	private final StockQuoteGeneratorInterface delegate;
+
+	private final FaultState state;
+
+	/**
+	 * @param delegate
+	 *            This is the generator which is to obtain the quotes.
+	 * @param seed
+	 *            This is the seed of the latencies and faults.
+	 */
+	public FaultInjectingQuoteGenerator(StockQuoteGeneratorInterface delegate, long seed) {
+		this(delegate, new FaultState(seed));
+	}
+
+	private FaultInjectingQuoteGenerator(StockQuoteGeneratorInterface delegate, FaultState state) {
+		super();
+		if (delegate == null) {
+			throw new NullPointerException("The source for stock quotes can not be null");
+		}
+		this.delegate = delegate;
+		this.state = state;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuote()
+	 */
+	public StockQuoteInterface getCurrentQuote() throws Exception {
+		String symbol = delegate.getSymbol();
+		Fault fault = this.delay();
+		Map<String, StockQuoteInterface> quotes = this.inject(fault,
+				Collections.singletonMap(symbol, delegate.getCurrentQuote()));
+		StockQuoteInterface quote = quotes.get(symbol);
+		if (quote == null) {
+			throw new WebsiteConnectionError("No quote for " + symbol + " in the response");
+		}
+		return quote;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuotes(java.util.Collection)
+	 */
+	public Map<String, StockQuoteInterface> getCurrentQuotes(Collection<String> symbols) throws Exception {
+		Fault fault = this.delay();
+		return this.inject(fault, delegate.getCurrentQuotes(symbols));
+	}
+
+	/**
+	 * Hold the request for its latency, and for the timeout if it is chosen
+	 * to time out.
+	 *
+	 * @return The fault chosen for the request.
+	 * @throws HttpTimeoutException
+	 *             An HttpTimeoutException will be thrown if the request is
+	 *             chosen to time out.
+	 */
+	private Fault delay() throws InterruptedException, HttpTimeoutException {
+		double latency;
+		Fault fault;
+		synchronized (state.random) {
+			latency = state.latency.sample(state.random);
+			double draw = state.random.nextDouble();
+			if ((draw -= state.timeoutRate) < 0) {
+				fault = Fault.TIMEOUT;
+			} else if ((draw -= state.partialBodyRate) < 0) {
+				fault = Fault.PARTIAL_BODY;
+			} else if ((draw -= state.malformedRate) < 0) {
+				fault = Fault.MALFORMED;
+			} else {
+				fault = Fault.NONE;
+			}
+		}
+		state.requestCount.increment();
+
+		if (fault == Fault.TIMEOUT) {
+			state.timeoutCount.increment();
+			state.clock.sleep(state.timeout, TimeUnit.MILLISECONDS);
+			throw new HttpTimeoutException("Request timed out after " + state.timeout + " ms");
+		}
+		state.clock.sleep(Math.round(Math.max(0, latency) * 1e6), TimeUnit.NANOSECONDS);
+		return fault;
+	}
+
+	/**
+	 * Pass the quotes through a damaged response, if the request is chosen to
+	 * have one.
+	 *
+	 * @param fault
+	 *            This is the fault chosen for the request.
+	 * @param quotes
+	 *            These are the quotes obtained by the delegate.
+	 * @return The quotes the parser could read.
+	 * @throws IOException
+	 *             An IOException will be thrown if the response is cut short
+	 *             or the parser rejects it.
+	 */
+	private Map<String, StockQuoteInterface> inject(Fault fault, Map<String, StockQuoteInterface> quotes)
+			throws IOException {
+		if (fault == Fault.NONE || quotes.isEmpty()) {
+			return quotes;
+		}
+		boolean yahoo;
+		int damage;
+		byte[] body;
+		synchronized (state.random) {
+			yahoo = state.random.nextBoolean();
+			body = (yahoo ? renderYahoo(quotes) : renderGoogle(quotes)).getBytes(StandardCharsets.US_ASCII);
+			damage = state.random.nextInt(body.length);
+		}
+
+		if (fault == Fault.PARTIAL_BODY) {
+			// The client reads the body up to its Content-Length, so it
+			// notices the cut long before the parser sees any of it.
+			state.partialBodyCount.increment();
+			throw new EOFException("Response cut short after " + damage + " of " + body.length + " bytes");
+		}
+		state.malformedCount.increment();
+		// Garble the first digit at or after the chosen byte.
+		for (int index = 0; index < body.length; index++) {
+			int at = (damage + index) % body.length;
+			if (body[at] >= '0' && body[at] <= '9') {
+				body[at] = 'x';
+				break;
+			}
+		}
+		ByteBuffer response = ByteBuffer.wrap(body);
+
+		List<StockQuoteInterface> parsed = yahoo ? YAHOO.parse(response) : GOOGLE.parse(response);
+		Map<String, StockQuoteInterface> retVal = new LinkedHashMap<String, StockQuoteInterface>();
+		for (StockQuoteInterface quote : parsed) {
+			if (quotes.containsKey(quote.getSymbol())) {
+				retVal.put(quote.getSymbol(), quote);
+			}
+		}
+		return retVal;
+	}
+
+	private static String renderGoogle(Map<String, StockQuoteInterface> quotes) {
+		StringBuilder text = new StringBuilder("\n// [\n");
+		boolean first = true;
+		for (StockQuoteInterface quote : quotes.values()) {
+			text.append(first ? "{\n" : ",{\n");
+			text.append("\"t\" : \"").append(quote.getSymbol()).append("\"\n");
+			text.append(",\"l\" : \"").append(format(quote.getLastTrade())).append("\"\n");
+			text.append(",\"c\" : \"").append(signed(quote.getChange())).append("\"\n");
+			text.append(",\"pcls_fix\" : \"").append(format(quote.getClose())).append("\"\n");
+			text.append("}\n");
+			first = false;
+		}
+		return text.append("]\n").toString();
+	}
+
+	private static String renderYahoo(Map<String, StockQuoteInterface> quotes) {
+		StringBuilder text = new StringBuilder();
+		for (StockQuoteInterface quote : quotes.values()) {
+			text.append('"').append(quote.getSymbol()).append("\",").append(format(quote.getLastTrade()))
+					.append(",\"6/8/2017\",\"4:00pm\",").append(signed(quote.getChange())).append(',')
+					.append(format(quote.getClose())).append(',')
+					.append(format(Math.max(quote.getLastTrade(), quote.getClose()))).append(',')
+					.append(format(Math.min(quote.getLastTrade(), quote.getClose()))).append(",1000000\r\n");
+		}
+		return text.toString();
+	}
+
+	private static String format(double value) {
+		return String.format(Locale.US, "%.2f", value);
+	}
+
+	private static String signed(double value) {
+		return (value >= 0 ? "+" : "") + format(value);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#warmUp()
+	 */
+	public void warmUp() throws Exception {
+		delegate.warmUp();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#createNewInstance(java.lang.String)
+	 */
+	public StockQuoteGeneratorInterface createNewInstance(String symbol) {
+		return new FaultInjectingQuoteGenerator(delegate.createNewInstance(symbol), state);
+	}
+
+	/**
+	 * @return the symbol
+	 */
+	public String getSymbol() {
+		return delegate.getSymbol();
+	}
+
+	/**
+	 * @param symbol
+	 *            the symbol to set
+	 */
+	public void setSymbol(String symbol) {
+		delegate.setSymbol(symbol);
+	}
+
+	/**
+	 * @param clock
+	 *            This is the clock the requests are held on. With a
+	 *            VirtualMarketClock, latencies and timeouts pass in virtual
+	 *            time.
+	 */
+	public void setClock(MarketClock clock) {
+		if (clock == null) {
+			throw new NullPointerException("The clock can not be null");
+		}
+		state.clock = clock;
+	}
+
+	/**
+	 * @param latency
+	 *            This is the distribution every request's latency is drawn
+	 *            from.
+	 */
+	public void setLatency(LatencyDistribution latency) {
+		if (latency == null) {
+			throw new NullPointerException("The latency distribution can not be null");
+		}
+		state.latency = latency;
+	}
+
+	/**
+	 * @param timeout
+	 *            This is how long a timed out request is held, in
+	 *            milliseconds.
+	 * @param timeoutRate
+	 *            This is the fraction of requests, between 0 and 1, which are
+	 *            to time out.
+	 */
+	public void setTimeout(long timeout, double timeoutRate) {
+		state.timeout = timeout;
+		state.timeoutRate = timeoutRate;
+	}
+
+	/**
+	 * @param partialBodyRate
+	 *            This is the fraction of requests, between 0 and 1, whose
+	 *            response is to be cut off.
+	 */
+	public void setPartialBodyRate(double partialBodyRate) {
+		state.partialBodyRate = partialBodyRate;
+	}
+
+	/**
+	 * @param malformedRate
+	 *            This is the fraction of requests, between 0 and 1, whose
+	 *            response is to be garbled.
+	 */
+	public void setMalformedRate(double malformedRate) {
+		state.malformedRate = malformedRate;
+	}
+
+	/**
+	 * @return The number of requests made.
+	 */
+	public long getRequestCount() {
+		return state.requestCount.sum();
+	}
+
+	/**
+	 * @return The number of requests made to time out.
+	 */
+	public long getTimeoutCount() {
+		return state.timeoutCount.sum();
+	}
+
+	/**
+	 * @return The number of responses cut off.
+	 */
+	public long getPartialBodyCount() {
+		return state.partialBodyCount.sum();
+	}
+
+	/**
+	 * @return The number of responses garbled.
+	 */
+	public long getMalformedCount() {
+		return state.malformedCount.sum();
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * This class interprets the JSON returned by Google directly from the bytes
+ * of the response. Google answers with a list of records, one per symbol, of
+ * the form // [ { "t" : "MSFT" ,"l" : "72.50" ,"c" : "0.50" ,"pcls_fix" : "72.00" } ].
+ * 
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class GoogleJSONQuoteParser implements QuoteResponseParser<List<StockQuoteInterface>> {
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see QuoteResponseParser#parse(java.nio.ByteBuffer)
+	 */
+	public List<StockQuoteInterface> parse(ByteBuffer body) throws IOException {
+		List<StockQuoteInterface> quotes = new ArrayList<StockQuoteInterface>();
+		int end = body.limit();
+		int start = QuoteBytes.indexOf(body, (byte) '{', body.position(), end);
+
+		while (start >= 0) {
+			int recordEnd = QuoteBytes.indexOf(body, (byte) '}', start, end);
+			if (recordEnd < 0) {
+				throw new IOException("Unterminated quote record in response.");
+			}
+			quotes.add(parseRecord(body, start + 1, recordEnd));
+			start = QuoteBytes.indexOf(body, (byte) '{', recordEnd, end);
+		}
+		return quotes;
+	}
+
+	/**
+	 * Interpret a single record, held between its braces.
+	 * 
+	 * @param body
+	 *            This is the buffer holding the response.
+	 * @param start
+	 *            This is the index just past the opening brace.
+	 * @param end
+	 *            This is the index of the closing brace.
+	 * @return The quote held in the record will be returned.
+	 * @throws IOException
+	 *             An IOException will be thrown if the record is missing
+	 *             fields or holds invalid numbers.
+	 */
+	private StockQuoteInterface parseRecord(ByteBuffer body, int start, int end) throws IOException {
+		String symbol = null;
+		double lastTrade = Double.NaN;
+		double close = Double.NaN;
+		double change = Double.NaN;
+
+		try {
+			int index = start;
+			while (index < end) {
+				int keyStart = QuoteBytes.indexOf(body, (byte) '"', index, end);
+				if (keyStart < 0) {
+					break;
+				}
+				int keyEnd = QuoteBytes.indexOf(body, (byte) '"', keyStart + 1, end);
+				int colon = keyEnd < 0 ? -1 : QuoteBytes.indexOf(body, (byte) ':', keyEnd, end);
+				if (colon < 0) {
+					throw new IOException("Malformed quote record in response.");
+				}
+				int valueStart = QuoteBytes.trimStart(body, colon + 1, end);
+				int valueEnd = endOfValue(body, colon + 1, end);
+				int trimmedEnd = QuoteBytes.trimEnd(body, valueStart, valueEnd);
+
+				if (QuoteBytes.equalsAscii(body, keyStart + 1, keyEnd, "t")) {
+					symbol = QuoteBytes.toAsciiString(body, valueStart, trimmedEnd);
+				} else if (QuoteBytes.equalsAscii(body, keyStart + 1, keyEnd, "l")) {
+					lastTrade = QuoteBytes.parseDouble(body, valueStart, trimmedEnd);
+				} else if (QuoteBytes.equalsAscii(body, keyStart + 1, keyEnd, "c")) {
+					change = QuoteBytes.parseDouble(body, valueStart, trimmedEnd);
+				} else if (QuoteBytes.equalsAscii(body, keyStart + 1, keyEnd, "pcls_fix")) {
+					close = QuoteBytes.parseDouble(body, valueStart, trimmedEnd);
+				}
+				index = valueEnd + 1;
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid number in quote record.", e);
+		}
+
+		if (symbol == null || Double.isNaN(lastTrade) || Double.isNaN(close) || Double.isNaN(change)) {
+			throw new IOException("Incomplete quote record in response.");
+		}
+		return new StockQuote(symbol, close, lastTrade, change);
+	}
+
+	/**
+	 * Find the comma which ends the value starting at the given index, skipping
+	 * over anything inside quotation marks.
+	 * 
+	 * @return The index of the comma, or the end of the record if there is
+	 *         none.
+	 */
+	private static int endOfValue(ByteBuffer body, int start, int end) {
+		boolean quoted = false;
+		for (int index = start; index < end; index++) {
+			byte value = body.get(index);
+			if (value == '\\' && quoted) {
+				index++;
+			} else if (value == '"') {
+				quoted = !quoted;
+			} else if (value == ',' && quoted == false) {
+				return index;
+			}
+		}
+		return end;
+	}
+}
@@ -31,78 +31,207 @@
  * 
  */
 
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.MalformedURLException;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import exceptions.WebsiteConnectionError;
 
 public class GoogleStockQuoteJSONDownloader implements
 		StockQuoteGeneratorInterface {
+	/**
+	 * This is the parser which interprets the bytes of each response.
+	 */
+	private static final GoogleJSONQuoteParser PARSER = new GoogleJSONQuoteParser();
+
+	/**
+	 * This is the largest number of symbols that Google will accept in a
+	 * single request.
+	 */
+	public static final int MAX_SYMBOLS_PER_REQUEST = 100;
+
+	/**
+	 * This is the address of Google's quote service.
+	 */
+	public static final String DEFAULT_BASE_URL = "http://www.google.com/finance/info";
+
 	/**
 	 * This is the stock symbol to be obtained.
 	 */
 	private String symbol;
 
+	/**
+	 * This is the shared client through which the quote is downloaded.
+	 */
+	private QuoteHttpClient client;
+
+	/**
+	 * This is the address of the quote service, without the query.
+	 */
+	private String baseURL;
+
 	/*
 	 * (non-Javadoc)
 	 * 
 	 * @see msoe.StockQuoteGeneratorInterface#getCurrentQuote()
 	 */
 	public StockQuoteInterface getCurrentQuote() throws Exception {
-		String quoteURL = "http://www.google.com/finance/info?q=NSE:"
-				+ this.symbol + "";
+		String quoteURL = baseURL + "?q=NSE:" + this.symbol;
 		StockQuoteInterface retVal = null;
 
 		try {
-			URL url = new URL(quoteURL);
-
-			InputStream inputStream = url.openStream();
-			BufferedReader bufferedReader = new BufferedReader(
-					new InputStreamReader(inputStream));
-			String text = "";
-			String line = bufferedReader.readLine();
-
-			while (line != null) {
-				text += line + "\n";
-				line = bufferedReader.readLine();
+			List<StockQuoteInterface> quotes = client.get(quoteURL, PARSER);
+			if (quotes.isEmpty()) {
+				throw new WebsiteConnectionError("No quote returned by " + quoteURL);
 			}
-			bufferedReader.close();
-
-			retVal = new GoogleJSONStockQuote(text);
+			retVal = quotes.get(0);
 		} catch (FileNotFoundException ex) {
 			throw new WebsiteConnectionError("Unable to connect with "
-					+ quoteURL);
+					+ quoteURL, ex);
 		} catch (MalformedURLException e) {
 			throw new WebsiteConnectionError("Unable to connect with "
-					+ quoteURL);
+					+ quoteURL, e);
 		} catch (IOException e) {
 			throw new WebsiteConnectionError("Unable to connect with "
-					+ quoteURL);
+					+ quoteURL, e);
 		}
 
 		return retVal;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see StockQuoteGeneratorInterface#getCurrentQuoteAsync()
+	 */
+	public CompletableFuture<StockQuoteInterface> getCurrentQuoteAsync() {
+		String quoteURL = baseURL + "?q=NSE:" + this.symbol;
+
+		CompletableFuture<List<StockQuoteInterface>> response = client.getAsync(quoteURL, PARSER);
+		return QuoteHttpClient.propagateCancel(response.handle((quotes, error) -> {
+			if (error != null) {
+				throw new CompletionException(new WebsiteConnectionError("Unable to connect with " + quoteURL,
+						QuoteHttpClient.unwrap(error)));
+			}
+			if (quotes.isEmpty()) {
+				throw new CompletionException(new WebsiteConnectionError("No quote returned by " + quoteURL));
+			}
+			return quotes.get(0);
+		}), response);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see StockQuoteGeneratorInterface#getCurrentQuotes(java.util.Collection)
+	 */
+	public Map<String, StockQuoteInterface> getCurrentQuotes(Collection<String> symbols) throws Exception {
+		Map<String, StockQuoteInterface> retVal = new LinkedHashMap<String, StockQuoteInterface>();
+		List<String> chunk = new ArrayList<String>();
+		WebsiteConnectionError failure = null;
+
+		for (String requested : symbols) {
+			chunk.add(requested);
+			if (chunk.size() == MAX_SYMBOLS_PER_REQUEST) {
+				failure = getCurrentQuotes(chunk, retVal, failure);
+				chunk.clear();
+			}
+		}
+		if (chunk.isEmpty() == false) {
+			failure = getCurrentQuotes(chunk, retVal, failure);
+		}
+		if (retVal.isEmpty() && failure != null) {
+			throw failure;
+		}
+		return retVal;
+	}
+
+	/**
+	 * Obtain the quotes for one request's worth of symbols and add them to the
+	 * given map.
+	 * 
+	 * @param chunk
+	 *            These are the symbols to request, no more than
+	 *            MAX_SYMBOLS_PER_REQUEST of them.
+	 * @param quotes
+	 *            This is the map into which the quotes are placed.
+	 * @param failure
+	 *            This is the last failure seen so far, if any.
+	 * @return The error for this request will be returned if it failed,
+	 *         otherwise the failure passed in is returned.
+	 */
+	private WebsiteConnectionError getCurrentQuotes(List<String> chunk, Map<String, StockQuoteInterface> quotes,
+			WebsiteConnectionError failure) {
+		String quoteURL = baseURL + "?q=NSE:" + String.join(",NSE:", chunk);
+
+		try {
+			for (StockQuoteInterface quote : client.get(quoteURL, PARSER)) {
+				quotes.put(quote.getSymbol(), quote);
+			}
+		} catch (IOException e) {
+			return new WebsiteConnectionError("Unable to connect with " + quoteURL, e);
+		}
+		return failure;
+	}
+
 	/**
 	 * @param symbol
 	 *            This is the symbol to watch.
 	 */
 	public GoogleStockQuoteJSONDownloader(String symbol) {
+		this(symbol, QuoteHttpClient.getSingleton());
+	}
+
+	/**
+	 * @param symbol
+	 *            This is the symbol to watch.
+	 * @param client
+	 *            This is the shared client that is to be used to download
+	 *            quotes.
+	 */
+	public GoogleStockQuoteJSONDownloader(String symbol, QuoteHttpClient client) {
+		this(symbol, client, DEFAULT_BASE_URL);
+	}
+
+	/**
+	 * @param symbol
+	 *            This is the symbol to watch.
+	 * @param client
+	 *            This is the shared client that is to be used to download
+	 *            quotes.
+	 * @param baseURL
+	 *            This is the address of the quote service, without the query,
+	 *            such as that of a LocalMarketDataServer.
+	 */
+	public GoogleStockQuoteJSONDownloader(String symbol, QuoteHttpClient client, String baseURL) {
 		super();
 		this.symbol = symbol;
+		this.client = client;
+		this.baseURL = baseURL;
 	}
 
 	/**
 	 * Default constructor.
 	 */
 	public GoogleStockQuoteJSONDownloader() {
-		super();
-		this.symbol = null;
+		this(null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see StockQuoteGeneratorInterface#warmUp()
+	 */
+	public void warmUp() throws Exception {
+		QuoteWarmup.exercise(PARSER, QuoteWarmup.googlePayload(QuoteWarmup.SYMBOLS), QuoteWarmup.ITERATIONS);
+		client.warmUp(baseURL, QuoteWarmup.CONNECTIONS);
 	}
 
 	/*
@@ -113,7 +242,7 @@ public class GoogleStockQuoteJSONDownloader implements
 	 * .lang.String)
 	 */
 	public StockQuoteGeneratorInterface createNewInstance(String symbol) {
-		return new GoogleStockQuoteJSONDownloader(symbol);
+		return new GoogleStockQuoteJSONDownloader(symbol, this.client, this.baseURL);
 	}
 
 	/**
@@ -130,4 +259,19 @@ public class GoogleStockQuoteJSONDownloader implements
 	public void setSymbol(String symbol) {
 		this.symbol = symbol;
 	}
+
+	/**
+	 * @return the address of the quote service
+	 */
+	public String getBaseURL() {
+		return baseURL;
+	}
+
+	/**
+	 * @param baseURL
+	 *            the address of the quote service to set
+	 */
+	public void setBaseURL(String baseURL) {
+		this.baseURL = baseURL;
+	}
 }
@@ -0,0 +1,384 @@
+/**
+ * This class wraps a stock quote generator so that a slow request does not
+ * hold up the caller. When a request has not completed within the observed
+ * 95th percentile latency of the generator, a duplicate is sent, either to the
+ * same generator or to an alternate one, and whichever answers first is used.
+ * The other request is then cancelled.
+ *
+ * Duplicates are extra load on the providers, so they are limited by a budget:
+ * no more than the given percentage of requests are ever hedged. Until enough
+ * requests have completed for the percentile to mean anything, nothing is
+ * hedged at all. A batch covers a whole watch list, so it is only hedged when
+ * there is an alternate generator to send it to; a batch is never sent twice
+ * to the same one.
+ *
+ * All of the instances created through createNewInstance share their latency
+ * figures and budget with the instance they were created from.
+ *
+ */
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+public class HedgedQuoteGenerator implements StockQuoteGeneratorInterface {
+	/**
+	 * This is the default percentage of requests which may be hedged.
+	 */
+	public static final double DEFAULT_BUDGET = 5.0;
+
+	/**
+	 * This is the number of completed requests needed before any are hedged.
+	 */
+	public static final int MINIMUM_SAMPLES = 20;
+
+	/**
+	 * This holds everything shared by the instances created from one original
+	 * generator.
+	 */
+	private static class HedgeState {
+		private final double budget;
+		private final ProviderStatistics quoteLatency = new ProviderStatistics("quote");
+		private final ProviderStatistics batchLatency = new ProviderStatistics("batch");
+		private final LongAdder hedgeWins = new LongAdder();
+		private long requestCount;
+		private long hedgeCount;
+
+		private HedgeState(double budget) {
+			if (budget < 0 || budget > 100) {
+				throw new IllegalArgumentException("The hedging budget must be between 0 and 100 percent.");
+			}
+			this.budget = budget;
+		}
+
+		private synchronized void requestStarted() {
+			requestCount++;
+		}
+
+		/**
+		 * @return True if another hedge fits within the budget, in which case
+		 *         it is counted.
+		 */
+		private synchronized boolean tryHedge() {
+			if ((hedgeCount + 1) * 100.0 > requestCount * budget) {
+				return false;
+			}
+			hedgeCount++;
+			return true;
+		}
+	}
+
+	/**
+	 * This runs the batch requests, which have no asynchronous form, on threads
+	 * which are interrupted when the batch is cancelled. It is only started
+	 * when first used.
+	 */
+	private static class Batches {
+		private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(task -> {
+			Thread thread = new Thread(task, "Hedged batch");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * This holds the state of one request and its possible hedge.
+	 */
+	private static class Race<T> {
+		private final CompletableFuture<T> result = new CompletableFuture<T>();
+		private CompletableFuture<T> primary;
+		private CompletableFuture<T> hedge;
+		private int outstanding = 1;
+	}
+
+	/**
+	 * This is the generator which is asked first.
+	 */
+	private final StockQuoteGeneratorInterface primary;
+
+	/**
+	 * This is the generator which receives the duplicate requests.
+	 */
+	private final StockQuoteGeneratorInterface alternate;
+
+	private final HedgeState state;
+
+	/**
+	 * Hedge requests to the given generator with duplicates sent to itself.
+	 *
+	 * @param delegate
+	 *            This is the generator which is to obtain the quotes.
+	 */
+	public HedgedQuoteGenerator(StockQuoteGeneratorInterface delegate) {
+		this(delegate, delegate, DEFAULT_BUDGET);
+	}
+
+	/**
+	 * @param primary
+	 *            This is the generator which is asked first.
+	 * @param alternate
+	 *            This is the generator which receives the duplicate requests.
+	 *            It may be the same as the primary.
+	 * @param budget
+	 *            This is the largest percentage of requests which may be
+	 *            hedged.
+	 */
+	public HedgedQuoteGenerator(StockQuoteGeneratorInterface primary, StockQuoteGeneratorInterface alternate,
+			double budget) {
+		this(primary, alternate, new HedgeState(budget));
+	}
+
+	private HedgedQuoteGenerator(StockQuoteGeneratorInterface primary, StockQuoteGeneratorInterface alternate,
+			HedgeState state) {
+		super();
+		if (primary == null || alternate == null) {
+			throw new NullPointerException("The source for stock quotes can not be null");
+		}
+		this.primary = primary;
+		this.alternate = alternate;
+		this.state = state;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuote()
+	 */
+	public StockQuoteInterface getCurrentQuote() throws Exception {
+		return await(getCurrentQuoteAsync());
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuoteAsync()
+	 */
+	public CompletableFuture<StockQuoteInterface> getCurrentQuoteAsync() {
+		return race(primary::getCurrentQuoteAsync, alternate::getCurrentQuoteAsync, state.quoteLatency);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuotes(java.util.Collection)
+	 */
+	public Map<String, StockQuoteInterface> getCurrentQuotes(Collection<String> symbols) throws Exception {
+		if (alternate == primary) {
+			// Hedging would send the whole watch list to the same provider
+			// again.
+			long start = System.nanoTime();
+			Map<String, StockQuoteInterface> retVal = primary.getCurrentQuotes(symbols);
+			state.batchLatency.recordSuccess(System.nanoTime() - start);
+			return retVal;
+		}
+		return await(race(() -> batch(primary, symbols), () -> batch(alternate, symbols), state.batchLatency));
+	}
+
+	/**
+	 * Start a batch request on a thread of its own.
+	 *
+	 * @return A future which receives the quotes. Cancelling it interrupts the
+	 *         thread.
+	 */
+	private static CompletableFuture<Map<String, StockQuoteInterface>> batch(StockQuoteGeneratorInterface generator,
+			Collection<String> symbols) {
+		CompletableFuture<Map<String, StockQuoteInterface>> retVal = new CompletableFuture<Map<String, StockQuoteInterface>>();
+		Future<?> running = Batches.EXECUTOR.submit(() -> {
+			try {
+				retVal.complete(generator.getCurrentQuotes(symbols));
+			} catch (Exception e) {
+				retVal.completeExceptionally(e);
+			}
+		});
+		retVal.whenComplete((quotes, error) -> {
+			if (error instanceof CancellationException) {
+				running.cancel(true);
+			}
+		});
+		return retVal;
+	}
+
+	/**
+	 * Start a request, and hedge it if it is still running once the 95th
+	 * percentile latency has passed.
+	 *
+	 * @param first
+	 *            This starts the request to the primary generator.
+	 * @param second
+	 *            This starts the duplicate request to the alternate generator.
+	 * @param latency
+	 *            These are the latency figures of this kind of request.
+	 * @return A future which completes with the first answer, or with the
+	 *         failure of the last request to fail, will be returned.
+	 */
+	private <T> CompletableFuture<T> race(Supplier<CompletableFuture<T>> first, Supplier<CompletableFuture<T>> second,
+			ProviderStatistics latency) {
+		Race<T> race = new Race<T>();
+		long start = System.nanoTime();
+		state.requestStarted();
+
+		race.primary = start(first);
+		race.primary.whenComplete((value, error) -> {
+			// A primary cancelled because the hedge won is not recorded: its
+			// latency is unknown, and counting the time it ran would pull the
+			// percentile down and make hedges fire ever sooner.
+			if (error == null) {
+				latency.recordSuccess(System.nanoTime() - start);
+			}
+			finished(race, value, error, false);
+		});
+
+		if (latency.getSuccessCount() >= MINIMUM_SAMPLES) {
+			long delay = (long) (latency.getLatencyPercentile(95) * 1000000.0);
+			CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS).execute(() -> hedge(race, second));
+		}
+
+		race.result.whenComplete((value, error) -> {
+			race.primary.cancel(true);
+			synchronized (race) {
+				if (race.hedge != null) {
+					race.hedge.cancel(true);
+				}
+			}
+		});
+		return race.result;
+	}
+
+	private <T> void hedge(Race<T> race, Supplier<CompletableFuture<T>> second) {
+		synchronized (race) {
+			if (race.result.isDone() || race.outstanding == 0 || state.tryHedge() == false) {
+				return;
+			}
+			race.outstanding++;
+			race.hedge = start(second);
+		}
+		race.hedge.whenComplete((value, error) -> finished(race, value, error, true));
+	}
+
+	private <T> void finished(Race<T> race, T value, Throwable error, boolean hedge) {
+		synchronized (race) {
+			race.outstanding--;
+			if (error == null) {
+				if (race.result.complete(value) && hedge) {
+					state.hedgeWins.increment();
+				}
+			} else if (race.outstanding == 0) {
+				race.result.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+			}
+		}
+	}
+
+	private static <T> CompletableFuture<T> start(Supplier<CompletableFuture<T>> request) {
+		try {
+			return request.get();
+		} catch (RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	private static <T> T await(CompletableFuture<T> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#warmUp()
+	 */
+	public void warmUp() throws Exception {
+		primary.warmUp();
+		if (alternate != primary) {
+			alternate.warmUp();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#createNewInstance(java.lang.String)
+	 */
+	public StockQuoteGeneratorInterface createNewInstance(String symbol) {
+		StockQuoteGeneratorInterface newPrimary = primary.createNewInstance(symbol);
+		StockQuoteGeneratorInterface newAlternate = alternate == primary ? newPrimary
+				: alternate.createNewInstance(symbol);
+		return new HedgedQuoteGenerator(newPrimary, newAlternate, state);
+	}
+
+	/**
+	 * @return the symbol
+	 */
+	public String getSymbol() {
+		return primary.getSymbol();
+	}
+
+	/**
+	 * @param symbol
+	 *            the symbol to set
+	 */
+	public void setSymbol(String symbol) {
+		primary.setSymbol(symbol);
+		alternate.setSymbol(symbol);
+	}
+
+	/**
+	 * @return The generator which is asked first.
+	 */
+	public StockQuoteGeneratorInterface getPrimary() {
+		return primary;
+	}
+
+	/**
+	 * @return The number of requests made.
+	 */
+	public long getRequestCount() {
+		synchronized (state) {
+			return state.requestCount;
+		}
+	}
+
+	/**
+	 * @return The number of duplicate requests sent.
+	 */
+	public long getHedgeCount() {
+		synchronized (state) {
+			return state.hedgeCount;
+		}
+	}
+
+	/**
+	 * @return The number of requests answered by the duplicate first.
+	 */
+	public long getHedgeWinCount() {
+		return state.hedgeWins.sum();
+	}
+
+	/**
+	 * @return The latency figures of single quote requests.
+	 */
+	public ProviderStatistics getQuoteLatency() {
+		return state.quoteLatency;
+	}
+
+	/**
+	 * @return The latency figures of batch requests.
+	 */
+	public ProviderStatistics getBatchLatency() {
+		return state.batchLatency;
+	}
+}
@@ -0,0 +1,349 @@
+/**
+ * This class spreads requests over several stock quote generators, sending
+ * each one to whichever generator has recently been fastest for that kind of
+ * symbol. For every generator and symbol class (by default, the exchange the
+ * symbol is listed on) it keeps moving averages of latency and error rate.
+ * Generators whose error rate is too high are only used once the healthy ones
+ * have failed, and any generator never tried for a class is tried first.
+ *
+ * A generator which falls behind would never be measured again, so every
+ * so often a request is sent to the generator which has gone longest without
+ * one instead. If the chosen generator fails, the request moves on to the next
+ * best, as FailoverQuoteGenerator would.
+ *
+ * All of the instances created through createNewInstance share their
+ * statistics with the instance they were created from.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+public class LatencyAwareQuoteRouter implements StockQuoteGeneratorInterface {
+	/**
+	 * This is the error rate above which a generator is treated as unhealthy.
+	 */
+	public static final double UNHEALTHY_ERROR_RATE = 0.5;
+
+	/**
+	 * One request in this many for each symbol class goes to the generator
+	 * which has gone longest without one.
+	 */
+	public static final int EXPLORATION_INTERVAL = 20;
+
+	/**
+	 * This is the symbol class used for symbols the classifier does not know.
+	 */
+	public static final String OTHER = "OTHER";
+
+	/**
+	 * This holds the statistics of every generator for one symbol class.
+	 */
+	private static class Route {
+		private final ProviderStatistics[] statistics;
+		private final long[] lastUsed;
+		private long requestCount;
+
+		private Route(List<StockQuoteGeneratorInterface> providers, String symbolClass) {
+			statistics = new ProviderStatistics[providers.size()];
+			lastUsed = new long[providers.size()];
+			for (int index = 0; index < statistics.length; index++) {
+				statistics[index] = new ProviderStatistics(
+						providers.get(index).getClass().getSimpleName() + " " + symbolClass);
+			}
+		}
+	}
+
+	/**
+	 * This holds everything shared by the instances created from one original
+	 * router.
+	 */
+	private static class RouterState {
+		private final Map<String, Route> routes = new ConcurrentHashMap<String, Route>();
+		private final Function<String, String> classifier;
+		private final LongSupplier clock;
+
+		private RouterState(Function<String, String> classifier, LongSupplier clock) {
+			this.classifier = classifier;
+			this.clock = clock;
+		}
+	}
+
+	/**
+	 * These are the generators which actually obtain the quotes.
+	 */
+	private final List<StockQuoteGeneratorInterface> providers;
+
+	private final RouterState state;
+
+	/**
+	 * Route requests by the exchange on which each symbol is listed.
+	 *
+	 * @param providers
+	 *            These are the generators which are to obtain the quotes.
+	 */
+	public LatencyAwareQuoteRouter(StockQuoteGeneratorInterface... providers) {
+		this(Arrays.asList(providers), symbol -> StockTickerListing.getSingleton().getExchange(symbol),
+				System::nanoTime);
+	}
+
+	/**
+	 * @param providers
+	 *            These are the generators which are to obtain the quotes.
+	 * @param classifier
+	 *            This gives the class of each symbol, for which statistics
+	 *            are kept separately. It may return null for symbols which
+	 *            belong to no particular class.
+	 * @param clock
+	 *            This is the source of the current time, in nanoseconds.
+	 */
+	public LatencyAwareQuoteRouter(List<StockQuoteGeneratorInterface> providers, Function<String, String> classifier,
+			LongSupplier clock) {
+		this(providers, new RouterState(classifier, clock));
+	}
+
+	private LatencyAwareQuoteRouter(List<StockQuoteGeneratorInterface> providers, RouterState state) {
+		super();
+		if (providers.isEmpty()) {
+			throw new IllegalArgumentException("At least one source for stock quotes is required");
+		}
+		for (StockQuoteGeneratorInterface provider : providers) {
+			if (provider == null) {
+				throw new NullPointerException("The source for stock quotes can not be null");
+			}
+		}
+		this.providers = new ArrayList<StockQuoteGeneratorInterface>(providers);
+		this.state = state;
+	}
+
+	/**
+	 * @param symbol
+	 *            This is the symbol which is to be quoted.
+	 * @return The class of the symbol.
+	 */
+	private String classify(String symbol) {
+		String symbolClass = symbol == null ? null : state.classifier.apply(symbol);
+		return symbolClass == null ? OTHER : symbolClass;
+	}
+
+	private Route route(String symbolClass) {
+		return state.routes.computeIfAbsent(symbolClass, key -> new Route(providers, key));
+	}
+
+	/**
+	 * Put the generators in the order in which they should be tried for the
+	 * given route: healthy generators by recent latency, untried ones first,
+	 * and then the unhealthy ones by error rate.
+	 *
+	 * @return The indexes of the generators, in order.
+	 */
+	private Integer[] rank(Route route) {
+		Integer[] order = new Integer[providers.size()];
+		double[] latency = new double[order.length];
+		double[] errorRate = new double[order.length];
+		for (int index = 0; index < order.length; index++) {
+			order[index] = index;
+			latency[index] = route.statistics[index].getRecentLatency();
+			errorRate[index] = route.statistics[index].getRecentErrorRate();
+		}
+		Arrays.sort(order, Comparator.<Integer>comparingInt(index -> errorRate[index] >= UNHEALTHY_ERROR_RATE ? 1 : 0)
+				.thenComparingDouble(index -> errorRate[index] >= UNHEALTHY_ERROR_RATE ? errorRate[index]
+						: Double.isNaN(latency[index]) ? 0.0 : latency[index]));
+
+		synchronized (route) {
+			if (++route.requestCount % EXPLORATION_INTERVAL == 0 && order.length > 1) {
+				int stalest = order[0];
+				for (int index : order) {
+					if (route.lastUsed[index] < route.lastUsed[stalest]) {
+						stalest = index;
+					}
+				}
+				List<Integer> reordered = new ArrayList<Integer>(Arrays.asList(order));
+				reordered.remove(Integer.valueOf(stalest));
+				reordered.add(0, stalest);
+				order = reordered.toArray(order);
+			}
+			route.lastUsed[order[0]] = state.clock.getAsLong();
+		}
+		return order;
+	}
+
+	private void succeeded(Route route, int index, long start) {
+		route.statistics[index].recordSuccess(state.clock.getAsLong() - start);
+	}
+
+	private void failed(Route route, int index) {
+		route.statistics[index].recordFailure();
+		synchronized (route) {
+			route.lastUsed[index] = state.clock.getAsLong();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuote()
+	 */
+	public StockQuoteInterface getCurrentQuote() throws Exception {
+		Route route = route(classify(getSymbol()));
+		Exception failure = null;
+		for (int index : rank(route)) {
+			long start = state.clock.getAsLong();
+			try {
+				StockQuoteInterface quote = providers.get(index).getCurrentQuote();
+				succeeded(route, index, start);
+				return quote;
+			} catch (Exception e) {
+				failed(route, index);
+				failure = e;
+			}
+		}
+		throw failure;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuoteAsync()
+	 */
+	public CompletableFuture<StockQuoteInterface> getCurrentQuoteAsync() {
+		Route route = route(classify(getSymbol()));
+		CompletableFuture<StockQuoteInterface> retVal = new CompletableFuture<StockQuoteInterface>();
+		tryAsync(route, rank(route), 0, retVal);
+		return retVal;
+	}
+
+	private void tryAsync(Route route, Integer[] order, int position, CompletableFuture<StockQuoteInterface> result) {
+		int index = order[position];
+		long start = state.clock.getAsLong();
+		CompletableFuture<StockQuoteInterface> attempt;
+		try {
+			attempt = providers.get(index).getCurrentQuoteAsync();
+		} catch (RuntimeException e) {
+			attempt = CompletableFuture.failedFuture(e);
+		}
+		attempt.whenComplete((quote, error) -> {
+			if (error == null) {
+				succeeded(route, index, start);
+				result.complete(quote);
+				return;
+			}
+			failed(route, index);
+			if (position + 1 < order.length) {
+				tryAsync(route, order, position + 1, result);
+			} else {
+				result.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+			}
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuotes(java.util.Collection)
+	 */
+	public Map<String, StockQuoteInterface> getCurrentQuotes(Collection<String> symbols) throws Exception {
+		// Each class of symbols is fetched as its own chunk, from the
+		// generator which is currently best for that class.
+		Map<String, List<String>> chunks = new LinkedHashMap<String, List<String>>();
+		for (String symbol : new LinkedHashSet<String>(symbols)) {
+			chunks.computeIfAbsent(classify(symbol), key -> new ArrayList<String>()).add(symbol);
+		}
+
+		Map<String, StockQuoteInterface> retVal = new LinkedHashMap<String, StockQuoteInterface>();
+		Exception failure = null;
+		for (Map.Entry<String, List<String>> chunk : chunks.entrySet()) {
+			Route route = route(chunk.getKey());
+			List<String> remaining = chunk.getValue();
+			for (int index : rank(route)) {
+				long start = state.clock.getAsLong();
+				try {
+					Map<String, StockQuoteInterface> quotes = providers.get(index).getCurrentQuotes(remaining);
+					succeeded(route, index, start);
+					retVal.putAll(quotes);
+					remaining.removeAll(quotes.keySet());
+				} catch (Exception e) {
+					failed(route, index);
+					failure = e;
+				}
+				if (remaining.isEmpty()) {
+					break;
+				}
+			}
+		}
+		if (retVal.isEmpty() && failure != null) {
+			throw failure;
+		}
+		return retVal;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#warmUp()
+	 */
+	public void warmUp() throws Exception {
+		Exception failure = null;
+		for (StockQuoteGeneratorInterface provider : providers) {
+			try {
+				provider.warmUp();
+			} catch (Exception e) {
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#createNewInstance(java.lang.String)
+	 */
+	public StockQuoteGeneratorInterface createNewInstance(String symbol) {
+		List<StockQuoteGeneratorInterface> instances = new ArrayList<StockQuoteGeneratorInterface>();
+		for (StockQuoteGeneratorInterface provider : providers) {
+			instances.add(provider.createNewInstance(symbol));
+		}
+		return new LatencyAwareQuoteRouter(instances, state);
+	}
+
+	/**
+	 * @return the symbol
+	 */
+	public String getSymbol() {
+		return providers.get(0).getSymbol();
+	}
+
+	/**
+	 * @param symbol
+	 *            the symbol to set
+	 */
+	public void setSymbol(String symbol) {
+		for (StockQuoteGeneratorInterface provider : providers) {
+			provider.setSymbol(symbol);
+		}
+	}
+
+	/**
+	 * @param symbolClass
+	 *            This is the class of symbols wanted.
+	 * @return The statistics of every generator for the class, in the order
+	 *         the generators were given.
+	 */
+	public List<ProviderStatistics> getStatistics(String symbolClass) {
+		return Arrays.asList(route(symbolClass).statistics);
+	}
+}
@@ -0,0 +1,479 @@
+/**
+ * This class is a stand-in for the Google and Yahoo quote services, built on
+ * the JDK's HTTP server, so that tests and benchmarks can drive the
+ * downloaders and everything above them without reaching the real providers.
+ * It answers Google's JSON at GOOGLE_PATH and Yahoo's CSV at YAHOO_PATH for
+ * any symbol in the StockTickerListing; other symbols are left out of the
+ * response, as the providers do.
+ *
+ * At STREAM_PATH it streams server-sent events for the symbols named by the s
+ * parameter, as StreamingQuoteGenerator expects: a quote for each at once,
+ * then one whenever a price changes, checked every stream interval.
+ *
+ * Each symbol's price follows a geometric Brownian motion, advanced by the
+ * time since it was last quoted, and every response can be delayed and made
+ * to fail at a configurable rate, or whenever it names one of a set of
+ * failing symbols.
+ *
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class LocalMarketDataServer implements Closeable {
+	/**
+	 * This is the path at which quotes are served in Google's format.
+	 */
+	public static final String GOOGLE_PATH = "/finance/info";
+
+	/**
+	 * This is the path at which quotes are served in Yahoo's format.
+	 */
+	public static final String YAHOO_PATH = "/d/quotes.csv";
+
+	/**
+	 * This is the path at which quotes are streamed as server-sent events.
+	 */
+	public static final String STREAM_PATH = "/stream";
+
+	/**
+	 * This is the default time between checks for changed prices on a
+	 * stream, in milliseconds.
+	 */
+	public static final long DEFAULT_STREAM_INTERVAL = 100;
+
+	/**
+	 * This is the status returned for a request chosen to fail.
+	 */
+	public static final int ERROR_STATUS = 503;
+
+	/**
+	 * This is the default volatility of each price, as a fraction per square
+	 * root of a second.
+	 */
+	public static final double DEFAULT_VOLATILITY = 0.001;
+
+	/**
+	 * This is the price of a symbol: the last trade, the previous close, and
+	 * when the last trade was made, in nanoseconds.
+	 */
+	private static class Price {
+		private double lastTrade;
+		private final double previousClose;
+		private long time;
+
+		private Price(double previousClose, long time) {
+			this.lastTrade = previousClose;
+			this.previousClose = previousClose;
+			this.time = time;
+		}
+	}
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final StockTickerListing listing;
+	private final Map<String, Price> prices = new ConcurrentHashMap<String, Price>();
+	private final Random random;
+
+	private volatile long latency;
+	private volatile long latencyJitter;
+	private volatile double errorRate;
+	private volatile double drift;
+	private volatile double volatility = DEFAULT_VOLATILITY;
+	private volatile long streamInterval = DEFAULT_STREAM_INTERVAL;
+	private volatile Set<String> failingSymbols = Set.of();
+
+	private final LongAdder requestCount = new LongAdder();
+	private final LongAdder errorCount = new LongAdder();
+	private final LongAdder eventCount = new LongAdder();
+	private final AtomicInteger largestRequest = new AtomicInteger();
+
+	/**
+	 * Start a server on a free port of the loopback interface.
+	 *
+	 * @throws IOException
+	 *             An IOException will be thrown if the server can not be
+	 *             started.
+	 */
+	public LocalMarketDataServer() throws IOException {
+		this(0, 1);
+	}
+
+	/**
+	 * @param port
+	 *            This is the port to listen on, or zero for any free port.
+	 * @param seed
+	 *            This is the seed of the price movements.
+	 * @throws IOException
+	 *             An IOException will be thrown if the server can not be
+	 *             started.
+	 */
+	public LocalMarketDataServer(int port, long seed) throws IOException {
+		super();
+		this.listing = StockTickerListing.getSingleton();
+		this.random = new Random(seed);
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+		this.executor = Executors.newCachedThreadPool(task -> {
+			Thread thread = new Thread(task, "Local market data server");
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.setExecutor(executor);
+		server.createContext(GOOGLE_PATH, exchange -> handle(exchange, false));
+		server.createContext(YAHOO_PATH, exchange -> handle(exchange, true));
+		server.createContext(STREAM_PATH, this::stream);
+		server.start();
+	}
+
+	/**
+	 * Answer a request for quotes in either format.
+	 */
+	private void handle(HttpExchange exchange, boolean yahoo) throws IOException {
+		try {
+			requestCount.increment();
+			long delay = latency + (latencyJitter > 0 ? ThreadLocalRandom.current().nextLong(latencyJitter + 1) : 0);
+			if (delay > 0) {
+				Thread.sleep(delay);
+			}
+			List<String> symbols = requestedSymbols(exchange.getRequestURI().getRawQuery(), yahoo);
+			largestRequest.accumulateAndGet(symbols.size(), Math::max);
+			if ((errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate)
+					|| symbols.stream().anyMatch(failingSymbols::contains)) {
+				errorCount.increment();
+				exchange.sendResponseHeaders(ERROR_STATUS, -1);
+				return;
+			}
+
+			byte[] body = (yahoo ? yahooResponse(symbols) : googleResponse(symbols))
+					.getBytes(StandardCharsets.US_ASCII);
+			exchange.getResponseHeaders().set("Content-Type", yahoo ? "text/csv" : "application/json");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(body);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Stream quotes for the requested symbols until the client goes away or
+	 * the server is closed.
+	 */
+	private void stream(HttpExchange exchange) throws IOException {
+		try {
+			requestCount.increment();
+			List<String> symbols = requestedSymbols(exchange.getRequestURI().getRawQuery(), true);
+			exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+			exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+			exchange.sendResponseHeaders(200, 0);
+			OutputStream os = exchange.getResponseBody();
+			Map<String, String> sent = new HashMap<String, String>();
+			while (true) {
+				StringBuilder events = new StringBuilder();
+				for (String symbol : symbols) {
+					Price price = quote(symbol);
+					if (price == null) {
+						continue;
+					}
+					String record;
+					synchronized (price) {
+						record = "{ \"t\" : \"" + symbol + "\" ,\"l\" : \"" + format(price.lastTrade)
+								+ "\" ,\"c\" : \"" + signed(price.lastTrade - price.previousClose)
+								+ "\" ,\"pcls_fix\" : \"" + format(price.previousClose) + "\" }";
+					}
+					if (record.equals(sent.put(symbol, record)) == false) {
+						events.append("event: quote\ndata: ").append(record).append("\n\n");
+						eventCount.increment();
+					}
+				}
+				if (events.length() > 0) {
+					os.write(events.toString().getBytes(StandardCharsets.US_ASCII));
+					os.flush();
+				}
+				Thread.sleep(streamInterval);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			// The client has gone away.
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * @return The symbols named by the q parameter, as NSE:A,NSE:B, or the s
+	 *         parameter, as A+B.
+	 */
+	private static List<String> requestedSymbols(String query, boolean yahoo) {
+		List<String> symbols = new ArrayList<String>();
+		if (query == null) {
+			return symbols;
+		}
+		String name = yahoo ? "s=" : "q=";
+		for (String parameter : query.split("&")) {
+			if (parameter.startsWith(name)) {
+				String value = URLDecoder.decode(parameter.substring(2), StandardCharsets.UTF_8);
+				for (String symbol : value.split(yahoo ? "[ ,]" : ",")) {
+					int colon = symbol.indexOf(':');
+					symbol = symbol.substring(colon + 1).trim();
+					if (symbol.isEmpty() == false) {
+						symbols.add(symbol);
+					}
+				}
+			}
+		}
+		return symbols;
+	}
+
+	private String googleResponse(List<String> symbols) {
+		StringBuilder text = new StringBuilder("\n// [\n");
+		boolean first = true;
+		for (String symbol : symbols) {
+			Price price = quote(symbol);
+			if (price == null) {
+				continue;
+			}
+			synchronized (price) {
+				text.append(first ? "{\n" : ",{\n");
+				text.append("\"t\" : \"").append(symbol).append("\"\n");
+				text.append(",\"e\" : \"").append(listing.getExchange(symbol)).append("\"\n");
+				text.append(",\"l\" : \"").append(format(price.lastTrade)).append("\"\n");
+				text.append(",\"c\" : \"").append(signed(price.lastTrade - price.previousClose)).append("\"\n");
+				text.append(",\"pcls_fix\" : \"").append(format(price.previousClose)).append("\"\n");
+				text.append("}\n");
+			}
+			first = false;
+		}
+		return text.append("]\n").toString();
+	}
+
+	private String yahooResponse(List<String> symbols) {
+		Date now = new Date();
+		String date = new SimpleDateFormat("M/d/yyyy", Locale.US).format(now);
+		String time = new SimpleDateFormat("h:mma", Locale.US).format(now).toLowerCase(Locale.US);
+		StringBuilder text = new StringBuilder();
+		for (String symbol : symbols) {
+			Price price = quote(symbol);
+			if (price == null) {
+				continue;
+			}
+			synchronized (price) {
+				text.append('"').append(symbol).append("\",").append(format(price.lastTrade)).append(",\"")
+						.append(date).append("\",\"").append(time).append("\",")
+						.append(signed(price.lastTrade - price.previousClose)).append(',')
+						.append(format(price.previousClose)).append(',')
+						.append(format(Math.max(price.lastTrade, price.previousClose))).append(',')
+						.append(format(Math.min(price.lastTrade, price.previousClose))).append(",1000000\r\n");
+			}
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Move a symbol's price on by the time since it was last quoted.
+	 *
+	 * @return The price, or null if the symbol is not listed.
+	 */
+	private Price quote(String symbol) {
+		if (listing.isValidTickerSymbol(symbol) == false) {
+			return null;
+		}
+		long now = System.nanoTime();
+		Price price = prices.computeIfAbsent(symbol, key -> new Price(initialPrice(key), now));
+		synchronized (price) {
+			double elapsed = (now - price.time) / 1e9;
+			if (elapsed > 0 && volatility > 0) {
+				double shock;
+				synchronized (random) {
+					shock = random.nextGaussian();
+				}
+				price.lastTrade *= Math.exp(
+						(drift - volatility * volatility / 2) * elapsed + volatility * Math.sqrt(elapsed) * shock);
+				price.lastTrade = Math.max(0.01, price.lastTrade);
+			}
+			price.time = Math.max(price.time, now);
+		}
+		return price;
+	}
+
+	/**
+	 * @return A starting price between 10 and 500 which is the same for a
+	 *         symbol on every run.
+	 */
+	private static double initialPrice(String symbol) {
+		return 10 + Math.floorMod(symbol.hashCode(), 49000) / 100.0;
+	}
+
+	private static String format(double value) {
+		return String.format(Locale.US, "%.2f", value);
+	}
+
+	private static String signed(double value) {
+		return (value >= 0 ? "+" : "") + format(value);
+	}
+
+	/**
+	 * @return The address to give a GoogleStockQuoteJSONDownloader.
+	 */
+	public String getGoogleURL() {
+		return "http://127.0.0.1:" + getPort() + GOOGLE_PATH;
+	}
+
+	/**
+	 * @return The address to give a YahooStockQuoteHTMLQuoteExtractor.
+	 */
+	public String getYahooURL() {
+		return "http://127.0.0.1:" + getPort() + YAHOO_PATH;
+	}
+
+	/**
+	 * @return The address to give a StreamingQuoteGenerator.
+	 */
+	public String getStreamURL() {
+		return "http://127.0.0.1:" + getPort() + STREAM_PATH;
+	}
+
+	/**
+	 * @return The port the server is listening on.
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Delay every response.
+	 *
+	 * @param latency
+	 *            This is the least delay, in milliseconds.
+	 * @param jitter
+	 *            This is the most that is added at random to the least delay,
+	 *            in milliseconds.
+	 */
+	public void setLatency(long latency, long jitter) {
+		this.latency = latency;
+		this.latencyJitter = jitter;
+	}
+
+	/**
+	 * @param errorRate
+	 *            This is the fraction of requests which are answered with
+	 *            ERROR_STATUS.
+	 */
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * @param failingSymbols
+	 *            These are the symbols for which every request is answered
+	 *            with ERROR_STATUS, along with any other symbols it names.
+	 */
+	public void setFailingSymbols(Collection<String> failingSymbols) {
+		this.failingSymbols = Set.copyOf(failingSymbols);
+	}
+
+	/**
+	 * Set how prices move between quotes.
+	 *
+	 * @param drift
+	 *            This is the expected rate of change of each price, as a
+	 *            fraction per second.
+	 * @param volatility
+	 *            This is the volatility of each price, as a fraction per square
+	 *            root of a second. Zero holds every price still.
+	 */
+	public void setPriceDynamics(double drift, double volatility) {
+		this.drift = drift;
+		this.volatility = volatility;
+	}
+
+	/**
+	 * @param streamInterval
+	 *            This is the time between checks for changed prices on a
+	 *            stream, in milliseconds.
+	 */
+	public void setStreamInterval(long streamInterval) {
+		this.streamInterval = streamInterval;
+	}
+
+	/**
+	 * @return The number of quote events streamed.
+	 */
+	public long getEventCount() {
+		return eventCount.sum();
+	}
+
+	/**
+	 * @return The number of requests received.
+	 */
+	public long getRequestCount() {
+		return requestCount.sum();
+	}
+
+	/**
+	 * @return The number of requests answered with ERROR_STATUS.
+	 */
+	public long getErrorCount() {
+		return errorCount.sum();
+	}
+
+	/**
+	 * @return The most symbols named by any one request for quotes.
+	 */
+	public int getLargestRequest() {
+		return largestRequest.get();
+	}
+
+	/**
+	 * Stop the server.
+	 */
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Run the server until the process is stopped.
+	 *
+	 * @param args
+	 *            These are the arguments to the program. arg[0], if given, is
+	 *            the port to listen on.
+	 * @throws IOException
+	 *             An IOException will be thrown if the server can not be
+	 *             started.
+	 */
+	public static void main(String[] args) throws IOException {
+		LocalMarketDataServer server = new LocalMarketDataServer(args.length > 0 ? Integer.parseInt(args[0]) : 0,
+				System.nanoTime());
+		System.out.println("Google quotes at " + server.getGoogleURL());
+		System.out.println("Yahoo quotes at " + server.getYahooURL());
+		System.out.println("Quote events at " + server.getStreamURL());
+	}
+}
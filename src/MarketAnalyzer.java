@@ -31,10 +31,21 @@
  * 
  */
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import exceptions.InvalidAnalysisState;
 import exceptions.StockTickerConnectionError;
@@ -45,6 +56,51 @@ import exceptions.StockTickerConnectionError;
  */
 public class MarketAnalyzer implements Runnable {
 
+	/**
+	 * This is the system property naming the file in which responses are kept
+	 * between runs. No file is used if it is not set.
+	 */
+	public static final String RESPONSE_CACHE_PROPERTY = "marketanalyzer.cache";
+
+	/**
+	 * This is the system property naming the file to which every provider
+	 * response is recorded, for ReplayQuoteGenerator. Nothing is recorded if
+	 * it is not set.
+	 */
+	public static final String RECORDING_PROPERTY = "marketanalyzer.record";
+
+	/**
+	 * This is the system property giving the rate limits for each provider,
+	 * as initial,minimum,maximum requests per second, such as 10,0.5,100.
+	 * Requests are not paced if it is not set.
+	 */
+	public static final String RATE_LIMITS_PROPERTY = "marketanalyzer.rateLimits";
+
+	/**
+	 * This is the system property which, when true, falls back on Yahoo
+	 * whenever Google is out of service.
+	 */
+	public static final String FAILOVER_PROPERTY = "marketanalyzer.failover";
+
+	/**
+	 * This is the system property which, when true, repeats on Yahoo any
+	 * request to Google which runs past the usual tail latency.
+	 */
+	public static final String HEDGE_PROPERTY = "marketanalyzer.hedge";
+
+	/**
+	 * This is the system property which, when true, fetches each cycle's
+	 * quotes ahead of time.
+	 */
+	public static final String PREFETCH_PROPERTY = "marketanalyzer.prefetch";
+
+	/**
+	 * This is the system property which, when true, warms up the parsers and
+	 * the connections to the providers before the first cycle. Warming up
+	 * sends requests to the providers.
+	 */
+	public static final String WARM_UP_PROPERTY = "marketanalyzer.warmUp";
+
 	/**
 	 * This parameter sets how often the stock data is refreshed by accessing
 	 * it.
@@ -63,6 +119,12 @@ public class MarketAnalyzer implements Runnable {
 	 */
 	private ArrayList<StockQuoteAnalyzer> symbolsToTrack = new ArrayList<StockQuoteAnalyzer>();
 
+	/**
+	 * This is the stock quote generator from which the quotes for all of the
+	 * tracked symbols are requested in a single batch.
+	 */
+	private StockQuoteGeneratorInterface quoteSource;
+
 	/**
 	 * This class represents the audioPlayer which is to be used to play error
 	 * messages, happy messages, or other sounds based on the behavior of the
@@ -81,6 +143,45 @@ public class MarketAnalyzer implements Runnable {
 	 */
 	private boolean firstTime = true;
 
+	/**
+	 * This is whether quotes are fetched ahead of each cycle, so that they are
+	 * ready to be shown when the cycle begins.
+	 */
+	private boolean prefetch = false;
+
+	/**
+	 * This is whether each quote is shown as soon as the source pushes it,
+	 * rather than polling once per cycle, when the source can push quotes.
+	 */
+	private boolean push = false;
+
+	/**
+	 * This is the source of the time shown, and of the time slept between
+	 * cycles.
+	 */
+	private MarketClock clock = MarketClock.SYSTEM;
+
+	/**
+	 * These are the times taken to fetch the quotes for all of the tracked
+	 * symbols, from which the prefetch lead is estimated.
+	 */
+	private final ProviderStatistics fetchTimes = new ProviderStatistics("fetch");
+
+	/**
+	 * These record how old the quotes were when they were shown, measured
+	 * from when they were requested, in nanoseconds.
+	 */
+	private long lastDataAge;
+	private long totalDataAge;
+	private long maximumDataAge;
+	private long renderCount;
+
+	/**
+	 * This is how long after its cycle began the last cycle was shown, in
+	 * nanoseconds.
+	 */
+	private long lastRenderDelay;
+
 	/**
 	 * Display an error message and play the appropriate error sound(s).
 	 * 
@@ -104,6 +205,7 @@ public class MarketAnalyzer implements Runnable {
 	 */
 	public MarketAnalyzer(String[] symbols, StockQuoteGeneratorInterface wi, StockTickerAudioInterface audioPlayer) {
 		this.audioPlayer = audioPlayer;
+		this.quoteSource = wi;
 		for (int index = 0; index < symbols.length; index++) {
 			try {
 				StockQuoteAnalyzer analyzer = new StockQuoteAnalyzer(symbols[index],
@@ -121,9 +223,35 @@ public class MarketAnalyzer implements Runnable {
 	 * printstream.
 	 */
 	public void updateData() {
+		long requested = clock.nanoTime();
+		this.render(this.fetchQuotes(), requested, requested);
+	}
+
+	/**
+	 * Analyze the given quotes and print them out to the screen / console /
+	 * printstream.
+	 * 
+	 * @param quotes
+	 *            These are the quotes for the tracked symbols.
+	 * @param requested
+	 *            This is the time at which the quotes were requested, from
+	 *            the clock's nanoTime().
+	 * @param cycleStart
+	 *            This is the time at which the cycle began, from
+	 *            the clock's nanoTime().
+	 */
+	private void render(Map<String, StockQuoteInterface> quotes, long requested, long cycleStart) {
+		long now = clock.nanoTime();
+		long dataAge = now - requested;
+		lastRenderDelay = now - cycleStart;
+		lastDataAge = dataAge;
+		totalDataAge += dataAge;
+		maximumDataAge = Math.max(maximumDataAge, dataAge);
+		renderCount++;
+
 		Iterator<StockQuoteAnalyzer> iter = this.symbolsToTrack.iterator();
 
-		out.println(new Date().toString());
+		out.println(new Date(clock.currentTimeMillis()).toString());
 		out.println(
 				"##############################################################################################################################################################");
 		out.printf("%48s", "Stock Name and Symbol ");
@@ -137,19 +265,10 @@ public class MarketAnalyzer implements Runnable {
 		while (iter.hasNext() == true) {
 			StockQuoteAnalyzer instance = iter.next();
 			try {
-				instance.refresh();
-				String symbol = instance.getSymbol();
-				String stockName = StockTickerListing.getSingleton().getCompanyName(symbol);
-
-				out.printf("%40s", stockName);
-				out.printf(" (%5s) ", symbol);
-				out.printf("\t  $%7.2f", instance.getPreviousClose());
-				out.printf("\t  $%7.2f", instance.getCurrentPrice());
-				out.printf("\t  $%7.2f", instance.getChangeSinceClose());
-				out.printf("\t  %7.2f%%", instance.getPercentChangeSinceClose());
+				instance.refresh(quotes.get(instance.getSymbol()));
+				printRow(out, instance, firstTime == false);
 
 				if (firstTime == false) {
-					out.printf("\t  $%7.2f", instance.getChangeSinceLastCheck());
 					instance.playAppropriateAudio();
 				}
 			} catch (StockTickerConnectionError e) {
@@ -166,18 +285,130 @@ public class MarketAnalyzer implements Runnable {
 
 	}
 
+	/**
+	 * Print the analysis of one symbol as a row of the table.
+	 * 
+	 * @param stream
+	 *            This is the stream to which the row is printed.
+	 * @param instance
+	 *            This is the analyzer for the symbol.
+	 * @param withLastChange
+	 *            This is whether the change since the previous check is
+	 *            printed.
+	 * @throws InvalidAnalysisState
+	 *             An InvalidAnalysisState will be thrown if the analyzer does
+	 *             not yet have the quotes it needs.
+	 */
+	private static void printRow(PrintStream stream, StockQuoteAnalyzer instance, boolean withLastChange)
+			throws InvalidAnalysisState {
+		String symbol = instance.getSymbol();
+		String stockName = StockTickerListing.getSingleton().getCompanyName(symbol);
+
+		stream.printf("%40s", stockName);
+		stream.printf(" (%5s) ", symbol);
+		stream.printf("\t  $%7.2f", instance.getPreviousClose());
+		stream.printf("\t  $%7.2f", instance.getCurrentPrice());
+		stream.printf("\t  $%7.2f", instance.getChangeSinceClose());
+		stream.printf("\t  %7.2f%%", instance.getPercentChangeSinceClose());
+
+		if (withLastChange) {
+			stream.printf("\t  $%7.2f", instance.getChangeSinceLastCheck());
+		}
+	}
+
+	/**
+	 * Prepare everything the first cycle will use, so that it runs as quickly
+	 * as the cycles which follow it. The stock quote generator resolves its
+	 * providers' hosts, opens pooled connections to them and runs its parsers
+	 * over synthetic responses; then the analysis and printing of a row are
+	 * run over synthetic quotes, with the output discarded.
+	 * 
+	 * @return The time the warm-up took, in milliseconds.
+	 */
+	public double warmUp() {
+		long start = System.nanoTime();
+		try {
+			this.quoteSource.warmUp();
+		} catch (Exception e) {
+			out.println("Warm-up incomplete: " + e.getMessage());
+		}
+
+		if (this.symbolsToTrack.isEmpty() == false) {
+			String symbol = this.symbolsToTrack.get(0).getSymbol();
+			PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+			try {
+				StockQuoteAnalyzer probe = new StockQuoteAnalyzer(symbol, this.quoteSource.createNewInstance(symbol),
+						this.audioPlayer);
+				discard.println(new Date(clock.currentTimeMillis()).toString());
+				for (int index = 0; index < QuoteWarmup.ITERATIONS; index++) {
+					probe.refresh(new StockQuote(symbol, 100.0, 100.0 + index % 5, index % 5));
+					try {
+						printRow(discard, probe, index > 0);
+					} catch (InvalidAnalysisState e) {
+						// The analysis has still been run as far as it goes.
+					}
+				}
+			} catch (Exception e) {
+				out.println("Warm-up incomplete: " + e.getMessage());
+			}
+		}
+		return (System.nanoTime() - start) / 1000000.0;
+	}
+
+	/**
+	 * Obtain the current quotes for every tracked symbol with one batch request
+	 * to the stock quote generator.
+	 * 
+	 * @return A map from each symbol to its current quote will be returned. If
+	 *         the batch fails entirely, the map will be empty and an error
+	 *         message will have been shown.
+	 */
+	private Map<String, StockQuoteInterface> fetchQuotes() {
+		Set<String> symbols = new LinkedHashSet<String>();
+		for (StockQuoteAnalyzer instance : this.symbolsToTrack) {
+			symbols.add(instance.getSymbol());
+		}
+		long start = clock.nanoTime();
+		try {
+			Map<String, StockQuoteInterface> quotes = this.quoteSource.getCurrentQuotes(symbols);
+			if (quotes != null) {
+				fetchTimes.recordSuccess(clock.nanoTime() - start);
+				return quotes;
+			}
+		} catch (Exception e) {
+			this.showErrorMessage(e.getMessage());
+		}
+		fetchTimes.recordFailure();
+		return Collections.emptyMap();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
 	 * @see java.lang.Runnable#run()
 	 */
 	public void run() {
+		if (push && this.runPushed()) {
+			return;
+		}
+		long cycleStart = clock.nanoTime();
 		while ((runCount == -1) || (runCount > 0)) {
-			this.updateData();
-			try {
-				Thread.sleep(1000 * this.refreshRate);
-			} catch (InterruptedException e) {
-				System.out.println("Interrupted Exception caught");
+			if (prefetch) {
+				// Start fetching early enough that the quotes are normally in
+				// hand when the cycle begins, then show them on time.
+				sleepUntil(cycleStart - getPrefetchLead());
+				long requested = clock.nanoTime();
+				Map<String, StockQuoteInterface> quotes = this.fetchQuotes();
+				sleepUntil(cycleStart);
+				this.render(quotes, requested, cycleStart);
+				cycleStart += 1000000000L * this.refreshRate;
+			} else {
+				this.updateData();
+				try {
+					clock.sleep(this.refreshRate, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					System.out.println("Interrupted Exception caught");
+				}
 			}
 			if (runCount != -1) {
 				runCount--;
@@ -185,6 +416,181 @@ public class MarketAnalyzer implements Runnable {
 		}
 	}
 
+	/**
+	 * Subscribe to the quotes for every tracked symbol and show each one as
+	 * soon as it arrives. The run count, if set, is the number of quotes to
+	 * show.
+	 * 
+	 * @return False if the source can not push quotes, in which case nothing
+	 *         has been done.
+	 */
+	private boolean runPushed() {
+		Map<String, List<StockQuoteAnalyzer>> bySymbol = new LinkedHashMap<String, List<StockQuoteAnalyzer>>();
+		for (StockQuoteAnalyzer instance : this.symbolsToTrack) {
+			bySymbol.computeIfAbsent(instance.getSymbol(), symbol -> new ArrayList<StockQuoteAnalyzer>())
+					.add(instance);
+		}
+		Set<StockQuoteAnalyzer> shown = new HashSet<StockQuoteAnalyzer>();
+		QuoteSubscription subscription = this.quoteSource.subscribe(bySymbol.keySet(),
+				quote -> this.showPushed(bySymbol.get(quote.getSymbol()), quote, shown));
+		if (subscription == null) {
+			return false;
+		}
+		try {
+			synchronized (this) {
+				while (runCount != 0) {
+					this.wait();
+				}
+			}
+		} catch (InterruptedException e) {
+			System.out.println("Interrupted Exception caught");
+		} finally {
+			subscription.cancel();
+		}
+		return true;
+	}
+
+	/**
+	 * Analyze and show a quote pushed by the source.
+	 * 
+	 * @param analyzers
+	 *            These are the analyzers tracking the quote's symbol.
+	 * @param quote
+	 *            This is the quote which has arrived.
+	 * @param shown
+	 *            These are the analyzers which have been shown before.
+	 */
+	private synchronized void showPushed(List<StockQuoteAnalyzer> analyzers, StockQuoteInterface quote,
+			Set<StockQuoteAnalyzer> shown) {
+		if (analyzers == null || runCount == 0) {
+			return;
+		}
+		for (StockQuoteAnalyzer instance : analyzers) {
+			boolean again = shown.add(instance) == false;
+			try {
+				instance.refresh(quote);
+				printRow(out, instance, again);
+				if (again) {
+					instance.playAppropriateAudio();
+				}
+			} catch (StockTickerConnectionError e) {
+				this.showErrorMessage(e.getMessage());
+			} catch (InvalidAnalysisState e) {
+				this.showErrorMessage(e.getMessage());
+			} finally {
+				out.println();
+			}
+		}
+		if (runCount > 0) {
+			runCount--;
+			this.notifyAll();
+		}
+	}
+
+	/**
+	 * Sleep until the given time, returning at once if it has passed.
+	 * 
+	 * @param time
+	 *            This is the time to wake, from the clock's nanoTime().
+	 */
+	private void sleepUntil(long time) {
+		try {
+			clock.sleepUntil(time);
+		} catch (InterruptedException e) {
+			System.out.println("Interrupted Exception caught");
+		}
+	}
+
+	/**
+	 * @return How long before each cycle the quotes are requested when
+	 *         prefetching, in nanoseconds. This is the 95th percentile of
+	 *         recent fetch times, but never more than the refresh rate.
+	 */
+	public long getPrefetchLead() {
+		double p95 = fetchTimes.getLatencyPercentile(95);
+		if (Double.isNaN(p95)) {
+			return 0;
+		}
+		return Math.min((long) (p95 * 1000000.0), 1000000000L * this.refreshRate);
+	}
+
+	/**
+	 * @return Whether quotes are fetched ahead of each cycle.
+	 */
+	public boolean isPrefetch() {
+		return prefetch;
+	}
+
+	/**
+	 * Turn prefetching on or off. When on, each cycle begins a fixed refresh
+	 * rate after the one before, and the quotes for it are requested the
+	 * estimated 95th percentile fetch time ahead of it.
+	 * 
+	 * @param prefetch
+	 *            Whether quotes should be fetched ahead of each cycle.
+	 */
+	public void setPrefetch(boolean prefetch) {
+		this.prefetch = prefetch;
+	}
+
+	/**
+	 * @return Whether quotes pushed by the source are shown as they arrive.
+	 */
+	public boolean isPush() {
+		return push;
+	}
+
+	/**
+	 * Turn pushed quotes on or off. When on, and the source can push quotes,
+	 * the analyzer subscribes to them and shows each one as soon as it
+	 * arrives, instead of polling once per refresh period. A source which can
+	 * not push quotes is polled as before.
+	 * 
+	 * @param push
+	 *            Whether pushed quotes should be used.
+	 */
+	public void setPush(boolean push) {
+		this.push = push;
+	}
+
+	/**
+	 * @return How old the quotes were when they were last shown, measured from
+	 *         when they were requested, in milliseconds.
+	 */
+	public double getLastDataAge() {
+		return lastDataAge / 1000000.0;
+	}
+
+	/**
+	 * @return How old the quotes were on average when shown, in milliseconds.
+	 */
+	public double getAverageDataAge() {
+		return renderCount == 0 ? 0.0 : totalDataAge / (renderCount * 1000000.0);
+	}
+
+	/**
+	 * @return The oldest the quotes have been when shown, in milliseconds.
+	 */
+	public double getMaximumDataAge() {
+		return maximumDataAge / 1000000.0;
+	}
+
+	/**
+	 * @return How long after its cycle began the last cycle was shown, in
+	 *         milliseconds.
+	 */
+	public double getLastRenderDelay() {
+		return lastRenderDelay / 1000000.0;
+	}
+
+	/**
+	 * @return The times taken to fetch the quotes for all of the tracked
+	 *         symbols.
+	 */
+	public ProviderStatistics getFetchTimes() {
+		return fetchTimes;
+	}
+
 	/**
 	 * Return the rate of refreshing of data (in seconds)
 	 * 
@@ -238,6 +644,30 @@ public class MarketAnalyzer implements Runnable {
 		this.out = out;
 	}
 
+	/**
+	 * @return The source of the time shown and slept between cycles.
+	 */
+	public MarketClock getClock() {
+		return clock;
+	}
+
+	/**
+	 * Set the source of time. A VirtualMarketClock lets a whole day's cycles
+	 * run in moments. The analyzers time their price histories by it too.
+	 * 
+	 * @param clock
+	 *            the clock to set
+	 */
+	public void setClock(MarketClock clock) {
+		if (clock == null) {
+			throw new NullPointerException("The clock can not be null");
+		}
+		this.clock = clock;
+		for (StockQuoteAnalyzer instance : this.symbolsToTrack) {
+			instance.setClock(clock);
+		}
+	}
+
 	/**
 	 * @return the runCount
 	 */
@@ -256,6 +686,34 @@ public class MarketAnalyzer implements Runnable {
 	public static void printUsage() {
 		System.out.println(
 				"Usage: MarketAnalyzer <Refresh Rate> <Symbol 0> <Symbol 1> ... <Symbol n>\n where Symbol are valid stock market symbols for companies on the stock market.");
+		System.out.println(" Options, as system properties: -D" + RATE_LIMITS_PROPERTY + "=initial,minimum,maximum -D"
+				+ FAILOVER_PROPERTY + "=true -D" + HEDGE_PROPERTY + "=true -D" + PREFETCH_PROPERTY + "=true -D"
+				+ WARM_UP_PROPERTY + "=true -D" + RESPONSE_CACHE_PROPERTY + "=file -D" + RECORDING_PROPERTY + "=file");
+	}
+
+	/**
+	 * Combine the providers as asked for by FAILOVER_PROPERTY and
+	 * HEDGE_PROPERTY.
+	 * 
+	 * @param preferred
+	 *            This is the provider which is asked first.
+	 * @param alternate
+	 *            This is the provider which is failed over to, and which
+	 *            receives the duplicates of slow requests.
+	 * @return The source of quotes for the analyzer will be returned.
+	 */
+	static StockQuoteGeneratorInterface createSource(StockQuoteGeneratorInterface preferred,
+			StockQuoteGeneratorInterface alternate) {
+		StockQuoteGeneratorInterface source = preferred;
+		if (Boolean.getBoolean(FAILOVER_PROPERTY)) {
+			source = new FailoverQuoteGenerator(source, alternate);
+		}
+		if (Boolean.getBoolean(HEDGE_PROPERTY)) {
+			// A batch is never hedged to the provider it was sent to, so the
+			// duplicates go to the alternate.
+			source = new HedgedQuoteGenerator(source, alternate, HedgedQuoteGenerator.DEFAULT_BUDGET);
+		}
+		return source;
 	}
 
 	/**
@@ -276,9 +734,62 @@ public class MarketAnalyzer implements Runnable {
 				truncArgs[index - 1] = args[index];
 			}
 
-			MarketAnalyzer ma = new MarketAnalyzer(truncArgs, new GoogleStockQuoteJSONDownloader(),
-					new AudioErrorPlayer());
+			// Let each provider's limiter find the rate it will accept.
+			String rateLimits = System.getProperty(RATE_LIMITS_PROPERTY);
+			if (rateLimits != null) {
+				try {
+					String[] limits = rateLimits.split(",");
+					QuoteHttpClient.getSingleton().setRateLimits(Double.parseDouble(limits[0]),
+							Double.parseDouble(limits[1]), Double.parseDouble(limits[2]));
+				} catch (RuntimeException e) {
+					System.err.println("Ignoring the rate limits " + rateLimits + ": " + e.getMessage());
+				}
+			}
+
+			// Show the quotes kept from the previous run while the first
+			// fresh ones are fetched.
+			String cacheFile = System.getProperty(RESPONSE_CACHE_PROPERTY);
+			if (cacheFile != null) {
+				try {
+					PersistentResponseCache cache = new PersistentResponseCache(Paths.get(cacheFile),
+							PersistentResponseCache.DEFAULT_MAXIMUM_AGE);
+					QuoteHttpClient.getSingleton().setPersistentCache(cache);
+					Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+						try {
+							cache.close();
+						} catch (IOException e) {
+							// The file is only a cache; the next run refetches.
+						}
+					}));
+				} catch (IOException e) {
+					System.err.println("Unable to open the response cache " + cacheFile + ": " + e.getMessage());
+				}
+			}
+			String recordingFile = System.getProperty(RECORDING_PROPERTY);
+			if (recordingFile != null) {
+				try {
+					QuoteResponseRecorder recorder = new QuoteResponseRecorder(Paths.get(recordingFile));
+					QuoteHttpClient.getSingleton().setRecorder(recorder);
+					Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+						try {
+							recorder.close();
+						} catch (IOException e) {
+							// Everything recorded has already been written.
+						}
+					}));
+				} catch (IOException e) {
+					System.err.println("Unable to open the recording " + recordingFile + ": " + e.getMessage());
+				}
+			}
+
+			StockQuoteGeneratorInterface source = createSource(new GoogleStockQuoteJSONDownloader(),
+					new YahooStockQuoteHTMLQuoteExtractor());
+			MarketAnalyzer ma = new MarketAnalyzer(truncArgs, source, new AudioErrorPlayer());
 			ma.setRefreshRate(refreshRate);
+			ma.setPrefetch(Boolean.getBoolean(PREFETCH_PROPERTY));
+			if (Boolean.getBoolean(WARM_UP_PROPERTY)) {
+				System.out.printf("Warmed up in %.0f ms%n", ma.warmUp());
+			}
 			new Thread(ma).start();
 		}
 	}
@@ -0,0 +1,69 @@
+/**
+ * This interface is implemented by the sources of time for MarketAnalyzer and
+ * anything it drives: what time it is, sleeping until a later time, and
+ * running a task after a delay. SYSTEM follows the real clocks; a
+ * VirtualMarketClock instead jumps straight from one scheduled event to the
+ * next, so that a simulation runs as fast as it can compute.
+ *
+ */
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public interface MarketClock {
+	/**
+	 * This is the clock which follows real time.
+	 */
+	public static final MarketClock SYSTEM = new SystemMarketClock();
+
+	/**
+	 * @return The current time in nanoseconds, for measuring intervals, as
+	 *         System.nanoTime() gives.
+	 */
+	public abstract long nanoTime();
+
+	/**
+	 * @return The current wall-clock time in milliseconds since the epoch, as
+	 *         System.currentTimeMillis() gives.
+	 */
+	public abstract long currentTimeMillis();
+
+	/**
+	 * Sleep until the given time, returning at once if it has passed.
+	 *
+	 * @param time
+	 *            This is the time to wake, from nanoTime().
+	 * @throws InterruptedException
+	 *             An InterruptedException will be thrown if the thread is
+	 *             interrupted while it sleeps.
+	 */
+	public abstract void sleepUntil(long time) throws InterruptedException;
+
+	/**
+	 * Sleep for the given time.
+	 *
+	 * @param duration
+	 *            This is how long to sleep.
+	 * @param unit
+	 *            This is the unit of the duration.
+	 * @throws InterruptedException
+	 *             An InterruptedException will be thrown if the thread is
+	 *             interrupted while it sleeps.
+	 */
+	public default void sleep(long duration, TimeUnit unit) throws InterruptedException {
+		this.sleepUntil(this.nanoTime() + unit.toNanos(duration));
+	}
+
+	/**
+	 * Run a task once the given time has passed.
+	 *
+	 * @param task
+	 *            This is the task to run.
+	 * @param delay
+	 *            This is how long to wait before running it.
+	 * @param unit
+	 *            This is the unit of the delay.
+	 * @return A future which can be used to cancel the task.
+	 */
+	public abstract Future<?> schedule(Runnable task, long delay, TimeUnit unit);
+}
@@ -0,0 +1,613 @@
+/**
+ * This class is a feed handler for a binary multicast quote feed, in the
+ * format published by MulticastQuotePublisher. One thread reads the group on
+ * the loopback interface through a non-blocking DatagramChannel into a direct
+ * buffer, and keeps the latest quote for every symbol, which polls are then
+ * answered from without any network at all. Quotes can also be pushed to
+ * listeners given to subscribe() as they are read.
+ *
+ * The handler checks the sequence number of every datagram. When messages
+ * have been missed, or on joining the feed, it asks the publisher for a
+ * snapshot of every symbol, and asks again after SNAPSHOT_TIMEOUT until one
+ * arrives whole. A snapshot only replaces a symbol's quote if it is newer
+ * than the last message read for it, and datagrams older than those already
+ * read are ignored.
+ *
+ * Feeds sent as changes against a periodic full refresh, in the DELTA and
+ * REFRESH datagrams described by MulticastQuotePublisher, are decoded by a
+ * QuoteDeltaCodec.Decoder. Each refresh is applied as a snapshot and becomes
+ * the baseline of the changes which follow it. A change against a baseline
+ * which was not received whole is treated as a gap.
+ *
+ * Datagrams which can not be decoded are counted and skipped, and a listener
+ * which throws does not stop the others. Should the reader stop on an error,
+ * polls fail from then on rather than answer with quotes which are no longer
+ * updated, and getFailure() tells why.
+ *
+ * All of the instances created through createNewInstance share the channel
+ * and the quotes. Closing any of them stops the feed.
+ *
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import exceptions.InvalidStockSymbolException;
+import exceptions.WebsiteConnectionError;
+
+public class MulticastQuoteGenerator implements StockQuoteGeneratorInterface, Closeable {
+	/**
+	 * This is how long to wait for a whole snapshot before asking again, in
+	 * milliseconds.
+	 */
+	public static final long SNAPSHOT_TIMEOUT = 200;
+
+	/**
+	 * This is how long a poll waits for the first snapshot, in milliseconds.
+	 */
+	public static final long FIRST_QUOTE_TIMEOUT = 5000;
+
+	/**
+	 * This is the size asked for of the socket's receive buffer, so that
+	 * bursts are not lost while the reader is busy.
+	 */
+	private static final int RECEIVE_BUFFER_SIZE = 1 << 22;
+
+	/**
+	 * This is the latest quote for a symbol and the sequence number it was
+	 * read at. It is only written by the reader thread.
+	 */
+	private static class Slot {
+		private volatile StockQuoteInterface quote;
+		private long sequence = Long.MIN_VALUE;
+	}
+
+	/**
+	 * This is a listener and the symbols it was subscribed to.
+	 */
+	private static class Registration implements QuoteSubscription {
+		private final Set<String> symbols;
+		private final QuoteListener listener;
+		private final List<Registration> registrations;
+		private volatile boolean active = true;
+
+		private Registration(Set<String> symbols, QuoteListener listener, List<Registration> registrations) {
+			this.symbols = symbols;
+			this.listener = listener;
+			this.registrations = registrations;
+		}
+
+		public void cancel() {
+			active = false;
+			registrations.remove(this);
+		}
+
+		public boolean isActive() {
+			return active;
+		}
+	}
+
+	/**
+	 * This is what every instance shares: the channels, the reader thread and
+	 * the quotes.
+	 */
+	private static class FeedState implements Runnable {
+		private final DatagramChannel feed;
+		private final DatagramChannel snapshots;
+		private final Selector selector;
+		private final Thread reader;
+		private final Map<String, Slot> slots = new ConcurrentHashMap<String, Slot>();
+		private final List<Registration> registrations = new CopyOnWriteArrayList<Registration>();
+
+		/**
+		 * This is the sequence number of the next message expected, or -1
+		 * before the first datagram. It and the snapshot being put together
+		 * are only written by the reader thread.
+		 */
+		private volatile long expected = -1;
+		private volatile boolean recovering;
+		private long requestedAt;
+
+		/**
+		 * This is the earliest sequence a snapshot must be as of to fill the
+		 * gaps found so far.
+		 */
+		private long needed;
+		private long snapshotSequence = -1;
+		private final BitSet snapshotParts = new BitSet();
+		private final byte[] symbolBytes = new byte[255];
+		private final ByteBuffer request = ByteBuffer.allocateDirect(MulticastQuotePublisher.HEADER_SIZE);
+		private final QuoteDeltaCodec.Decoder decoder = new QuoteDeltaCodec.Decoder();
+
+		private volatile boolean snapshotComplete;
+		private volatile long packetCount;
+		private volatile long byteCount;
+		private volatile long messageCount;
+		private volatile long gapCount;
+		private volatile long missedCount;
+		private volatile long staleCount;
+		private volatile long undecodableCount;
+		private volatile long snapshotCount;
+		private volatile long listenerFailureCount;
+
+		/**
+		 * This is why the reader stopped, or null while it is running or once
+		 * the feed has been closed.
+		 */
+		private volatile Exception failure;
+
+		private FeedState(InetSocketAddress group, InetSocketAddress snapshotServer) throws IOException {
+			NetworkInterface loopback = MulticastQuotePublisher.loopbackInterface();
+			this.feed = DatagramChannel.open(StandardProtocolFamily.INET);
+			feed.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			feed.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE);
+			feed.bind(new InetSocketAddress(group.getPort()));
+			feed.setOption(StandardSocketOptions.IP_MULTICAST_IF, loopback);
+			feed.join(group.getAddress(), loopback);
+			feed.configureBlocking(false);
+
+			this.snapshots = DatagramChannel.open(StandardProtocolFamily.INET);
+			snapshots.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE);
+			snapshots.connect(snapshotServer);
+			snapshots.configureBlocking(false);
+
+			this.selector = Selector.open();
+			feed.register(selector, SelectionKey.OP_READ);
+			snapshots.register(selector, SelectionKey.OP_READ);
+
+			this.reader = new Thread(this, "Multicast feed handler");
+			reader.setDaemon(true);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Runnable#run()
+		 */
+		public void run() {
+			ByteBuffer packet = ByteBuffer.allocateDirect(MulticastQuotePublisher.MAX_PACKET_SIZE);
+			try {
+				requestSnapshot();
+				while (selector.isOpen()) {
+					selector.select(SNAPSHOT_TIMEOUT);
+					selector.selectedKeys().clear();
+					// Drain both channels before waiting again.
+					boolean read = true;
+					while (read) {
+						read = false;
+						packet.clear();
+						if (feed.receive(packet) != null) {
+							packet.flip();
+							readDatagram(packet);
+							read = true;
+						}
+						packet.clear();
+						if (snapshots.receive(packet) != null) {
+							packet.flip();
+							readDatagram(packet);
+							read = true;
+						}
+					}
+					if (recovering && System.nanoTime() - requestedAt > TimeUnit.MILLISECONDS
+							.toNanos(SNAPSHOT_TIMEOUT)) {
+						requestSnapshot();
+					}
+				}
+			} catch (ClosedSelectorException e) {
+				// The feed has been closed.
+			} catch (IOException | RuntimeException e) {
+				if (selector.isOpen()) {
+					synchronized (this) {
+						failure = e;
+						notifyAll();
+					}
+				}
+			}
+		}
+
+		private void requestSnapshot() throws IOException {
+			request.clear();
+			request.put(MulticastQuotePublisher.SNAPSHOT_REQUEST);
+			request.flip();
+			snapshots.write(request);
+			recovering = true;
+			requestedAt = System.nanoTime();
+			snapshotSequence = -1;
+			snapshotParts.clear();
+		}
+
+		/**
+		 * Read one datagram, counting it as undecodable if it is malformed. A
+		 * gap left by the messages it held is found from the next datagram.
+		 */
+		private void readDatagram(ByteBuffer packet) throws IOException {
+			try {
+				read(packet);
+			} catch (RuntimeException e) {
+				undecodableCount++;
+			}
+		}
+
+		/**
+		 * Read one datagram, ignoring any which are too short for a header.
+		 */
+		private void read(ByteBuffer packet) throws IOException {
+			if (packet.remaining() < MulticastQuotePublisher.HEADER_SIZE) {
+				return;
+			}
+			packetCount++;
+			byteCount += packet.remaining();
+			byte type = packet.get();
+			long sequence = packet.getLong();
+			int part = packet.getShort();
+			int parts = packet.getShort();
+			int count = packet.getShort();
+
+			if (type == MulticastQuotePublisher.INCREMENTAL || type == MulticastQuotePublisher.DELTA) {
+				if (expected >= 0 && sequence + count <= expected) {
+					staleCount++;
+					return;
+				}
+				if (expected >= 0 && sequence > expected) {
+					gapCount++;
+					missedCount += sequence - expected;
+					recover(sequence);
+				}
+				long baseline = type == MulticastQuotePublisher.DELTA ? sequence - QuoteDeltaCodec.getVarint(packet)
+						: -1;
+				for (int index = 0; index < count && packet.hasRemaining(); index++) {
+					long messageSequence = sequence + index;
+					boolean wanted = messageSequence >= expected;
+					if (type == MulticastQuotePublisher.INCREMENTAL) {
+						String symbol = readSymbol(packet, wanted);
+						double lastTrade = packet.getDouble();
+						double previousClose = packet.getDouble();
+						if (wanted) {
+							apply(symbol, messageSequence, lastTrade, previousClose);
+						}
+					} else if (decoder.next(packet, baseline)) {
+						if (wanted) {
+							apply(decoder.getSymbol(), messageSequence, decoder.getLastTrade(),
+									decoder.getPreviousClose());
+						}
+					} else if (wanted) {
+						// The symbol's part of the baseline was lost, so this
+						// message is as good as missed.
+						undecodableCount++;
+						recover(messageSequence + 1);
+					}
+				}
+				expected = sequence + count;
+			} else if ((type == MulticastQuotePublisher.SNAPSHOT && recovering)
+					|| type == MulticastQuotePublisher.REFRESH) {
+				if (snapshotSequence != sequence) {
+					// A reply to an earlier request, or the first part of this
+					// one.
+					snapshotSequence = sequence;
+					snapshotParts.clear();
+				}
+				int first = type == MulticastQuotePublisher.REFRESH ? (int) QuoteDeltaCodec.getVarint(packet) : 0;
+				// Each symbol's quote is as of the message before the
+				// snapshot.
+				for (int index = 0; index < count && packet.hasRemaining(); index++) {
+					String symbol = readSymbol(packet, true);
+					double lastTrade = packet.getDouble();
+					double previousClose = packet.getDouble();
+					apply(symbol, sequence - 1, lastTrade, previousClose);
+					if (type == MulticastQuotePublisher.REFRESH) {
+						decoder.setBaseline(sequence, first + index, symbol, lastTrade, previousClose);
+					}
+				}
+				snapshotParts.set(part);
+				if (snapshotParts.cardinality() == parts) {
+					snapshotCount++;
+					if (recovering) {
+						if (sequence < needed) {
+							requestSnapshot();
+							return;
+						}
+						recovering = false;
+					}
+					if (expected < sequence) {
+						expected = sequence;
+					}
+					if (snapshotComplete == false) {
+						synchronized (this) {
+							snapshotComplete = true;
+							notifyAll();
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Ask for a snapshot, unless one has been asked for already.
+		 *
+		 * @param needed
+		 *            This is the earliest sequence the snapshot must be as of
+		 *            to make up for what was missed.
+		 */
+		private void recover(long needed) throws IOException {
+			// The snapshot must have been taken after the gap, so one already
+			// asked for may not do.
+			this.needed = Math.max(this.needed, needed);
+			if (recovering == false) {
+				requestSnapshot();
+			}
+		}
+
+		/**
+		 * Read the symbol of a message sent in full.
+		 *
+		 * @return The symbol, or null if it is not wanted.
+		 */
+		private String readSymbol(ByteBuffer packet, boolean wanted) {
+			int length = packet.get() & 0xFF;
+			packet.get(symbolBytes, 0, length);
+			return wanted ? new String(symbolBytes, 0, length, StandardCharsets.US_ASCII) : null;
+		}
+
+		/**
+		 * Keep a message if it is newer than the symbol's quote.
+		 */
+		private void apply(String symbol, long sequence, double lastTrade, double previousClose) {
+			Slot slot = slots.computeIfAbsent(symbol, key -> new Slot());
+			if (slot.sequence >= sequence) {
+				return;
+			}
+			StockQuoteInterface quote = new StockQuote(symbol, previousClose, lastTrade, lastTrade - previousClose);
+			slot.sequence = sequence;
+			slot.quote = quote;
+			messageCount++;
+			for (Registration registration : registrations) {
+				if (registration.active && registration.symbols.contains(symbol)) {
+					try {
+						registration.listener.quoteUpdated(quote);
+					} catch (RuntimeException e) {
+						listenerFailureCount++;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Wait for the first whole snapshot, and check that the feed is still
+		 * being read.
+		 */
+		private synchronized void awaitSnapshot() throws InterruptedException, WebsiteConnectionError {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FIRST_QUOTE_TIMEOUT);
+			long remaining = deadline - System.nanoTime();
+			while (snapshotComplete == false && failure == null && remaining > 0) {
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+				remaining = deadline - System.nanoTime();
+			}
+			if (failure != null) {
+				throw new WebsiteConnectionError("The feed has stopped", failure);
+			}
+			if (snapshotComplete == false) {
+				throw new WebsiteConnectionError("No snapshot has been received from the feed");
+			}
+		}
+
+		private void close() throws IOException {
+			selector.close();
+			feed.close();
+			snapshots.close();
+		}
+	}
+
+	private final FeedState state;
+	private String symbol;
+
+	/**
+	 * Join the feed and ask for a snapshot.
+	 *
+	 * @param group
+	 *            This is the multicast group and port of the feed.
+	 * @param snapshotServer
+	 *            This is the address to which snapshot requests are sent.
+	 * @throws IOException
+	 *             An IOException will be thrown if the group can not be
+	 *             joined.
+	 */
+	public MulticastQuoteGenerator(InetSocketAddress group, InetSocketAddress snapshotServer) throws IOException {
+		this(new FeedState(group, snapshotServer), null);
+		state.reader.start();
+	}
+
+	private MulticastQuoteGenerator(FeedState state, String symbol) {
+		super();
+		this.state = state;
+		this.symbol = symbol;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuote()
+	 */
+	public StockQuoteInterface getCurrentQuote() throws Exception {
+		state.awaitSnapshot();
+		Slot slot = state.slots.get(symbol);
+		if (slot == null) {
+			throw new InvalidStockSymbolException("Symbol " + symbol + " is not on the feed.");
+		}
+		return slot.quote;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuotes(java.util.Collection)
+	 */
+	public Map<String, StockQuoteInterface> getCurrentQuotes(Collection<String> symbols) throws Exception {
+		state.awaitSnapshot();
+		Map<String, StockQuoteInterface> retVal = new LinkedHashMap<String, StockQuoteInterface>();
+		for (String requested : symbols) {
+			Slot slot = state.slots.get(requested);
+			if (slot != null) {
+				retVal.put(requested, slot.quote);
+			}
+		}
+		if (retVal.isEmpty() && symbols.isEmpty() == false) {
+			throw new InvalidStockSymbolException("None of the symbols are on the feed.");
+		}
+		return retVal;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#subscribe(java.util.Collection,
+	 * QuoteListener)
+	 */
+	public QuoteSubscription subscribe(Collection<String> symbols, QuoteListener listener) {
+		Registration registration = new Registration(Collections.unmodifiableSet(new HashSet<String>(symbols)),
+				listener, state.registrations);
+		state.registrations.add(registration);
+		return registration;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#createNewInstance(java.lang.String)
+	 */
+	public StockQuoteGeneratorInterface createNewInstance(String symbol) {
+		return new MulticastQuoteGenerator(state, symbol);
+	}
+
+	/**
+	 * @return the symbol
+	 */
+	public String getSymbol() {
+		return symbol;
+	}
+
+	/**
+	 * @param symbol
+	 *            the symbol to set
+	 */
+	public void setSymbol(String symbol) {
+		this.symbol = symbol;
+	}
+
+	/**
+	 * @return The sequence number of the next message expected from the feed.
+	 */
+	public long getExpectedSequence() {
+		return state.expected;
+	}
+
+	/**
+	 * @return The number of datagrams read.
+	 */
+	public long getPacketCount() {
+		return state.packetCount;
+	}
+
+	/**
+	 * @return The number of bytes of datagrams read.
+	 */
+	public long getByteCount() {
+		return state.byteCount;
+	}
+
+	/**
+	 * @return The number of messages which updated a quote.
+	 */
+	public long getMessageCount() {
+		return state.messageCount;
+	}
+
+	/**
+	 * @return The number of gaps found in the sequence numbers.
+	 */
+	public long getGapCount() {
+		return state.gapCount;
+	}
+
+	/**
+	 * @return The number of messages missed in those gaps.
+	 */
+	public long getMissedCount() {
+		return state.missedCount;
+	}
+
+	/**
+	 * @return The number of datagrams ignored as older than those read.
+	 */
+	public long getStaleCount() {
+		return state.staleCount;
+	}
+
+	/**
+	 * @return The number of delta messages which could not be decoded,
+	 *         because their part of the baseline had not been received, and of
+	 *         datagrams which were malformed.
+	 */
+	public long getUndecodableCount() {
+		return state.undecodableCount;
+	}
+
+	/**
+	 * @return The number of times a listener threw while being given a quote.
+	 */
+	public long getListenerFailureCount() {
+		return state.listenerFailureCount;
+	}
+
+	/**
+	 * @return Why the feed stopped being read, or null if it is still being
+	 *         read or has been closed.
+	 */
+	public Exception getFailure() {
+		return state.failure;
+	}
+
+	/**
+	 * @return The number of whole snapshots and refreshes applied.
+	 */
+	public long getSnapshotCount() {
+		return state.snapshotCount;
+	}
+
+	/**
+	 * @return True while a snapshot has been asked for and not yet received
+	 *         whole.
+	 */
+	public boolean isRecovering() {
+		return state.recovering;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	public void close() throws IOException {
+		state.close();
+	}
+}
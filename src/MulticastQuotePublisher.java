@@ -0,0 +1,507 @@
+/**
+ * This class publishes a binary multicast feed of quotes on the loopback
+ * interface, for MulticastQuoteGenerator to be tested and measured against
+ * without a real exchange. Every symbol in the StockTickerListing starts at a
+ * made-up price and moves by a seeded random step each time it is published.
+ *
+ * Each datagram is big-endian and holds a header of
+ * <pre>
+ *   byte  type        INCREMENTAL, SNAPSHOT, DELTA or REFRESH
+ *   long  sequence    see below
+ *   short part        this datagram's index within a snapshot, else 0
+ *   short parts       the number of datagrams in a snapshot, else 1
+ *   short count       the number of messages which follow
+ * </pre>
+ * followed by count messages of
+ * <pre>
+ *   byte   length     of the symbol
+ *   byte[] symbol     in ASCII
+ *   double lastTrade
+ *   double previousClose
+ * </pre>
+ * Every message carries the whole state of its symbol, so a later message
+ * replaces an earlier one. Each message published on the group takes the next
+ * sequence number, and an INCREMENTAL datagram's sequence is that of its
+ * first message. A SNAPSHOT holds every symbol as of the sequence given, which
+ * is that of the next message to be published, and is sent only to whoever
+ * sent a SNAPSHOT_REQUEST to the snapshot address.
+ *
+ * With delta encoding on, messages are instead sent as changes against a
+ * baseline, as encoded by QuoteDeltaCodec, in DELTA datagrams whose header is
+ * followed by a varint of how far the sequence is past the baseline. Each
+ * baseline is a full refresh of every symbol sent to the group in REFRESH
+ * datagrams, which are laid out as a snapshot but with a varint of the index
+ * of their first symbol after the header. Their sequence identifies the
+ * baseline. A refresh is sent every refresh interval messages, and in answer
+ * to a snapshot request in place of the snapshot.
+ *
+ * Datagrams can be dropped at a configurable rate, still taking their
+ * sequence numbers, to make gaps.
+ *
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+public class MulticastQuotePublisher implements Closeable {
+	/**
+	 * This is the group published to unless another is given. It is in the
+	 * administratively scoped range, so it never leaves the site.
+	 */
+	public static final String DEFAULT_GROUP = "239.255.0.1";
+
+	/**
+	 * This is the largest datagram sent, which fits an Ethernet frame.
+	 */
+	public static final int MAX_PACKET_SIZE = 1472;
+
+	/**
+	 * This is the size of the header of every datagram.
+	 */
+	public static final int HEADER_SIZE = 1 + 8 + 2 + 2 + 2;
+
+	/**
+	 * These are the types of datagram.
+	 */
+	public static final byte INCREMENTAL = 1;
+	public static final byte SNAPSHOT = 2;
+	public static final byte SNAPSHOT_REQUEST = 3;
+	public static final byte DELTA = 4;
+	public static final byte REFRESH = 5;
+
+	/**
+	 * This is the default number of delta messages between full refreshes.
+	 */
+	public static final int DEFAULT_REFRESH_INTERVAL = 50000;
+
+	/**
+	 * This is the default volatility of each step, as a fraction of the price.
+	 */
+	public static final double DEFAULT_VOLATILITY = 0.002;
+
+	private final InetSocketAddress group;
+	private final DatagramChannel channel;
+	private final DatagramChannel snapshotChannel;
+	private final Thread snapshotThread;
+	private final Random random;
+
+	/**
+	 * These are the symbols published and their prices, by index. They are
+	 * guarded by this publisher's lock.
+	 */
+	private final List<String> symbols;
+	private final byte[][] symbolBytes;
+	private final double[] lastTrade;
+	private final double[] previousClose;
+	private long sequence;
+
+	/**
+	 * This is the index of the first symbol in each datagram of a refresh.
+	 */
+	private final int[] refreshParts;
+
+	/**
+	 * This is the datagram being filled, and the sequence of its first
+	 * message.
+	 */
+	private final ByteBuffer packet = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+	private long packetSequence;
+
+	/**
+	 * This encodes the messages while delta encoding is on, and is null
+	 * otherwise.
+	 */
+	private QuoteDeltaCodec.Encoder encoder;
+	private int refreshInterval = DEFAULT_REFRESH_INTERVAL;
+	private int sinceRefresh;
+
+	private volatile double dropRate;
+	private volatile double volatility = DEFAULT_VOLATILITY;
+
+	private final LongAdder packetCount = new LongAdder();
+	private final LongAdder droppedPacketCount = new LongAdder();
+	private final LongAdder snapshotCount = new LongAdder();
+
+	/**
+	 * Start publishing to DEFAULT_GROUP, on a free port.
+	 *
+	 * @throws IOException
+	 *             An IOException will be thrown if the channels can not be
+	 *             opened.
+	 */
+	public MulticastQuotePublisher() throws IOException {
+		this(new InetSocketAddress(InetAddress.getByName(DEFAULT_GROUP), freePort()), 1);
+	}
+
+	/**
+	 * @param group
+	 *            This is the multicast group and port to publish to.
+	 * @param seed
+	 *            This is the seed of the prices.
+	 * @throws IOException
+	 *             An IOException will be thrown if the channels can not be
+	 *             opened.
+	 */
+	public MulticastQuotePublisher(InetSocketAddress group, long seed) throws IOException {
+		super();
+		this.group = group;
+		this.random = new Random(seed);
+		List<String> listed = new ArrayList<String>(StockTickerListing.getSingleton().keySet());
+		Collections.sort(listed);
+		this.symbols = Collections.unmodifiableList(listed);
+		this.symbolBytes = new byte[listed.size()][];
+		this.lastTrade = new double[listed.size()];
+		this.previousClose = new double[listed.size()];
+		for (int index = 0; index < listed.size(); index++) {
+			symbolBytes[index] = listed.get(index).getBytes(StandardCharsets.US_ASCII);
+			previousClose[index] = Math.floor((10 + 490 * random.nextDouble()) * 100) / 100;
+			lastTrade[index] = previousClose[index];
+		}
+		List<Integer> parts = new ArrayList<Integer>();
+		for (int index = 0, size = MAX_PACKET_SIZE; index < listed.size(); index++) {
+			int message = 17 + symbolBytes[index].length;
+			if (size + message > MAX_PACKET_SIZE) {
+				parts.add(index);
+				size = HEADER_SIZE + QuoteDeltaCodec.varintSize(index);
+			}
+			size += message;
+		}
+		this.refreshParts = parts.stream().mapToInt(Integer::intValue).toArray();
+
+		NetworkInterface loopback = loopbackInterface();
+		this.channel = DatagramChannel.open(StandardProtocolFamily.INET);
+		channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, loopback);
+		channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+		channel.setOption(StandardSocketOptions.SO_SNDBUF, 1 << 22);
+
+		this.snapshotChannel = DatagramChannel.open(StandardProtocolFamily.INET)
+				.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		this.snapshotThread = new Thread(this::answerSnapshotRequests, "Multicast snapshot server");
+		snapshotThread.setDaemon(true);
+		snapshotThread.start();
+	}
+
+	/**
+	 * @return The interface the feed is published on.
+	 * @throws IOException
+	 *             An IOException will be thrown if there is no loopback
+	 *             interface.
+	 */
+	static NetworkInterface loopbackInterface() throws IOException {
+		NetworkInterface loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+		if (loopback == null) {
+			throw new IOException("There is no loopback interface");
+		}
+		return loopback;
+	}
+
+	/**
+	 * @return A UDP port which is free at the moment.
+	 */
+	private static int freePort() throws IOException {
+		try (DatagramChannel probe = DatagramChannel.open(StandardProtocolFamily.INET)) {
+			probe.bind(new InetSocketAddress(0));
+			return ((InetSocketAddress) probe.getLocalAddress()).getPort();
+		}
+	}
+
+	/**
+	 * Move the prices of randomly chosen symbols and publish them, as many
+	 * messages to a datagram as will fit.
+	 *
+	 * @param updates
+	 *            This is the number of messages to publish.
+	 * @throws IOException
+	 *             An IOException will be thrown if a datagram can not be
+	 *             sent.
+	 */
+	public synchronized void publish(int updates) throws IOException {
+		for (int update = 0; update < updates; update++) {
+			int index = random.nextInt(symbols.size());
+			lastTrade[index] = Math.max(0.01,
+					Math.round(lastTrade[index] * (1 + volatility * random.nextGaussian()) * 100) / 100.0);
+			if (encoder != null) {
+				if (encoder.getBaseline() < 0 || sinceRefresh >= refreshInterval) {
+					flush();
+					refresh();
+				}
+				if (packet.position() + QuoteDeltaCodec.MAX_MESSAGE_SIZE > MAX_PACKET_SIZE) {
+					flush();
+				}
+				if (packet.position() == 0) {
+					startPacket(packet, DELTA, sequence, 0, 1);
+					QuoteDeltaCodec.putVarint(packet, sequence - encoder.getBaseline());
+					packetSequence = sequence;
+				}
+				encoder.put(packet, index, lastTrade[index], previousClose[index]);
+				sinceRefresh++;
+			} else {
+				if (packet.position() + 17 + symbolBytes[index].length > MAX_PACKET_SIZE) {
+					flush();
+				}
+				if (packet.position() == 0) {
+					startPacket(packet, INCREMENTAL, sequence, 0, 1);
+					packetSequence = sequence;
+				}
+				putMessage(packet, index);
+			}
+			sequence++;
+		}
+		flush();
+	}
+
+	/**
+	 * Send every symbol to the group as a new baseline, as of the next
+	 * sequence number.
+	 */
+	private void refresh() throws IOException {
+		encoder.startBaseline(sequence);
+		for (int part = 0; part < refreshParts.length; part++) {
+			int end = part + 1 < refreshParts.length ? refreshParts[part + 1] : symbols.size();
+			startPacket(packet, REFRESH, sequence, part, refreshParts.length);
+			packet.putShort(HEADER_SIZE - 2, (short) (end - refreshParts[part]));
+			QuoteDeltaCodec.putVarint(packet, refreshParts[part]);
+			for (int index = refreshParts[part]; index < end; index++) {
+				putMessage(packet, index);
+				encoder.setBaseline(index, lastTrade[index], previousClose[index]);
+			}
+			send();
+		}
+		sinceRefresh = 0;
+	}
+
+	/**
+	 * Send the datagram being filled, unless it is chosen to be dropped.
+	 */
+	private void flush() throws IOException {
+		if (packet.position() == 0) {
+			return;
+		}
+		packet.putShort(HEADER_SIZE - 2, (short) (sequence - packetSequence));
+		send();
+	}
+
+	/**
+	 * Send the datagram which has been filled, unless it is chosen to be
+	 * dropped.
+	 */
+	private void send() throws IOException {
+		packet.flip();
+		if (dropRate > 0 && random.nextDouble() < dropRate) {
+			droppedPacketCount.increment();
+		} else {
+			channel.send(packet, group);
+			packetCount.increment();
+		}
+		packet.clear();
+	}
+
+	private static void startPacket(ByteBuffer buffer, byte type, long sequence, int part, int parts) {
+		buffer.put(type);
+		buffer.putLong(sequence);
+		buffer.putShort((short) part);
+		buffer.putShort((short) parts);
+		buffer.putShort((short) 0);
+	}
+
+	private void putMessage(ByteBuffer buffer, int index) {
+		buffer.put((byte) symbolBytes[index].length);
+		buffer.put(symbolBytes[index]);
+		buffer.putDouble(lastTrade[index]);
+		buffer.putDouble(previousClose[index]);
+	}
+
+	/**
+	 * Answer each snapshot request with every symbol's current price, until
+	 * the publisher is closed.
+	 */
+	private void answerSnapshotRequests() {
+		ByteBuffer request = ByteBuffer.allocateDirect(HEADER_SIZE);
+		ByteBuffer reply = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+		try {
+			while (true) {
+				request.clear();
+				SocketAddress requester = snapshotChannel.receive(request);
+				if (request.position() == 0 || request.get(0) != SNAPSHOT_REQUEST) {
+					continue;
+				}
+				synchronized (this) {
+					if (encoder != null) {
+						refresh();
+						snapshotCount.increment();
+						continue;
+					}
+				}
+				sendSnapshot(reply, requester);
+				snapshotCount.increment();
+			}
+		} catch (ClosedChannelException e) {
+			// The publisher has been closed.
+		} catch (IOException e) {
+			System.err.println("Snapshot server stopped: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Send every symbol as of the next sequence number. The prices are copied
+	 * under the lock, as they are published, and then sent.
+	 */
+	private void sendSnapshot(ByteBuffer reply, SocketAddress requester) throws IOException {
+		List<ByteBuffer> parts = new ArrayList<ByteBuffer>();
+		synchronized (this) {
+			ByteBuffer part = null;
+			for (int index = 0; index < symbols.size(); index++) {
+				if (part == null || part.position() + 17 + symbolBytes[index].length > MAX_PACKET_SIZE) {
+					part = ByteBuffer.allocate(MAX_PACKET_SIZE);
+					startPacket(part, SNAPSHOT, sequence, parts.size(), 0);
+					parts.add(part);
+				}
+				putMessage(part, index);
+				part.putShort(HEADER_SIZE - 2, (short) (part.getShort(HEADER_SIZE - 2) + 1));
+			}
+		}
+		for (ByteBuffer part : parts) {
+			part.putShort(HEADER_SIZE - 4, (short) parts.size());
+			part.flip();
+			reply.clear();
+			reply.put(part);
+			reply.flip();
+			snapshotChannel.send(reply, requester);
+		}
+	}
+
+	/**
+	 * @return The group and port the feed is published to.
+	 */
+	public InetSocketAddress getGroup() {
+		return group;
+	}
+
+	/**
+	 * @return The address to send snapshot requests to.
+	 * @throws IOException
+	 *             An IOException will be thrown if the publisher has been
+	 *             closed.
+	 */
+	public InetSocketAddress getSnapshotAddress() throws IOException {
+		return (InetSocketAddress) snapshotChannel.getLocalAddress();
+	}
+
+	/**
+	 * @return The symbols published.
+	 */
+	public List<String> getSymbols() {
+		return symbols;
+	}
+
+	/**
+	 * @param symbol
+	 *            This is a published symbol.
+	 * @return The last price published for the symbol, or NaN if it is not
+	 *         published.
+	 */
+	public synchronized double getLastTrade(String symbol) {
+		int index = Collections.binarySearch(symbols, symbol);
+		return index < 0 ? Double.NaN : lastTrade[index];
+	}
+
+	/**
+	 * @return The sequence number of the next message to be published.
+	 */
+	public synchronized long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @param deltaEncoding
+	 *            This is true if messages are to be sent as changes against a
+	 *            periodic full refresh.
+	 */
+	public synchronized void setDeltaEncoding(boolean deltaEncoding) {
+		if (deltaEncoding && encoder == null) {
+			encoder = new QuoteDeltaCodec.Encoder(symbols.size());
+		} else if (deltaEncoding == false) {
+			encoder = null;
+		}
+	}
+
+	/**
+	 * @return True if messages are sent as changes against a baseline.
+	 */
+	public synchronized boolean isDeltaEncoding() {
+		return encoder != null;
+	}
+
+	/**
+	 * @param refreshInterval
+	 *            This is the number of delta messages between full refreshes.
+	 */
+	public synchronized void setRefreshInterval(int refreshInterval) {
+		this.refreshInterval = refreshInterval;
+	}
+
+	/**
+	 * @param dropRate
+	 *            This is the fraction of datagrams, between 0 and 1, which are
+	 *            to be dropped rather than sent.
+	 */
+	public void setDropRate(double dropRate) {
+		this.dropRate = dropRate;
+	}
+
+	/**
+	 * @param volatility
+	 *            This is the volatility of each step, as a fraction of the
+	 *            price.
+	 */
+	public void setVolatility(double volatility) {
+		this.volatility = volatility;
+	}
+
+	/**
+	 * @return The number of datagrams sent to the group.
+	 */
+	public long getPacketCount() {
+		return packetCount.sum();
+	}
+
+	/**
+	 * @return The number of datagrams dropped on purpose.
+	 */
+	public long getDroppedPacketCount() {
+		return droppedPacketCount.sum();
+	}
+
+	/**
+	 * @return The number of snapshots sent, counting refreshes sent in answer
+	 *         to a snapshot request.
+	 */
+	public long getSnapshotCount() {
+		return snapshotCount.sum();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	public void close() throws IOException {
+		channel.close();
+		snapshotChannel.close();
+	}
+}
@@ -0,0 +1,387 @@
+/**
+ * This class keeps the most recent raw response for each URL in a
+ * memory-mapped file, together with its validators and the time it was
+ * stored, so that a restarted MarketAnalyzer can show the last known quotes at
+ * once rather than refetching the whole universe before its first cycle.
+ * Responses older than the maximum age are never served.
+ *
+ * The file is a log of records. Each new response is appended with a CRC-32C
+ * checksum of its contents. The pages of a mapped file may reach the disk in
+ * any order, so a crash can leave a record with a length but not its bytes,
+ * or the reverse. When the file is next opened, the log therefore ends at the
+ * first record whose checksum does not match. When the file fills up, the
+ * latest unexpired record for each URL is copied back to the start and the
+ * rest are dropped.
+ *
+ * The file is locked while it is open, so that two analyzers can not share
+ * it.
+ *
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32C;
+
+public class PersistentResponseCache implements Closeable {
+	/**
+	 * This is the default size of the file, in bytes.
+	 */
+	public static final int DEFAULT_CAPACITY = 64 * 1024 * 1024;
+
+	/**
+	 * This is the default age beyond which responses are not served, in
+	 * milliseconds.
+	 */
+	public static final long DEFAULT_MAXIMUM_AGE = 15 * 60 * 1000;
+
+	/**
+	 * This marks a file written by this class, in this layout.
+	 */
+	private static final long MAGIC = 0x5143414348453032L;
+
+	/**
+	 * This is the size of the file header, which holds the magic number.
+	 */
+	private static final int HEADER = 8;
+
+	/**
+	 * This is the smallest length a record can have: the checksum, the time,
+	 * three strings and the payload length.
+	 */
+	private static final int MINIMUM_RECORD = 4 + 8 + 2 + 2 + 2 + 4;
+
+	/**
+	 * This is a response read back from the file.
+	 */
+	public static class Entry {
+		private final ByteBuffer payload;
+		private final long storedAt;
+		private final String eTag;
+		private final String lastModified;
+
+		private Entry(ByteBuffer payload, long storedAt, String eTag, String lastModified) {
+			this.payload = payload;
+			this.storedAt = storedAt;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * @return the raw response, ready to be read
+		 */
+		public ByteBuffer getPayload() {
+			return payload;
+		}
+
+		/**
+		 * @return the time the response was stored, in milliseconds since the
+		 *         epoch
+		 */
+		public long getStoredAt() {
+			return storedAt;
+		}
+
+		/**
+		 * @return the ETag of the response, or null if it had none
+		 */
+		public String getETag() {
+			return eTag;
+		}
+
+		/**
+		 * @return the Last-Modified time of the response, or null if it had
+		 *         none
+		 */
+		public String getLastModified() {
+			return lastModified;
+		}
+	}
+
+	private final FileChannel channel;
+	private final FileLock lock;
+	private final MappedByteBuffer map;
+	private final int capacity;
+	private final long maximumAge;
+	private final LongSupplier clock;
+
+	/**
+	 * This is the offset of the latest record for each URL.
+	 */
+	private final Map<String, Integer> index = new HashMap<String, Integer>();
+
+	/**
+	 * This is the offset at which the next record is written.
+	 */
+	private int end;
+
+	/**
+	 * @param path
+	 *            This is the file in which the responses are kept. It is
+	 *            created if it does not exist.
+	 * @param maximumAge
+	 *            This is the age beyond which responses are not served, in
+	 *            milliseconds.
+	 * @throws IOException
+	 *             An IOException will be thrown if the file can not be opened
+	 *             or mapped.
+	 */
+	public PersistentResponseCache(Path path, long maximumAge) throws IOException {
+		this(path, DEFAULT_CAPACITY, maximumAge, System::currentTimeMillis);
+	}
+
+	/**
+	 * @param path
+	 *            This is the file in which the responses are kept. It is
+	 *            created if it does not exist.
+	 * @param capacity
+	 *            This is the size of the file, in bytes.
+	 * @param maximumAge
+	 *            This is the age beyond which responses are not served, in
+	 *            milliseconds.
+	 * @param clock
+	 *            This is the source of the current time, in milliseconds since
+	 *            the epoch.
+	 * @throws IOException
+	 *             An IOException will be thrown if the file can not be opened
+	 *             or mapped, or is in use by another cache.
+	 */
+	public PersistentResponseCache(Path path, int capacity, long maximumAge, LongSupplier clock) throws IOException {
+		super();
+		if (capacity < HEADER + 64) {
+			throw new IllegalArgumentException("The capacity of the response cache is too small.");
+		}
+		this.capacity = capacity;
+		this.maximumAge = maximumAge;
+		this.clock = clock;
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			this.lock = channel.tryLock();
+			if (lock == null) {
+				throw new IOException("The response cache " + path + " is in use by another process.");
+			}
+			this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		} catch (OverlappingFileLockException e) {
+			channel.close();
+			throw new IOException("The response cache " + path + " is already open.", e);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+
+		if (map.getLong(0) == MAGIC) {
+			load();
+		} else {
+			map.putInt(HEADER, 0);
+			map.putLong(0, MAGIC);
+			end = HEADER;
+		}
+	}
+
+	/**
+	 * Index every complete record in the file, up to the first which is not.
+	 */
+	private void load() {
+		int offset = HEADER;
+		while (offset + 4 <= capacity) {
+			int length = map.getInt(offset);
+			if (length < MINIMUM_RECORD || offset + 4 + length > capacity
+					|| map.getInt(offset + 4) != checksum(offset, length)) {
+				break;
+			}
+			index.put(readString(offset + 16), offset);
+			offset += 4 + length;
+		}
+		end = offset;
+	}
+
+	/**
+	 * @return The checksum of everything in the record after the checksum
+	 *         itself.
+	 */
+	private int checksum(int offset, int length) {
+		CRC32C crc = new CRC32C();
+		crc.update(map.slice(offset + 8, length - 4));
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Record layout, from the record's offset: int length of the rest; int
+	 * checksum of what follows it; long time stored; URL, ETag and
+	 * Last-Modified as a short length (-1 for none) and UTF-8 bytes; int
+	 * payload length; payload.
+	 */
+	private String readString(int offset) {
+		int length = map.getShort(offset);
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		map.get(offset + 2, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private int skipString(int offset) {
+		return offset + 2 + Math.max(0, map.getShort(offset));
+	}
+
+	private int writeString(int offset, byte[] bytes) {
+		if (bytes == null) {
+			map.putShort(offset, (short) -1);
+			return offset + 2;
+		}
+		map.putShort(offset, (short) bytes.length);
+		map.put(offset + 2, bytes);
+		return offset + 2 + bytes.length;
+	}
+
+	private static byte[] bytes(String text) {
+		return text == null ? null : text.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param url
+	 *            This is the URL whose response is wanted.
+	 * @return A copy of the latest response stored for the URL, or null if
+	 *         there is none younger than the maximum age.
+	 */
+	public synchronized Entry get(String url) {
+		Integer offset = index.get(url);
+		if (offset == null) {
+			return null;
+		}
+		long storedAt = map.getLong(offset + 8);
+		if (clock.getAsLong() - storedAt > maximumAge) {
+			return null;
+		}
+		int position = skipString(offset + 16);
+		String eTag = readString(position);
+		position = skipString(position);
+		String lastModified = readString(position);
+		position = skipString(position);
+		byte[] payload = new byte[map.getInt(position)];
+		map.get(position + 4, payload);
+		return new Entry(ByteBuffer.wrap(payload), storedAt, eTag, lastModified);
+	}
+
+	/**
+	 * Store the latest response for a URL.
+	 *
+	 * @param url
+	 *            This is the URL which was downloaded.
+	 * @param payload
+	 *            This is the raw response. Its position is not changed.
+	 * @param eTag
+	 *            This is the ETag of the response, or null.
+	 * @param lastModified
+	 *            This is the Last-Modified time of the response, or null.
+	 * @return False if the response is too large to be stored.
+	 */
+	public synchronized boolean put(String url, ByteBuffer payload, String eTag, String lastModified) {
+		byte[] urlBytes = bytes(url);
+		byte[] eTagBytes = bytes(eTag);
+		byte[] lastModifiedBytes = bytes(lastModified);
+		int length = 4 + 8 + 2 + urlBytes.length + 2 + (eTagBytes == null ? 0 : eTagBytes.length) + 2
+				+ (lastModifiedBytes == null ? 0 : lastModifiedBytes.length) + 4 + payload.remaining();
+		if (urlBytes.length > Short.MAX_VALUE || HEADER + 4 + length + 4 > capacity) {
+			return false;
+		}
+		if (end + 4 + length + 4 > capacity) {
+			compact();
+			if (end + 4 + length + 4 > capacity) {
+				clear();
+			}
+		}
+
+		int position = end + 8;
+		map.putLong(position, clock.getAsLong());
+		position = writeString(position + 8, urlBytes);
+		position = writeString(position, eTagBytes);
+		position = writeString(position, lastModifiedBytes);
+		map.putInt(position, payload.remaining());
+		map.put(position + 4, payload, payload.position(), payload.remaining());
+		map.putInt(position + 4 + payload.remaining(), 0);
+		map.putInt(end, length);
+		map.putInt(end + 4, checksum(end, length));
+		index.put(url, end);
+		end += 4 + length;
+		return true;
+	}
+
+	/**
+	 * Mark the response stored for a URL as current, because the provider has
+	 * confirmed that it has not changed.
+	 *
+	 * @param url
+	 *            This is the URL which was revalidated.
+	 */
+	public synchronized void touch(String url) {
+		Integer offset = index.get(url);
+		if (offset != null) {
+			map.putLong(offset + 8, clock.getAsLong());
+			map.putInt(offset + 4, checksum(offset, map.getInt(offset)));
+		}
+	}
+
+	/**
+	 * Copy the latest unexpired record for each URL back to the start of the
+	 * file, dropping everything else.
+	 */
+	private void compact() {
+		long now = clock.getAsLong();
+		List<byte[]> live = new ArrayList<byte[]>();
+		for (int offset : index.values()) {
+			if (now - map.getLong(offset + 8) <= maximumAge) {
+				byte[] record = new byte[4 + map.getInt(offset)];
+				map.get(offset, record);
+				live.add(record);
+			}
+		}
+		clear();
+		for (byte[] record : live) {
+			map.put(end + 4, record, 4, record.length - 4);
+			map.putInt(end + record.length, 0);
+			map.put(end, record, 0, 4);
+			index.put(readString(end + 16), end);
+			end += record.length;
+		}
+	}
+
+	private void clear() {
+		map.putInt(HEADER, 0);
+		index.clear();
+		end = HEADER;
+	}
+
+	/**
+	 * @return The number of URLs with a stored response, including expired
+	 *         ones.
+	 */
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * Write everything to the disk and close the file, releasing its lock.
+	 *
+	 * @throws IOException
+	 *             An IOException will be thrown if the file can not be closed.
+	 */
+	public synchronized void close() throws IOException {
+		map.force();
+		channel.close();
+	}
+}
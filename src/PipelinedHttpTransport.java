@@ -0,0 +1,562 @@
+/**
+ * This class sends HTTP/1.1 GET requests over a few persistent connections per
+ * provider, writing each request as soon as it is made rather than waiting for
+ * the response to the one before it. The provider answers the requests on a
+ * connection in the order they were sent, so a reader thread per connection
+ * simply hands each response to the oldest request still waiting.
+ *
+ * This lets thousands of single-symbol requests share a handful of sockets
+ * when a provider offers neither batch requests nor HTTP/2. Should a
+ * connection be closed with requests still outstanding, each of them is sent
+ * once more on a fresh connection, which is safe because they are all GETs.
+ * A request which times out closes its connection in this way, since every
+ * response behind it would otherwise wait for its answer too.
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.net.ssl.SSLSession;
+
+public class PipelinedHttpTransport implements Closeable {
+	/**
+	 * This is the default number of connections opened to each provider.
+	 */
+	public static final int DEFAULT_CONNECTIONS = 4;
+
+	/**
+	 * This is a request waiting for its response.
+	 */
+	private static class Exchange {
+		private final HttpRequest request;
+		private final CompletableFuture<HttpResponse<byte[]>> response;
+		/**
+		 * This is whether the request may still be sent again, and the
+		 * connection it is waiting on, if any.
+		 */
+		private volatile boolean retry = true;
+		private volatile Connection connection;
+
+		private Exchange(HttpRequest request, CompletableFuture<HttpResponse<byte[]>> response) {
+			this.request = request;
+			this.response = response;
+		}
+	}
+
+	/**
+	 * These are the connections to one provider. A slot which is being
+	 * connected is marked, so that the connection can be made without holding
+	 * the lock.
+	 */
+	private class Host {
+		private final Connection[] slots = new Connection[connectionsPerHost];
+		private final boolean[] connecting = new boolean[connectionsPerHost];
+	}
+
+	/**
+	 * This is a response read off a connection.
+	 */
+	private static class Response implements HttpResponse<byte[]> {
+		private final HttpRequest request;
+		private final int statusCode;
+		private final HttpHeaders headers;
+		private final byte[] body;
+
+		private Response(HttpRequest request, int statusCode, HttpHeaders headers, byte[] body) {
+			this.request = request;
+			this.statusCode = statusCode;
+			this.headers = headers;
+			this.body = body;
+		}
+
+		public int statusCode() {
+			return statusCode;
+		}
+
+		public HttpRequest request() {
+			return request;
+		}
+
+		public Optional<HttpResponse<byte[]>> previousResponse() {
+			return Optional.empty();
+		}
+
+		public HttpHeaders headers() {
+			return headers;
+		}
+
+		public byte[] body() {
+			return body;
+		}
+
+		public Optional<SSLSession> sslSession() {
+			return Optional.empty();
+		}
+
+		public URI uri() {
+			return request.uri();
+		}
+
+		public HttpClient.Version version() {
+			return HttpClient.Version.HTTP_1_1;
+		}
+	}
+
+	/**
+	 * This is one connection to a provider, with the requests sent on it
+	 * which have not yet been answered. The queue of outstanding requests is
+	 * guarded by the connection, which is only ever held briefly. Writing is
+	 * guarded by a lock of its own, as a write blocks whenever the provider
+	 * falls behind, and the reader must still be able to take the next
+	 * request off the queue meanwhile.
+	 */
+	private class Connection implements Runnable {
+		private final Socket socket;
+		private final OutputStream out;
+		private final InputStream in;
+		private final Object writeLock = new Object();
+		private final ArrayDeque<Exchange> outstanding = new ArrayDeque<Exchange>();
+		private boolean closed;
+
+		private Connection(String host, int port) throws IOException {
+			socket = new Socket();
+			try {
+				socket.setTcpNoDelay(true);
+				socket.connect(new InetSocketAddress(host, port), connectTimeout);
+			} catch (IOException e) {
+				socket.close();
+				throw e;
+			}
+			out = new BufferedOutputStream(socket.getOutputStream());
+			in = new BufferedInputStream(socket.getInputStream());
+			connectionCount.increment();
+			Thread reader = new Thread(this, "Pipelined reader " + host + ":" + port);
+			reader.setDaemon(true);
+			reader.start();
+		}
+
+		/**
+		 * Write a request, unless the connection has already been closed. The
+		 * request is queued before it is written, under the write lock, so
+		 * that the queue stays in the order the requests went out.
+		 *
+		 * @return False if the request has to go on another connection.
+		 */
+		private boolean send(Exchange exchange) {
+			synchronized (writeLock) {
+				synchronized (this) {
+					if (closed) {
+						return false;
+					}
+					outstanding.add(exchange);
+					exchange.connection = this;
+				}
+				try {
+					out.write(requestBytes(exchange.request));
+					out.flush();
+					return true;
+				} catch (IOException e) {
+					// Fall through and close the connection.
+				}
+			}
+			// Closing sends the request again, along with everything else
+			// that was waiting on this connection.
+			close();
+			return true;
+		}
+
+		private synchronized int getOutstanding() {
+			return outstanding.size();
+		}
+
+		private synchronized boolean isClosed() {
+			return closed;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.lang.Runnable#run()
+		 */
+		public void run() {
+			try {
+				while (true) {
+					Response response = readResponse(in);
+					Exchange exchange;
+					synchronized (this) {
+						exchange = outstanding.poll();
+					}
+					if (exchange == null) {
+						throw new IOException("Unexpected response from the provider");
+					}
+					exchange.response.complete(
+							new Response(exchange.request, response.statusCode, response.headers, response.body));
+					if (response.headers().firstValue("Connection").orElse("").equalsIgnoreCase("close")) {
+						break;
+					}
+				}
+			} catch (IOException e) {
+				// The connection has failed or been closed by the provider.
+			}
+			close();
+		}
+
+		/**
+		 * @return True if the exchange is still waiting on this connection.
+		 */
+		private synchronized boolean isWaiting(Exchange exchange) {
+			return outstanding.contains(exchange);
+		}
+
+		/**
+		 * Close the connection and send every unanswered request again on
+		 * another one, or fail it if it has been sent once already.
+		 */
+		private void close() {
+			List<Exchange> unanswered;
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				unanswered = new ArrayList<Exchange>(outstanding);
+				outstanding.clear();
+			}
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// Nothing more can be done with the socket.
+			}
+			for (Exchange exchange : unanswered) {
+				if (exchange.response.isDone()) {
+					continue;
+				}
+				if (exchange.retry && isOpen()) {
+					exchange.retry = false;
+					dispatch(exchange);
+				} else {
+					exchange.response.completeExceptionally(
+							new IOException("Connection closed before " + exchange.request.uri() + " was answered"));
+				}
+			}
+		}
+	}
+
+	private final int connectionsPerHost;
+	private final int connectTimeout;
+
+	/**
+	 * These are the connections to each provider, by host and port.
+	 */
+	private final Map<String, Host> connections = new ConcurrentHashMap<String, Host>();
+	private final LongAdder connectionCount = new LongAdder();
+	private volatile boolean open = true;
+
+	/**
+	 * @param connectionsPerHost
+	 *            This is the number of connections opened to each provider.
+	 * @param connectTimeout
+	 *            This is the time allowed to establish a connection, in
+	 *            milliseconds.
+	 */
+	public PipelinedHttpTransport(int connectionsPerHost, int connectTimeout) {
+		super();
+		if (connectionsPerHost < 1) {
+			throw new IllegalArgumentException("At least one connection per provider is needed.");
+		}
+		this.connectionsPerHost = connectionsPerHost;
+		this.connectTimeout = connectTimeout;
+	}
+
+	/**
+	 * Send a GET request on the least busy connection to its provider. The
+	 * request's timeout, if it has one, bounds the wait for the response.
+	 *
+	 * @param request
+	 *            This is the request to send. Only plain http URLs are
+	 *            supported.
+	 * @return A future which completes with the response, or exceptionally
+	 *         with an IOException.
+	 */
+	public CompletableFuture<HttpResponse<byte[]>> send(HttpRequest request) {
+		CompletableFuture<HttpResponse<byte[]>> response = new CompletableFuture<HttpResponse<byte[]>>();
+		if ("http".equalsIgnoreCase(request.uri().getScheme()) == false || request.uri().getHost() == null) {
+			response.completeExceptionally(new IOException("Pipelining needs a plain http URL: " + request.uri()));
+			return response;
+		}
+		Exchange exchange = new Exchange(request, response);
+		request.timeout().ifPresent(timeout -> CompletableFuture.delayedExecutor(timeout.toNanos(),
+				TimeUnit.NANOSECONDS).execute(() -> timedOut(exchange)));
+		dispatch(exchange);
+		return response;
+	}
+
+	/**
+	 * Fail a request which has run out of time. Its connection is closed, as
+	 * the responses to everything pipelined behind it are stuck until it is
+	 * answered, and those requests are sent again on another connection.
+	 */
+	private void timedOut(Exchange exchange) {
+		if (exchange.response.completeExceptionally(
+				new HttpTimeoutException("Request to " + exchange.request.uri() + " timed out"))) {
+			Connection connection = exchange.connection;
+			if (connection != null && connection.isWaiting(exchange)) {
+				connection.close();
+			}
+		}
+	}
+
+	private void dispatch(Exchange exchange) {
+		URI uri = exchange.request.uri();
+		String host = uri.getHost();
+		int port = uri.getPort() == -1 ? 80 : uri.getPort();
+		Host slots = connections.computeIfAbsent(host + ":" + port, provider -> new Host());
+		while (open && exchange.response.isDone() == false) {
+			Connection connection;
+			try {
+				connection = leastBusy(slots, host, port);
+			} catch (IOException e) {
+				exchange.response.completeExceptionally(e);
+				return;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				exchange.response.completeExceptionally(new IOException("Interrupted while connecting", e));
+				return;
+			}
+			if (connection.send(exchange)) {
+				return;
+			}
+		}
+		exchange.response.completeExceptionally(new IOException("The transport has been closed"));
+	}
+
+	/**
+	 * @return The open connection with the fewest requests outstanding,
+	 *         opening a new one if a slot is free. Connecting is done without
+	 *         the lock, so that a slow connect holds up only the requests
+	 *         which have nowhere else to go.
+	 */
+	private Connection leastBusy(Host host, String name, int port) throws IOException, InterruptedException {
+		int free;
+		synchronized (host) {
+			while (true) {
+				Connection best = null;
+				free = -1;
+				for (int index = 0; index < host.slots.length; index++) {
+					Connection slot = host.slots[index];
+					if (slot == null || slot.isClosed()) {
+						if (free < 0 && host.connecting[index] == false) {
+							free = index;
+						}
+					} else if (best == null || slot.getOutstanding() < best.getOutstanding()) {
+						best = slot;
+					}
+				}
+				if (free >= 0) {
+					host.connecting[free] = true;
+					break;
+				}
+				if (best != null) {
+					return best;
+				}
+				// Every slot is being connected; wait for one of them.
+				host.wait();
+			}
+		}
+
+		Connection connection = null;
+		try {
+			connection = new Connection(name, port);
+			if (open == false) {
+				// The transport was closed while this was connecting.
+				connection.close();
+			}
+			return connection;
+		} finally {
+			synchronized (host) {
+				host.connecting[free] = false;
+				if (connection != null) {
+					host.slots[free] = connection;
+				}
+				host.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * @return The request line and headers of a GET request.
+	 */
+	private static byte[] requestBytes(HttpRequest request) {
+		URI uri = request.uri();
+		StringBuilder text = new StringBuilder("GET ");
+		text.append(uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath());
+		if (uri.getRawQuery() != null) {
+			text.append('?').append(uri.getRawQuery());
+		}
+		text.append(" HTTP/1.1\r\nHost: ").append(uri.getHost());
+		if (uri.getPort() != -1) {
+			text.append(':').append(uri.getPort());
+		}
+		text.append("\r\n");
+		for (Map.Entry<String, List<String>> header : request.headers().map().entrySet()) {
+			for (String value : header.getValue()) {
+				text.append(header.getKey()).append(": ").append(value).append("\r\n");
+			}
+		}
+		return text.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Read one response: the status line, the headers, and a body delimited by
+	 * Content-Length or chunked encoding.
+	 */
+	private static Response readResponse(InputStream in) throws IOException {
+		String statusLine = readLine(in);
+		String[] parts = statusLine.split(" ", 3);
+		if (parts.length < 2 || parts[0].startsWith("HTTP/") == false) {
+			throw new IOException("Malformed status line: " + statusLine);
+		}
+		int statusCode;
+		try {
+			statusCode = Integer.parseInt(parts[1]);
+		} catch (NumberFormatException e) {
+			throw new IOException("Malformed status line: " + statusLine, e);
+		}
+
+		Map<String, List<String>> headerMap = new LinkedHashMap<String, List<String>>();
+		for (String line = readLine(in); line.isEmpty() == false; line = readLine(in)) {
+			int colon = line.indexOf(':');
+			if (colon > 0) {
+				headerMap.computeIfAbsent(line.substring(0, colon).trim(), name -> new ArrayList<String>())
+						.add(line.substring(colon + 1).trim());
+			}
+		}
+		HttpHeaders headers = HttpHeaders.of(headerMap, (name, value) -> true);
+
+		byte[] body;
+		if (statusCode == 204 || statusCode == 304 || statusCode / 100 == 1) {
+			body = new byte[0];
+		} else if (headers.firstValue("Transfer-Encoding").orElse("").equalsIgnoreCase("chunked")) {
+			body = readChunked(in);
+		} else {
+			long length = headers.firstValueAsLong("Content-Length").orElse(-1);
+			if (length < 0) {
+				throw new IOException("Pipelined response without a length");
+			}
+			body = readFully(in, (int) length);
+		}
+		return new Response(null, statusCode, headers, body);
+	}
+
+	private static byte[] readChunked(InputStream in) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		while (true) {
+			String line = readLine(in);
+			int semicolon = line.indexOf(';');
+			int size;
+			try {
+				size = Integer.parseInt((semicolon < 0 ? line : line.substring(0, semicolon)).trim(), 16);
+			} catch (NumberFormatException e) {
+				throw new IOException("Malformed chunk size: " + line, e);
+			}
+			if (size == 0) {
+				break;
+			}
+			body.write(readFully(in, size));
+			readLine(in);
+		}
+		// Skip any trailers.
+		while (readLine(in).isEmpty() == false) {
+		}
+		return body.toByteArray();
+	}
+
+	private static byte[] readFully(InputStream in, int length) throws IOException {
+		byte[] bytes = in.readNBytes(length);
+		if (bytes.length < length) {
+			throw new EOFException("Response cut short");
+		}
+		return bytes;
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) != '\n') {
+			if (c == -1) {
+				throw new EOFException("Connection closed");
+			}
+			if (c != '\r') {
+				line.append((char) c);
+			}
+		}
+		return line.toString();
+	}
+
+	/**
+	 * @return True until the transport has been closed.
+	 */
+	public boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * @return The number of connections opened to each provider.
+	 */
+	public int getConnectionsPerHost() {
+		return connectionsPerHost;
+	}
+
+	/**
+	 * @return The number of connections opened so far.
+	 */
+	public long getConnectionCount() {
+		return connectionCount.sum();
+	}
+
+	/**
+	 * Close every connection. Requests still outstanding fail.
+	 */
+	public void close() {
+		open = false;
+		for (Host host : connections.values()) {
+			List<Connection> current = new ArrayList<Connection>();
+			synchronized (host) {
+				for (Connection connection : host.slots) {
+					if (connection != null) {
+						current.add(connection);
+					}
+				}
+			}
+			for (Connection connection : current) {
+				connection.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ * This class keeps the success, failure and latency figures for one quote
+ * provider. Along with running totals, it keeps the latencies of the most
+ * recent successful requests so that percentiles can be reported, and
+ * exponentially weighted moving averages of the latency and error rate which
+ * follow the provider's current behaviour.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ProviderStatistics {
+	/**
+	 * This is the number of recent latencies kept for percentiles.
+	 */
+	private static final int RECENT_LATENCIES = 256;
+
+	/**
+	 * This is the weight given to each new request in the moving averages.
+	 */
+	public static final double SMOOTHING = 0.2;
+
+	private final String name;
+	private final LongAdder successCount = new LongAdder();
+	private final LongAdder failureCount = new LongAdder();
+	private final LongAdder totalLatency = new LongAdder();
+
+	private final long[] recentLatencies = new long[RECENT_LATENCIES];
+	private int recentCount;
+	private int nextLatency;
+	private double recentLatency = Double.NaN;
+	private double recentErrorRate;
+
+	/**
+	 * @param name
+	 *            This is the name of the provider.
+	 */
+	public ProviderStatistics(String name) {
+		super();
+		this.name = name;
+	}
+
+	/**
+	 * Record a successful request.
+	 *
+	 * @param latency
+	 *            This is how long the request took, in nanoseconds.
+	 */
+	public void recordSuccess(long latency) {
+		successCount.increment();
+		totalLatency.add(latency);
+		synchronized (recentLatencies) {
+			recentLatencies[nextLatency] = latency;
+			nextLatency = (nextLatency + 1) % RECENT_LATENCIES;
+			recentCount = Math.min(recentCount + 1, RECENT_LATENCIES);
+			double milliseconds = latency / 1000000.0;
+			recentLatency = Double.isNaN(recentLatency) ? milliseconds
+					: recentLatency + SMOOTHING * (milliseconds - recentLatency);
+			recentErrorRate -= SMOOTHING * recentErrorRate;
+		}
+	}
+
+	/**
+	 * Record a failed request.
+	 */
+	public void recordFailure() {
+		failureCount.increment();
+		synchronized (recentLatencies) {
+			recentErrorRate += SMOOTHING * (1.0 - recentErrorRate);
+		}
+	}
+
+	/**
+	 * @return the name of the provider
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The number of successful requests.
+	 */
+	public long getSuccessCount() {
+		return successCount.sum();
+	}
+
+	/**
+	 * @return The number of failed requests.
+	 */
+	public long getFailureCount() {
+		return failureCount.sum();
+	}
+
+	/**
+	 * @return The average latency of successful requests, in milliseconds.
+	 */
+	public double getAverageLatency() {
+		long count = successCount.sum();
+		return count == 0 ? 0.0 : totalLatency.sum() / (count * 1000000.0);
+	}
+
+	/**
+	 * @return The moving average of the latency of successful requests, in
+	 *         milliseconds, or NaN if there have been none.
+	 */
+	public double getRecentLatency() {
+		synchronized (recentLatencies) {
+			return recentLatency;
+		}
+	}
+
+	/**
+	 * @return The moving average of the fraction of requests which failed.
+	 */
+	public double getRecentErrorRate() {
+		synchronized (recentLatencies) {
+			return recentErrorRate;
+		}
+	}
+
+	/**
+	 * @param percentile
+	 *            This is the percentile wanted, from 0 to 100.
+	 * @return The given percentile of the latencies of recent successful
+	 *         requests, in milliseconds, or NaN if there have been none.
+	 */
+	public double getLatencyPercentile(double percentile) {
+		long[] sorted;
+		synchronized (recentLatencies) {
+			sorted = Arrays.copyOf(recentLatencies, recentCount);
+		}
+		if (sorted.length == 0) {
+			return Double.NaN;
+		}
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1000000.0;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return String.format("%s: %d ok, %d failed, avg %.1f ms, p95 %.1f ms", name, getSuccessCount(),
+				getFailureCount(), getAverageLatency(), getLatencyPercentile(95));
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ * This class holds helper routines for interpreting the ASCII text of a
+ * provider's response in place, within a ByteBuffer. Each routine works on a
+ * range of absolute indexes and does not disturb the position of the buffer.
+ * 
+ */
+
+import java.nio.ByteBuffer;
+
+public final class QuoteBytes {
+	/**
+	 * These are the powers of ten which can be represented exactly as a double.
+	 */
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	/**
+	 * This is the largest mantissa which can be converted to a double exactly.
+	 */
+	private static final long MAXIMUM_EXACT_MANTISSA = 1L << 53;
+
+	private QuoteBytes() {
+		super();
+	}
+
+	/**
+	 * @return The index of the first occurrence of the given byte in the range,
+	 *         or -1 if it does not occur.
+	 */
+	public static int indexOf(ByteBuffer buffer, byte value, int start, int end) {
+		for (int index = start; index < end; index++) {
+			if (buffer.get(index) == value) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The index of the first byte in the range which is not white space
+	 *         or a quotation mark.
+	 */
+	public static int trimStart(ByteBuffer buffer, int start, int end) {
+		while (start < end && isPadding(buffer.get(start))) {
+			start++;
+		}
+		return start;
+	}
+
+	/**
+	 * @return The index just past the last byte in the range which is not white
+	 *         space or a quotation mark.
+	 */
+	public static int trimEnd(ByteBuffer buffer, int start, int end) {
+		while (end > start && isPadding(buffer.get(end - 1))) {
+			end--;
+		}
+		return end;
+	}
+
+	private static boolean isPadding(byte value) {
+		return value == ' ' || value == '"' || value == '\t' || value == '\r' || value == '\n';
+	}
+
+	/**
+	 * @return True if the range holds exactly the characters of the given
+	 *         ASCII text.
+	 */
+	public static boolean equalsAscii(ByteBuffer buffer, int start, int end, String text) {
+		if (end - start != text.length()) {
+			return false;
+		}
+		for (int index = 0; index < text.length(); index++) {
+			if (buffer.get(start + index) != text.charAt(index)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return A string holding the ASCII characters of the range.
+	 */
+	public static String toAsciiString(ByteBuffer buffer, int start, int end) {
+		char[] chars = new char[end - start];
+		for (int index = start; index < end; index++) {
+			chars[index - start] = (char) (buffer.get(index) & 0x7f);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Interpret the range as a decimal number. Plain decimals such as "-12.345"
+	 * are converted directly from the bytes; anything else is handed to
+	 * Double.parseDouble().
+	 * 
+	 * @return The value of the number will be returned.
+	 * @throws NumberFormatException
+	 *             A NumberFormatException will be thrown if the range does not
+	 *             hold a number.
+	 */
+	public static double parseDouble(ByteBuffer buffer, int start, int end) {
+		start = trimStart(buffer, start, end);
+		end = trimEnd(buffer, start, end);
+
+		int index = start;
+		boolean negative = false;
+		if (index < end && (buffer.get(index) == '-' || buffer.get(index) == '+')) {
+			negative = buffer.get(index) == '-';
+			index++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int fractionDigits = 0;
+		boolean inFraction = false;
+		for (; index < end; index++) {
+			byte value = buffer.get(index);
+			if (value >= '0' && value <= '9') {
+				mantissa = mantissa * 10 + (value - '0');
+				digits++;
+				if (inFraction) {
+					fractionDigits++;
+				}
+				if (mantissa >= MAXIMUM_EXACT_MANTISSA) {
+					break;
+				}
+			} else if (value == '.' && inFraction == false) {
+				inFraction = true;
+			} else {
+				break;
+			}
+		}
+
+		if (index != end || digits == 0 || mantissa >= MAXIMUM_EXACT_MANTISSA
+				|| fractionDigits >= POWERS_OF_TEN.length) {
+			// Not a plain decimal that can be converted exactly.
+			return Double.parseDouble(toAsciiString(buffer, start, end));
+		}
+		double value = mantissa / POWERS_OF_TEN[fractionDigits];
+		return negative ? -value : value;
+	}
+}
@@ -0,0 +1,223 @@
+/**
+ * This class holds recently obtained stock quotes, each for a limited time to
+ * live. The number of symbols held is bounded. Which symbols are kept follows
+ * the W-TinyLFU policy: new symbols enter a small LRU window, and a symbol
+ * leaving the window only displaces one from the main area if it has been
+ * requested more often, according to a QuoteFrequencySketch. A burst of
+ * rarely watched symbols therefore cannot push the hot watchlist out of the
+ * cache.
+ *
+ * The main area is a segmented LRU: symbols enter on probation and are
+ * protected once they are requested again.
+ *
+ * All of the methods are safe to call from several threads at once.
+ *
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class QuoteCache {
+	/**
+	 * This is one cached quote together with the time at which it was fetched.
+	 */
+	private static class Entry {
+		private StockQuoteInterface quote;
+		private long fetched;
+
+		public Entry(StockQuoteInterface quote, long fetched) {
+			this.quote = quote;
+			this.fetched = fetched;
+		}
+	}
+
+	private final long timeToLive;
+	private final int maximumSize;
+	private final int windowSize;
+	private final int protectedSize;
+
+	/**
+	 * These are the three segments of the cache, each kept in access order so
+	 * that the least recently used symbol comes first.
+	 */
+	private final LinkedHashMap<String, Entry> window = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private final LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<String, Entry>(16, 0.75f,
+			true);
+
+	private final QuoteFrequencySketch sketch;
+
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+
+	/**
+	 * @param timeToLive
+	 *            This is how long a quote may be served from the cache, in
+	 *            milliseconds.
+	 * @param maximumSize
+	 *            This is the largest number of symbols that will be held.
+	 */
+	public QuoteCache(long timeToLive, int maximumSize) {
+		super();
+		if (maximumSize < 2) {
+			throw new IllegalArgumentException("The cache must be able to hold at least two quotes.");
+		}
+		this.timeToLive = TimeUnit.MILLISECONDS.toNanos(timeToLive);
+		this.maximumSize = maximumSize;
+		this.windowSize = Math.max(1, maximumSize / 100);
+		this.protectedSize = (int) ((maximumSize - windowSize) * 0.8);
+		this.sketch = new QuoteFrequencySketch(maximumSize);
+	}
+
+	/**
+	 * Look up the quote for a symbol. Every lookup counts towards the symbol's
+	 * frequency, whether or not it hits.
+	 *
+	 * @param symbol
+	 *            This is the symbol to look up.
+	 * @return The cached quote will be returned if it is younger than the time
+	 *         to live, otherwise null.
+	 */
+	public synchronized StockQuoteInterface get(String symbol) {
+		sketch.increment(symbol);
+
+		Entry entry = window.get(symbol);
+		if (entry == null) {
+			entry = protectedSegment.get(symbol);
+		}
+		if (entry == null) {
+			entry = probation.remove(symbol);
+			if (entry != null) {
+				promote(symbol, entry);
+			}
+		}
+
+		if (entry != null && System.nanoTime() - entry.fetched < timeToLive) {
+			hitCount.increment();
+			return entry.quote;
+		}
+		missCount.increment();
+		return null;
+	}
+
+	/**
+	 * Place a freshly obtained quote into the cache.
+	 *
+	 * @param symbol
+	 *            This is the symbol the quote is for.
+	 * @param quote
+	 *            This is the quote.
+	 */
+	public synchronized void put(String symbol, StockQuoteInterface quote) {
+		long now = System.nanoTime();
+		Entry entry = window.get(symbol);
+		if (entry == null) {
+			entry = protectedSegment.get(symbol);
+		}
+		if (entry == null) {
+			entry = probation.get(symbol);
+		}
+		if (entry != null) {
+			entry.quote = quote;
+			entry.fetched = now;
+			return;
+		}
+
+		window.put(symbol, new Entry(quote, now));
+		if (window.size() > windowSize) {
+			Map.Entry<String, Entry> candidate = removeEldest(window);
+			admit(candidate.getKey(), candidate.getValue());
+		}
+	}
+
+	/**
+	 * Move a symbol which was requested again from probation to the protected
+	 * segment, demoting the least recently used protected symbol if there is
+	 * no room.
+	 */
+	private void promote(String symbol, Entry entry) {
+		protectedSegment.put(symbol, entry);
+		if (protectedSegment.size() > protectedSize) {
+			Map.Entry<String, Entry> demoted = removeEldest(protectedSegment);
+			probation.put(demoted.getKey(), demoted.getValue());
+		}
+	}
+
+	/**
+	 * Decide whether a symbol leaving the window is worth keeping. If the main
+	 * area is full, it only gets in by beating the symbol which would be
+	 * evicted in its place.
+	 */
+	private void admit(String symbol, Entry entry) {
+		int mainSize = maximumSize - windowSize;
+		if (probation.size() + protectedSegment.size() < mainSize) {
+			probation.put(symbol, entry);
+			return;
+		}
+
+		LinkedHashMap<String, Entry> victims = probation.isEmpty() ? protectedSegment : probation;
+		String victim = victims.keySet().iterator().next();
+		evictionCount.increment();
+		if (sketch.frequency(symbol) > sketch.frequency(victim)) {
+			victims.remove(victim);
+			probation.put(symbol, entry);
+		}
+	}
+
+	private static Map.Entry<String, Entry> removeEldest(LinkedHashMap<String, Entry> segment) {
+		Iterator<Map.Entry<String, Entry>> iterator = segment.entrySet().iterator();
+		Map.Entry<String, Entry> eldest = iterator.next();
+		iterator.remove();
+		return eldest;
+	}
+
+	/**
+	 * @return The number of symbols currently held.
+	 */
+	public synchronized int size() {
+		return window.size() + probation.size() + protectedSegment.size();
+	}
+
+	/**
+	 * @return The number of lookups which were served from the cache.
+	 */
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+
+	/**
+	 * @return The number of lookups which had to be fetched.
+	 */
+	public long getMissCount() {
+		return missCount.sum();
+	}
+
+	/**
+	 * @return The number of quotes which were evicted or refused admission.
+	 */
+	public long getEvictionCount() {
+		return evictionCount.sum();
+	}
+
+	/**
+	 * @return The fraction of lookups served from the cache.
+	 */
+	public double getHitRatio() {
+		long hits = hitCount.sum();
+		long total = hits + missCount.sum();
+		return total == 0 ? 0.0 : hits / (double) total;
+	}
+
+	/**
+	 * @return The fraction of lookups which had to be fetched.
+	 */
+	public double getMissRatio() {
+		long misses = missCount.sum();
+		long total = misses + hitCount.sum();
+		return total == 0 ? 0.0 : misses / (double) total;
+	}
+}
@@ -0,0 +1,241 @@
+/**
+ * This class encodes quotes as changes against a baseline, the prices last
+ * sent in full, so that a tick which moves one price by a few cents takes a
+ * few bytes rather than the whole record. Each message is
+ * <pre>
+ *   varint  index         of the symbol in the baseline
+ *   byte    fields        LAST_TRADE and PREVIOUS_CLOSE, for those which differ
+ *   varint  lastTrade     if flagged: the change in cents, zigzag encoded
+ *   varint  previousClose if flagged: the change in cents, zigzag encoded
+ * </pre>
+ * Every message is against the baseline rather than the message before it, so
+ * losing one message costs nothing but that message, and a new baseline, or
+ * full refresh, brings every receiver back in step. Prices are carried to the
+ * cent.
+ *
+ */
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class QuoteDeltaCodec {
+	/**
+	 * These are the bits of the fields byte.
+	 */
+	public static final int LAST_TRADE = 1;
+	public static final int PREVIOUS_CLOSE = 2;
+
+	/**
+	 * This is the largest a message can be.
+	 */
+	public static final int MAX_MESSAGE_SIZE = 5 + 1 + 10 + 10;
+
+	private QuoteDeltaCodec() {
+	}
+
+	/**
+	 * Write an unsigned variable-length integer, seven bits to a byte, least
+	 * significant first.
+	 */
+	public static void putVarint(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * @return The number of bytes putVarint() writes for the value.
+	 */
+	public static int varintSize(long value) {
+		int size = 1;
+		while ((value & ~0x7FL) != 0) {
+			size++;
+			value >>>= 7;
+		}
+		return size;
+	}
+
+	/**
+	 * Read an unsigned variable-length integer.
+	 *
+	 * @throws BufferUnderflowException
+	 *             A BufferUnderflowException will be thrown if the integer is
+	 *             cut off, or longer than a long.
+	 */
+	public static long getVarint(ByteBuffer buffer) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte next = buffer.get();
+			value |= (long) (next & 0x7F) << shift;
+			if (next >= 0) {
+				return value;
+			}
+		}
+		throw new BufferUnderflowException();
+	}
+
+	/**
+	 * @return The price in whole cents.
+	 */
+	private static long cents(double price) {
+		return Math.round(price * 100);
+	}
+
+	/**
+	 * This is the sending end, which holds the baseline in cents by index.
+	 */
+	public static class Encoder {
+		private final long[] lastTrade;
+		private final long[] previousClose;
+		private long baseline = -1;
+
+		/**
+		 * @param size
+		 *            This is the number of symbols.
+		 */
+		public Encoder(int size) {
+			this.lastTrade = new long[size];
+			this.previousClose = new long[size];
+		}
+
+		/**
+		 * Start a new baseline. Its prices are given by setBaseline().
+		 *
+		 * @param baseline
+		 *            This is the sequence number identifying the baseline.
+		 */
+		public void startBaseline(long baseline) {
+			this.baseline = baseline;
+		}
+
+		/**
+		 * @param index
+		 *            This is the symbol's index.
+		 * @param lastTrade
+		 *            This is its last trade as sent in full.
+		 * @param previousClose
+		 *            This is its previous close as sent in full.
+		 */
+		public void setBaseline(int index, double lastTrade, double previousClose) {
+			this.lastTrade[index] = cents(lastTrade);
+			this.previousClose[index] = cents(previousClose);
+		}
+
+		/**
+		 * @return The sequence number identifying the baseline, or -1 before
+		 *         the first.
+		 */
+		public long getBaseline() {
+			return baseline;
+		}
+
+		/**
+		 * Write the changes in a symbol's prices since the baseline.
+		 */
+		public void put(ByteBuffer buffer, int index, double lastTrade, double previousClose) {
+			long lastTradeDelta = cents(lastTrade) - this.lastTrade[index];
+			long previousCloseDelta = cents(previousClose) - this.previousClose[index];
+			int fields = (lastTradeDelta != 0 ? LAST_TRADE : 0) | (previousCloseDelta != 0 ? PREVIOUS_CLOSE : 0);
+			putVarint(buffer, index);
+			buffer.put((byte) fields);
+			if (lastTradeDelta != 0) {
+				putVarint(buffer, (lastTradeDelta << 1) ^ (lastTradeDelta >> 63));
+			}
+			if (previousCloseDelta != 0) {
+				putVarint(buffer, (previousCloseDelta << 1) ^ (previousCloseDelta >> 63));
+			}
+		}
+	}
+
+	/**
+	 * This is the receiving end, which holds each symbol's part of the
+	 * baseline as it is received, and the message last read.
+	 */
+	public static class Decoder {
+		private String[] symbols = new String[0];
+		private long[] lastTrade = new long[0];
+		private long[] previousClose = new long[0];
+		private long[] baselineOf = new long[0];
+
+		private String symbol;
+		private double lastTradeRead;
+		private double previousCloseRead;
+
+		/**
+		 * Record a symbol's prices as sent in full for a baseline.
+		 *
+		 * @param baseline
+		 *            This is the sequence number identifying the baseline.
+		 * @param index
+		 *            This is the symbol's index.
+		 */
+		public void setBaseline(long baseline, int index, String symbol, double lastTrade,
+				double previousClose) {
+			if (index >= symbols.length) {
+				int size = Math.max(index + 1, symbols.length * 2);
+				symbols = Arrays.copyOf(symbols, size);
+				this.lastTrade = Arrays.copyOf(this.lastTrade, size);
+				this.previousClose = Arrays.copyOf(this.previousClose, size);
+				int old = baselineOf.length;
+				baselineOf = Arrays.copyOf(baselineOf, size);
+				Arrays.fill(baselineOf, old, size, -1);
+			}
+			symbols[index] = symbol;
+			this.lastTrade[index] = cents(lastTrade);
+			this.previousClose[index] = cents(previousClose);
+			baselineOf[index] = baseline;
+		}
+
+		/**
+		 * Read one message. The whole message is read even if it can not be
+		 * decoded.
+		 *
+		 * @param baseline
+		 *            This is the baseline the message is against.
+		 * @return True if the symbol's part of that baseline is held, in which
+		 *         case the message can be had from getSymbol(),
+		 *         getLastTrade() and getPreviousClose().
+		 */
+		public boolean next(ByteBuffer buffer, long baseline) {
+			long index = getVarint(buffer);
+			int fields = buffer.get();
+			long lastTradeDelta = (fields & LAST_TRADE) != 0 ? zigzag(getVarint(buffer)) : 0;
+			long previousCloseDelta = (fields & PREVIOUS_CLOSE) != 0 ? zigzag(getVarint(buffer)) : 0;
+			if (index >= symbols.length || baselineOf[(int) index] != baseline) {
+				return false;
+			}
+			symbol = symbols[(int) index];
+			lastTradeRead = (lastTrade[(int) index] + lastTradeDelta) / 100.0;
+			previousCloseRead = (previousClose[(int) index] + previousCloseDelta) / 100.0;
+			return true;
+		}
+
+		private static long zigzag(long value) {
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		/**
+		 * @return The symbol of the message last read.
+		 */
+		public String getSymbol() {
+			return symbol;
+		}
+
+		/**
+		 * @return The last trade of the message last read.
+		 */
+		public double getLastTrade() {
+			return lastTradeRead;
+		}
+
+		/**
+		 * @return The previous close of the message last read.
+		 */
+		public double getPreviousClose() {
+			return previousCloseRead;
+		}
+	}
+}
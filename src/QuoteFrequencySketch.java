@@ -0,0 +1,88 @@
+/**
+ * This class estimates how often each symbol has been requested recently. It
+ * is a count-min sketch: every symbol is hashed into one counter in each of
+ * four rows, and its estimated frequency is the smallest of those counters.
+ * Counters saturate at 15, and once enough requests have been recorded every
+ * counter is halved, so the sketch forgets symbols which stop being watched.
+ *
+ * The sketch is not thread safe; QuoteCache only uses it while holding its
+ * lock.
+ *
+ */
+
+public class QuoteFrequencySketch {
+	private static final int ROWS = 4;
+	private static final int MAXIMUM_COUNT = 15;
+	private static final int[] SEEDS = { 0x97cb3127, 0x6b43a9b5, 0xc2b2ae35, 0x27d4eb2f };
+
+	private final int[][] counters;
+	private final int mask;
+	private final int sampleSize;
+	private int additions;
+
+	/**
+	 * @param expectedSymbols
+	 *            This is the number of symbols the owning cache can hold. The
+	 *            sketch is sized so that it can tell that many symbols apart.
+	 */
+	public QuoteFrequencySketch(int expectedSymbols) {
+		super();
+		int width = Integer.highestOneBit(Math.max(16, expectedSymbols * 2) - 1) << 1;
+		this.counters = new int[ROWS][width];
+		this.mask = width - 1;
+		this.sampleSize = Math.max(160, expectedSymbols * 10);
+	}
+
+	/**
+	 * Record one request for the symbol.
+	 *
+	 * @param symbol
+	 *            This is the symbol which was requested.
+	 */
+	public void increment(String symbol) {
+		int hash = symbol.hashCode();
+		boolean added = false;
+		for (int row = 0; row < ROWS; row++) {
+			int index = indexOf(hash, row);
+			if (counters[row][index] < MAXIMUM_COUNT) {
+				counters[row][index]++;
+				added = true;
+			}
+		}
+		if (added && ++additions >= sampleSize) {
+			age();
+		}
+	}
+
+	/**
+	 * @param symbol
+	 *            This is the symbol to look up.
+	 * @return The estimated number of recent requests for the symbol, from 0 to
+	 *         15.
+	 */
+	public int frequency(String symbol) {
+		int hash = symbol.hashCode();
+		int frequency = MAXIMUM_COUNT;
+		for (int row = 0; row < ROWS; row++) {
+			frequency = Math.min(frequency, counters[row][indexOf(hash, row)]);
+		}
+		return frequency;
+	}
+
+	private int indexOf(int hash, int row) {
+		int spread = hash * SEEDS[row];
+		return (spread ^ (spread >>> 16)) & mask;
+	}
+
+	/**
+	 * Halve every counter so that old requests count for less than new ones.
+	 */
+	private void age() {
+		for (int row = 0; row < ROWS; row++) {
+			for (int index = 0; index < counters[row].length; index++) {
+				counters[row][index] >>>= 1;
+			}
+		}
+		additions /= 2;
+	}
+}
@@ -0,0 +1,162 @@
+/**
+ * This class keeps the most recent prices of one stock, with the time each was
+ * obtained, in a fixed-size ring of primitive arrays. Recording a price writes
+ * two array slots and allocates nothing; once the ring is full the oldest
+ * price is overwritten. The change over the last n prices is found in
+ * constant time, and the change over the last stretch of time by a binary
+ * search of the times, which only ever increase.
+ *
+ */
+
+import exceptions.InvalidAnalysisState;
+
+public class QuoteHistory {
+	private final double[] prices;
+	private final long[] times;
+	/**
+	 * This is the slot the next price goes in.
+	 */
+	private int next;
+	private int size;
+
+	/**
+	 * @param capacity
+	 *            This is the number of prices to keep.
+	 * @throws IllegalArgumentException
+	 *             Will be thrown if the capacity is not positive.
+	 */
+	public QuoteHistory(int capacity) {
+		super();
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("The capacity must be positive, not " + capacity + ".");
+		}
+		this.prices = new double[capacity];
+		this.times = new long[capacity];
+	}
+
+	/**
+	 * Record a price, overwriting the oldest one if the history is full.
+	 *
+	 * @param price
+	 *            This is the price.
+	 * @param time
+	 *            This is when it was obtained, from a clock's nanoTime(). A
+	 *            time before the latest one recorded is taken as the latest
+	 *            one, so that the times stay in order.
+	 */
+	public void add(double price, long time) {
+		if (size > 0) {
+			time = Math.max(time, times[this.slot(size - 1)]);
+		}
+		prices[next] = price;
+		times[next] = time;
+		next = next + 1 == prices.length ? 0 : next + 1;
+		if (size < prices.length) {
+			size++;
+		}
+	}
+
+	/**
+	 * @return The number of prices held, at most the capacity.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return The number of prices which can be held.
+	 */
+	public int getCapacity() {
+		return prices.length;
+	}
+
+	/**
+	 * @param age
+	 *            This is how many prices back to look; 0 is the latest.
+	 * @return The price that many prices back.
+	 * @throws InvalidAnalysisState
+	 *             Will be thrown if the history does not go back that far.
+	 */
+	public double getPrice(int age) throws InvalidAnalysisState {
+		this.checkAge(age);
+		return prices[this.slot(size - 1 - age)];
+	}
+
+	/**
+	 * @param age
+	 *            This is how many prices back to look; 0 is the latest.
+	 * @return The time the price that many prices back was obtained.
+	 * @throws InvalidAnalysisState
+	 *             Will be thrown if the history does not go back that far.
+	 */
+	public long getTime(int age) throws InvalidAnalysisState {
+		this.checkAge(age);
+		return times[this.slot(size - 1 - age)];
+	}
+
+	/**
+	 * @param ticks
+	 *            This is how many prices back to compare with.
+	 * @return The latest price less the price that many prices before it.
+	 * @throws InvalidAnalysisState
+	 *             Will be thrown if the history does not go back that far.
+	 */
+	public double getChangeOverTicks(int ticks) throws InvalidAnalysisState {
+		return this.getPrice(0) - this.getPrice(ticks);
+	}
+
+	/**
+	 * @param since
+	 *            This is the start of the stretch of time, from the same clock
+	 *            as the recorded times.
+	 * @return The latest price less the last price obtained at or before the
+	 *         given time.
+	 * @throws InvalidAnalysisState
+	 *             Will be thrown if every price held was obtained after the
+	 *             given time.
+	 */
+	public double getChangeSince(long since) throws InvalidAnalysisState {
+		if (size == 0 || times[this.slot(0)] > since) {
+			throw new InvalidAnalysisState("No price has been kept from that long ago.");
+		}
+		// Find the last position, oldest first, whose time is not after since.
+		int low = 0;
+		int high = size - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (times[this.slot(middle)] <= since) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return prices[this.slot(size - 1)] - prices[this.slot(low)];
+	}
+
+	/**
+	 * Forget every price.
+	 */
+	public void clear() {
+		next = 0;
+		size = 0;
+	}
+
+	/**
+	 * @return The array slot of the given position, counting from the oldest
+	 *         price held.
+	 */
+	private int slot(int position) {
+		int slot = next - size + position;
+		return slot < 0 ? slot + prices.length : slot;
+	}
+
+	private void checkAge(int age) throws InvalidAnalysisState {
+		if (age < 0) {
+			throw new IllegalArgumentException("Can not look " + age + " prices back.");
+		}
+		if (age >= size) {
+			throw new InvalidAnalysisState(
+					"Only " + size + " prices have been kept, so none is " + age + " prices back.");
+		}
+	}
+}
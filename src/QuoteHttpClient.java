@@ -0,0 +1,1107 @@
+/**
+ * This class holds the single, shared HTTP client that is used by all of the
+ * stock quote downloaders. Connections to a provider are kept alive and pooled
+ * by the underlying java.net.http.HttpClient, so repeated quote requests to the
+ * same host do not pay for a new TCP handshake each time.
+ *
+ * The connect timeout applies to establishing a new connection, while the read
+ * timeout bounds the time waited for a response once a request has been sent.
+ *
+ * Responses read through a parser are remembered along with their ETag and
+ * Last-Modified validators. The next request for the same URL is made
+ * conditional, and a 304 Not Modified answer hands back the quotes parsed the
+ * previous time without downloading or parsing them again.
+ *
+ * Requests to each provider can be paced by an AdaptiveRateLimiter, which
+ * backs off when the provider throttles and creeps back up while it does not.
+ *
+ * With multiplexing turned on, requests go over a few connections per
+ * provider: as HTTP/2 streams where the provider offers HTTP/2, and otherwise
+ * pipelined over HTTP/1.1 by a PipelinedHttpTransport. This suits providers
+ * which only serve one symbol per request.
+ *
+ * With a QuoteResponseRecorder set, every response from a provider is also
+ * appended to a recording, which ReplayQuoteGenerator can play back.
+ *
+ * With a PersistentResponseCache set, the raw responses are also kept on disk.
+ * The first request for a URL after a restart is answered from the disk if
+ * the stored response is recent enough, and the URL is refetched in the
+ * background, conditional on the stored validators.
+ *
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import exceptions.HttpStatusError;
+
+public class QuoteHttpClient {
+	/**
+	 * This is the default time allowed to establish a connection, in
+	 * milliseconds.
+	 */
+	public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+
+	/**
+	 * This is the default time allowed to wait for a response, in milliseconds.
+	 */
+	public static final int DEFAULT_READ_TIMEOUT = 10000;
+
+	/**
+	 * This is the largest number of URLs for which validators are remembered.
+	 */
+	private static final int MAXIMUM_VALIDATED_URLS = 10000;
+
+	/**
+	 * These are the compressed encodings which the client can read.
+	 */
+	private static final String ACCEPT_ENCODING = "gzip, deflate";
+
+	/**
+	 * This holds a parsed response together with the validators the server
+	 * sent with it.
+	 */
+	private static class ValidatedResponse {
+		private final QuoteResponseParser<?> parser;
+		private final Object value;
+		private final String eTag;
+		private final String lastModified;
+		private final int length;
+		private final long parseTime;
+
+		public ValidatedResponse(QuoteResponseParser<?> parser, Object value, String eTag, String lastModified,
+				int length, long parseTime) {
+			this.parser = parser;
+			this.value = value;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+			this.length = length;
+			this.parseTime = parseTime;
+		}
+	}
+
+	/**
+	 * This parser hands back the response as text.
+	 */
+	private static final QuoteResponseParser<String> TEXT = body -> StandardCharsets.UTF_8.decode(body).toString();
+
+	private static volatile QuoteHttpClient singleton;
+
+	/**
+	 * This is the pooled client that all requests go through.
+	 */
+	private final HttpClient client;
+
+	private final int connectTimeout;
+	private final int readTimeout;
+
+	/**
+	 * These are the counters used to report on connection reuse.
+	 */
+	private final LongAdder requestCount = new LongAdder();
+	private final LongAdder failureCount = new LongAdder();
+	private final LongAdder timeoutCount = new LongAdder();
+	private final LongAdder totalLatency = new LongAdder();
+	private final AtomicLong inFlight = new AtomicLong();
+	private final AtomicLong peakInFlight = new AtomicLong();
+
+	/**
+	 * These are the counters used to report on conditional requests.
+	 */
+	private final LongAdder notModifiedCount = new LongAdder();
+	private final LongAdder bytesReceived = new LongAdder();
+	private final LongAdder bytesSaved = new LongAdder();
+	private final LongAdder parseTime = new LongAdder();
+	private final LongAdder parseTimeSaved = new LongAdder();
+
+	/**
+	 * This is whether requests made through a parser are made conditional.
+	 */
+	private volatile boolean conditionalRequests = true;
+
+	/**
+	 * This is whether providers are invited to compress their responses.
+	 */
+	private volatile boolean compression = true;
+
+	/**
+	 * This is the initial, minimum and maximum rate for each provider, or null
+	 * if requests are not rate limited.
+	 */
+	private volatile double[] rateLimits;
+
+	/**
+	 * These are the rate limiters for each provider, by host and port.
+	 */
+	private final Map<String, AdaptiveRateLimiter> rateLimiters = new ConcurrentHashMap<String, AdaptiveRateLimiter>();
+
+	/**
+	 * These are the last responses received for each URL which carried
+	 * validators.
+	 */
+	private final Map<String, ValidatedResponse> validators = new ConcurrentHashMap<String, ValidatedResponse>();
+
+	/**
+	 * This is the cache of raw responses kept on disk, or null if there is
+	 * none.
+	 */
+	private volatile PersistentResponseCache persistentCache;
+
+	/**
+	 * These are the URLs which have been requested since the persistent cache
+	 * was set. Only the first request for a URL is answered from the disk.
+	 */
+	private final Set<String> requestedURLs = ConcurrentHashMap.newKeySet();
+	private final LongAdder persistentHitCount = new LongAdder();
+
+	/**
+	 * This is where the responses from the providers are recorded, or null if
+	 * they are not.
+	 */
+	private volatile QuoteResponseRecorder recorder;
+
+	/**
+	 * This is the client offering HTTP/2, and the transport pipelining HTTP/1.1
+	 * requests, used while multiplexing is turned on. Both are null otherwise.
+	 */
+	private volatile HttpClient http2Client;
+	private volatile PipelinedHttpTransport pipelinedTransport;
+
+	/**
+	 * This is whether each provider, by host and port, answered the first
+	 * request over HTTP/2.
+	 */
+	private final Map<String, CompletableFuture<Boolean>> http2Providers = new ConcurrentHashMap<String, CompletableFuture<Boolean>>();
+
+	/**
+	 * This method will return the singleton instance of the quote client. If
+	 * none exists, one will be created with the default timeouts.
+	 *
+	 * @return The shared quote client will be returned.
+	 */
+	public static QuoteHttpClient getSingleton() {
+		if (singleton == null) {
+			synchronized (QuoteHttpClient.class) {
+				if (singleton == null) {
+					singleton = new QuoteHttpClient(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+				}
+			}
+		}
+		return singleton;
+	}
+
+	/**
+	 * Replace the shared quote client. Downloaders which are created after this
+	 * call will use the new client.
+	 *
+	 * @param client
+	 *            This is the client which is to be shared.
+	 */
+	public static void setSingleton(QuoteHttpClient client) {
+		synchronized (QuoteHttpClient.class) {
+			singleton = client;
+		}
+	}
+
+	/**
+	 * @param connectTimeout
+	 *            This is the time allowed to establish a connection, in
+	 *            milliseconds.
+	 * @param readTimeout
+	 *            This is the time allowed to wait for a response, in
+	 *            milliseconds.
+	 */
+	public QuoteHttpClient(int connectTimeout, int readTimeout) {
+		super();
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+				.connectTimeout(Duration.ofMillis(connectTimeout)).followRedirects(HttpClient.Redirect.NORMAL).build();
+	}
+
+	/**
+	 * Prepare for downloading from a provider before the first real request:
+	 * resolve the provider's host, so that the address is cached, and send the
+	 * given number of requests to it at once, so that up to that many
+	 * connections are left waiting in the pool.
+	 * Each connection is opened with a GET request for the URL whose response
+	 * is discarded, since the JDK client does not keep a connection after a
+	 * HEAD request; whatever the provider answers, the connection is kept.
+	 * None of this is counted in the statistics, nor subject to the rate
+	 * limits.
+	 *
+	 * @param providerURL
+	 *            This is a URL on the provider's host.
+	 * @param connections
+	 *            This is the number of connections to open.
+	 * @return The number of warm-up requests which were answered will be
+	 *         returned.
+	 * @throws IOException
+	 *             An IOException will be thrown if the URL is invalid or the
+	 *             host can not be resolved.
+	 */
+	public int warmUp(String providerURL, int connections) throws IOException {
+		URI uri;
+		try {
+			uri = URI.create(providerURL);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid URL " + providerURL, e);
+		}
+		InetAddress.getAllByName(uri.getHost());
+
+		HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofMillis(readTimeout)).GET().build();
+		List<CompletableFuture<HttpResponse<Void>>> pending = new ArrayList<CompletableFuture<HttpResponse<Void>>>();
+		for (int index = 0; index < connections; index++) {
+			pending.add(client.sendAsync(request, HttpResponse.BodyHandlers.discarding()));
+		}
+		int opened = 0;
+		for (CompletableFuture<HttpResponse<Void>> response : pending) {
+			try {
+				response.get();
+				opened++;
+			} catch (ExecutionException e) {
+				// The provider could not be reached this time; the first real
+				// request will try again.
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while warming up " + providerURL, e);
+			}
+		}
+		return opened;
+	}
+
+	/**
+	 * Download the given URL and return the body of the response as text.
+	 *
+	 * @param quoteURL
+	 *            This is the URL that is to be downloaded.
+	 * @return The body of the response will be returned.
+	 * @throws IOException
+	 *             An IOException will be thrown if the URL can not be
+	 *             downloaded, if the request times out, or if the server does
+	 *             not return a successful status.
+	 */
+	public String get(String quoteURL) throws IOException {
+		return get(quoteURL, TEXT);
+	}
+
+	/**
+	 * Download the given URL without blocking the calling thread. Many requests
+	 * may be in flight at once; they share the pooled connections of this
+	 * client.
+	 *
+	 * @param quoteURL
+	 *            This is the URL that is to be downloaded.
+	 * @return A future which completes with the body of the response will be
+	 *         returned. The future completes exceptionally with an
+	 *         IOException under the same conditions as get().
+	 */
+	public CompletableFuture<String> getAsync(String quoteURL) {
+		return getAsync(quoteURL, TEXT);
+	}
+
+	/**
+	 * Download the given URL and hand the raw bytes of the response straight to
+	 * the parser. The response is read through a channel into a direct buffer
+	 * which is reused by the calling thread, so no intermediate String is
+	 * built. If the server answers 304 Not Modified, the value parsed from the
+	 * previous response is returned again; it must therefore not be modified
+	 * by the caller.
+	 *
+	 * @param quoteURL
+	 *            This is the URL that is to be downloaded.
+	 * @param parser
+	 *            This is the parser which interprets the response.
+	 * @return The parsed response will be returned.
+	 * @throws IOException
+	 *             An IOException will be thrown if the URL can not be
+	 *             downloaded or the response can not be parsed.
+	 */
+	public <T> T get(String quoteURL, QuoteResponseParser<T> parser) throws IOException {
+		if (pipelinedTransport != null) {
+			// Wait on a multiplexed request instead of holding a connection.
+			try {
+				return getAsync(quoteURL, parser).get();
+			} catch (ExecutionException e) {
+				throw unwrap(e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while downloading " + quoteURL, e);
+			}
+		}
+		T stored = fromPersistentCache(quoteURL, parser);
+		if (stored != null) {
+			return stored;
+		}
+		ValidatedResponse cached = validated(quoteURL, parser);
+		HttpRequest request = newRequest(quoteURL, cached);
+		AdaptiveRateLimiter limiter = rateLimiterFor(request.uri());
+
+		long start = System.nanoTime();
+		requestStarted();
+		try {
+			if (limiter != null) {
+				limiter.acquire();
+				// Time spent waiting for the limiter is not part of the latency.
+				start = System.nanoTime();
+			}
+			HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+			try (ReadableByteChannel channel = Channels.newChannel(response.body())) {
+				if (response.statusCode() == 304 && cached != null) {
+					requestSucceeded(limiter);
+					return notModified(quoteURL, cached);
+				}
+				checkStatus(quoteURL, response);
+				requestSucceeded(limiter);
+				return parseAndRemember(quoteURL, response, parser,
+						QuoteResponseReader.read(channel, contentEncoding(response)));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			failureCount.increment();
+			throw new IOException("Interrupted while downloading " + quoteURL, e);
+		} catch (IOException e) {
+			requestFailed(limiter, e);
+			throw e;
+		} finally {
+			requestFinished(start);
+		}
+	}
+
+	/**
+	 * Download the given URL without blocking the calling thread, and hand the
+	 * raw bytes of the response to the parser once they arrive. If the
+	 * provider is being rate limited, the request is sent once the limiter
+	 * admits it, still without blocking the caller.
+	 *
+	 * @param quoteURL
+	 *            This is the URL that is to be downloaded.
+	 * @param parser
+	 *            This is the parser which interprets the response.
+	 * @return A future which completes with the parsed response will be
+	 *         returned. The future completes exceptionally with an
+	 *         IOException under the same conditions as get().
+	 */
+	public <T> CompletableFuture<T> getAsync(String quoteURL, QuoteResponseParser<T> parser) {
+		T stored = fromPersistentCache(quoteURL, parser);
+		if (stored != null) {
+			return CompletableFuture.completedFuture(stored);
+		}
+		ValidatedResponse cached = validated(quoteURL, parser);
+		HttpRequest request;
+		try {
+			request = newRequest(quoteURL, cached);
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		AdaptiveRateLimiter limiter = rateLimiterFor(request.uri());
+
+		long wait = limiter == null ? 0 : limiter.reserve();
+		long start = System.nanoTime() + wait;
+		requestStarted();
+		CompletableFuture<HttpResponse<byte[]>> sent;
+		if (wait > 0) {
+			sent = CompletableFuture.runAsync(() -> {
+			}, CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS)).thenCompose(ignored -> send(request));
+		} else {
+			sent = send(request);
+		}
+		return propagateCancel(sent.handle((response, error) -> {
+			requestFinished(start);
+			try {
+				if (error != null) {
+					throw unwrap(error);
+				}
+				if (response.statusCode() == 304 && cached != null) {
+					requestSucceeded(limiter);
+					return notModified(quoteURL, cached);
+				}
+				checkStatus(quoteURL, response);
+				requestSucceeded(limiter);
+				return parseAndRemember(quoteURL, response, parser,
+						QuoteResponseReader.decode(ByteBuffer.wrap(response.body()), contentEncoding(response)));
+			} catch (IOException e) {
+				requestFailed(limiter, e);
+				throw new CompletionException(e);
+			}
+		}), sent);
+	}
+
+	/**
+	 * Open a long-lived request to the given URL, such as a stream of
+	 * server-sent events, and hand each line of the response to the consumer
+	 * as soon as it arrives. The read timeout does not apply, and the request
+	 * is not counted in the statistics.
+	 *
+	 * @param streamURL
+	 *            This is the URL that is to be streamed.
+	 * @param lines
+	 *            This is given each line of the response, without its line
+	 *            terminator, on one of the client's threads.
+	 * @return A future which completes when the provider ends the response.
+	 *         It completes exceptionally with an IOException if the stream
+	 *         fails or the provider does not return a successful status.
+	 *         Cancelling it closes the stream.
+	 */
+	public CompletableFuture<Void> stream(String streamURL, Consumer<String> lines) {
+		HttpRequest request;
+		try {
+			request = HttpRequest.newBuilder(URI.create(streamURL)).header("Accept", "text/event-stream").GET()
+					.build();
+		} catch (IllegalArgumentException e) {
+			return CompletableFuture.failedFuture(new IOException("Invalid URL " + streamURL, e));
+		}
+
+		CompletableFuture<Void> done = new CompletableFuture<Void>();
+		AtomicReference<Flow.Subscription> upstream = new AtomicReference<Flow.Subscription>();
+		Flow.Subscriber<String> subscriber = new Flow.Subscriber<String>() {
+			public void onSubscribe(Flow.Subscription subscription) {
+				upstream.set(subscription);
+				if (done.isDone()) {
+					subscription.cancel();
+				} else {
+					subscription.request(Long.MAX_VALUE);
+				}
+			}
+
+			public void onNext(String line) {
+				if (done.isDone() == false) {
+					lines.accept(line);
+				}
+			}
+
+			public void onError(Throwable error) {
+				done.completeExceptionally(unwrap(error));
+			}
+
+			public void onComplete() {
+				done.complete(null);
+			}
+		};
+		// The status is checked as soon as it arrives, so that the lines of an
+		// error page are never taken for the stream.
+		HttpResponse.BodyHandler<Void> handler = info -> {
+			if (info.statusCode() != 200) {
+				done.completeExceptionally(new HttpStatusError(info.statusCode(),
+						"HTTP " + info.statusCode() + " returned by " + streamURL));
+				return HttpResponse.BodySubscribers.replacing(null);
+			}
+			return HttpResponse.BodySubscribers.fromLineSubscriber(subscriber);
+		};
+		client.sendAsync(request, handler).whenComplete((response, error) -> {
+			if (error != null) {
+				done.completeExceptionally(unwrap(error));
+			}
+		});
+		done.whenComplete((ignored, error) -> {
+			Flow.Subscription subscription = upstream.get();
+			if (error != null && subscription != null) {
+				subscription.cancel();
+			}
+		});
+		return done;
+	}
+
+	/**
+	 * Send a request over the pooled connections, or, while multiplexing, as
+	 * an HTTP/2 stream or a pipelined HTTP/1.1 request. The first request to a
+	 * provider goes to the HTTP/2 client, which falls back to HTTP/1.1 if the
+	 * provider does not offer HTTP/2. The requests made meanwhile wait for its
+	 * answer, so that they do not each open a connection, and are then
+	 * pipelined if the provider did not answer over HTTP/2.
+	 */
+	private CompletableFuture<HttpResponse<byte[]>> send(HttpRequest request) {
+		HttpClient multiplexed = http2Client;
+		PipelinedHttpTransport transport = pipelinedTransport;
+		if (multiplexed == null || transport == null) {
+			return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+		}
+		String provider = request.uri().getHost() + ":" + request.uri().getPort();
+		CompletableFuture<Boolean> mine = new CompletableFuture<Boolean>();
+		CompletableFuture<Boolean> http2 = http2Providers.putIfAbsent(provider, mine);
+		if (http2 == null) {
+			CompletableFuture<HttpResponse<byte[]>> sent = multiplexed.sendAsync(request,
+					HttpResponse.BodyHandlers.ofByteArray());
+			sent.whenComplete((response, error) -> {
+				if (error != null) {
+					// Ask again with the next request.
+					http2Providers.remove(provider, mine);
+				}
+				mine.complete(response != null && response.version() == HttpClient.Version.HTTP_2);
+			});
+			return sent;
+		}
+		if (http2.isDone()) {
+			return http2.join() ? multiplexed.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+					: pipeline(request, transport);
+		}
+		return http2.thenCompose(
+				answered -> answered ? multiplexed.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+						: pipeline(request, transport));
+	}
+
+	private CompletableFuture<HttpResponse<byte[]>> pipeline(HttpRequest request, PipelinedHttpTransport transport) {
+		if ("http".equalsIgnoreCase(request.uri().getScheme()) == false) {
+			// Only plain connections are pipelined.
+			return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+		}
+		return transport.send(request);
+	}
+
+	/**
+	 * Build a request for the given URL, made conditional on the validators of
+	 * the previous response if there is one.
+	 */
+	private HttpRequest newRequest(String quoteURL, ValidatedResponse cached) throws IOException {
+		try {
+			HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(quoteURL))
+					.timeout(Duration.ofMillis(readTimeout)).GET();
+			if (cached != null && cached.eTag != null) {
+				builder.header("If-None-Match", cached.eTag);
+			}
+			if (cached != null && cached.lastModified != null) {
+				builder.header("If-Modified-Since", cached.lastModified);
+			}
+			if (compression) {
+				builder.header("Accept-Encoding", ACCEPT_ENCODING);
+			}
+			return builder.build();
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid URL " + quoteURL, e);
+		}
+	}
+
+	/**
+	 * @return The Content-Encoding of the response, or null if it has none.
+	 */
+	private static String contentEncoding(HttpResponse<?> response) {
+		return response.headers().firstValue("Content-Encoding").orElse(null);
+	}
+
+	/**
+	 * @return The previous response for the URL if it was interpreted by the
+	 *         same parser and conditional requests are enabled, otherwise null.
+	 */
+	private ValidatedResponse validated(String quoteURL, QuoteResponseParser<?> parser) {
+		if (conditionalRequests == false) {
+			return null;
+		}
+		ValidatedResponse cached = validators.get(quoteURL);
+		return (cached != null && cached.parser == parser) ? cached : null;
+	}
+
+	/**
+	 * Account for a 304 Not Modified answer and hand back the previously parsed
+	 * value.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> T notModified(String quoteURL, ValidatedResponse cached) {
+		notModifiedCount.increment();
+		QuoteResponseRecorder recording = recorder;
+		if (recording != null) {
+			recording.record(quoteURL, null);
+		}
+		PersistentResponseCache cache = persistentCache;
+		if (cache != null) {
+			cache.touch(quoteURL);
+		}
+		bytesSaved.add(cached.length);
+		parseTimeSaved.add(cached.parseTime);
+		return (T) cached.value;
+	}
+
+	/**
+	 * Answer the first request for a URL from the persistent cache, if it holds
+	 * a recent enough response, and refetch the URL in the background.
+	 *
+	 * @return The parsed stored response, or null if the request has to be
+	 *         sent.
+	 */
+	private <T> T fromPersistentCache(String quoteURL, QuoteResponseParser<T> parser) {
+		PersistentResponseCache cache = persistentCache;
+		if (cache == null || requestedURLs.add(quoteURL) == false) {
+			return null;
+		}
+		PersistentResponseCache.Entry entry = cache.get(quoteURL);
+		if (entry == null) {
+			return null;
+		}
+		int length = entry.getPayload().remaining();
+		T value;
+		try {
+			value = parser.parse(entry.getPayload());
+		} catch (IOException e) {
+			return null;
+		}
+		if (conditionalRequests && (entry.getETag() != null || entry.getLastModified() != null)) {
+			validators.put(quoteURL,
+					new ValidatedResponse(parser, value, entry.getETag(), entry.getLastModified(), length, 0));
+		}
+		persistentHitCount.increment();
+		// The refreshed response replaces the stored one; a failure here only
+		// shows up in the failure count.
+		getAsync(quoteURL, parser);
+		return value;
+	}
+
+	/**
+	 * Parse a full response and remember it if the server sent validators.
+	 */
+	private <T> T parseAndRemember(String quoteURL, HttpResponse<?> response, QuoteResponseParser<T> parser,
+			ByteBuffer body) throws IOException {
+		int length = body.remaining();
+		bytesReceived.add(length);
+		ByteBuffer raw = body.duplicate();
+		QuoteResponseRecorder recording = recorder;
+		if (recording != null) {
+			recording.record(quoteURL, raw);
+		}
+
+		long start = System.nanoTime();
+		T value = parser.parse(body);
+		long elapsed = System.nanoTime() - start;
+		parseTime.add(elapsed);
+
+		String eTag = response.headers().firstValue("ETag").orElse(null);
+		String lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+		if (conditionalRequests && (eTag != null || lastModified != null)
+				&& (validators.size() < MAXIMUM_VALIDATED_URLS || validators.containsKey(quoteURL))) {
+			validators.put(quoteURL, new ValidatedResponse(parser, value, eTag, lastModified, length, elapsed));
+		} else {
+			validators.remove(quoteURL);
+		}
+		PersistentResponseCache cache = persistentCache;
+		if (cache != null) {
+			cache.put(quoteURL, raw, eTag, lastModified);
+		}
+		return value;
+	}
+
+	private static <T> HttpResponse<T> checkStatus(String quoteURL, HttpResponse<T> response) throws IOException {
+		if (response.statusCode() != 200) {
+			throw new HttpStatusError(response.statusCode(),
+					"HTTP " + response.statusCode() + " returned by " + quoteURL);
+		}
+		return response;
+	}
+
+	/**
+	 * Strip the wrappers which CompletableFuture places around a failure.
+	 *
+	 * @param error
+	 *            This is the failure reported by a future.
+	 * @return The underlying IOException will be returned.
+	 */
+	static IOException unwrap(Throwable error) {
+		while ((error instanceof CompletionException || error instanceof ExecutionException)
+				&& error.getCause() != null) {
+			error = error.getCause();
+		}
+		if (error instanceof IOException) {
+			return (IOException) error;
+		}
+		return new IOException(error);
+	}
+
+	/**
+	 * Arrange for cancelling a dependent future to cancel the future it was
+	 * derived from, so that a caller who loses interest in a quote also
+	 * abandons the exchange carrying it.
+	 *
+	 * @param dependent
+	 *            This is the future handed to the caller.
+	 * @param source
+	 *            This is the future the dependent was derived from.
+	 * @return The dependent future will be returned.
+	 */
+	static <T> CompletableFuture<T> propagateCancel(CompletableFuture<T> dependent, CompletableFuture<?> source) {
+		dependent.whenComplete((value, error) -> {
+			if (error instanceof CancellationException) {
+				source.cancel(true);
+			}
+		});
+		return dependent;
+	}
+
+	private void requestSucceeded(AdaptiveRateLimiter limiter) {
+		if (limiter != null) {
+			limiter.onSuccess();
+		}
+	}
+
+	private void requestFailed(AdaptiveRateLimiter limiter, IOException e) {
+		if (e instanceof HttpTimeoutException) {
+			timeoutCount.increment();
+		}
+		failureCount.increment();
+		if (limiter != null && isThrottled(e)) {
+			limiter.onThrottle();
+		}
+	}
+
+	/**
+	 * @return True if the failure shows that the provider is throttling
+	 *         requests, either by status or by timing out.
+	 */
+	static boolean isThrottled(Throwable error) {
+		while (error != null) {
+			if (error instanceof HttpTimeoutException) {
+				return true;
+			}
+			if (error instanceof HttpStatusError) {
+				return ((HttpStatusError) error).isThrottled();
+			}
+			error = error.getCause();
+		}
+		return false;
+	}
+
+	/**
+	 * @return The rate limiter for the provider serving the URI, or null if
+	 *         rate limiting is off.
+	 */
+	private AdaptiveRateLimiter rateLimiterFor(URI uri) {
+		double[] limits = rateLimits;
+		if (limits == null || uri.getHost() == null) {
+			return null;
+		}
+		return rateLimiters.computeIfAbsent(uri.getHost() + ":" + uri.getPort(),
+				provider -> new AdaptiveRateLimiter(limits[0], limits[1], limits[2]));
+	}
+
+	/**
+	 * Pace the requests sent to each provider with its own AdaptiveRateLimiter.
+	 *
+	 * @param initialRate
+	 *            This is the rate at which requests to a provider are first
+	 *            admitted, in requests per second.
+	 * @param minimumRate
+	 *            This is the lowest the rate for a provider will be cut to.
+	 * @param maximumRate
+	 *            This is the highest the rate for a provider will grow to.
+	 * @throws IllegalArgumentException
+	 *             Will be thrown unless 0 < minimumRate <= maximumRate.
+	 */
+	public void setRateLimits(double initialRate, double minimumRate, double maximumRate) {
+		if (minimumRate <= 0 || minimumRate > maximumRate) {
+			throw new IllegalArgumentException("The rate limits must satisfy 0 < minimum <= maximum.");
+		}
+		rateLimiters.clear();
+		rateLimits = new double[] { initialRate, minimumRate, maximumRate };
+	}
+
+	/**
+	 * Stop pacing requests.
+	 */
+	public void disableRateLimits() {
+		rateLimits = null;
+		rateLimiters.clear();
+	}
+
+	/**
+	 * @param host
+	 *            This is the host name of the provider.
+	 * @param port
+	 *            This is the port of the provider, or -1 for the default.
+	 * @return The rate limiter which paces requests to the provider, or null
+	 *         if none has been used yet.
+	 */
+	public AdaptiveRateLimiter getRateLimiter(String host, int port) {
+		return rateLimiters.get(host + ":" + port);
+	}
+
+	private void requestStarted() {
+		requestCount.increment();
+		long current = inFlight.incrementAndGet();
+		peakInFlight.accumulateAndGet(current, Math::max);
+	}
+
+	private void requestFinished(long start) {
+		inFlight.decrementAndGet();
+		totalLatency.add(System.nanoTime() - start);
+	}
+
+	/**
+	 * @return the connect timeout in milliseconds
+	 */
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * @return the read timeout in milliseconds
+	 */
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	/**
+	 * @return The number of requests which have been issued through this
+	 *         client.
+	 */
+	public long getRequestCount() {
+		return requestCount.sum();
+	}
+
+	/**
+	 * @return The number of requests which failed, including timeouts.
+	 */
+	public long getFailureCount() {
+		return failureCount.sum();
+	}
+
+	/**
+	 * @return The number of requests which timed out.
+	 */
+	public long getTimeoutCount() {
+		return timeoutCount.sum();
+	}
+
+	/**
+	 * @return The average time taken by a request, in milliseconds.
+	 */
+	public double getAverageLatency() {
+		long count = requestCount.sum();
+		return count == 0 ? 0.0 : totalLatency.sum() / (count * 1000000.0);
+	}
+
+	/**
+	 * This will return the largest number of requests which were ever in flight
+	 * at once. A keep-alive pool only needs to open a new connection when all of
+	 * its existing connections are busy, so this is an upper bound on the number
+	 * of connections opened while the pool was warm.
+	 *
+	 * @return The peak number of concurrent requests.
+	 */
+	public long getPeakConcurrentRequests() {
+		return peakInFlight.get();
+	}
+
+	/**
+	 * This will return an estimate of the fraction of requests which were able
+	 * to reuse a pooled connection, from the peak number of concurrent
+	 * requests. No connections are counted: the estimate assumes that the
+	 * server keeps every connection alive, so it is too high whenever the
+	 * server closes them.
+	 *
+	 * @return A value from 0 to 1 giving the estimated connection reuse ratio.
+	 */
+	public double getEstimatedConnectionReuseRatio() {
+		long count = requestCount.sum();
+		if (count == 0) {
+			return 0.0;
+		}
+		return Math.max(0.0, (count - peakInFlight.get()) / (double) count);
+	}
+
+	/**
+	 * @return The number of requests answered with 304 Not Modified.
+	 */
+	public long getNotModifiedCount() {
+		return notModifiedCount.sum();
+	}
+
+	/**
+	 * @return The number of response body bytes downloaded and parsed, counted
+	 *         after any compression has been undone.
+	 */
+	public long getBytesReceived() {
+		return bytesReceived.sum();
+	}
+
+	/**
+	 * @return The number of response body bytes which did not have to be
+	 *         downloaded because the server answered 304 Not Modified.
+	 */
+	public long getBytesSaved() {
+		return bytesSaved.sum();
+	}
+
+	/**
+	 * @return The time spent parsing responses, in milliseconds.
+	 */
+	public double getParseTime() {
+		return parseTime.sum() / 1000000.0;
+	}
+
+	/**
+	 * @return The parsing time which was avoided by reusing the quotes from a
+	 *         previous response, in milliseconds.
+	 */
+	public double getParseTimeSaved() {
+		return parseTimeSaved.sum() / 1000000.0;
+	}
+
+	/**
+	 * @return The number of connections allowed to each provider while
+	 *         multiplexing, or zero if multiplexing is turned off.
+	 */
+	public int getMultiplexing() {
+		PipelinedHttpTransport transport = pipelinedTransport;
+		return transport == null ? 0 : transport.getConnectionsPerHost();
+	}
+
+	/**
+	 * Turn multiplexing on or off. While it is on, requests to a provider
+	 * share a few connections, as HTTP/2 streams if the provider offers
+	 * HTTP/2 and as pipelined HTTP/1.1 requests if not, and synchronous
+	 * requests wait on them rather than taking a connection each.
+	 *
+	 * @param connectionsPerHost
+	 *            This is the number of HTTP/1.1 connections to open to each
+	 *            provider, or zero to turn multiplexing off.
+	 */
+	public synchronized void setMultiplexing(int connectionsPerHost) {
+		PipelinedHttpTransport old = pipelinedTransport;
+		if (connectionsPerHost > 0) {
+			http2Client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2)
+					.connectTimeout(Duration.ofMillis(connectTimeout)).followRedirects(HttpClient.Redirect.NORMAL)
+					.build();
+			pipelinedTransport = new PipelinedHttpTransport(connectionsPerHost, connectTimeout);
+		} else {
+			http2Client = null;
+			pipelinedTransport = null;
+		}
+		http2Providers.clear();
+		if (old != null) {
+			old.close();
+		}
+	}
+
+	/**
+	 * @return The transport pipelining HTTP/1.1 requests, or null if
+	 *         multiplexing is turned off.
+	 */
+	public PipelinedHttpTransport getPipelinedTransport() {
+		return pipelinedTransport;
+	}
+
+	/**
+	 * @return The recorder of the responses from the providers, or null if
+	 *         they are not recorded.
+	 */
+	public QuoteResponseRecorder getRecorder() {
+		return recorder;
+	}
+
+	/**
+	 * Record every response from the providers read through a parser,
+	 * including 304 Not Modified answers.
+	 *
+	 * @param recorder
+	 *            This is the recorder to use, or null to stop recording.
+	 */
+	public void setRecorder(QuoteResponseRecorder recorder) {
+		this.recorder = recorder;
+	}
+
+	/**
+	 * @return The number of requests answered from the persistent cache.
+	 */
+	public long getPersistentHitCount() {
+		return persistentHitCount.sum();
+	}
+
+	/**
+	 * @return The cache of raw responses kept on disk, or null if there is
+	 *         none.
+	 */
+	public PersistentResponseCache getPersistentCache() {
+		return persistentCache;
+	}
+
+	/**
+	 * Keep the raw responses read through a parser on disk as well, and answer
+	 * the first request for each URL from the disk.
+	 *
+	 * @param persistentCache
+	 *            This is the cache to use, or null to stop using one.
+	 */
+	public void setPersistentCache(PersistentResponseCache persistentCache) {
+		this.persistentCache = persistentCache;
+		requestedURLs.clear();
+	}
+
+	/**
+	 * @return Whether requests made through a parser are made conditional.
+	 */
+	public boolean isConditionalRequests() {
+		return conditionalRequests;
+	}
+
+	/**
+	 * Turn conditional requests on or off. Turning them off also forgets all of
+	 * the remembered responses.
+	 *
+	 * @param conditionalRequests
+	 *            Whether requests should be made conditional.
+	 */
+	public void setConditionalRequests(boolean conditionalRequests) {
+		this.conditionalRequests = conditionalRequests;
+		if (conditionalRequests == false) {
+			validators.clear();
+		}
+	}
+
+	/**
+	 * @return Whether providers are invited to compress their responses.
+	 */
+	public boolean isCompression() {
+		return compression;
+	}
+
+	/**
+	 * Turn compressed responses on or off. When on, every request carries an
+	 * Accept-Encoding header, and gzip or deflate responses are inflated as
+	 * they are read.
+	 *
+	 * @param compression
+	 *            Whether providers should be invited to compress responses.
+	 */
+	public void setCompression(boolean compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * Reset all of the counters kept by this client.
+	 */
+	public void resetStatistics() {
+		requestCount.reset();
+		failureCount.reset();
+		timeoutCount.reset();
+		totalLatency.reset();
+		peakInFlight.set(inFlight.get());
+		notModifiedCount.reset();
+		bytesReceived.reset();
+		bytesSaved.reset();
+		parseTime.reset();
+		parseTimeSaved.reset();
+		persistentHitCount.reset();
+	}
+}
@@ -0,0 +1,28 @@
+/**
+ * This interface is implemented by whatever reacts to quotes pushed by a
+ * stock quote generator as they arrive, rather than polling for them.
+ * 
+ */
+
+public interface QuoteListener {
+
+	/**
+	 * This routine is called with each new quote for a subscribed symbol. It
+	 * is called on the source's own thread, so it should return promptly.
+	 * 
+	 * @param quote
+	 *            This is the latest quote for the symbol.
+	 */
+	public abstract void quoteUpdated(StockQuoteInterface quote);
+
+	/**
+	 * This routine is called when the stream of quotes is interrupted. The
+	 * source tries to reconnect unless the subscription has been cancelled.
+	 * The default implementation does nothing.
+	 * 
+	 * @param e
+	 *            This is the reason the stream was interrupted.
+	 */
+	public default void streamFailed(Exception e) {
+	}
+}
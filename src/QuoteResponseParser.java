@@ -0,0 +1,28 @@
+/**
+ * This interface is implemented by classes which turn the raw bytes of a
+ * provider's response directly into stock quotes, without first decoding the
+ * response into a String.
+ * 
+ * @param <T>
+ *            This is the type of result produced by the parser.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public interface QuoteResponseParser<T> {
+
+	/**
+	 * This routine will interpret the body of a response.
+	 * 
+	 * @param body
+	 *            This is the body of the response, running from the buffer's
+	 *            position to its limit. The buffer may be reused once this call
+	 *            returns, so it must not be retained.
+	 * @return The interpreted response will be returned.
+	 * @throws IOException
+	 *             An IOException will be thrown if the body can not be
+	 *             interpreted.
+	 */
+	public abstract T parse(ByteBuffer body) throws IOException;
+}
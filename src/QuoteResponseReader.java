@@ -0,0 +1,302 @@
+/**
+ * This class reads a provider's response into a direct buffer which is kept
+ * for each thread and reused from one request to the next, so that reading a
+ * response allocates no intermediate strings or arrays.
+ * 
+ * Responses compressed with gzip or deflate are inflated as they are read: the
+ * compressed bytes pass through a small buffer of their own, and the Inflater
+ * writes straight into the response buffer. The Inflaters are also kept for
+ * each thread and reset between responses.
+ * 
+ */
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+public final class QuoteResponseReader {
+	/**
+	 * This is the size of the buffer first given to each thread.
+	 */
+	private static final int INITIAL_CAPACITY = 16 * 1024;
+
+	/**
+	 * This is the largest response which will be accepted.
+	 */
+	private static final int MAXIMUM_CAPACITY = 16 * 1024 * 1024;
+
+	/**
+	 * This is the size of the buffer holding compressed bytes as they arrive.
+	 */
+	private static final int COMPRESSED_CAPACITY = 16 * 1024;
+
+	/**
+	 * These are the flags which may be set in a gzip header.
+	 */
+	private static final int GZIP_HEADER_CRC = 2;
+	private static final int GZIP_EXTRA = 4;
+	private static final int GZIP_NAME = 8;
+	private static final int GZIP_COMMENT = 16;
+
+	private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal
+			.withInitial(() -> ByteBuffer.allocateDirect(INITIAL_CAPACITY));
+
+	private static final ThreadLocal<ByteBuffer> compressedBuffers = ThreadLocal
+			.withInitial(() -> ByteBuffer.allocateDirect(COMPRESSED_CAPACITY).order(ByteOrder.LITTLE_ENDIAN));
+
+	/**
+	 * These inflate raw deflate data, as found inside gzip, and zlib data.
+	 */
+	private static final ThreadLocal<Inflater> rawInflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+	private static final ThreadLocal<Inflater> zlibInflaters = ThreadLocal.withInitial(() -> new Inflater(false));
+
+	private static final ThreadLocal<CRC32> checksums = ThreadLocal.withInitial(CRC32::new);
+
+	private QuoteResponseReader() {
+		super();
+	}
+
+	/**
+	 * Read everything remaining in the channel into this thread's buffer. The
+	 * buffer grows as needed and keeps its larger size for later responses.
+	 * 
+	 * @param channel
+	 *            This is the channel from which the response is read.
+	 * @return The buffer holding the response will be returned, ready to be
+	 *         read. It remains valid until the next call made on this thread.
+	 * @throws IOException
+	 *             An IOException will be thrown if the channel can not be read
+	 *             or the response is larger than the maximum allowed.
+	 */
+	public static ByteBuffer read(ReadableByteChannel channel) throws IOException {
+		ByteBuffer buffer = buffers.get();
+		buffer.clear();
+		while (true) {
+			if (buffer.hasRemaining() == false) {
+				buffer = grow(buffer);
+			}
+			if (channel.read(buffer) < 0) {
+				break;
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Read everything remaining in the channel into this thread's buffer,
+	 * inflating it as it is read if the response was compressed.
+	 * 
+	 * @param channel
+	 *            This is the channel from which the response is read.
+	 * @param contentEncoding
+	 *            This is the Content-Encoding of the response, or null if there
+	 *            was none.
+	 * @return The buffer holding the decoded response will be returned, ready
+	 *         to be read. It remains valid until the next call made on this
+	 *         thread.
+	 * @throws IOException
+	 *             An IOException will be thrown if the channel can not be read,
+	 *             the response is larger than the maximum allowed, or the
+	 *             compressed data is corrupt or in an unknown encoding.
+	 */
+	public static ByteBuffer read(ReadableByteChannel channel, String contentEncoding) throws IOException {
+		if (isIdentity(contentEncoding)) {
+			return read(channel);
+		}
+		ByteBuffer input = compressedBuffers.get();
+		input.clear().flip();
+		return inflate(input, channel, contentEncoding);
+	}
+
+	/**
+	 * Decode a response which has already been received in full.
+	 * 
+	 * @param body
+	 *            This is the response as it was received.
+	 * @param contentEncoding
+	 *            This is the Content-Encoding of the response, or null if there
+	 *            was none.
+	 * @return The body itself will be returned if it was not compressed;
+	 *         otherwise this thread's buffer holding the inflated response,
+	 *         which remains valid until the next call made on this thread.
+	 * @throws IOException
+	 *             An IOException will be thrown if the response is larger than
+	 *             the maximum allowed, or the compressed data is corrupt or in
+	 *             an unknown encoding.
+	 */
+	public static ByteBuffer decode(ByteBuffer body, String contentEncoding) throws IOException {
+		if (isIdentity(contentEncoding)) {
+			return body;
+		}
+		return inflate(body.order(ByteOrder.LITTLE_ENDIAN), null, contentEncoding);
+	}
+
+	private static boolean isIdentity(String contentEncoding) {
+		return contentEncoding == null || contentEncoding.isEmpty() || contentEncoding.equalsIgnoreCase("identity");
+	}
+
+	/**
+	 * Inflate a compressed response into this thread's buffer.
+	 * 
+	 * @param input
+	 *            This holds the compressed bytes received so far, ready to be
+	 *            read.
+	 * @param channel
+	 *            This is the channel from which the rest of the compressed
+	 *            bytes are read, or null if the input holds all of them.
+	 * @param contentEncoding
+	 *            This is either gzip or deflate.
+	 */
+	private static ByteBuffer inflate(ByteBuffer input, ReadableByteChannel channel, String contentEncoding)
+			throws IOException {
+		boolean gzip = contentEncoding.equalsIgnoreCase("gzip") || contentEncoding.equalsIgnoreCase("x-gzip");
+		Inflater inflater;
+		if (gzip) {
+			skipGzipHeader(input, channel);
+			inflater = rawInflaters.get();
+		} else if (contentEncoding.equalsIgnoreCase("deflate")) {
+			// Deflate should be wrapped in zlib, but some servers send it raw.
+			require(input, channel, 2);
+			int header = ((input.get(input.position()) & 0xFF) << 8) | (input.get(input.position() + 1) & 0xFF);
+			boolean zlib = (header & 0x0F00) == 0x0800 && header % 31 == 0;
+			inflater = zlib ? zlibInflaters.get() : rawInflaters.get();
+		} else {
+			throw new IOException("Unsupported content encoding " + contentEncoding);
+		}
+
+		ByteBuffer output = buffers.get();
+		output.clear();
+		inflater.reset();
+		try {
+			while (inflater.finished() == false) {
+				if (inflater.needsInput()) {
+					if (input.hasRemaining() == false && refill(input, channel) == false) {
+						throw new EOFException("Compressed response ended early.");
+					}
+					inflater.setInput(input);
+				}
+				if (output.hasRemaining() == false) {
+					output = grow(output);
+				}
+				if (inflater.inflate(output) == 0 && inflater.needsDictionary()) {
+					throw new IOException("Compressed response needs a preset dictionary.");
+				}
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Compressed response is corrupt.", e);
+		}
+		output.flip();
+
+		if (gzip) {
+			require(input, channel, 8);
+			CRC32 checksum = checksums.get();
+			checksum.reset();
+			checksum.update(output.duplicate());
+			if (input.getInt() != (int) checksum.getValue() || input.getInt() != output.remaining()) {
+				throw new IOException("Compressed response failed its checksum.");
+			}
+		}
+		return output;
+	}
+
+	/**
+	 * Move past the gzip header at the start of the input.
+	 */
+	private static void skipGzipHeader(ByteBuffer input, ReadableByteChannel channel) throws IOException {
+		require(input, channel, 10);
+		if ((input.get() & 0xFF) != 0x1F || (input.get() & 0xFF) != 0x8B || input.get() != 8) {
+			throw new IOException("Compressed response is not in gzip format.");
+		}
+		int flags = input.get() & 0xFF;
+		input.position(input.position() + 6);
+		if ((flags & GZIP_EXTRA) != 0) {
+			require(input, channel, 2);
+			skip(input, channel, input.getShort() & 0xFFFF);
+		}
+		if ((flags & GZIP_NAME) != 0) {
+			skipString(input, channel);
+		}
+		if ((flags & GZIP_COMMENT) != 0) {
+			skipString(input, channel);
+		}
+		if ((flags & GZIP_HEADER_CRC) != 0) {
+			skip(input, channel, 2);
+		}
+	}
+
+	private static void skip(ByteBuffer input, ReadableByteChannel channel, int count) throws IOException {
+		while (count > 0) {
+			require(input, channel, 1);
+			int step = Math.min(count, input.remaining());
+			input.position(input.position() + step);
+			count -= step;
+		}
+	}
+
+	private static void skipString(ByteBuffer input, ReadableByteChannel channel) throws IOException {
+		do {
+			require(input, channel, 1);
+		} while (input.get() != 0);
+	}
+
+	/**
+	 * Make sure at least the given number of compressed bytes are ready to be
+	 * read.
+	 */
+	private static void require(ByteBuffer input, ReadableByteChannel channel, int count) throws IOException {
+		while (input.remaining() < count) {
+			if (refill(input, channel) == false) {
+				throw new EOFException("Compressed response ended early.");
+			}
+		}
+	}
+
+	/**
+	 * Read more compressed bytes from the channel, keeping those not yet used.
+	 * 
+	 * @return False if there are no more bytes to read.
+	 */
+	private static boolean refill(ByteBuffer input, ReadableByteChannel channel) throws IOException {
+		if (channel == null) {
+			return false;
+		}
+		input.compact();
+		try {
+			int count = 0;
+			while (count == 0) {
+				count = channel.read(input);
+			}
+			return count > 0;
+		} finally {
+			input.flip();
+		}
+	}
+
+	/**
+	 * Replace this thread's buffer with one twice the size, keeping its
+	 * contents.
+	 * 
+	 * @param buffer
+	 *            This is the full buffer.
+	 * @return The larger buffer will be returned.
+	 * @throws IOException
+	 *             An IOException will be thrown if the buffer can not grow any
+	 *             further.
+	 */
+	private static ByteBuffer grow(ByteBuffer buffer) throws IOException {
+		if (buffer.capacity() >= MAXIMUM_CAPACITY) {
+			throw new IOException("Response is larger than " + MAXIMUM_CAPACITY + " bytes.");
+		}
+		ByteBuffer larger = ByteBuffer.allocateDirect(Math.min(buffer.capacity() * 2, MAXIMUM_CAPACITY));
+		buffer.flip();
+		larger.put(buffer);
+		buffers.set(larger);
+		return larger;
+	}
+}
@@ -0,0 +1,283 @@
+/**
+ * This class records every raw response a QuoteHttpClient receives from the
+ * providers, with the URL it answered and the time it arrived in nanoseconds,
+ * to an append-only file. ReplayQuoteGenerator plays such a file back, so that
+ * a market day can be rerun as often as needed for performance runs and
+ * regression tests.
+ *
+ * Each record is written in one piece after the file header: int length of
+ * the rest; long arrival time in nanoseconds since the epoch; URL as a short
+ * length and UTF-8 bytes; int body length, or -1 for a 304 Not Modified
+ * answer, which repeats the previous body for the URL; body. A record cut
+ * short by a crash ends the recording when it is read back, so it is cut off
+ * the file before anything more is appended to it. Should a record fail to
+ * be written whole, recording stops, as the records after it could not be
+ * read back either.
+ *
+ */
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+
+public class QuoteResponseRecorder implements Closeable {
+	/**
+	 * This marks a file written by this class, in this layout.
+	 */
+	private static final long MAGIC = 0x5152454330303031L;
+
+	/**
+	 * This lines System.nanoTime() up with the epoch, so that arrival times
+	 * are both precise and comparable across runs.
+	 */
+	private static final long EPOCH_OFFSET = System.currentTimeMillis() * 1000000L - System.nanoTime();
+
+	/**
+	 * This is one recorded response.
+	 */
+	public static class Record {
+		private final long timestamp;
+		private final String url;
+		private final ByteBuffer body;
+
+		private Record(long timestamp, String url, ByteBuffer body) {
+			this.timestamp = timestamp;
+			this.url = url;
+			this.body = body;
+		}
+
+		/**
+		 * @return the time the response arrived, in nanoseconds since the
+		 *         epoch
+		 */
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		/**
+		 * @return the URL the response answered
+		 */
+		public String getURL() {
+			return url;
+		}
+
+		/**
+		 * @return the body of the response, or null if the provider answered
+		 *         304 Not Modified
+		 */
+		public ByteBuffer getBody() {
+			return body;
+		}
+	}
+
+	/**
+	 * This reads a recording back, one record at a time.
+	 */
+	public static class Reader implements Closeable {
+		private final FileChannel channel;
+		private final ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+
+		/**
+		 * This is where the last whole record read ends.
+		 */
+		private long end = 8;
+
+		/**
+		 * @param file
+		 *            This is the recording to read.
+		 * @throws IOException
+		 *             An IOException will be thrown if the file can not be
+		 *             opened or was not written by QuoteResponseRecorder.
+		 */
+		public Reader(Path file) throws IOException {
+			channel = FileChannel.open(file, StandardOpenOption.READ);
+			ByteBuffer header = ByteBuffer.allocate(8);
+			if (readFully(header) == false || header.getLong(0) != MAGIC) {
+				channel.close();
+				throw new IOException(file + " is not a recording of quote responses");
+			}
+		}
+
+		/**
+		 * @return The next record, or null at the end of the recording.
+		 * @throws IOException
+		 *             An IOException will be thrown if the file can not be
+		 *             read.
+		 */
+		public Record next() throws IOException {
+			lengthBuffer.clear();
+			if (readFully(lengthBuffer) == false) {
+				return null;
+			}
+			int length = lengthBuffer.getInt(0);
+			if (length < 16) {
+				return null;
+			}
+			ByteBuffer record = ByteBuffer.allocate(length);
+			if (readFully(record) == false) {
+				return null;
+			}
+			record.flip();
+			end = channel.position();
+			long timestamp = record.getLong();
+			byte[] url = new byte[record.getShort()];
+			record.get(url);
+			int bodyLength = record.getInt();
+			ByteBuffer body = null;
+			if (bodyLength >= 0) {
+				if (bodyLength > record.remaining()) {
+					throw new EOFException("Recorded body runs past its record");
+				}
+				body = record.slice().limit(bodyLength);
+			}
+			return new Record(timestamp, new String(url, StandardCharsets.UTF_8), body);
+		}
+
+		/**
+		 * @return False if the file ended before the buffer was full.
+		 */
+		private boolean readFully(ByteBuffer buffer) throws IOException {
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.io.Closeable#close()
+		 */
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	private final FileChannel channel;
+	private final LongAdder recordCount = new LongAdder();
+	private final LongAdder droppedCount = new LongAdder();
+	private volatile boolean recording = true;
+
+	/**
+	 * @param file
+	 *            This is the file to which responses are appended. It is
+	 *            created if it does not exist.
+	 * @throws IOException
+	 *             An IOException will be thrown if the file can not be opened,
+	 *             or holds something other than a recording.
+	 */
+	public QuoteResponseRecorder(Path file) throws IOException {
+		super();
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+		if (channel.size() == 0) {
+			ByteBuffer header = ByteBuffer.allocate(8).putLong(0, MAGIC);
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+		} else {
+			// Check that the file is a recording, and cut off any record left
+			// unfinished by a crash, before adding to it.
+			try (Reader reader = new Reader(file)) {
+				while (reader.next() != null) {
+				}
+				channel.truncate(reader.end);
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * @return The current time, in nanoseconds since the epoch.
+	 */
+	public static long now() {
+		return EPOCH_OFFSET + System.nanoTime();
+	}
+
+	/**
+	 * Append a response to the recording. A response which can not be
+	 * written is counted as dropped, as is every response after it; the fetch
+	 * it came from is unaffected.
+	 *
+	 * @param url
+	 *            This is the URL the response answered.
+	 * @param body
+	 *            This is the decoded body of the response, or null for a 304
+	 *            Not Modified answer. Its position is not changed.
+	 */
+	public void record(String url, ByteBuffer body) {
+		byte[] urlBytes = url.getBytes(StandardCharsets.UTF_8);
+		int bodyLength = body == null ? 0 : body.remaining();
+		ByteBuffer record = ByteBuffer.allocate(4 + 8 + 2 + urlBytes.length + 4 + bodyLength);
+		record.putInt(record.capacity() - 4).putLong(0).putShort((short) urlBytes.length).put(urlBytes);
+		record.putInt(body == null ? -1 : bodyLength);
+		if (body != null) {
+			record.put(body.duplicate());
+		}
+		record.flip();
+		synchronized (channel) {
+			if (recording == false) {
+				droppedCount.increment();
+				return;
+			}
+			try {
+				// Stamped under the lock, so that the records are in time order.
+				record.putLong(4, now());
+				while (record.hasRemaining()) {
+					channel.write(record);
+				}
+				recordCount.increment();
+			} catch (IOException e) {
+				// Part of the record may have been written, and nothing after
+				// it could be read back.
+				recording = false;
+				droppedCount.increment();
+			}
+		}
+	}
+
+	/**
+	 * @return False once a response could not be written, after which nothing
+	 *         more is recorded.
+	 */
+	public boolean isRecording() {
+		return recording;
+	}
+
+	/**
+	 * @return The number of responses recorded.
+	 */
+	public long getRecordCount() {
+		return recordCount.sum();
+	}
+
+	/**
+	 * @return The number of responses which could not be written.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.sum();
+	}
+
+	/**
+	 * Write everything to the disk and close the file.
+	 *
+	 * @throws IOException
+	 *             An IOException will be thrown if the file can not be closed.
+	 */
+	public void close() throws IOException {
+		synchronized (channel) {
+			channel.force(false);
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,28 @@
+/**
+ * This interface represents a subscription to the quotes pushed by a stock
+ * quote generator, returned by StockQuoteGeneratorInterface.subscribe().
+ * Closing the subscription cancels it.
+ * 
+ */
+
+public interface QuoteSubscription extends AutoCloseable {
+
+	/**
+	 * Stop delivering quotes to the listener and release the stream.
+	 */
+	public abstract void cancel();
+
+	/**
+	 * @return True until the subscription has been cancelled.
+	 */
+	public abstract boolean isActive();
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.AutoCloseable#close()
+	 */
+	public default void close() {
+		cancel();
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * This class holds the synthetic responses and the routine with which the
+ * stock quote generators prepare their parsers before the first real request.
+ * Running the parsers a few hundred times over a realistic response loads
+ * their classes and gives the JIT enough to compile the hot paths, so that the
+ * first real response is parsed as quickly as those which follow it.
+ * 
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+public final class QuoteWarmup {
+	/**
+	 * This is the number of times each parser is run.
+	 */
+	public static final int ITERATIONS = 200;
+
+	/**
+	 * This is the number of symbols in each synthetic response.
+	 */
+	public static final int SYMBOLS = 100;
+
+	/**
+	 * This is the number of connections opened to each provider.
+	 */
+	public static final int CONNECTIONS = 4;
+
+	private QuoteWarmup() {
+		super();
+	}
+
+	/**
+	 * @param symbols
+	 *            This is the number of symbols wanted.
+	 * @return A response in the layout Google uses.
+	 */
+	public static byte[] googlePayload(int symbols) {
+		StringBuilder text = new StringBuilder("\n// [\n");
+		for (int index = 0; index < symbols; index++) {
+			text.append(index == 0 ? "{\n" : ",{\n");
+			text.append("\"id\": \"").append(358464 + index).append("\"\n");
+			text.append(",\"t\" : \"SYM").append(index).append("\"\n");
+			text.append(",\"e\" : \"NASDAQ\"\n");
+			text.append(",\"l\" : \"").append(50 + index % 100).append(".25\"\n");
+			text.append(",\"c\" : \"+0.50\"\n");
+			text.append(",\"pcls_fix\" : \"").append(49 + index % 100).append(".75\"\n");
+			text.append("}\n");
+		}
+		return text.append("]\n").toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * @param symbols
+	 *            This is the number of symbols wanted.
+	 * @return A response in the layout Yahoo uses.
+	 */
+	public static byte[] yahooPayload(int symbols) {
+		StringBuilder text = new StringBuilder();
+		for (int index = 0; index < symbols; index++) {
+			text.append("\"SYM").append(index).append("\",").append(50 + index % 100).append(".25,\"6/8/2017\",")
+					.append("\"4:00pm\",+0.50,").append(49 + index % 100).append(".80,51.00,49.50,21000000\r\n");
+		}
+		return text.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Run the parser repeatedly over the payload, read in each of the ways
+	 * QuoteHttpClient reads responses: from a channel, from a byte array, and
+	 * inflated from gzip.
+	 * 
+	 * @param parser
+	 *            This is the parser which is to be prepared.
+	 * @param payload
+	 *            This is a response the parser understands.
+	 * @param iterations
+	 *            This is the number of times the parser is to be run.
+	 * @throws IOException
+	 *             An IOException will be thrown if the parser rejects the
+	 *             payload.
+	 */
+	public static void exercise(QuoteResponseParser<?> parser, byte[] payload, int iterations) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+			gzip.write(payload);
+		}
+		byte[] compressed = bytes.toByteArray();
+
+		for (int index = 0; index < iterations; index++) {
+			ByteBuffer body;
+			switch (index % 3) {
+			case 0:
+				body = QuoteResponseReader.read(Channels.newChannel(new ByteArrayInputStream(payload)), null);
+				break;
+			case 1:
+				body = QuoteResponseReader.decode(ByteBuffer.wrap(payload), null);
+				break;
+			default:
+				body = QuoteResponseReader.decode(ByteBuffer.wrap(compressed), "gzip");
+				break;
+			}
+			parser.parse(body);
+		}
+	}
+}
@@ -0,0 +1,225 @@
+/**
+ * This class makes up quotes in memory, without any network, so that
+ * MarketAnalyzer and the analytics can be measured at tens of thousands of
+ * symbols. Each symbol's price follows its own seeded geometric Brownian
+ * motion and moves one step every time the symbol is quoted.
+ *
+ * The universe holds every symbol in the StockTickerListing, in sorted order,
+ * followed by made-up symbols SYN000000, SYN000001, ... up to the size asked
+ * for. Its state lives in arrays shared by every instance created through
+ * createNewInstance, and a step only updates those arrays, so the only object
+ * made per quote is the quote itself. The same seed gives the same prices for
+ * the same sequence of requests for a symbol, whatever is asked of the others.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import exceptions.InvalidStockSymbolException;
+
+public class RandomWalkQuoteGenerator implements StockQuoteGeneratorInterface {
+	/**
+	 * This is the default volatility of each step, as a fraction of the price.
+	 */
+	public static final double DEFAULT_VOLATILITY = 0.002;
+
+	/**
+	 * This is the prefix of the made-up symbols beyond the listing.
+	 */
+	public static final String SYNTHETIC_PREFIX = "SYN";
+
+	/**
+	 * This is the number of locks over which the symbols are spread.
+	 */
+	private static final int STRIPES = 64;
+
+	/**
+	 * This is the state of every symbol, by its index in the universe.
+	 */
+	private static class Universe {
+		private final List<String> symbols;
+		private final Map<String, Integer> indexes;
+		private final double[] lastTrade;
+		private final double[] previousClose;
+		private final long[] randomState;
+		private final double drift;
+		private final double volatility;
+		private final Object[] locks = new Object[STRIPES];
+
+		private Universe(int size, long seed, double drift, double volatility) {
+			List<String> listed = new ArrayList<String>(StockTickerListing.getSingleton().keySet());
+			Collections.sort(listed);
+			List<String> all = new ArrayList<String>(Math.max(size, listed.size()));
+			all.addAll(listed);
+			for (int index = 0; all.size() < size; index++) {
+				all.add(String.format("%s%06d", SYNTHETIC_PREFIX, index));
+			}
+			this.symbols = Collections.unmodifiableList(all);
+			this.indexes = new HashMap<String, Integer>(all.size() * 2);
+			this.lastTrade = new double[all.size()];
+			this.previousClose = new double[all.size()];
+			this.randomState = new long[all.size()];
+			this.drift = drift;
+			this.volatility = volatility;
+			for (int index = 0; index < all.size(); index++) {
+				indexes.put(all.get(index), index);
+				randomState[index] = seed ^ (0x9E3779B97F4A7C15L * (index + 1));
+				// A starting price between 10 and 500.
+				previousClose[index] = Math.floor((10 + 490 * nextDouble(index)) * 100) / 100;
+				lastTrade[index] = previousClose[index];
+			}
+			Arrays.setAll(locks, index -> new Object());
+		}
+
+		/**
+		 * @return The next value of the symbol's SplitMix64 sequence, in
+		 *         [0, 1).
+		 */
+		private double nextDouble(int index) {
+			long z = (randomState[index] += 0x9E3779B97F4A7C15L);
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			z = z ^ (z >>> 31);
+			return (z >>> 11) * 0x1.0p-53;
+		}
+
+		/**
+		 * Move a symbol's price one step and quote it.
+		 */
+		private StockQuoteInterface step(int index) {
+			double price;
+			double close;
+			synchronized (locks[index % STRIPES]) {
+				// Box-Muller, keeping one of the pair.
+				double u = 1.0 - nextDouble(index);
+				double shock = Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * nextDouble(index));
+				price = lastTrade[index] * Math.exp(drift - volatility * volatility / 2 + volatility * shock);
+				lastTrade[index] = price;
+				close = previousClose[index];
+			}
+			return new StockQuote(symbols.get(index), close, price, price - close);
+		}
+	}
+
+	private final Universe universe;
+	private String symbol;
+
+	/**
+	 * Create a generator for every listed symbol, with the default volatility.
+	 *
+	 * @param seed
+	 *            This is the seed of the price movements.
+	 */
+	public RandomWalkQuoteGenerator(long seed) {
+		this(0, seed, 0, DEFAULT_VOLATILITY);
+	}
+
+	/**
+	 * @param size
+	 *            This is the number of symbols in the universe. Every listed
+	 *            symbol is included however small it is.
+	 * @param seed
+	 *            This is the seed of the price movements.
+	 * @param drift
+	 *            This is the expected change of each price per step, as a
+	 *            fraction.
+	 * @param volatility
+	 *            This is the standard deviation of each step, as a fraction of
+	 *            the price.
+	 */
+	public RandomWalkQuoteGenerator(int size, long seed, double drift, double volatility) {
+		this(new Universe(size, seed, drift, volatility), null);
+	}
+
+	private RandomWalkQuoteGenerator(Universe universe, String symbol) {
+		super();
+		this.universe = universe;
+		this.symbol = symbol;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuote()
+	 */
+	public StockQuoteInterface getCurrentQuote() throws Exception {
+		Integer index = universe.indexes.get(symbol);
+		if (index == null) {
+			throw new InvalidStockSymbolException("Symbol " + symbol + " is not in the universe.");
+		}
+		return universe.step(index);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuoteAsync()
+	 */
+	public CompletableFuture<StockQuoteInterface> getCurrentQuoteAsync() {
+		try {
+			return CompletableFuture.completedFuture(getCurrentQuote());
+		} catch (Exception e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuotes(java.util.Collection)
+	 */
+	public Map<String, StockQuoteInterface> getCurrentQuotes(Collection<String> symbols) throws Exception {
+		Map<String, StockQuoteInterface> retVal = new LinkedHashMap<String, StockQuoteInterface>(
+				symbols.size() * 2);
+		for (String requested : symbols) {
+			Integer index = universe.indexes.get(requested);
+			if (index != null) {
+				retVal.put(requested, universe.step(index));
+			}
+		}
+		if (retVal.isEmpty() && symbols.isEmpty() == false) {
+			throw new InvalidStockSymbolException("None of the symbols are in the universe.");
+		}
+		return retVal;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#createNewInstance(java.lang.String)
+	 */
+	public StockQuoteGeneratorInterface createNewInstance(String symbol) {
+		return new RandomWalkQuoteGenerator(universe, symbol);
+	}
+
+	/**
+	 * @return the symbol
+	 */
+	public String getSymbol() {
+		return symbol;
+	}
+
+	/**
+	 * @param symbol
+	 *            the symbol to set
+	 */
+	public void setSymbol(String symbol) {
+		this.symbol = symbol;
+	}
+
+	/**
+	 * @return Every symbol in the universe: the listed ones in sorted order,
+	 *         then the made-up ones.
+	 */
+	public List<String> getSymbols() {
+		return universe.symbols;
+	}
+}
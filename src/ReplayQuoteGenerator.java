@@ -0,0 +1,273 @@
+/**
+ * This class plays back a recording made by QuoteResponseRecorder as a source
+ * of stock quotes. The recorded responses are parsed by the same parsers the
+ * downloaders use, Yahoo's for URLs ending in .csv and Google's for the rest,
+ * and each quote requested is the latest one the recording holds for the
+ * symbol at the current point of the replay.
+ *
+ * At a speed of 1 the replay keeps to the recorded timing, starting from the
+ * first request; at a speed of N it runs N times as fast. At
+ * MAXIMUM_SPEED every request moves the replay on just far enough to give
+ * each requested symbol a new quote, so a recorded day runs as fast as the
+ * analyzer can take it.
+ *
+ * All of the instances created through createNewInstance share one replay.
+ *
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongSupplier;
+
+import exceptions.WebsiteConnectionError;
+
+public class ReplayQuoteGenerator implements StockQuoteGeneratorInterface, Closeable {
+	/**
+	 * This speed replays the recording as fast as it is asked for quotes.
+	 */
+	public static final double MAXIMUM_SPEED = Double.POSITIVE_INFINITY;
+
+	private static final GoogleJSONQuoteParser GOOGLE = new GoogleJSONQuoteParser();
+	private static final YahooCSVQuoteParser YAHOO = new YahooCSVQuoteParser();
+
+	/**
+	 * This is the state of the replay, shared by every instance.
+	 */
+	private static class Replay {
+		private final QuoteResponseRecorder.Reader reader;
+		private final double speed;
+		private final LongSupplier clock;
+
+		/**
+		 * These are the latest quote for each symbol and the latest quotes
+		 * for each URL, which a 304 answer repeats.
+		 */
+		private final Map<String, StockQuoteInterface> latest = new HashMap<String, StockQuoteInterface>();
+		private final Map<String, List<StockQuoteInterface>> byURL = new HashMap<String, List<StockQuoteInterface>>();
+
+		/**
+		 * This is the next record to apply, read ahead of time.
+		 */
+		private QuoteResponseRecorder.Record next;
+		private final long firstTimestamp;
+		private long started = -1;
+		private long responseCount;
+
+		private Replay(Path recording, double speed, LongSupplier clock) throws IOException {
+			if ((speed > 0) == false) {
+				throw new IllegalArgumentException("The replay speed must be positive.");
+			}
+			this.reader = new QuoteResponseRecorder.Reader(recording);
+			this.speed = speed;
+			this.clock = clock;
+			this.next = reader.next();
+			this.firstTimestamp = next == null ? 0 : next.getTimestamp();
+		}
+
+		/**
+		 * Move the replay on to the present, or, at the maximum speed, until
+		 * every symbol asked for has a new quote. Asking for a symbol the
+		 * recording does not hold at the maximum speed runs it to the end.
+		 */
+		private synchronized void advance(Collection<String> symbols) throws IOException {
+			if (speed == MAXIMUM_SPEED) {
+				Set<String> wanted = new HashSet<String>(symbols);
+				while (next != null && wanted.isEmpty() == false) {
+					for (StockQuoteInterface quote : apply()) {
+						wanted.remove(quote.getSymbol());
+					}
+				}
+				return;
+			}
+			long now = clock.getAsLong();
+			if (started < 0) {
+				started = now;
+			}
+			double replayed = (now - started) * speed;
+			while (next != null && next.getTimestamp() - firstTimestamp <= replayed) {
+				apply();
+			}
+		}
+
+		/**
+		 * Parse the next record and make its quotes the latest.
+		 *
+		 * @return The quotes it held.
+		 */
+		private List<StockQuoteInterface> apply() throws IOException {
+			QuoteResponseRecorder.Record record = next;
+			next = reader.next();
+			responseCount++;
+
+			List<StockQuoteInterface> quotes;
+			if (record.getBody() == null) {
+				quotes = byURL.getOrDefault(record.getURL(), Collections.<StockQuoteInterface> emptyList());
+			} else {
+				String path = URI.create(record.getURL()).getPath();
+				quotes = (path != null && path.endsWith(".csv") ? YAHOO : GOOGLE).parse(record.getBody());
+				byURL.put(record.getURL(), quotes);
+			}
+			for (StockQuoteInterface quote : quotes) {
+				latest.put(quote.getSymbol(), quote);
+			}
+			return quotes;
+		}
+
+		private synchronized StockQuoteInterface latest(String symbol) {
+			return latest.get(symbol);
+		}
+
+		private synchronized boolean isFinished() {
+			return next == null;
+		}
+
+		private synchronized long getResponseCount() {
+			return responseCount;
+		}
+	}
+
+	private final Replay replay;
+	private String symbol;
+
+	/**
+	 * @param recording
+	 *            This is the file written by a QuoteResponseRecorder.
+	 * @param speed
+	 *            This is how many times faster than it was recorded the
+	 *            recording is played, or MAXIMUM_SPEED.
+	 * @throws IOException
+	 *             An IOException will be thrown if the recording can not be
+	 *             read.
+	 */
+	public ReplayQuoteGenerator(Path recording, double speed) throws IOException {
+		this(recording, speed, System::nanoTime);
+	}
+
+	/**
+	 * @param recording
+	 *            This is the file written by a QuoteResponseRecorder.
+	 * @param speed
+	 *            This is how many times faster than it was recorded the
+	 *            recording is played, or MAXIMUM_SPEED.
+	 * @param clock
+	 *            This is the source of the current time, in nanoseconds.
+	 * @throws IOException
+	 *             An IOException will be thrown if the recording can not be
+	 *             read.
+	 */
+	public ReplayQuoteGenerator(Path recording, double speed, LongSupplier clock) throws IOException {
+		this(new Replay(recording, speed, clock), null);
+	}
+
+	private ReplayQuoteGenerator(Replay replay, String symbol) {
+		super();
+		this.replay = replay;
+		this.symbol = symbol;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuote()
+	 */
+	public StockQuoteInterface getCurrentQuote() throws Exception {
+		replay.advance(Collections.singleton(symbol));
+		StockQuoteInterface quote = replay.latest(symbol);
+		if (quote == null) {
+			throw new WebsiteConnectionError("No quote for " + symbol + " has been replayed yet");
+		}
+		return quote;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuoteAsync()
+	 */
+	public CompletableFuture<StockQuoteInterface> getCurrentQuoteAsync() {
+		try {
+			return CompletableFuture.completedFuture(getCurrentQuote());
+		} catch (Exception e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuotes(java.util.Collection)
+	 */
+	public Map<String, StockQuoteInterface> getCurrentQuotes(Collection<String> symbols) throws Exception {
+		replay.advance(symbols);
+		Map<String, StockQuoteInterface> retVal = new LinkedHashMap<String, StockQuoteInterface>();
+		for (String requested : symbols) {
+			StockQuoteInterface quote = replay.latest(requested);
+			if (quote != null) {
+				retVal.put(requested, quote);
+			}
+		}
+		if (retVal.isEmpty() && symbols.isEmpty() == false) {
+			throw new WebsiteConnectionError("No quotes for " + symbols + " have been replayed yet");
+		}
+		return retVal;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#createNewInstance(java.lang.String)
+	 */
+	public StockQuoteGeneratorInterface createNewInstance(String symbol) {
+		return new ReplayQuoteGenerator(replay, symbol);
+	}
+
+	/**
+	 * @return the symbol
+	 */
+	public String getSymbol() {
+		return symbol;
+	}
+
+	/**
+	 * @param symbol
+	 *            the symbol to set
+	 */
+	public void setSymbol(String symbol) {
+		this.symbol = symbol;
+	}
+
+	/**
+	 * @return True once every recorded response has been replayed.
+	 */
+	public boolean isFinished() {
+		return replay.isFinished();
+	}
+
+	/**
+	 * @return The number of recorded responses replayed so far.
+	 */
+	public long getResponseCount() {
+		return replay.getResponseCount();
+	}
+
+	/**
+	 * Close the recording.
+	 *
+	 * @throws IOException
+	 *             An IOException will be thrown if the file can not be closed.
+	 */
+	public void close() throws IOException {
+		replay.reader.close();
+	}
+}
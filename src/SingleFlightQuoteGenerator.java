@@ -0,0 +1,269 @@
+/**
+ * This class wraps another stock quote generator so that concurrent requests
+ * for the same symbol are merged into a single upstream request. Every caller
+ * waiting on the merged request receives the same quote, or the same failure.
+ *
+ * All of the instances created through createNewInstance share their requests
+ * in flight with the instance they were created from, so several
+ * MarketAnalyzer instances built from one SingleFlightQuoteGenerator will only
+ * fetch each symbol once, however many of them are watching it.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import exceptions.WebsiteConnectionError;
+
+public class SingleFlightQuoteGenerator implements StockQuoteGeneratorInterface {
+	/**
+	 * This is the generator which actually obtains the quotes.
+	 */
+	private final StockQuoteGeneratorInterface delegate;
+
+	/**
+	 * These are the requests currently in flight, by symbol. The map is shared
+	 * by every instance created from the same original generator.
+	 */
+	private final Map<String, CompletableFuture<StockQuoteInterface>> inFlight;
+
+	/**
+	 * These are the counters, shared in the same way as the requests in flight.
+	 */
+	private final LongAdder upstreamCount;
+	private final LongAdder mergedCount;
+
+	/**
+	 * @param delegate
+	 *            This is the generator which is to obtain the quotes.
+	 */
+	public SingleFlightQuoteGenerator(StockQuoteGeneratorInterface delegate) {
+		this(delegate, new ConcurrentHashMap<String, CompletableFuture<StockQuoteInterface>>(), new LongAdder(),
+				new LongAdder());
+	}
+
+	private SingleFlightQuoteGenerator(StockQuoteGeneratorInterface delegate,
+			Map<String, CompletableFuture<StockQuoteInterface>> inFlight, LongAdder upstreamCount,
+			LongAdder mergedCount) {
+		super();
+		if (delegate == null) {
+			throw new NullPointerException("The source for stock quotes can not be null");
+		}
+		this.delegate = delegate;
+		this.inFlight = inFlight;
+		this.upstreamCount = upstreamCount;
+		this.mergedCount = mergedCount;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuote()
+	 */
+	public StockQuoteInterface getCurrentQuote() throws Exception {
+		String symbol = delegate.getSymbol();
+		CompletableFuture<StockQuoteInterface> mine = new CompletableFuture<StockQuoteInterface>();
+		CompletableFuture<StockQuoteInterface> existing = inFlight.putIfAbsent(symbol, mine);
+		if (existing != null) {
+			mergedCount.increment();
+			return await(existing);
+		}
+
+		upstreamCount.increment();
+		try {
+			StockQuoteInterface quote = delegate.getCurrentQuote();
+			mine.complete(quote);
+			return quote;
+		} catch (Exception e) {
+			mine.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(symbol, mine);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuoteAsync()
+	 */
+	public CompletableFuture<StockQuoteInterface> getCurrentQuoteAsync() {
+		String symbol = delegate.getSymbol();
+		CompletableFuture<StockQuoteInterface> mine = new CompletableFuture<StockQuoteInterface>();
+		CompletableFuture<StockQuoteInterface> existing = inFlight.putIfAbsent(symbol, mine);
+		if (existing != null) {
+			mergedCount.increment();
+			// Hand out a copy so that one caller cancelling does not affect the
+			// others.
+			return existing.copy();
+		}
+
+		upstreamCount.increment();
+		CompletableFuture<StockQuoteInterface> upstream;
+		try {
+			upstream = delegate.getCurrentQuoteAsync();
+		} catch (RuntimeException e) {
+			upstream = CompletableFuture.failedFuture(e);
+		}
+		upstream.whenComplete((quote, error) -> {
+			inFlight.remove(symbol, mine);
+			if (error != null) {
+				mine.completeExceptionally(error);
+			} else {
+				mine.complete(quote);
+			}
+		});
+		return mine.copy();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuotes(java.util.Collection)
+	 */
+	public Map<String, StockQuoteInterface> getCurrentQuotes(Collection<String> symbols) throws Exception {
+		Map<String, CompletableFuture<StockQuoteInterface>> pending = new LinkedHashMap<String, CompletableFuture<StockQuoteInterface>>();
+		Map<String, CompletableFuture<StockQuoteInterface>> mine = new LinkedHashMap<String, CompletableFuture<StockQuoteInterface>>();
+
+		// Claim every symbol nobody else is fetching; wait on the rest.
+		for (String symbol : symbols) {
+			if (pending.containsKey(symbol)) {
+				continue;
+			}
+			CompletableFuture<StockQuoteInterface> future = new CompletableFuture<StockQuoteInterface>();
+			CompletableFuture<StockQuoteInterface> existing = inFlight.putIfAbsent(symbol, future);
+			if (existing != null) {
+				mergedCount.increment();
+				pending.put(symbol, existing);
+			} else {
+				upstreamCount.increment();
+				mine.put(symbol, future);
+				pending.put(symbol, future);
+			}
+		}
+
+		if (mine.isEmpty() == false) {
+			List<String> toFetch = new ArrayList<String>(mine.keySet());
+			try {
+				Map<String, StockQuoteInterface> quotes = delegate.getCurrentQuotes(toFetch);
+				for (Map.Entry<String, CompletableFuture<StockQuoteInterface>> entry : mine.entrySet()) {
+					StockQuoteInterface quote = quotes.get(entry.getKey());
+					if (quote != null) {
+						entry.getValue().complete(quote);
+					} else {
+						entry.getValue().completeExceptionally(
+								new WebsiteConnectionError("No quote returned for " + entry.getKey()));
+					}
+				}
+			} catch (Exception e) {
+				for (CompletableFuture<StockQuoteInterface> future : mine.values()) {
+					future.completeExceptionally(e);
+				}
+			} finally {
+				for (Map.Entry<String, CompletableFuture<StockQuoteInterface>> entry : mine.entrySet()) {
+					inFlight.remove(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+
+		Map<String, StockQuoteInterface> retVal = new LinkedHashMap<String, StockQuoteInterface>();
+		Exception failure = null;
+		for (Map.Entry<String, CompletableFuture<StockQuoteInterface>> entry : pending.entrySet()) {
+			try {
+				retVal.put(entry.getKey(), await(entry.getValue()));
+			} catch (Exception e) {
+				failure = e;
+			}
+		}
+		if (retVal.isEmpty() && failure != null) {
+			throw failure;
+		}
+		return retVal;
+	}
+
+	/**
+	 * Wait for a merged request to finish.
+	 *
+	 * @param future
+	 *            This is the request being waited on.
+	 * @return The quote obtained by the request will be returned.
+	 * @throws Exception
+	 *             The failure of the request will be thrown.
+	 */
+	private static StockQuoteInterface await(CompletableFuture<StockQuoteInterface> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#warmUp()
+	 */
+	public void warmUp() throws Exception {
+		delegate.warmUp();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#createNewInstance(java.lang.String)
+	 */
+	public StockQuoteGeneratorInterface createNewInstance(String symbol) {
+		return new SingleFlightQuoteGenerator(delegate.createNewInstance(symbol), inFlight, upstreamCount,
+				mergedCount);
+	}
+
+	/**
+	 * @return the symbol
+	 */
+	public String getSymbol() {
+		return delegate.getSymbol();
+	}
+
+	/**
+	 * @param symbol
+	 *            the symbol to set
+	 */
+	public void setSymbol(String symbol) {
+		delegate.setSymbol(symbol);
+	}
+
+	/**
+	 * @return The number of quotes which were actually requested from the
+	 *         underlying generator.
+	 */
+	public long getUpstreamCount() {
+		return upstreamCount.sum();
+	}
+
+	/**
+	 * @return The number of quote requests which were merged into a request
+	 *         already in flight.
+	 */
+	public long getMergedCount() {
+		return mergedCount.sum();
+	}
+
+	/**
+	 * @return The fraction of all quote requests which were merged.
+	 */
+	public double getMergeRatio() {
+		long merged = mergedCount.sum();
+		long total = merged + upstreamCount.sum();
+		return total == 0 ? 0.0 : merged / (double) total;
+	}
+}
@@ -32,6 +32,10 @@
  * 
  */
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
 import exceptions.InvalidAnalysisState;
 import exceptions.InvalidStockSymbolException;
 import exceptions.StockTickerConnectionError;
@@ -41,6 +45,12 @@ import exceptions.StockTickerConnectionError;
  * 
  */
 public class StockQuoteAnalyzer {
+	/**
+	 * This is the number of prices kept for looking back over, unless set
+	 * otherwise.
+	 */
+	public static final int DEFAULT_HISTORY_SIZE = 1024;
+
 	/**
 	 * This variable holds the audio interface that is used in the class for
 	 * making sounds.
@@ -52,6 +62,20 @@ public class StockQuoteAnalyzer {
 	private StockQuoteInterface previousQuote = null;
 	private StockQuoteInterface currentQuote = null;
 
+	/**
+	 * These number the quotes in the order they were asked for, and give the
+	 * number of the current quote, so that a quote which arrives after a later
+	 * one is dropped.
+	 */
+	private long requestCount = 0;
+	private long currentRequest = 0;
+
+	/**
+	 * This holds the latest prices, timed by the clock.
+	 */
+	private QuoteHistory history = new QuoteHistory(DEFAULT_HISTORY_SIZE);
+	private MarketClock clock = MarketClock.SYSTEM;
+
 	/**
 	 * @param symbol
 	 *            This is the stock symbol that is being analyzed.
@@ -93,16 +117,97 @@ public class StockQuoteAnalyzer {
 	 *             stock quote.
 	 */
 	public void refresh() throws StockTickerConnectionError {
-		// Get a new quote.
+		long request = this.nextRequest();
+		// Get a new quote, without holding the lock while it downloads.
+		StockQuoteInterface temp;
 		try {
-			StockQuoteInterface temp = this.stockQuoteSource.getCurrentQuote();
-
-			this.previousQuote = currentQuote;
-			this.currentQuote = temp;
+			temp = this.stockQuoteSource.getCurrentQuote();
 		} catch (Exception e) {
 			throw new StockTickerConnectionError("Unable to connect with Stock Ticker Source.");
 		}
+		if (temp == null) {
+			throw new StockTickerConnectionError("Unable to obtain a quote for " + this.symbol + ".");
+		}
+		this.update(temp, request);
+	}
+
+	/**
+	 * Analyze a quote which has already been obtained from the source, for
+	 * instance as part of a batch request covering many symbols.
+	 * 
+	 * @param quote
+	 *            This is the latest quote for the stock.
+	 * @throws StockTickerConnectionError
+	 *             Will be thrown if no quote was obtained for the stock.
+	 */
+	public synchronized void refresh(StockQuoteInterface quote) throws StockTickerConnectionError {
+		if (quote == null) {
+			throw new StockTickerConnectionError("Unable to obtain a quote for " + this.symbol + ".");
+		}
+		this.update(quote, this.nextRequest());
+	}
 
+	/**
+	 * @return The number of a new request for a quote.
+	 */
+	private synchronized long nextRequest() {
+		return ++requestCount;
+	}
+
+	/**
+	 * Make the quote the current one and add its price to the history, timed
+	 * now, unless a quote asked for later has already arrived. Both change
+	 * under the one lock, so that no reader sees them disagree.
+	 * 
+	 * @param quote
+	 *            This is the quote which has arrived.
+	 * @param request
+	 *            This is the number of the request which obtained it.
+	 */
+	private synchronized void update(StockQuoteInterface quote, long request) {
+		if (request < currentRequest) {
+			return;
+		}
+		this.currentRequest = request;
+		this.previousQuote = currentQuote;
+		this.currentQuote = quote;
+		this.history.add(quote.getLastTrade(), this.clock.nanoTime());
+	}
+
+	/**
+	 * Start obtaining the latest stock info from the source without waiting for
+	 * it. The quote is analyzed as soon as it arrives, so a single thread can
+	 * have many refreshes in flight at once.
+	 * 
+	 * Should the quote arrive after that of a later refresh, it is dropped, so
+	 * that the current and previous quotes stay in the order they were asked
+	 * for.
+	 * 
+	 * @return A future which completes once the new quote has been analyzed
+	 *         or dropped will be returned. It completes exceptionally with a
+	 *         StockTickerConnectionError if a current stock quote can not be
+	 *         obtained.
+	 */
+	public CompletableFuture<Void> refreshAsync() {
+		long request = this.nextRequest();
+		CompletableFuture<StockQuoteInterface> pending = this.stockQuoteSource.getCurrentQuoteAsync();
+		if (pending == null) {
+			pending = CompletableFuture.completedFuture(null);
+		}
+		return pending.handle((quote, error) -> {
+			try {
+				if (error != null) {
+					throw new StockTickerConnectionError("Unable to connect with Stock Ticker Source.", error);
+				}
+				if (quote == null) {
+					throw new StockTickerConnectionError("Unable to obtain a quote for " + this.symbol + ".");
+				}
+				this.update(quote, request);
+			} catch (StockTickerConnectionError e) {
+				throw new CompletionException(e);
+			}
+			return null;
+		});
 	}
 
 	/**
@@ -147,7 +252,7 @@ public class StockQuoteAnalyzer {
 	 *             has not yet been retrieved.
 	 */
 
-	public double getPreviousClose() throws InvalidAnalysisState {
+	public synchronized double getPreviousClose() throws InvalidAnalysisState {
 		if (currentQuote != null) {
 			throw new InvalidAnalysisState("No quote has ever been retrieved.");
 		}
@@ -164,7 +269,7 @@ public class StockQuoteAnalyzer {
 	 *             has not yet been retrieved.
 	 */
 
-	public double getCurrentPrice() throws InvalidAnalysisState {
+	public synchronized double getCurrentPrice() throws InvalidAnalysisState {
 		if (currentQuote == null) {
 			throw new InvalidAnalysisState("No quote has ever been retrieved.");
 		}
@@ -180,7 +285,7 @@ public class StockQuoteAnalyzer {
 	 *             An InvalidAnalysisState Exception will be thrown if a quote
 	 *             has not yet been retrieved.
 	 */
-	public double getChangeSinceClose() throws InvalidAnalysisState {
+	public synchronized double getChangeSinceClose() throws InvalidAnalysisState {
 		if (currentQuote == null) {
 			throw new NullPointerException("No quote has ever been retrieved.");
 		}
@@ -196,7 +301,7 @@ public class StockQuoteAnalyzer {
 	 *             An InvalidAnalysisState Exception will be thrown if a quote
 	 *             has not yet been retrieved.
 	 */
-	public double getPercentChangeSinceClose() throws InvalidAnalysisState {
+	public synchronized double getPercentChangeSinceClose() throws InvalidAnalysisState {
 		if (currentQuote == null) {
 			throw new InvalidAnalysisState("No quote has ever been retrieved.");
 		}
@@ -216,7 +321,87 @@ public class StockQuoteAnalyzer {
 	 *             been two successful updates retrieved from the stock quote
 	 *             data source.
 	 */
-	public double getChangeSinceLastCheck() throws InvalidAnalysisState {
+	public synchronized double getChangeSinceLastCheck() throws InvalidAnalysisState {
 		return currentQuote.getLastTrade() - currentQuote.getLastTrade();
 	}
+
+	/**
+	 * This method will return the change in price over the last given number
+	 * of quotes, from the history kept for the stock. It takes the same time
+	 * however far back it looks.
+	 * 
+	 * @param ticks
+	 *            This is how many quotes back to compare the latest price
+	 *            with.
+	 * @return The latest price less the price that many quotes before it.
+	 * @throws InvalidAnalysisState
+	 *             An InvalidAnalysisState Exception will be thrown if fewer
+	 *             than ticks + 1 quotes are held in the history.
+	 */
+	public synchronized double getChangeOverLastTicks(int ticks) throws InvalidAnalysisState {
+		return this.history.getChangeOverTicks(ticks);
+	}
+
+	/**
+	 * This method will return the change in price over the given stretch of
+	 * time up to now, from the history kept for the stock. The price it
+	 * compares with is the last one obtained at or before the start of the
+	 * stretch, found by a binary search of the history.
+	 * 
+	 * @param duration
+	 *            This is how far back to look.
+	 * @param unit
+	 *            This is the unit of the duration.
+	 * @return The latest price less the price at the start of the stretch.
+	 * @throws InvalidAnalysisState
+	 *             An InvalidAnalysisState Exception will be thrown if the
+	 *             history does not reach back that far.
+	 */
+	public synchronized double getChangeOverLast(long duration, TimeUnit unit) throws InvalidAnalysisState {
+		return this.history.getChangeSince(this.clock.nanoTime() - unit.toNanos(duration));
+	}
+
+	/**
+	 * @return The number of quotes held in the history.
+	 */
+	public synchronized int getHistorySize() {
+		return this.history.size();
+	}
+
+	/**
+	 * Set how many quotes are kept in the history. Any already kept are
+	 * forgotten.
+	 * 
+	 * @param capacity
+	 *            This is the number of quotes to keep.
+	 * @throws IllegalArgumentException
+	 *             Will be thrown if the capacity is not positive.
+	 */
+	public synchronized void setHistoryCapacity(int capacity) {
+		this.history = new QuoteHistory(capacity);
+	}
+
+	/**
+	 * @return the clock which times the history
+	 */
+	public synchronized MarketClock getClock() {
+		return clock;
+	}
+
+	/**
+	 * Set the clock which times the history. Quotes already kept were timed by
+	 * the old clock, so they are forgotten.
+	 * 
+	 * @param clock
+	 *            the clock to set
+	 */
+	public synchronized void setClock(MarketClock clock) {
+		if (clock == null) {
+			throw new NullPointerException("The clock can not be null");
+		}
+		if (clock != this.clock) {
+			this.clock = clock;
+			this.history.clear();
+		}
+	}
 }
@@ -31,6 +31,10 @@
  * 
  */
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface StockQuoteGeneratorInterface {
 
@@ -44,6 +48,89 @@ public interface StockQuoteGeneratorInterface {
 	 */
 	public abstract StockQuoteInterface getCurrentQuote() throws Exception;
 
+	/**
+	 * This routine will start obtaining a current stock quote without waiting
+	 * for it to arrive. The default implementation obtains the quote on a
+	 * background thread; sources that can issue non-blocking requests should
+	 * override it.
+	 * 
+	 * @return A future which completes with the current stock quote will be
+	 *         returned. It completes exceptionally if a current stock quote can
+	 *         not be obtained.
+	 */
+	public default CompletableFuture<StockQuoteInterface> getCurrentQuoteAsync() {
+		CompletableFuture<StockQuoteInterface> retVal = new CompletableFuture<StockQuoteInterface>();
+		CompletableFuture.runAsync(() -> {
+			try {
+				retVal.complete(getCurrentQuote());
+			} catch (Exception e) {
+				retVal.completeExceptionally(e);
+			}
+		});
+		return retVal;
+	}
+
+	/**
+	 * This routine will get current stock quotes for a group of symbols at
+	 * once. The default implementation obtains each quote on its own; sources
+	 * that can fetch several symbols in one request should override it.
+	 * 
+	 * @param symbols
+	 *            These are the symbols for which quotes are to be obtained.
+	 * @return A map from each symbol to its current quote will be returned.
+	 *         Symbols for which no quote could be obtained are left out of the
+	 *         map.
+	 * @throws Exception
+	 *             An exception will be thrown if none of the quotes can be
+	 *             obtained.
+	 */
+	public default Map<String, StockQuoteInterface> getCurrentQuotes(Collection<String> symbols) throws Exception {
+		Map<String, StockQuoteInterface> quotes = new LinkedHashMap<String, StockQuoteInterface>();
+		Exception failure = null;
+		for (String symbol : symbols) {
+			try {
+				quotes.put(symbol, createNewInstance(symbol).getCurrentQuote());
+			} catch (Exception e) {
+				failure = e;
+			}
+		}
+		if (quotes.isEmpty() && failure != null) {
+			throw failure;
+		}
+		return quotes;
+	}
+
+	/**
+	 * This routine will have the source push every new quote for the given
+	 * symbols to the listener as it arrives, so that the caller need not poll.
+	 * The default implementation returns null, meaning that the source can
+	 * not push quotes and has to be polled instead.
+	 * 
+	 * @param symbols
+	 *            These are the symbols whose quotes are wanted.
+	 * @param listener
+	 *            This is given each new quote.
+	 * @return The subscription, through which the quotes can be stopped, or
+	 *         null if the source can not push quotes.
+	 */
+	public default QuoteSubscription subscribe(Collection<String> symbols, QuoteListener listener) {
+		return null;
+	}
+
+	/**
+	 * Prepare this source for its first request, so that the first real
+	 * request is as quick as those which follow it. Sources which download
+	 * from a provider resolve its host, open pooled connections to it, and run
+	 * their parsers over synthetic responses. The default implementation does
+	 * nothing.
+	 * 
+	 * @throws Exception
+	 *             An exception will be thrown if the source could not be fully
+	 *             prepared. The source remains usable.
+	 */
+	public default void warmUp() throws Exception {
+	}
+
 	/**
 	 * @return Obtain the symbol that is being watched.
 	 */
@@ -32,7 +32,9 @@
  */
 
 
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Set;
 
 public class StockTickerListing extends Hashtable<String, String> {
 
@@ -64,9 +66,15 @@ public class StockTickerListing extends Hashtable<String, String> {
 
 	private static StockTickerListing singleton;
 
+	/**
+	 * These are the symbols listed on the NYSE.  Every other symbol is listed on the NASDAQ.
+	 */
+	private final Set<String> nyseSymbols;
+
 	public StockTickerListing() {
 		super();
 		addNYSESymbols();
+		nyseSymbols = new HashSet<String>(this.keySet());
 		addNASDAQSymbols();
 	};
 		
@@ -6413,4 +6421,17 @@ public class StockTickerListing extends Hashtable<String, String> {
 	{
 		return this.get(symbol);
 	}
+
+	/**
+	 * @param symbol This is the symbol to be searched for.
+	 * @return This is the exchange the symbol is listed on, either "NYSE" or "NASDAQ", or null if the symbol is not valid.
+	 */
+	public String getExchange(String symbol)
+	{
+		if (nyseSymbols.contains(symbol))
+		{
+			return "NYSE";
+		}
+		return this.containsKey(symbol) ? "NASDAQ" : null;
+	}
 }
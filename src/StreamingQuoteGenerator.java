@@ -0,0 +1,386 @@
+/**
+ * This class obtains stock quotes from a stream of server-sent events rather
+ * than by polling. The provider sends an event named "quote" whenever a
+ * subscribed symbol's price changes, holding the symbol's record in Google's
+ * JSON layout, such as
+ * data: { "t" : "MSFT" ,"l" : "72.50" ,"c" : "0.50" ,"pcls_fix" : "72.00" }.
+ *
+ * Listeners given to subscribe() are called with each quote as it arrives. A
+ * stream which fails is reopened after RECONNECT_DELAY until the subscription
+ * is cancelled. The generator can also still be polled: the latest quote
+ * streamed for each symbol is kept, and the first poll for a symbol opens a
+ * stream for it and waits for its first quote. A symbol's quote is forgotten
+ * as soon as no stream for it is open, so that a poll never answers with a
+ * price frozen while the stream was down. The streams opened by polling stay
+ * open until the generator is closed.
+ *
+ * All of the instances created through createNewInstance share the streams
+ * and the latest quotes.
+ *
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import exceptions.WebsiteConnectionError;
+
+public class StreamingQuoteGenerator implements StockQuoteGeneratorInterface, Closeable {
+	/**
+	 * This is the largest number of symbols requested on one stream.
+	 */
+	public static final int MAX_SYMBOLS_PER_STREAM = 200;
+
+	/**
+	 * This is how long a poll waits for the first quote of a symbol, in
+	 * milliseconds.
+	 */
+	public static final long FIRST_QUOTE_TIMEOUT = 5000;
+
+	/**
+	 * This is how long to wait before reopening a failed stream, in
+	 * milliseconds.
+	 */
+	public static final long RECONNECT_DELAY = 1000;
+
+	private static final GoogleJSONQuoteParser PARSER = new GoogleJSONQuoteParser();
+
+	/**
+	 * This is what every instance shares: where the streams come from, and
+	 * the latest quote streamed for each symbol.
+	 */
+	private static class StreamState {
+		private final QuoteHttpClient client;
+		private final String streamURL;
+		private final Map<String, StockQuoteInterface> latest = new ConcurrentHashMap<String, StockQuoteInterface>();
+
+		/**
+		 * These are the symbols for which a stream was opened by polling.
+		 */
+		private final Set<String> polled = ConcurrentHashMap.newKeySet();
+
+		/**
+		 * These are the subscriptions which polling opened.
+		 */
+		private final List<QuoteSubscription> polling = new CopyOnWriteArrayList<QuoteSubscription>();
+
+		/**
+		 * This is how many open streams carry each symbol. It is guarded by
+		 * the state.
+		 */
+		private final Map<String, Integer> open = new HashMap<String, Integer>();
+
+		private StreamState(QuoteHttpClient client, String streamURL) {
+			this.client = client;
+			this.streamURL = streamURL;
+		}
+
+		private synchronized void quoteArrived(StockQuoteInterface quote) {
+			// A quote read just as its stream closed is already out of date.
+			if (open.containsKey(quote.getSymbol())) {
+				latest.put(quote.getSymbol(), quote);
+				notifyAll();
+			}
+		}
+
+		private synchronized void streamOpened(List<String> symbols) {
+			for (String symbol : symbols) {
+				open.merge(symbol, 1, Integer::sum);
+			}
+		}
+
+		private synchronized void streamClosed(List<String> symbols) {
+			for (String symbol : symbols) {
+				if (open.merge(symbol, -1, Integer::sum) == 0) {
+					open.remove(symbol);
+					latest.remove(symbol);
+				}
+			}
+		}
+	}
+
+	/**
+	 * This is one stream of events, for up to MAX_SYMBOLS_PER_STREAM symbols.
+	 */
+	private static class Stream {
+		private final StreamState state;
+		private final List<String> symbols;
+		private final String url;
+		private final QuoteListener listener;
+		private volatile boolean active = true;
+		private volatile CompletableFuture<Void> connection;
+
+		/**
+		 * This is whether the provider has answered the current connection,
+		 * so that the stream counts towards its symbols being open.
+		 */
+		private volatile boolean connected;
+
+		/**
+		 * This is the event being read, which is dispatched at the next blank
+		 * line. It is only touched by the thread reading the stream.
+		 */
+		private String event;
+		private final StringBuilder data = new StringBuilder();
+
+		private Stream(StreamState state, List<String> symbols, QuoteListener listener) {
+			this.state = state;
+			this.symbols = new ArrayList<String>(symbols);
+			this.url = state.streamURL + "?s=" + String.join("+", symbols);
+			this.listener = listener;
+		}
+
+		private void connect() {
+			if (active == false) {
+				return;
+			}
+			event = null;
+			data.setLength(0);
+			CompletableFuture<Void> opened = state.client.stream(url, this::line);
+			connection = opened;
+			opened.whenComplete((ignored, error) -> {
+				closed();
+				if (active == false) {
+					return;
+				}
+				Throwable cause = error == null ? new IOException("The provider ended the stream " + url)
+						: QuoteHttpClient.unwrap(error);
+				listener.streamFailed(cause instanceof Exception ? (Exception) cause : new IOException(cause));
+				CompletableFuture.delayedExecutor(RECONNECT_DELAY, TimeUnit.MILLISECONDS).execute(this::connect);
+			});
+		}
+
+		/**
+		 * Read one line of the stream.
+		 */
+		private void line(String line) {
+			if (connected == false) {
+				opened();
+			}
+			if (line.isEmpty()) {
+				dispatch();
+			} else if (line.startsWith("data:")) {
+				if (data.length() > 0) {
+					data.append('\n');
+				}
+				data.append(line, line.startsWith("data: ") ? 6 : 5, line.length());
+			} else if (line.startsWith("event:")) {
+				event = line.substring(6).trim();
+			}
+			// Comments, ids and retry intervals are ignored.
+		}
+
+		private void dispatch() {
+			if (data.length() > 0 && (event == null || event.equals("quote"))) {
+				try {
+					List<StockQuoteInterface> quotes = PARSER
+							.parse(ByteBuffer.wrap(data.toString().getBytes(StandardCharsets.UTF_8)));
+					for (StockQuoteInterface quote : quotes) {
+						state.quoteArrived(quote);
+						if (active) {
+							listener.quoteUpdated(quote);
+						}
+					}
+				} catch (IOException e) {
+					listener.streamFailed(e);
+				}
+			}
+			event = null;
+			data.setLength(0);
+		}
+
+		private synchronized void opened() {
+			if (active && connected == false) {
+				connected = true;
+				state.streamOpened(symbols);
+			}
+		}
+
+		private synchronized void closed() {
+			if (connected) {
+				connected = false;
+				state.streamClosed(symbols);
+			}
+		}
+
+		private void cancel() {
+			active = false;
+			closed();
+			CompletableFuture<Void> opened = connection;
+			if (opened != null) {
+				opened.cancel(true);
+			}
+		}
+	}
+
+	private final StreamState state;
+	private String symbol;
+
+	/**
+	 * @param streamURL
+	 *            This is the address of the stream of events, without the
+	 *            query, such as that of a LocalMarketDataServer.
+	 */
+	public StreamingQuoteGenerator(String streamURL) {
+		this(streamURL, QuoteHttpClient.getSingleton());
+	}
+
+	/**
+	 * @param streamURL
+	 *            This is the address of the stream of events, without the
+	 *            query, such as that of a LocalMarketDataServer.
+	 * @param client
+	 *            This is the shared client that is to be used to open the
+	 *            streams.
+	 */
+	public StreamingQuoteGenerator(String streamURL, QuoteHttpClient client) {
+		this(new StreamState(client, streamURL), null);
+	}
+
+	private StreamingQuoteGenerator(StreamState state, String symbol) {
+		super();
+		this.state = state;
+		this.symbol = symbol;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#subscribe(java.util.Collection,
+	 * QuoteListener)
+	 */
+	public QuoteSubscription subscribe(Collection<String> symbols, QuoteListener listener) {
+		List<Stream> streams = new ArrayList<Stream>();
+		List<String> chunk = new ArrayList<String>();
+		for (String requested : symbols) {
+			chunk.add(requested);
+			if (chunk.size() == MAX_SYMBOLS_PER_STREAM) {
+				streams.add(new Stream(state, chunk, listener));
+				chunk.clear();
+			}
+		}
+		if (chunk.isEmpty() == false) {
+			streams.add(new Stream(state, chunk, listener));
+		}
+		for (Stream stream : streams) {
+			stream.connect();
+		}
+		return new QuoteSubscription() {
+			public void cancel() {
+				for (Stream stream : streams) {
+					stream.cancel();
+				}
+			}
+
+			public boolean isActive() {
+				return streams.isEmpty() == false && streams.get(0).active;
+			}
+		};
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuote()
+	 */
+	public StockQuoteInterface getCurrentQuote() throws Exception {
+		StockQuoteInterface quote = getCurrentQuotes(Collections.singleton(symbol)).get(symbol);
+		if (quote == null) {
+			throw new WebsiteConnectionError("No quote for " + symbol + " has been streamed");
+		}
+		return quote;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#getCurrentQuotes(java.util.Collection)
+	 */
+	public Map<String, StockQuoteInterface> getCurrentQuotes(Collection<String> symbols) throws Exception {
+		List<String> unstreamed = new ArrayList<String>();
+		for (String requested : symbols) {
+			if (state.latest.containsKey(requested) == false && state.polled.add(requested)) {
+				unstreamed.add(requested);
+			}
+		}
+		if (unstreamed.isEmpty() == false) {
+			state.polling.add(subscribe(unstreamed, quote -> {
+			}));
+		}
+
+		// Wait for the first quotes of the symbols which have only just been
+		// subscribed.
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FIRST_QUOTE_TIMEOUT);
+		synchronized (state) {
+			for (String requested : unstreamed) {
+				long remaining = deadline - System.nanoTime();
+				while (state.latest.containsKey(requested) == false && remaining > 0) {
+					TimeUnit.NANOSECONDS.timedWait(state, remaining);
+					remaining = deadline - System.nanoTime();
+				}
+			}
+		}
+
+		Map<String, StockQuoteInterface> retVal = new LinkedHashMap<String, StockQuoteInterface>();
+		for (String requested : symbols) {
+			StockQuoteInterface quote = state.latest.get(requested);
+			if (quote != null) {
+				retVal.put(requested, quote);
+			}
+		}
+		if (retVal.isEmpty() && symbols.isEmpty() == false) {
+			throw new WebsiteConnectionError("No quotes for " + symbols + " have been streamed");
+		}
+		return retVal;
+	}
+
+	/**
+	 * Close the streams opened by polling, for every instance sharing this
+	 * generator's streams. Subscriptions made through subscribe() are left to
+	 * their callers. A later poll opens its streams again.
+	 */
+	public void close() {
+		for (QuoteSubscription subscription : state.polling) {
+			state.polling.remove(subscription);
+			subscription.cancel();
+		}
+		state.polled.clear();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see StockQuoteGeneratorInterface#createNewInstance(java.lang.String)
+	 */
+	public StockQuoteGeneratorInterface createNewInstance(String symbol) {
+		return new StreamingQuoteGenerator(state, symbol);
+	}
+
+	/**
+	 * @return the symbol
+	 */
+	public String getSymbol() {
+		return symbol;
+	}
+
+	/**
+	 * @param symbol
+	 *            the symbol to set
+	 */
+	public void setSymbol(String symbol) {
+		this.symbol = symbol;
+	}
+}
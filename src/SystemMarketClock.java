@@ -0,0 +1,64 @@
+/**
+ * This class is the MarketClock which follows real time: the system's clocks,
+ * Thread.sleep() and a single scheduling thread.
+ *
+ */
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class SystemMarketClock implements MarketClock {
+	/**
+	 * This runs the scheduled tasks. It is only started when first used.
+	 */
+	private static class Scheduler {
+		private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "Market clock");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see MarketClock#nanoTime()
+	 */
+	public long nanoTime() {
+		return System.nanoTime();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see MarketClock#currentTimeMillis()
+	 */
+	public long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see MarketClock#sleepUntil(long)
+	 */
+	public void sleepUntil(long time) throws InterruptedException {
+		long remaining = time - System.nanoTime();
+		while (remaining > 0) {
+			Thread.sleep(remaining / 1000000, (int) (remaining % 1000000));
+			remaining = time - System.nanoTime();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see MarketClock#schedule(java.lang.Runnable, long,
+	 * java.util.concurrent.TimeUnit)
+	 */
+	public Future<?> schedule(Runnable task, long delay, TimeUnit unit) {
+		return Scheduler.EXECUTOR.schedule(task, delay, unit);
+	}
+}
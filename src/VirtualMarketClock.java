@@ -0,0 +1,175 @@
+/**
+ * This class is a MarketClock for simulations. Time stands still until a
+ * thread sleeps or the clock is advanced; then every task scheduled before
+ * the time being moved to is run in order, on that thread, with the clock
+ * set to each task's time as it runs, and the clock finishes at the time
+ * asked for. Nothing ever waits in real time, so a day of one-minute cycles
+ * takes as long as computing them.
+ *
+ * The clock is meant to be driven by one thread at a time, such as the one
+ * running MarketAnalyzer.run(). Tasks may schedule further tasks, which run
+ * in turn if they fall within the same sleep.
+ *
+ */
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+public class VirtualMarketClock implements MarketClock {
+	/**
+	 * This is a task waiting for its time. Tasks due at the same time run in
+	 * the order they were scheduled.
+	 */
+	private static class Event implements Comparable<Event> {
+		private final long time;
+		private final long order;
+		private final FutureTask<?> task;
+
+		private Event(long time, long order, FutureTask<?> task) {
+			this.time = time;
+			this.order = order;
+			this.task = task;
+		}
+
+		public int compareTo(Event other) {
+			int byTime = Long.compare(time, other.time);
+			return byTime != 0 ? byTime : Long.compare(order, other.order);
+		}
+	}
+
+	private final long startMillis;
+	private final PriorityQueue<Event> events = new PriorityQueue<Event>();
+	private long now;
+	private long scheduledCount;
+	private long runCount;
+
+	/**
+	 * Start the clock at the current wall-clock time.
+	 */
+	public VirtualMarketClock() {
+		this(System.currentTimeMillis());
+	}
+
+	/**
+	 * @param startMillis
+	 *            This is the wall-clock time the clock starts at, in
+	 *            milliseconds since the epoch. nanoTime() starts at 0.
+	 */
+	public VirtualMarketClock(long startMillis) {
+		super();
+		this.startMillis = startMillis;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see MarketClock#nanoTime()
+	 */
+	public synchronized long nanoTime() {
+		return now;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see MarketClock#currentTimeMillis()
+	 */
+	public synchronized long currentTimeMillis() {
+		return startMillis + now / 1000000;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see MarketClock#sleepUntil(long)
+	 */
+	public void sleepUntil(long time) throws InterruptedException {
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+		this.advanceTo(time);
+	}
+
+	/**
+	 * Move the clock forward by the given time, running every task due by
+	 * then.
+	 */
+	public void advance(long duration, TimeUnit unit) {
+		this.advanceTo(this.nanoTime() + unit.toNanos(duration));
+	}
+
+	/**
+	 * Move the clock forward to the given time, running every task due by
+	 * then. The clock never moves backwards.
+	 *
+	 * @param time
+	 *            This is the time to move to, from nanoTime().
+	 */
+	public void advanceTo(long time) {
+		while (this.runNext(time)) {
+			// Run every task due by the time.
+		}
+		synchronized (this) {
+			now = Math.max(now, time);
+		}
+	}
+
+	/**
+	 * Jump to the next scheduled task and run it.
+	 *
+	 * @return False if there was no task to run.
+	 */
+	public boolean runNext() {
+		return this.runNext(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Jump to the next task due by the given time and run it.
+	 */
+	private boolean runNext(long time) {
+		FutureTask<?> task;
+		synchronized (this) {
+			Event next = events.peek();
+			if (next == null || next.time > time) {
+				return false;
+			}
+			events.poll();
+			now = Math.max(now, next.time);
+			task = next.task;
+			runCount++;
+		}
+		// Run it without the lock, as it may schedule more.
+		task.run();
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see MarketClock#schedule(java.lang.Runnable, long,
+	 * java.util.concurrent.TimeUnit)
+	 */
+	public synchronized Future<?> schedule(Runnable task, long delay, TimeUnit unit) {
+		FutureTask<Void> future = new FutureTask<Void>(task, null);
+		events.add(new Event(now + Math.max(0, unit.toNanos(delay)), scheduledCount++, future));
+		return future;
+	}
+
+	/**
+	 * @return The number of tasks scheduled and not yet run, counting any
+	 *         which have been cancelled.
+	 */
+	public synchronized int getPendingCount() {
+		return events.size();
+	}
+
+	/**
+	 * @return The number of tasks which have come due, counting any which had
+	 *         been cancelled.
+	 */
+	public synchronized long getRunCount() {
+		return runCount;
+	}
+}
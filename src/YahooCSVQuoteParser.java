@@ -0,0 +1,92 @@
+/**
+ * This class interprets the CSV returned by Yahoo directly from the bytes of
+ * the response. Yahoo answers with one line per symbol, with the fields
+ * requested by f=sl1d1t1c1ohgv, for example
+ * "MSFT",72.50,"6/8/2017","4:00pm",+0.50,72.10,72.90,71.80,21000000.
+ * 
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class YahooCSVQuoteParser implements QuoteResponseParser<List<StockQuoteInterface>> {
+	private static final int SYMBOL = 0;
+	private static final int LASTTRADE = 1;
+	/* Not used but left in for future need. */
+	/*
+	 * private static final int DATE = 2; private static final int TIME = 3;
+	 */
+	private static final int CHANGE = 4;
+	// private static final int OPEN = 5;
+	/*
+	 * private static final int HIGH = 6; private static final int LOW = 7;
+	 * private static final int VOLUME = 8;
+	 */
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see QuoteResponseParser#parse(java.nio.ByteBuffer)
+	 */
+	public List<StockQuoteInterface> parse(ByteBuffer body) throws IOException {
+		List<StockQuoteInterface> quotes = new ArrayList<StockQuoteInterface>();
+		int end = body.limit();
+		int lineStart = body.position();
+
+		while (lineStart < end) {
+			int lineEnd = QuoteBytes.indexOf(body, (byte) '\n', lineStart, end);
+			if (lineEnd < 0) {
+				lineEnd = end;
+			}
+			if (QuoteBytes.trimStart(body, lineStart, lineEnd) < lineEnd) {
+				quotes.add(parseLine(body, lineStart, lineEnd));
+			}
+			lineStart = lineEnd + 1;
+		}
+		return quotes;
+	}
+
+	/**
+	 * Interpret a single line of the response.
+	 * 
+	 * @return The quote held on the line will be returned.
+	 * @throws IOException
+	 *             An IOException will be thrown if the line is missing fields
+	 *             or holds invalid numbers.
+	 */
+	private StockQuoteInterface parseLine(ByteBuffer body, int start, int end) throws IOException {
+		String symbol = null;
+		double lastTrade = Double.NaN;
+		double change = Double.NaN;
+
+		try {
+			int field = 0;
+			int fieldStart = start;
+			while (fieldStart <= end && field <= CHANGE) {
+				int fieldEnd = QuoteBytes.indexOf(body, (byte) ',', fieldStart, end);
+				if (fieldEnd < 0) {
+					fieldEnd = end;
+				}
+				if (field == SYMBOL) {
+					symbol = QuoteBytes.toAsciiString(body, QuoteBytes.trimStart(body, fieldStart, fieldEnd),
+							QuoteBytes.trimEnd(body, fieldStart, fieldEnd));
+				} else if (field == LASTTRADE) {
+					lastTrade = QuoteBytes.parseDouble(body, fieldStart, fieldEnd);
+				} else if (field == CHANGE) {
+					change = QuoteBytes.parseDouble(body, fieldStart, fieldEnd);
+				}
+				field++;
+				fieldStart = fieldEnd + 1;
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid number in quote line.", e);
+		}
+
+		if (symbol == null || Double.isNaN(lastTrade) || Double.isNaN(change)) {
+			throw new IOException("Incomplete quote line in response.");
+		}
+		return new StockQuote(symbol, lastTrade - change, lastTrade, change);
+	}
+}
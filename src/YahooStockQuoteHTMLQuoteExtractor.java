@@ -32,15 +32,34 @@
  */
 
 import exceptions.WebsiteConnectionError;
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.MalformedURLException;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class YahooStockQuoteHTMLQuoteExtractor implements StockQuoteGeneratorInterface {
+	/**
+	 * This is the parser which interprets the bytes of each response.
+	 */
+	private static final YahooCSVQuoteParser PARSER = new YahooCSVQuoteParser();
+
+	/**
+	 * This is the largest number of symbols that Yahoo will accept in a
+	 * single request.
+	 */
+	public static final int MAX_SYMBOLS_PER_REQUEST = 200;
+
+	/**
+	 * This is the address of Yahoo's quote service.
+	 */
+	public static final String DEFAULT_BASE_URL = "http://download.finance.yahoo.com/d/quotes.csv";
+
 	/**
 	 * This is the stock symbol to be obtained.
 	 */
@@ -49,18 +68,15 @@ public class YahooStockQuoteHTMLQuoteExtractor implements StockQuoteGeneratorInt
 	 */
 	private String symbol;
 
-	private static final int SYMBOL = 0;
-	private static final int LASTTRADE = 1;
-	/* Not used but left in for future need. */
-	/*
-	 * private static final int DATE = 2; private static final int TIME = 3;
+	/**
+	 * This is the shared client through which the quote is downloaded.
 	 */
-	private static final int CHANGE = 4;
-	// private static final int OPEN = 5;
-	/*
-	 * private static final int HIGH = 6; private static final int LOW = 7;
-	 * private static final int VOLUME = 8;
+	private QuoteHttpClient client;
+
+	/**
+	 * This is the address of the quote service, without the query.
 	 */
+	private String baseURL;
 
 	/*
 	 * (non-Javadoc)
@@ -68,56 +84,154 @@ public class YahooStockQuoteHTMLQuoteExtractor implements StockQuoteGeneratorInt
 	 * @see msoe.StockQuoteGeneratorInterface#getCurrentQuote()
 	 */
 	public StockQuoteInterface getCurrentQuote() throws Exception {
-		String quoteURL = "http://download.finance.yahoo.com/d/quotes.csv?s=" + this.symbol + "&f=sl1d1t1c1ohgv&e=.csv";
-		StockQuote retVal = null;
+		String quoteURL = baseURL + "?s=" + this.symbol + "&f=sl1d1t1c1ohgv&e=.csv";
+		StockQuoteInterface retVal = null;
 
 		try {
-			URL url = new URL(quoteURL);
-
-			InputStream inputStream = url.openStream();
-			BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
-			String text = "";
-			String line = bufferedReader.readLine();
-
-			while (line != null) {
-				text += line + "\n";
-				line = bufferedReader.readLine();
+			List<StockQuoteInterface> quotes = client.get(quoteURL, PARSER);
+			if (quotes.isEmpty()) {
+				throw new WebsiteConnectionError("No quote returned by " + quoteURL);
 			}
-			bufferedReader.close();
-			String fields[] = text.split(",");
-
-			double lastTrade = Double.parseDouble(fields[YahooStockQuoteHTMLQuoteExtractor.LASTTRADE]);
-			double change = Double.parseDouble(fields[YahooStockQuoteHTMLQuoteExtractor.CHANGE]);
-			double previosClose = lastTrade - change;
-
-			retVal = new StockQuote(fields[YahooStockQuoteHTMLQuoteExtractor.SYMBOL], previosClose, lastTrade, change);
+			retVal = quotes.get(0);
 
 		} catch (FileNotFoundException ex) {
-			throw new WebsiteConnectionError("Unable to connect with " + quoteURL);
+			throw new WebsiteConnectionError("Unable to connect with " + quoteURL, ex);
 		} catch (MalformedURLException e) {
-			throw new WebsiteConnectionError("Unable to connect with " + quoteURL);
+			throw new WebsiteConnectionError("Unable to connect with " + quoteURL, e);
 		} catch (IOException e) {
-			throw new WebsiteConnectionError("Unable to connect with " + quoteURL);
+			throw new WebsiteConnectionError("Unable to connect with " + quoteURL, e);
 		}
 
 		return retVal;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see StockQuoteGeneratorInterface#getCurrentQuoteAsync()
+	 */
+	public CompletableFuture<StockQuoteInterface> getCurrentQuoteAsync() {
+		String quoteURL = baseURL + "?s=" + this.symbol + "&f=sl1d1t1c1ohgv&e=.csv";
+
+		CompletableFuture<List<StockQuoteInterface>> response = client.getAsync(quoteURL, PARSER);
+		return QuoteHttpClient.propagateCancel(response.handle((quotes, error) -> {
+			if (error != null) {
+				throw new CompletionException(new WebsiteConnectionError("Unable to connect with " + quoteURL,
+						QuoteHttpClient.unwrap(error)));
+			}
+			if (quotes.isEmpty()) {
+				throw new CompletionException(new WebsiteConnectionError("No quote returned by " + quoteURL));
+			}
+			return quotes.get(0);
+		}), response);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see StockQuoteGeneratorInterface#getCurrentQuotes(java.util.Collection)
+	 */
+	public Map<String, StockQuoteInterface> getCurrentQuotes(Collection<String> symbols) throws Exception {
+		Map<String, StockQuoteInterface> retVal = new LinkedHashMap<String, StockQuoteInterface>();
+		List<String> chunk = new ArrayList<String>();
+		WebsiteConnectionError failure = null;
+
+		for (String requested : symbols) {
+			chunk.add(requested);
+			if (chunk.size() == MAX_SYMBOLS_PER_REQUEST) {
+				failure = getCurrentQuotes(chunk, retVal, failure);
+				chunk.clear();
+			}
+		}
+		if (chunk.isEmpty() == false) {
+			failure = getCurrentQuotes(chunk, retVal, failure);
+		}
+		if (retVal.isEmpty() && failure != null) {
+			throw failure;
+		}
+		return retVal;
+	}
+
+	/**
+	 * Obtain the quotes for one request's worth of symbols and add them to the
+	 * given map. Yahoo answers with one CSV line per symbol.
+	 * 
+	 * @param chunk
+	 *            These are the symbols to request, no more than
+	 *            MAX_SYMBOLS_PER_REQUEST of them.
+	 * @param quotes
+	 *            This is the map into which the quotes are placed.
+	 * @param failure
+	 *            This is the last failure seen so far, if any.
+	 * @return The error for this request will be returned if it failed,
+	 *         otherwise the failure passed in is returned.
+	 */
+	private WebsiteConnectionError getCurrentQuotes(List<String> chunk, Map<String, StockQuoteInterface> quotes,
+			WebsiteConnectionError failure) {
+		String quoteURL = baseURL + "?s=" + String.join("+", chunk)
+				+ "&f=sl1d1t1c1ohgv&e=.csv";
+
+		try {
+			for (StockQuoteInterface quote : client.get(quoteURL, PARSER)) {
+				quotes.put(quote.getSymbol(), quote);
+			}
+		} catch (IOException e) {
+			return new WebsiteConnectionError("Unable to connect with " + quoteURL, e);
+		}
+		return failure;
+	}
+
 	/**
 	 * @param symbol
 	 *            This is the symbol to watch.
 	 */
 	public YahooStockQuoteHTMLQuoteExtractor(String symbol) {
+		this(symbol, QuoteHttpClient.getSingleton());
+	}
+
+	/**
+	 * @param symbol
+	 *            This is the symbol to watch.
+	 * @param client
+	 *            This is the shared client that is to be used to download
+	 *            quotes.
+	 */
+	public YahooStockQuoteHTMLQuoteExtractor(String symbol, QuoteHttpClient client) {
+		this(symbol, client, DEFAULT_BASE_URL);
+	}
+
+	/**
+	 * @param symbol
+	 *            This is the symbol to watch.
+	 * @param client
+	 *            This is the shared client that is to be used to download
+	 *            quotes.
+	 * @param baseURL
+	 *            This is the address of the quote service, without the query,
+	 *            such as that of a LocalMarketDataServer.
+	 */
+	public YahooStockQuoteHTMLQuoteExtractor(String symbol, QuoteHttpClient client, String baseURL) {
 		super();
 		this.symbol = symbol;
+		this.client = client;
+		this.baseURL = baseURL;
 	}
 
 	/**
 	 * Default constructor.
 	 */
 	public YahooStockQuoteHTMLQuoteExtractor() {
-		super();
-		this.symbol = null;
+		this(null);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see StockQuoteGeneratorInterface#warmUp()
+	 */
+	public void warmUp() throws Exception {
+		QuoteWarmup.exercise(PARSER, QuoteWarmup.yahooPayload(QuoteWarmup.SYMBOLS), QuoteWarmup.ITERATIONS);
+		client.warmUp(baseURL, QuoteWarmup.CONNECTIONS);
 	}
 
 	/*
@@ -128,7 +242,7 @@ public class YahooStockQuoteHTMLQuoteExtractor implements StockQuoteGeneratorInt
 	 * .lang.String)
 	 */
 	public StockQuoteGeneratorInterface createNewInstance(String symbol) {
-		return new YahooStockQuoteHTMLQuoteExtractor(symbol);
+		return new YahooStockQuoteHTMLQuoteExtractor(symbol, this.client, this.baseURL);
 	}
 
 	/**
@@ -146,4 +260,19 @@ public class YahooStockQuoteHTMLQuoteExtractor implements StockQuoteGeneratorInt
 		this.symbol = symbol;
 	}
 
+	/**
+	 * @return the address of the quote service
+	 */
+	public String getBaseURL() {
+		return baseURL;
+	}
+
+	/**
+	 * @param baseURL
+	 *            the address of the quote service to set
+	 */
+	public void setBaseURL(String baseURL) {
+		this.baseURL = baseURL;
+	}
+
 }
@@ -0,0 +1,43 @@
+/**
+ * This class indicates that a quote provider answered a request with an
+ * unsuccessful HTTP status, such as 429 Too Many Requests or 503 Service
+ * Unavailable.
+ * 
+ */
+
+package exceptions;
+
+import java.io.IOException;
+
+public class HttpStatusError extends IOException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * This is the status returned by the provider.
+	 */
+	private final int statusCode;
+
+	public HttpStatusError(int statusCode, String message) {
+		super(message);
+		this.statusCode = statusCode;
+	}
+
+	/**
+	 * @return the HTTP status returned by the provider
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * @return True if the status indicates that the provider is throttling
+	 *         requests or is overloaded.
+	 */
+	public boolean isThrottled() {
+		return statusCode == 429 || statusCode == 503;
+	}
+}
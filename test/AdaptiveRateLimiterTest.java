@@ -0,0 +1,91 @@
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class AdaptiveRateLimiterTest {
+	/**
+	 * This is a clock which only moves when the test moves it.
+	 */
+	private long now;
+
+	/**
+	 * Drive the limiter against a simulated provider that accepts at most
+	 * providerRate requests per second, measured over one second windows.
+	 *
+	 * @return The fraction of requests that were throttled in the last half
+	 *         of the run.
+	 */
+	private double simulate(AdaptiveRateLimiter limiter, int providerRate, int seconds) {
+		long windowStart = now;
+		int windowCount = 0;
+		int requests = 0;
+		int throttled = 0;
+		long end = now + seconds * 1000000000L;
+		long halfway = now + seconds * 500000000L;
+
+		while (now < end) {
+			now += limiter.reserve();
+			if (now - windowStart >= 1000000000L) {
+				windowStart = now;
+				windowCount = 0;
+			}
+			boolean accepted = ++windowCount <= providerRate;
+			if (accepted) {
+				limiter.onSuccess();
+			} else {
+				limiter.onThrottle();
+			}
+			if (now >= halfway) {
+				requests++;
+				if (accepted == false) {
+					throttled++;
+				}
+			}
+		}
+		return throttled / (double) requests;
+	}
+
+	@Test
+	public void rateShouldSettleBelowTheProviderLimit() {
+		AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(5, 0.5, 1000, 2.0, 0.7, 1000, () -> now);
+		double throttled = simulate(limiter, 50, 600);
+
+		assertTrue(limiter.getRate() > 30 && limiter.getRate() < 60, "rate " + limiter.getRate());
+		assertTrue(throttled < 0.05, "throttled " + throttled);
+	}
+
+	@Test
+	public void throttlingShouldCutTheRateOncePerInterval() {
+		AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(100, 1, 1000, 1.0, 0.5, 1000, () -> now);
+		limiter.onThrottle();
+		limiter.onThrottle();
+		limiter.onThrottle();
+		assertEquals(limiter.getRate(), 50.0, 0.0001);
+
+		now += 1000000000L;
+		limiter.onThrottle();
+		assertEquals(limiter.getRate(), 25.0, 0.0001);
+		assertEquals(limiter.getThrottleCount(), 4);
+	}
+
+	@Test
+	public void requestsShouldBeSpacedAtTheCurrentRate() {
+		AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(10, 1, 10, 1.0, 0.5, 1000, () -> now);
+		assertEquals(limiter.reserve(), 0);
+		assertEquals(limiter.reserve(), 100000000L);
+		assertEquals(limiter.reserve(), 200000000L);
+	}
+
+	@Test
+	public void rateShouldStayWithinItsLimits() {
+		AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(10, 2, 12, 1.0, 0.5, 0, () -> now);
+		for (int index = 0; index < 1000; index++) {
+			limiter.onSuccess();
+		}
+		assertEquals(limiter.getRate(), 12.0, 0.0001);
+		for (int index = 0; index < 10; index++) {
+			limiter.onThrottle();
+		}
+		assertEquals(limiter.getRate(), 2.0, 0.0001);
+	}
+}
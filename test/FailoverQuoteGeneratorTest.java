@@ -0,0 +1,236 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import exceptions.WebsiteConnectionError;
+
+import static org.testng.Assert.*;
+
+public class FailoverQuoteGeneratorTest {
+	/**
+	 * This generator can be taken down and brought back up, and only knows
+	 * the symbols it was given.
+	 */
+	private static class SwitchableGenerator implements StockQuoteGeneratorInterface {
+		private final AtomicBoolean down;
+		private final AtomicInteger calls;
+		private final double price;
+		private final List<String> known;
+		private String symbol;
+
+		SwitchableGenerator(String symbol, AtomicBoolean down, AtomicInteger calls, double price, List<String> known) {
+			this.symbol = symbol;
+			this.down = down;
+			this.calls = calls;
+			this.price = price;
+			this.known = known;
+		}
+
+		public StockQuoteInterface getCurrentQuote() throws Exception {
+			calls.incrementAndGet();
+			if (down.get() || known.contains(symbol) == false) {
+				throw new WebsiteConnectionError("Unable to connect with " + symbol);
+			}
+			return new StockQuote(symbol, price, price, 0.0);
+		}
+
+		public Map<String, StockQuoteInterface> getCurrentQuotes(Collection<String> symbols)
+				throws Exception {
+			calls.incrementAndGet();
+			if (down.get()) {
+				throw new WebsiteConnectionError("Unable to connect");
+			}
+			Map<String, StockQuoteInterface> retVal = new LinkedHashMap<String, StockQuoteInterface>();
+			for (String symbol : symbols) {
+				if (known.contains(symbol)) {
+					retVal.put(symbol, new StockQuote(symbol, price, price, 0.0));
+				}
+			}
+			if (retVal.isEmpty()) {
+				throw new WebsiteConnectionError("No quotes returned");
+			}
+			return retVal;
+		}
+
+		public String getSymbol() {
+			return symbol;
+		}
+
+		public void setSymbol(String symbol) {
+			this.symbol = symbol;
+		}
+
+		public StockQuoteGeneratorInterface createNewInstance(String symbol) {
+			return new SwitchableGenerator(symbol, down, calls, price, known);
+		}
+	}
+
+	private static final List<String> ALL = Arrays.asList("MSFT", "AAPL", "IBM");
+
+	private AtomicBoolean primaryDown;
+	private AtomicInteger primaryCalls;
+	private AtomicInteger secondaryCalls;
+	private FailoverQuoteGenerator prototype;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		primaryDown = new AtomicBoolean();
+		primaryCalls = new AtomicInteger();
+		secondaryCalls = new AtomicInteger();
+		prototype = new FailoverQuoteGenerator(
+				Arrays.<StockQuoteGeneratorInterface>asList(
+						new SwitchableGenerator(null, primaryDown, primaryCalls, 10.0, Arrays.asList("MSFT", "AAPL")),
+						new SwitchableGenerator(null, new AtomicBoolean(), secondaryCalls, 20.0, ALL)),
+				2, 100);
+	}
+
+	@Test
+	public void healthyPrimaryShouldAnswerAlone() throws Exception {
+		assertEquals(prototype.createNewInstance("MSFT").getCurrentQuote().getLastTrade(), 10.0, 0.0);
+		assertEquals(secondaryCalls.get(), 0);
+		assertEquals(prototype.getStatistics().get(0).getSuccessCount(), 1);
+	}
+
+	@Test
+	public void openBreakerShouldSkipThePrimaryAtOnce() throws Exception {
+		primaryDown.set(true);
+		StockQuoteGeneratorInterface generator = prototype.createNewInstance("MSFT");
+		for (int index = 0; index < 5; index++) {
+			assertEquals(generator.getCurrentQuote().getLastTrade(), 20.0, 0.0);
+		}
+		// Only the two failures which tripped the breaker reached the primary.
+		assertEquals(primaryCalls.get(), 2);
+		assertEquals(secondaryCalls.get(), 5);
+		assertEquals(prototype.getCircuitBreaker(0).getState(), CircuitBreaker.State.OPEN);
+		assertEquals(prototype.getStatistics().get(0).getFailureCount(), 2);
+		assertEquals(prototype.getStatistics().get(1).getSuccessCount(), 5);
+
+		// The breaker is shared by every instance.
+		prototype.createNewInstance("AAPL").getCurrentQuote();
+		assertEquals(primaryCalls.get(), 2);
+	}
+
+	@Test
+	public void successfulProbeShouldRestoreThePrimary() throws Exception {
+		primaryDown.set(true);
+		StockQuoteGeneratorInterface generator = prototype.createNewInstance("MSFT");
+		generator.getCurrentQuote();
+		generator.getCurrentQuote();
+		assertEquals(prototype.getCircuitBreaker(0).getState(), CircuitBreaker.State.OPEN);
+
+		primaryDown.set(false);
+		Thread.sleep(150);
+		assertEquals(generator.getCurrentQuote().getLastTrade(), 10.0, 0.0);
+		assertEquals(prototype.getCircuitBreaker(0).getState(), CircuitBreaker.State.CLOSED);
+	}
+
+	@Test
+	public void asyncRequestShouldFailOver() throws Exception {
+		primaryDown.set(true);
+		StockQuoteInterface quote = prototype.createNewInstance("MSFT").getCurrentQuoteAsync().get();
+		assertEquals(quote.getLastTrade(), 20.0, 0.0);
+		assertEquals(prototype.getStatistics().get(0).getFailureCount(), 1);
+	}
+
+	@Test
+	public void cancellingTheQuoteShouldCancelTheRequestInFlight() throws Exception {
+		List<CompletableFuture<StockQuoteInterface>> requests = new ArrayList<CompletableFuture<StockQuoteInterface>>();
+		SwitchableGenerator hanging = new SwitchableGenerator("MSFT", new AtomicBoolean(), primaryCalls, 10.0, ALL) {
+			public CompletableFuture<StockQuoteInterface> getCurrentQuoteAsync() {
+				CompletableFuture<StockQuoteInterface> request = new CompletableFuture<StockQuoteInterface>();
+				requests.add(request);
+				return request;
+			}
+		};
+		FailoverQuoteGenerator generator = new FailoverQuoteGenerator(
+				Arrays.<StockQuoteGeneratorInterface>asList(hanging,
+						new SwitchableGenerator("MSFT", new AtomicBoolean(), secondaryCalls, 20.0, ALL)),
+				2, 100);
+
+		for (int index = 0; index < 3; index++) {
+			assertTrue(generator.getCurrentQuoteAsync().cancel(true));
+			assertTrue(requests.get(index).isCancelled());
+		}
+		// Being cancelled is not a failure, so the breaker stays closed and
+		// nothing is passed on to the next provider.
+		assertEquals(generator.getCircuitBreaker(0).getState(), CircuitBreaker.State.CLOSED);
+		assertEquals(generator.getStatistics().get(0).getFailureCount(), 0);
+		assertEquals(secondaryCalls.get(), 0);
+	}
+
+	@Test
+	public void cancelledProbeShouldLetTheNextRequestProbe() throws Exception {
+		AtomicLong now = new AtomicLong();
+		CircuitBreaker breaker = new CircuitBreaker(1, 1000, now::get);
+		assertTrue(breaker.allowRequest());
+		breaker.onFailure();
+		now.set(1000000000L);
+		assertTrue(breaker.allowRequest());
+		assertFalse(breaker.allowRequest());
+
+		breaker.onCancel();
+		assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+		assertTrue(breaker.allowRequest());
+	}
+
+	@Test
+	public void batchShouldFillMissingSymbolsFromTheNextProvider() throws Exception {
+		Map<String, StockQuoteInterface> quotes = prototype.getCurrentQuotes(ALL);
+		assertEquals(quotes.size(), 3);
+		assertEquals(quotes.get("MSFT").getLastTrade(), 10.0, 0.0);
+		assertEquals(quotes.get("IBM").getLastTrade(), 20.0, 0.0);
+		assertEquals(primaryCalls.get(), 1);
+		assertEquals(secondaryCalls.get(), 1);
+	}
+
+	@Test
+	public void everyProviderDownShouldFail() throws Exception {
+		StockQuoteGeneratorInterface generator = prototype.createNewInstance("GOOG");
+		try {
+			generator.getCurrentQuoteAsync().get();
+			fail("No provider knows the symbol.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof WebsiteConnectionError);
+		}
+	}
+
+	@Test
+	public void breakerShouldAllowOneProbeAfterTheInterval() throws Exception {
+		AtomicLong now = new AtomicLong();
+		CircuitBreaker breaker = new CircuitBreaker(3, 1000, now::get);
+		for (int index = 0; index < 3; index++) {
+			assertTrue(breaker.allowRequest());
+			breaker.onFailure();
+		}
+		assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+		assertFalse(breaker.allowRequest());
+
+		now.set(1000000000L);
+		assertTrue(breaker.allowRequest());
+		assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+		assertFalse(breaker.allowRequest());
+
+		// A failed probe opens the breaker for another interval.
+		breaker.onFailure();
+		assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+		assertEquals(breaker.getTripCount(), 2);
+		assertFalse(breaker.allowRequest());
+
+		now.set(2000000000L);
+		assertTrue(breaker.allowRequest());
+		breaker.onSuccess();
+		assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+		assertTrue(breaker.allowRequest());
+	}
+}
@@ -0,0 +1,155 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class FaultInjectingQuoteGeneratorTest {
+	private static final List<String> SYMBOLS = Arrays.asList("IBM", "MSFT", "AAPL", "BRK.B", "GE");
+
+	/**
+	 * This generator always gives the same quotes.
+	 */
+	private static class FixedGenerator implements StockQuoteGeneratorInterface {
+		private String symbol;
+
+		FixedGenerator(String symbol) {
+			this.symbol = symbol;
+		}
+
+		private static StockQuoteInterface quote(String symbol) {
+			double close = 10 + symbol.hashCode() % 100;
+			return new StockQuote(symbol, close, close + 1.25, 1.25);
+		}
+
+		public Map<String, StockQuoteInterface> getCurrentQuotes(Collection<String> symbols) throws Exception {
+			Map<String, StockQuoteInterface> retVal = new LinkedHashMap<String, StockQuoteInterface>();
+			for (String symbol : symbols) {
+				retVal.put(symbol, quote(symbol));
+			}
+			return retVal;
+		}
+
+		public StockQuoteInterface getCurrentQuote() throws Exception {
+			return quote(symbol);
+		}
+
+		public String getSymbol() {
+			return symbol;
+		}
+
+		public void setSymbol(String symbol) {
+			this.symbol = symbol;
+		}
+
+		public StockQuoteGeneratorInterface createNewInstance(String symbol) {
+			return new FixedGenerator(symbol);
+		}
+	}
+
+	/**
+	 * Make many requests, checking that every quote which gets through has the
+	 * right price.
+	 *
+	 * @return The number of requests which failed.
+	 */
+	private int failures(FaultInjectingQuoteGenerator generator, int requests) throws Exception {
+		int failed = 0;
+		for (int request = 0; request < requests; request++) {
+			try {
+				Map<String, StockQuoteInterface> quotes = generator.getCurrentQuotes(SYMBOLS);
+				for (StockQuoteInterface quote : quotes.values()) {
+					StockQuoteInterface expected = FixedGenerator.quote(quote.getSymbol());
+					assertEquals(quote.getLastTrade(), expected.getLastTrade(), 0.0);
+					assertEquals(quote.getClose(), expected.getClose(), 0.001);
+				}
+			} catch (IOException e) {
+				failed++;
+			}
+		}
+		return failed;
+	}
+
+	@Test
+	public void withoutFaultsQuotesShouldOnlyBeDelayed() throws Exception {
+		FaultInjectingQuoteGenerator generator = new FaultInjectingQuoteGenerator(new FixedGenerator(null), 1);
+		generator.setLatency(FaultInjectingQuoteGenerator.constantLatency(30));
+		long start = System.nanoTime();
+		assertEquals(generator.getCurrentQuotes(SYMBOLS).size(), SYMBOLS.size());
+		assertEquals(generator.createNewInstance("IBM").getCurrentQuote().getLastTrade(),
+				FixedGenerator.quote("IBM").getLastTrade(), 0.0);
+		assertTrue(System.nanoTime() - start >= 60000000L);
+		assertEquals(generator.getRequestCount(), 2);
+	}
+
+	@Test
+	public void timeoutsShouldBeThrownAfterTheTimeout() throws Exception {
+		FaultInjectingQuoteGenerator generator = new FaultInjectingQuoteGenerator(new FixedGenerator(null), 1);
+		generator.setTimeout(50, 1.0);
+		long start = System.nanoTime();
+		try {
+			generator.getCurrentQuotes(SYMBOLS);
+			fail("The request did not time out");
+		} catch (HttpTimeoutException e) {
+			assertTrue(System.nanoTime() - start >= 50000000L);
+		}
+		assertEquals(generator.getTimeoutCount(), 1);
+	}
+
+	@Test
+	public void partialBodiesShouldFailTheRequest() throws Exception {
+		FaultInjectingQuoteGenerator generator = new FaultInjectingQuoteGenerator(new FixedGenerator(null), 1);
+		generator.setPartialBodyRate(1.0);
+		assertEquals(failures(generator, 200), 200);
+		assertEquals(generator.getPartialBodyCount(), 200);
+
+		try {
+			generator.createNewInstance("IBM").getCurrentQuote();
+			fail("A response cut short was read");
+		} catch (EOFException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void malformedPayloadsShouldBeRejectedByTheParsers() throws Exception {
+		FaultInjectingQuoteGenerator generator = new FaultInjectingQuoteGenerator(new FixedGenerator(null), 1);
+		generator.setMalformedRate(1.0);
+		int failed = failures(generator, 200);
+		// A garbled date or volume goes unnoticed, as it would from a real
+		// provider, but a garbled price never does.
+		assertTrue(failed > 100, failed + " of 200 failed");
+		assertEquals(generator.getMalformedCount(), 200);
+	}
+
+	@Test
+	public void latencyDistributionsShouldHaveTheirShape() {
+		Random random = new Random(3);
+		double[] samples = new double[10000];
+		FaultInjectingQuoteGenerator.LatencyDistribution logNormal = FaultInjectingQuoteGenerator
+				.logNormalLatency(20, 0.3);
+		for (int index = 0; index < samples.length; index++) {
+			samples[index] = logNormal.sample(random);
+		}
+		Arrays.sort(samples);
+		assertEquals(samples[samples.length / 2], 20, 1);
+
+		FaultInjectingQuoteGenerator.LatencyDistribution pareto = FaultInjectingQuoteGenerator.paretoLatency(5, 1.5);
+		for (int index = 0; index < samples.length; index++) {
+			samples[index] = pareto.sample(random);
+		}
+		Arrays.sort(samples);
+		assertTrue(samples[0] >= 5);
+		// The 99.9th percentile of a Pareto with alpha 1.5 is 100 times its
+		// minimum.
+		assertTrue(samples[samples.length * 999 / 1000] > 200);
+	}
+}
@@ -0,0 +1,209 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import exceptions.WebsiteConnectionError;
+
+import static org.testng.Assert.*;
+
+public class HedgedQuoteGeneratorTest {
+	/**
+	 * This generator answers after a delay chosen by the index of the call,
+	 * and keeps every future it hands out.
+	 */
+	private static class DelayedGenerator implements StockQuoteGeneratorInterface {
+		private final long[] delays;
+		private final double price;
+		private final AtomicInteger calls;
+		private final List<CompletableFuture<StockQuoteInterface>> issued;
+		private String symbol;
+
+		DelayedGenerator(String symbol, double price, AtomicInteger calls,
+				List<CompletableFuture<StockQuoteInterface>> issued, long... delays) {
+			this.symbol = symbol;
+			this.price = price;
+			this.calls = calls;
+			this.issued = issued;
+			this.delays = delays;
+		}
+
+		public StockQuoteInterface getCurrentQuote() throws Exception {
+			return getCurrentQuoteAsync().get();
+		}
+
+		public CompletableFuture<StockQuoteInterface> getCurrentQuoteAsync() {
+			long delay = delays[Math.min(calls.getAndIncrement(), delays.length - 1)];
+			CompletableFuture<StockQuoteInterface> retVal;
+			if (delay < 0) {
+				retVal = CompletableFuture.failedFuture(new WebsiteConnectionError("Unable to connect"));
+			} else {
+				retVal = CompletableFuture.supplyAsync(() -> (StockQuoteInterface) new StockQuote(symbol, price,
+						price, 0.0), CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+			}
+			issued.add(retVal);
+			return retVal;
+		}
+
+		public Map<String, StockQuoteInterface> getCurrentQuotes(Collection<String> symbols) throws Exception {
+			Thread.sleep(delays[Math.min(calls.getAndIncrement(), delays.length - 1)]);
+			Map<String, StockQuoteInterface> retVal = new LinkedHashMap<String, StockQuoteInterface>();
+			for (String symbol : symbols) {
+				retVal.put(symbol, new StockQuote(symbol, price, price, 0.0));
+			}
+			return retVal;
+		}
+
+		public String getSymbol() {
+			return symbol;
+		}
+
+		public void setSymbol(String symbol) {
+			this.symbol = symbol;
+		}
+
+		public StockQuoteGeneratorInterface createNewInstance(String symbol) {
+			return new DelayedGenerator(symbol, price, calls, issued, delays);
+		}
+	}
+
+	private List<CompletableFuture<StockQuoteInterface>> issued;
+	private AtomicInteger primaryCalls;
+	private AtomicInteger alternateCalls;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		issued = new CopyOnWriteArrayList<CompletableFuture<StockQuoteInterface>>();
+		primaryCalls = new AtomicInteger();
+		alternateCalls = new AtomicInteger();
+	}
+
+	/**
+	 * @return Delays of 1 ms for the warm up requests, then the given delays.
+	 */
+	private static long[] afterWarmUp(long... delays) {
+		long[] retVal = new long[HedgedQuoteGenerator.MINIMUM_SAMPLES + delays.length];
+		Arrays.fill(retVal, 1);
+		System.arraycopy(delays, 0, retVal, HedgedQuoteGenerator.MINIMUM_SAMPLES, delays.length);
+		return retVal;
+	}
+
+	private static void warmUp(StockQuoteGeneratorInterface generator) throws Exception {
+		for (int index = 0; index < HedgedQuoteGenerator.MINIMUM_SAMPLES; index++) {
+			generator.getCurrentQuote();
+		}
+	}
+
+	@Test
+	public void slowRequestShouldBeAnsweredByTheHedge() throws Exception {
+		HedgedQuoteGenerator prototype = new HedgedQuoteGenerator(
+				new DelayedGenerator(null, 10.0, primaryCalls, issued, afterWarmUp(5000)),
+				new DelayedGenerator(null, 20.0, alternateCalls, issued, 1), 50);
+		StockQuoteGeneratorInterface generator = prototype.createNewInstance("MSFT");
+		warmUp(generator);
+
+		long start = System.nanoTime();
+		StockQuoteInterface quote = generator.getCurrentQuote();
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+		assertEquals(quote.getLastTrade(), 20.0, 0.0);
+		assertEquals(prototype.getHedgeCount(), 1);
+		assertEquals(prototype.getHedgeWinCount(), 1);
+		// The slow primary request was abandoned, and the time it ran for is
+		// not taken as its latency.
+		assertTrue(issued.get(HedgedQuoteGenerator.MINIMUM_SAMPLES).isCancelled());
+		assertEquals(prototype.getQuoteLatency().getSuccessCount(), HedgedQuoteGenerator.MINIMUM_SAMPLES);
+	}
+
+	@Test
+	public void fastRequestsShouldNotBeHedged() throws Exception {
+		HedgedQuoteGenerator prototype = new HedgedQuoteGenerator(
+				new DelayedGenerator("MSFT", 10.0, primaryCalls, issued, 1), new DelayedGenerator("MSFT", 20.0,
+						alternateCalls, issued, 1),
+				100);
+		warmUp(prototype);
+		assertEquals(prototype.getHedgeCount(), 0);
+		assertEquals(alternateCalls.get(), 0);
+		assertEquals(prototype.getRequestCount(), HedgedQuoteGenerator.MINIMUM_SAMPLES);
+	}
+
+	@Test
+	public void budgetShouldCapTheHedges() throws Exception {
+		// With a 4% budget, the 21st request may not be hedged yet.
+		HedgedQuoteGenerator prototype = new HedgedQuoteGenerator(
+				new DelayedGenerator("MSFT", 10.0, primaryCalls, issued, afterWarmUp(300)), new DelayedGenerator(
+						"MSFT", 20.0, alternateCalls, issued, 1),
+				4);
+		warmUp(prototype);
+		assertEquals(prototype.getCurrentQuote().getLastTrade(), 10.0, 0.0);
+		assertEquals(prototype.getHedgeCount(), 0);
+		assertEquals(alternateCalls.get(), 0);
+	}
+
+	@Test
+	public void hedgeShouldCoverAFailedPrimary() throws Exception {
+		HedgedQuoteGenerator prototype = new HedgedQuoteGenerator(
+				new DelayedGenerator("MSFT", 10.0, primaryCalls, issued, afterWarmUp(300, 1)),
+				new DelayedGenerator("MSFT", 20.0, alternateCalls, issued, -1), 50);
+		warmUp(prototype);
+		// The hedge fails, but the primary still answers.
+		assertEquals(prototype.getCurrentQuote().getLastTrade(), 10.0, 0.0);
+		assertEquals(prototype.getHedgeCount(), 1);
+		assertEquals(prototype.getHedgeWinCount(), 0);
+	}
+
+	@Test
+	public void slowBatchShouldBeHedged() throws Exception {
+		HedgedQuoteGenerator prototype = new HedgedQuoteGenerator(
+				new DelayedGenerator("MSFT", 10.0, primaryCalls, issued, afterWarmUp(3000)),
+				new DelayedGenerator("MSFT", 20.0, alternateCalls, issued, 1), 50);
+		for (int index = 0; index < HedgedQuoteGenerator.MINIMUM_SAMPLES; index++) {
+			prototype.getCurrentQuotes(Arrays.asList("MSFT", "AAPL"));
+		}
+		Map<String, StockQuoteInterface> quotes = prototype.getCurrentQuotes(Arrays.asList("MSFT", "AAPL"));
+		assertEquals(quotes.get("AAPL").getLastTrade(), 20.0, 0.0);
+		// The cancelled primary batch is not counted.
+		assertEquals(prototype.getBatchLatency().getSuccessCount(), HedgedQuoteGenerator.MINIMUM_SAMPLES);
+	}
+
+	@Test
+	public void batchShouldNotBeHedgedToTheSameProvider() throws Exception {
+		DelayedGenerator only = new DelayedGenerator("MSFT", 10.0, primaryCalls, issued, afterWarmUp(300));
+		HedgedQuoteGenerator prototype = new HedgedQuoteGenerator(only, only, 50);
+		for (int index = 0; index <= HedgedQuoteGenerator.MINIMUM_SAMPLES; index++) {
+			prototype.getCurrentQuotes(Arrays.asList("MSFT", "AAPL"));
+		}
+		assertEquals(primaryCalls.get(), HedgedQuoteGenerator.MINIMUM_SAMPLES + 1);
+		assertEquals(prototype.getHedgeCount(), 0);
+	}
+
+	@Test
+	public void losingBatchShouldBeInterrupted() throws Exception {
+		CountDownLatch interrupted = new CountDownLatch(1);
+		DelayedGenerator slow = new DelayedGenerator("MSFT", 10.0, primaryCalls, issued, afterWarmUp(5000)) {
+			public Map<String, StockQuoteInterface> getCurrentQuotes(Collection<String> symbols) throws Exception {
+				try {
+					return super.getCurrentQuotes(symbols);
+				} catch (InterruptedException e) {
+					interrupted.countDown();
+					throw e;
+				}
+			}
+		};
+		HedgedQuoteGenerator prototype = new HedgedQuoteGenerator(slow,
+				new DelayedGenerator("MSFT", 20.0, alternateCalls, issued, 1), 50);
+		for (int index = 0; index < HedgedQuoteGenerator.MINIMUM_SAMPLES; index++) {
+			prototype.getCurrentQuotes(Arrays.asList("MSFT"));
+		}
+		assertEquals(prototype.getCurrentQuotes(Arrays.asList("MSFT")).get("MSFT").getLastTrade(), 20.0, 0.0);
+		assertTrue(interrupted.await(2, TimeUnit.SECONDS));
+	}
+}
@@ -0,0 +1,147 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import exceptions.WebsiteConnectionError;
+
+import static org.testng.Assert.*;
+
+public class LatencyAwareQuoteRouterTest {
+	/**
+	 * This generator advances a shared virtual clock by a fixed latency for
+	 * each class of symbol, and can be made to fail.
+	 */
+	private static class TimedGenerator implements StockQuoteGeneratorInterface {
+		private final AtomicLong clock;
+		private final Map<String, Long> latencies;
+		private final AtomicInteger calls = new AtomicInteger();
+		private final double price;
+		private volatile boolean down;
+		private String symbol;
+
+		TimedGenerator(AtomicLong clock, double price, long nyseLatency, long nasdaqLatency) {
+			this.clock = clock;
+			this.price = price;
+			this.latencies = new LinkedHashMap<String, Long>();
+			latencies.put("NYSE", nyseLatency);
+			latencies.put("NASDAQ", nasdaqLatency);
+		}
+
+		public Map<String, StockQuoteInterface> getCurrentQuotes(Collection<String> symbols) throws Exception {
+			calls.incrementAndGet();
+			clock.addAndGet(latencies.get(exchange(symbols.iterator().next())));
+			if (down) {
+				throw new WebsiteConnectionError("Unable to connect");
+			}
+			Map<String, StockQuoteInterface> retVal = new LinkedHashMap<String, StockQuoteInterface>();
+			for (String symbol : symbols) {
+				retVal.put(symbol, new StockQuote(symbol, price, price, 0.0));
+			}
+			return retVal;
+		}
+
+		public StockQuoteInterface getCurrentQuote() throws Exception {
+			return getCurrentQuotes(Arrays.asList(symbol)).get(symbol);
+		}
+
+		public String getSymbol() {
+			return symbol;
+		}
+
+		public void setSymbol(String symbol) {
+			this.symbol = symbol;
+		}
+
+		public StockQuoteGeneratorInterface createNewInstance(String symbol) {
+			this.symbol = symbol;
+			return this;
+		}
+	}
+
+	private static String exchange(String symbol) {
+		return symbol.length() <= 3 ? "NYSE" : "NASDAQ";
+	}
+
+	private AtomicLong clock;
+	private TimedGenerator nyseFast;
+	private TimedGenerator nasdaqFast;
+	private LatencyAwareQuoteRouter router;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		clock = new AtomicLong();
+		nyseFast = new TimedGenerator(clock, 10.0, 10, 100);
+		nasdaqFast = new TimedGenerator(clock, 20.0, 100, 10);
+		router = new LatencyAwareQuoteRouter(Arrays.<StockQuoteGeneratorInterface>asList(nyseFast, nasdaqFast),
+				LatencyAwareQuoteRouterTest::exchange, clock::get);
+	}
+
+	@Test
+	public void eachClassShouldGoToItsFastestProvider() throws Exception {
+		List<String> symbols = Arrays.asList("IBM", "GE", "MSFT", "AAPL");
+		for (int index = 0; index < 5; index++) {
+			router.getCurrentQuotes(symbols);
+		}
+		Map<String, StockQuoteInterface> quotes = router.getCurrentQuotes(symbols);
+		assertEquals(quotes.get("IBM").getLastTrade(), 10.0, 0.0);
+		assertEquals(quotes.get("MSFT").getLastTrade(), 20.0, 0.0);
+		assertEquals(router.getStatistics("NYSE").get(0).getRecentLatency(), 10.0 / 1000000.0, 1e-9);
+		// Each provider was tried once for the class it is slow at.
+		assertEquals(router.getStatistics("NYSE").get(1).getSuccessCount(), 1);
+		assertEquals(router.getStatistics("NASDAQ").get(0).getSuccessCount(), 1);
+	}
+
+	@Test
+	public void unhealthyProviderShouldBeAvoided() throws Exception {
+		StockQuoteGeneratorInterface generator = router.createNewInstance("IBM");
+		generator.getCurrentQuote();
+		generator.getCurrentQuote();
+		nyseFast.down = true;
+		for (int index = 0; index < 5; index++) {
+			assertEquals(generator.getCurrentQuote().getLastTrade(), 20.0, 0.0);
+		}
+		int failures = nyseFast.calls.get();
+		generator.getCurrentQuote();
+		generator.getCurrentQuote();
+		assertEquals(nyseFast.calls.get(), failures);
+		assertTrue(router.getStatistics("NYSE").get(0)
+				.getRecentErrorRate() >= LatencyAwareQuoteRouter.UNHEALTHY_ERROR_RATE);
+	}
+
+	@Test
+	public void stalestProviderShouldBeExploredPeriodically() throws Exception {
+		StockQuoteGeneratorInterface generator = router.createNewInstance("IBM");
+		for (int index = 0; index < LatencyAwareQuoteRouter.EXPLORATION_INTERVAL * 3; index++) {
+			generator.getCurrentQuote();
+		}
+		// One untried request, and then one in every interval.
+		assertEquals(nasdaqFast.calls.get(), 1 + 3);
+	}
+
+	@Test
+	public void everyProviderFailingShouldFail() throws Exception {
+		nyseFast.down = true;
+		nasdaqFast.down = true;
+		try {
+			router.createNewInstance("IBM").getCurrentQuoteAsync().get();
+			fail("Both providers are down.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof WebsiteConnectionError);
+		}
+	}
+
+	@Test
+	public void listingShouldKnowTheExchangeOfEachSymbol() {
+		assertEquals(StockTickerListing.getSingleton().getExchange("IBM"), "NYSE");
+		assertEquals(StockTickerListing.getSingleton().getExchange("AAPL"), "NASDAQ");
+		assertNull(StockTickerListing.getSingleton().getExchange("NOPE!"));
+	}
+}
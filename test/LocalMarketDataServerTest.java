@@ -0,0 +1,159 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import exceptions.WebsiteConnectionError;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class LocalMarketDataServerTest {
+	private LocalMarketDataServer server;
+	private QuoteHttpClient client;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		server = new LocalMarketDataServer();
+		client = new QuoteHttpClient(1000, 2000);
+	}
+
+	@AfterMethod
+	public void tearDown() throws Exception {
+		server.close();
+	}
+
+	@Test
+	public void bothFormatsShouldBeServedForListedSymbols() throws Exception {
+		server.setPriceDynamics(0, 0);
+		GoogleStockQuoteJSONDownloader google = new GoogleStockQuoteJSONDownloader(null, client,
+				server.getGoogleURL());
+		YahooStockQuoteHTMLQuoteExtractor yahoo = new YahooStockQuoteHTMLQuoteExtractor(null, client,
+				server.getYahooURL());
+
+		Map<String, StockQuoteInterface> fromGoogle = google.getCurrentQuotes(Arrays.asList("IBM", "MSFT", "BRK.B"));
+		Map<String, StockQuoteInterface> fromYahoo = yahoo.getCurrentQuotes(Arrays.asList("IBM", "MSFT", "BRK.B"));
+		assertEquals(fromGoogle.keySet(), fromYahoo.keySet());
+		assertEquals(fromGoogle.size(), 3);
+		for (String symbol : fromGoogle.keySet()) {
+			assertEquals(fromGoogle.get(symbol).getLastTrade(), fromYahoo.get(symbol).getLastTrade(), 0.0);
+			assertEquals(fromGoogle.get(symbol).getChange(), 0.0, 0.0);
+		}
+
+		StockQuoteInterface single = google.createNewInstance("IBM").getCurrentQuote();
+		assertEquals(single.getLastTrade(), fromGoogle.get("IBM").getLastTrade(), 0.0);
+		assertEquals(server.getRequestCount(), 3);
+	}
+
+	@Test
+	public void unlistedSymbolsShouldBeLeftOut() throws Exception {
+		GoogleStockQuoteJSONDownloader google = new GoogleStockQuoteJSONDownloader(null, client,
+				server.getGoogleURL());
+		Map<String, StockQuoteInterface> quotes = google.getCurrentQuotes(Arrays.asList("IBM", "NOSUCHSYMBOL"));
+		assertEquals(quotes.size(), 1);
+		assertTrue(quotes.containsKey("IBM"));
+	}
+
+	@Test
+	public void pricesShouldMoveBetweenQuotes() throws Exception {
+		server.setPriceDynamics(0, 0.05);
+		YahooStockQuoteHTMLQuoteExtractor yahoo = new YahooStockQuoteHTMLQuoteExtractor("IBM", client,
+				server.getYahooURL());
+		StockQuoteInterface first = yahoo.getCurrentQuote();
+		boolean moved = false;
+		for (int attempt = 0; attempt < 20 && moved == false; attempt++) {
+			Thread.sleep(20);
+			StockQuoteInterface quote = yahoo.getCurrentQuote();
+			moved = quote.getLastTrade() != first.getLastTrade();
+			// The previous close stays put while the last trade wanders.
+			assertEquals(quote.getLastTrade() - quote.getChange(), first.getLastTrade() - first.getChange(), 0.011);
+		}
+		assertTrue(moved);
+	}
+
+	@Test
+	public void configuredErrorsAndLatencyShouldReachTheDownloader() throws Exception {
+		server.setLatency(50, 0);
+		GoogleStockQuoteJSONDownloader google = new GoogleStockQuoteJSONDownloader("IBM", client,
+				server.getGoogleURL());
+		long start = System.nanoTime();
+		google.getCurrentQuote();
+		assertTrue(System.nanoTime() - start >= 50000000L);
+
+		server.setLatency(0, 0);
+		server.setErrorRate(1.0);
+		try {
+			google.getCurrentQuote();
+			fail("The request should have failed.");
+		} catch (WebsiteConnectionError e) {
+			assertEquals(server.getErrorCount(), 1);
+		}
+	}
+
+	@Test
+	public void googleBatchesShouldBeSentAHundredSymbolsAtATime() throws Exception {
+		List<String> symbols = listedSymbols(250);
+		GoogleStockQuoteJSONDownloader google = new GoogleStockQuoteJSONDownloader(null, client,
+				server.getGoogleURL());
+		Map<String, StockQuoteInterface> quotes = google.getCurrentQuotes(symbols);
+		assertEquals(quotes.keySet(), Set.copyOf(symbols));
+		assertEquals(server.getRequestCount(), 3);
+		assertEquals(server.getLargestRequest(), GoogleStockQuoteJSONDownloader.MAX_SYMBOLS_PER_REQUEST);
+	}
+
+	@Test
+	public void yahooBatchesShouldBeSentTwoHundredSymbolsAtATime() throws Exception {
+		server.setPriceDynamics(0, 0);
+		List<String> symbols = listedSymbols(250);
+		YahooStockQuoteHTMLQuoteExtractor yahoo = new YahooStockQuoteHTMLQuoteExtractor(null, client,
+				server.getYahooURL());
+		Map<String, StockQuoteInterface> quotes = yahoo.getCurrentQuotes(symbols);
+		assertEquals(quotes.keySet(), Set.copyOf(symbols));
+		assertEquals(server.getRequestCount(), 2);
+		assertEquals(server.getLargestRequest(), YahooStockQuoteHTMLQuoteExtractor.MAX_SYMBOLS_PER_REQUEST);
+
+		// Each line of the CSV is read into the quote for its own symbol.
+		GoogleStockQuoteJSONDownloader google = new GoogleStockQuoteJSONDownloader(null, client,
+				server.getGoogleURL());
+		Map<String, StockQuoteInterface> expected = google.getCurrentQuotes(symbols);
+		for (String symbol : symbols) {
+			assertEquals(quotes.get(symbol).getSymbol(), symbol);
+			assertEquals(quotes.get(symbol).getLastTrade(), expected.get(symbol).getLastTrade(), 0.0);
+		}
+	}
+
+	@Test
+	public void aFailedChunkShouldDropOnlyItsOwnSymbols() throws Exception {
+		List<String> symbols = listedSymbols(250);
+		server.setFailingSymbols(Arrays.asList(symbols.get(150)));
+		GoogleStockQuoteJSONDownloader google = new GoogleStockQuoteJSONDownloader(null, client,
+				server.getGoogleURL());
+		Map<String, StockQuoteInterface> quotes = google.getCurrentQuotes(symbols);
+		assertEquals(quotes.keySet(), Set.copyOf(
+				symbols.stream().filter(symbol -> symbols.indexOf(symbol) / 100 != 1).collect(Collectors.toList())));
+
+		server.setFailingSymbols(Arrays.asList(symbols.get(210)));
+		YahooStockQuoteHTMLQuoteExtractor yahoo = new YahooStockQuoteHTMLQuoteExtractor(null, client,
+				server.getYahooURL());
+		assertEquals(yahoo.getCurrentQuotes(symbols).keySet(), Set.copyOf(symbols.subList(0, 200)));
+	}
+
+	@Test(expectedExceptions = WebsiteConnectionError.class)
+	public void aBatchShouldFailWhenEveryChunkFails() throws Exception {
+		List<String> symbols = listedSymbols(150);
+		server.setFailingSymbols(Arrays.asList(symbols.get(0), symbols.get(100)));
+		new GoogleStockQuoteJSONDownloader(null, client, server.getGoogleURL()).getCurrentQuotes(symbols);
+	}
+
+	/**
+	 * @return The first of the listed symbols made only of letters, in order.
+	 */
+	static List<String> listedSymbols(int count) {
+		return StockTickerListing.getSingleton().keySet().stream().filter(symbol -> symbol.matches("[A-Z]+"))
+				.sorted().limit(count).collect(Collectors.toList());
+	}
+}
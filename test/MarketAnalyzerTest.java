@@ -0,0 +1,223 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class MarketAnalyzerTest {
+	private static final long FETCH_TIME = 150;
+
+	/**
+	 * This generator takes a fixed time to answer every batch.
+	 */
+	private static class SlowGenerator implements StockQuoteGeneratorInterface {
+		private String symbol;
+
+		SlowGenerator(String symbol) {
+			this.symbol = symbol;
+		}
+
+		public Map<String, StockQuoteInterface> getCurrentQuotes(Collection<String> symbols) throws Exception {
+			Thread.sleep(FETCH_TIME);
+			Map<String, StockQuoteInterface> retVal = new LinkedHashMap<String, StockQuoteInterface>();
+			for (String symbol : symbols) {
+				retVal.put(symbol, new StockQuote(symbol, 100.0, 101.0, 1.0));
+			}
+			return retVal;
+		}
+
+		public StockQuoteInterface getCurrentQuote() throws Exception {
+			return new StockQuote(symbol, 100.0, 101.0, 1.0);
+		}
+
+		public String getSymbol() {
+			return symbol;
+		}
+
+		public void setSymbol(String symbol) {
+			this.symbol = symbol;
+		}
+
+		public StockQuoteGeneratorInterface createNewInstance(String symbol) {
+			return new SlowGenerator(symbol);
+		}
+	}
+
+	private static class SilentAudio implements StockTickerAudioInterface {
+		public void playHappyMusic() {
+		}
+
+		public void playSadMusic() {
+		}
+
+		public void playErrorMusic() {
+		}
+	}
+
+	private MarketAnalyzer analyzer;
+	private ByteArrayOutputStream output;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		analyzer = new MarketAnalyzer(new String[] { "IBM", "AAPL" }, new SlowGenerator(null), new SilentAudio());
+		output = new ByteArrayOutputStream();
+		analyzer.setOut(new PrintStream(output));
+		analyzer.setRefreshRate(1);
+	}
+
+	@Test
+	public void quotesShouldBeFetchedBeforeEachCycle() throws Exception {
+		analyzer.setPrefetch(true);
+		analyzer.setRunCount(3);
+		analyzer.run();
+		assertEquals(analyzer.getFetchTimes().getSuccessCount(), 3);
+		assertTrue(analyzer.getPrefetchLead() >= FETCH_TIME * 1000000L);
+		// Later cycles are shown on time, with quotes as old as the lead.
+		assertTrue(analyzer.getLastRenderDelay() < FETCH_TIME / 2, "delay " + analyzer.getLastRenderDelay());
+		assertTrue(analyzer.getLastDataAge() >= FETCH_TIME);
+		assertTrue(output.toString().contains("International Business Machines"));
+	}
+
+	@Test
+	public void failedWarmUpShouldBeReportedButNotFatal() throws Exception {
+		analyzer = new MarketAnalyzer(new String[] { "IBM" }, new SlowGenerator(null) {
+			public void warmUp() throws Exception {
+				throw new IOException("No route to host");
+			}
+		}, new SilentAudio());
+		analyzer.setOut(new PrintStream(output));
+		assertTrue(analyzer.warmUp() >= 0.0);
+		assertTrue(output.toString().contains("Warm-up incomplete: No route to host"));
+		analyzer.updateData();
+		assertTrue(output.toString().contains("International Business Machines"));
+	}
+
+	@Test
+	public void withoutPrefetchEachCycleShouldWaitForItsFetch() throws Exception {
+		analyzer.setRunCount(1);
+		analyzer.run();
+		assertFalse(analyzer.isPrefetch());
+		assertTrue(analyzer.getLastRenderDelay() >= FETCH_TIME);
+		assertEquals(analyzer.getLastDataAge(), analyzer.getLastRenderDelay(), 0.001);
+		assertEquals(analyzer.getMaximumDataAge(), analyzer.getLastDataAge(), 0.001);
+	}
+
+	@Test
+	public void pushedQuotesShouldBeShownAsTheyArrive() throws Exception {
+		LocalMarketDataServer server = new LocalMarketDataServer();
+		try {
+			server.setStreamInterval(20);
+			server.setPriceDynamics(0, 0.05);
+			analyzer = new MarketAnalyzer(new String[] { "IBM", "AAPL" },
+					new StreamingQuoteGenerator(server.getStreamURL(), new QuoteHttpClient(1000, 2000)),
+					new SilentAudio());
+			analyzer.setOut(new PrintStream(output));
+			analyzer.setPush(true);
+			analyzer.setRunCount(6);
+			analyzer.run();
+			assertTrue(output.toString().contains("International Business Machines"));
+			assertTrue(output.toString().contains("Apple"));
+			assertEquals(server.getRequestCount(), 1);
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void aVirtualClockShouldRunADayInMoments() throws Exception {
+		// 09:30 on 8 June 2017, Eastern time.
+		VirtualMarketClock clock = new VirtualMarketClock(1496928600000L);
+		FaultInjectingQuoteGenerator source = new FaultInjectingQuoteGenerator(new RandomWalkQuoteGenerator(1), 1);
+		source.setClock(clock);
+		source.setLatency(FaultInjectingQuoteGenerator.constantLatency(250));
+		analyzer = new MarketAnalyzer(new String[] { "IBM", "AAPL" }, source, new SilentAudio());
+		analyzer.setOut(new PrintStream(output));
+		analyzer.setClock(clock);
+		analyzer.setRefreshRate(60);
+		analyzer.setRunCount(390);
+
+		long start = System.nanoTime();
+		analyzer.run();
+		assertTrue(System.nanoTime() - start < 10000000000L);
+		// Each cycle is the fetch and then a minute's sleep.
+		assertEquals(clock.nanoTime(), 390 * (250000000L + 60000000000L));
+		assertEquals(analyzer.getFetchTimes().getSuccessCount(), 390);
+		assertEquals(analyzer.getLastDataAge(), 250, 0.001);
+		assertTrue(output.toString().contains(new Date(1496928600000L + 250).toString()));
+	}
+
+	@Test
+	public void aSymbolMissingFromTheBatchShouldBeReported() throws Exception {
+		LocalMarketDataServer server = new LocalMarketDataServer();
+		try {
+			// The last symbol is alone in the second chunk, which fails.
+			String[] symbols = LocalMarketDataServerTest
+					.listedSymbols(GoogleStockQuoteJSONDownloader.MAX_SYMBOLS_PER_REQUEST + 1).toArray(new String[0]);
+			String missing = symbols[symbols.length - 1];
+			server.setFailingSymbols(Arrays.asList(missing));
+			analyzer = new MarketAnalyzer(symbols,
+					new GoogleStockQuoteJSONDownloader(null, new QuoteHttpClient(1000, 2000), server.getGoogleURL()),
+					new SilentAudio());
+			analyzer.setOut(new PrintStream(output));
+			analyzer.updateData();
+
+			assertEquals(analyzer.getFetchTimes().getSuccessCount(), 1);
+			assertEquals(server.getRequestCount(), 2);
+			String shown = output.toString();
+			assertTrue(shown.contains("Error: Unable to obtain a quote for " + missing + "."), shown);
+			assertFalse(shown.contains("Unable to obtain a quote for " + symbols[0] + "."));
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void aSlowCycleShouldBeHedgedToTheAlternate() throws Exception {
+		AtomicInteger batches = new AtomicInteger();
+		StockQuoteGeneratorInterface preferred = new SlowGenerator(null) {
+			public Map<String, StockQuoteInterface> getCurrentQuotes(Collection<String> symbols) throws Exception {
+				// Quick until there are enough samples, then stuck.
+				if (batches.incrementAndGet() <= HedgedQuoteGenerator.MINIMUM_SAMPLES) {
+					Thread.sleep(1);
+				} else {
+					Thread.sleep(5000);
+				}
+				Map<String, StockQuoteInterface> retVal = new LinkedHashMap<String, StockQuoteInterface>();
+				for (String symbol : symbols) {
+					retVal.put(symbol, new StockQuote(symbol, 100.0, 101.0, 1.0));
+				}
+				return retVal;
+			}
+		};
+		System.setProperty(MarketAnalyzer.HEDGE_PROPERTY, "true");
+		StockQuoteGeneratorInterface source;
+		try {
+			source = MarketAnalyzer.createSource(preferred, new SlowGenerator(null));
+		} finally {
+			System.clearProperty(MarketAnalyzer.HEDGE_PROPERTY);
+		}
+		analyzer = new MarketAnalyzer(new String[] { "IBM", "AAPL" }, source, new SilentAudio());
+		analyzer.setOut(new PrintStream(output));
+		for (int cycle = 0; cycle < HedgedQuoteGenerator.MINIMUM_SAMPLES; cycle++) {
+			analyzer.updateData();
+		}
+
+		long start = System.nanoTime();
+		analyzer.updateData();
+		long elapsed = (System.nanoTime() - start) / 1000000;
+		assertTrue(elapsed < 2000, "The stuck cycle took " + elapsed + " ms");
+		HedgedQuoteGenerator hedged = (HedgedQuoteGenerator) source;
+		assertEquals(hedged.getHedgeCount(), 1);
+		assertEquals(hedged.getHedgeWinCount(), 1);
+		assertEquals(analyzer.getFetchTimes().getFailureCount(), 0);
+	}
+}
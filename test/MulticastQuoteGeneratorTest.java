@@ -0,0 +1,227 @@
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import exceptions.InvalidStockSymbolException;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class MulticastQuoteGeneratorTest {
+	private MulticastQuotePublisher publisher;
+	private MulticastQuoteGenerator generator;
+
+	private static class SilentAudio implements StockTickerAudioInterface {
+		public void playHappyMusic() {
+		}
+
+		public void playSadMusic() {
+		}
+
+		public void playErrorMusic() {
+		}
+	}
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		publisher = new MulticastQuotePublisher();
+	}
+
+	@AfterMethod
+	public void tearDown() throws Exception {
+		if (generator != null) {
+			generator.close();
+		}
+		publisher.close();
+	}
+
+	/**
+	 * Wait until the handler has read everything published and has no
+	 * snapshot outstanding.
+	 */
+	private void awaitCaughtUp() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while ((generator.getExpectedSequence() != publisher.getSequence() || generator.isRecovering())
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(generator.getExpectedSequence(), publisher.getSequence());
+		assertFalse(generator.isRecovering());
+	}
+
+	private void assertSamePrices(List<String> symbols) throws Exception {
+		Map<String, StockQuoteInterface> quotes = generator.getCurrentQuotes(symbols);
+		assertEquals(quotes.size(), symbols.size());
+		for (String symbol : symbols) {
+			assertEquals(quotes.get(symbol).getLastTrade(), publisher.getLastTrade(symbol), 0.0, symbol);
+		}
+	}
+
+	@Test
+	public void aLateJoinerShouldBeGivenEveryQuoteBySnapshot() throws Exception {
+		publisher.publish(5000);
+		generator = new MulticastQuoteGenerator(publisher.getGroup(), publisher.getSnapshotAddress());
+		assertSamePrices(publisher.getSymbols());
+		assertTrue(publisher.getSnapshotCount() >= 1);
+
+		publisher.publish(500);
+		awaitCaughtUp();
+		assertSamePrices(publisher.getSymbols());
+		assertEquals(generator.getGapCount(), 0);
+	}
+
+	@Test
+	public void gapsShouldBeFilledFromASnapshot() throws Exception {
+		generator = new MulticastQuoteGenerator(publisher.getGroup(), publisher.getSnapshotAddress());
+		generator.getCurrentQuotes(Arrays.asList("IBM"));
+		long snapshots = generator.getSnapshotCount();
+
+		publisher.setDropRate(0.3);
+		for (int burst = 0; burst < 20; burst++) {
+			publisher.publish(200);
+		}
+		publisher.setDropRate(0);
+		publisher.publish(1);
+		awaitCaughtUp();
+
+		assertTrue(publisher.getDroppedPacketCount() > 0);
+		assertTrue(generator.getGapCount() > 0);
+		assertTrue(generator.getMissedCount() > 0);
+		assertTrue(generator.getSnapshotCount() > snapshots);
+		assertSamePrices(publisher.getSymbols());
+	}
+
+	@Test
+	public void theAnalyzerShouldBeAbleToUseTheFeed() throws Exception {
+		generator = new MulticastQuoteGenerator(publisher.getGroup(), publisher.getSnapshotAddress());
+		List<StockQuoteInterface> pushed = new CopyOnWriteArrayList<StockQuoteInterface>();
+		QuoteSubscription subscription = generator.subscribe(publisher.getSymbols(), pushed::add);
+
+		StockQuoteAnalyzer analyzer = new StockQuoteAnalyzer("IBM", generator.createNewInstance("IBM"),
+				new SilentAudio());
+		analyzer.refresh();
+		assertEquals(analyzer.getCurrentPrice(), publisher.getLastTrade("IBM"), 0.0);
+
+		publisher.publish(100);
+		awaitCaughtUp();
+		assertTrue(pushed.size() >= 100);
+		subscription.cancel();
+		int delivered = pushed.size();
+		publisher.publish(100);
+		awaitCaughtUp();
+		assertEquals(pushed.size(), delivered);
+
+		try {
+			generator.createNewInstance("NOSUCHSYMBOL").getCurrentQuote();
+			fail("An unknown symbol was quoted");
+		} catch (InvalidStockSymbolException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void aDeltaFeedShouldGiveTheSamePricesInFewerBytes() throws Exception {
+		generator = new MulticastQuoteGenerator(publisher.getGroup(), publisher.getSnapshotAddress());
+		generator.getCurrentQuotes(Arrays.asList("IBM"));
+		long bytes = generator.getByteCount();
+		publisher.publish(40000);
+		awaitCaughtUp();
+		long fullBytes = generator.getByteCount() - bytes;
+
+		// The first refresh goes out with the first message.
+		publisher.setDeltaEncoding(true);
+		publisher.publish(1);
+		awaitCaughtUp();
+		assertSamePrices(publisher.getSymbols());
+		bytes = generator.getByteCount();
+		publisher.publish(40000);
+		awaitCaughtUp();
+		long deltaBytes = generator.getByteCount() - bytes;
+
+		assertSamePrices(publisher.getSymbols());
+		assertTrue(deltaBytes * 4 < fullBytes, deltaBytes + " bytes against " + fullBytes);
+		assertEquals(generator.getUndecodableCount(), 0);
+	}
+
+	@Test
+	public void aDeltaFeedShouldRecoverFromLostDatagrams() throws Exception {
+		publisher.setDeltaEncoding(true);
+		publisher.setRefreshInterval(5000);
+		generator = new MulticastQuoteGenerator(publisher.getGroup(), publisher.getSnapshotAddress());
+		generator.getCurrentQuotes(Arrays.asList("IBM"));
+
+		publisher.setDropRate(0.2);
+		for (int burst = 0; burst < 20; burst++) {
+			publisher.publish(1000);
+		}
+		publisher.setDropRate(0);
+		publisher.publish(1);
+		awaitCaughtUp();
+
+		assertTrue(generator.getGapCount() + generator.getUndecodableCount() > 0);
+		assertSamePrices(publisher.getSymbols());
+	}
+
+	@Test
+	public void aTruncatedDatagramShouldBeSkipped() throws Exception {
+		generator = new MulticastQuoteGenerator(publisher.getGroup(), publisher.getSnapshotAddress());
+		generator.getCurrentQuotes(Arrays.asList("IBM"));
+		awaitCaughtUp();
+
+		// One message, cut off in the middle of its last trade.
+		ByteBuffer truncated = ByteBuffer.allocate(MulticastQuotePublisher.HEADER_SIZE + 1 + 3 + 4);
+		truncated.put(MulticastQuotePublisher.INCREMENTAL);
+		truncated.putLong(publisher.getSequence());
+		truncated.putShort((short) 0);
+		truncated.putShort((short) 1);
+		truncated.putShort((short) 1);
+		truncated.put((byte) 3);
+		truncated.put("IBM".getBytes(StandardCharsets.US_ASCII));
+		truncated.putInt(0);
+		truncated.flip();
+		try (DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET)) {
+			channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, MulticastQuotePublisher.loopbackInterface());
+			channel.send(truncated, publisher.getGroup());
+		}
+		long deadline = System.currentTimeMillis() + 5000;
+		while (generator.getUndecodableCount() == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(generator.getUndecodableCount(), 1);
+
+		// The feed is still read.
+		publisher.publish(500);
+		awaitCaughtUp();
+		assertSamePrices(publisher.getSymbols());
+		assertNull(generator.getFailure());
+	}
+
+	@Test
+	public void aListenerWhichThrowsShouldNotStopTheFeed() throws Exception {
+		generator = new MulticastQuoteGenerator(publisher.getGroup(), publisher.getSnapshotAddress());
+		generator.getCurrentQuotes(Arrays.asList("IBM"));
+		List<StockQuoteInterface> pushed = new CopyOnWriteArrayList<StockQuoteInterface>();
+		QuoteSubscription failing = generator.subscribe(publisher.getSymbols(), quote -> {
+			throw new IllegalStateException("Listener failed");
+		});
+		QuoteSubscription working = generator.subscribe(publisher.getSymbols(), pushed::add);
+
+		publisher.publish(100);
+		awaitCaughtUp();
+		assertTrue(pushed.size() >= 100);
+		assertTrue(generator.getListenerFailureCount() >= 100);
+		assertSamePrices(publisher.getSymbols());
+		assertNull(generator.getFailure());
+		failing.cancel();
+		working.cancel();
+	}
+}
@@ -0,0 +1,174 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class PersistentResponseCacheTest {
+	private Path file;
+	private AtomicLong now;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		file = Files.createTempFile("responses", ".cache");
+		now = new AtomicLong(1000000);
+	}
+
+	@AfterMethod
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(file);
+	}
+
+	private PersistentResponseCache open(int capacity) throws Exception {
+		return new PersistentResponseCache(file, capacity, 60000, now::get);
+	}
+
+	private static ByteBuffer bytes(String text) {
+		return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String text(PersistentResponseCache.Entry entry) {
+		return StandardCharsets.UTF_8.decode(entry.getPayload()).toString();
+	}
+
+	@Test
+	public void responsesShouldSurviveReopening() throws Exception {
+		PersistentResponseCache cache = open(4096);
+		assertNull(cache.get("http://a"));
+		ByteBuffer payload = bytes("first");
+		assertTrue(cache.put("http://a", payload, "\"1\"", null));
+		assertEquals(payload.remaining(), 5);
+		cache.put("http://b", bytes("other"), null, "Thu, 08 Jun 2017 20:00:00 GMT");
+		cache.put("http://a", bytes("second"), "\"2\"", null);
+		cache.close();
+
+		cache = open(4096);
+		assertEquals(cache.size(), 2);
+		PersistentResponseCache.Entry entry = cache.get("http://a");
+		assertEquals(text(entry), "second");
+		assertEquals(entry.getETag(), "\"2\"");
+		assertNull(entry.getLastModified());
+		assertEquals(entry.getStoredAt(), 1000000);
+		entry = cache.get("http://b");
+		assertEquals(text(entry), "other");
+		assertNull(entry.getETag());
+		assertEquals(entry.getLastModified(), "Thu, 08 Jun 2017 20:00:00 GMT");
+		cache.close();
+	}
+
+	@Test
+	public void oldResponsesShouldNotBeServed() throws Exception {
+		PersistentResponseCache cache = open(4096);
+		cache.put("http://a", bytes("quotes"), null, null);
+		now.addAndGet(60000);
+		assertNotNull(cache.get("http://a"));
+		now.addAndGet(1);
+		assertNull(cache.get("http://a"));
+
+		// A 304 answer makes the stored response current again.
+		cache.touch("http://a");
+		assertEquals(text(cache.get("http://a")), "quotes");
+		cache.close();
+	}
+
+	@Test
+	public void fullFileShouldKeepTheLatestResponses() throws Exception {
+		PersistentResponseCache cache = open(1024);
+		for (int index = 0; index < 200; index++) {
+			now.addAndGet(1000);
+			assertTrue(cache.put("http://" + (index % 3), bytes("payload " + index), null, null));
+		}
+		assertEquals(text(cache.get("http://0")), "payload 198");
+		assertEquals(text(cache.get("http://1")), "payload 199");
+		assertEquals(text(cache.get("http://2")), "payload 197");
+		assertFalse(cache.put("http://big", ByteBuffer.allocate(2048), null, null));
+		cache.close();
+
+		cache = open(1024);
+		assertEquals(cache.size(), 3);
+		assertEquals(text(cache.get("http://1")), "payload 199");
+		cache.close();
+	}
+
+	@Test
+	public void partlyWrittenRecordShouldBeIgnored() throws Exception {
+		PersistentResponseCache cache = open(4096);
+		cache.put("http://a", bytes("complete"), null, null);
+		cache.put("http://b", bytes("torn"), null, null);
+		cache.close();
+
+		// Make the second record claim more bytes than were ever written.
+		int second = 8 + 4 + 4 + 8 + 2 + "http://a".length() + 2 + 2 + 4 + "complete".length();
+		try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+			raw.seek(second);
+			raw.writeInt(1 << 20);
+		}
+
+		cache = open(4096);
+		assertEquals(text(cache.get("http://a")), "complete");
+		assertNull(cache.get("http://b"));
+		cache.put("http://c", bytes("after"), null, null);
+		cache.close();
+
+		cache = open(4096);
+		assertEquals(text(cache.get("http://c")), "after");
+		cache.close();
+	}
+
+	@Test
+	public void recordWhoseBytesNeverReachedTheDiskShouldBeIgnored() throws Exception {
+		PersistentResponseCache cache = open(4096);
+		cache.put("http://a", bytes("complete"), null, null);
+		cache.put("http://b", bytes("unwritten"), null, null);
+		cache.put("http://c", bytes("later"), null, null);
+		cache.close();
+
+		// The second record keeps its length, but one byte of its payload is
+		// not what was written.
+		int second = 8 + 4 + 4 + 8 + 2 + "http://a".length() + 2 + 2 + 4 + "complete".length();
+		int payload = second + 4 + 4 + 8 + 2 + "http://b".length() + 2 + 2 + 4;
+		try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+			raw.seek(payload);
+			raw.write('X');
+		}
+
+		// The log ends at the damaged record.
+		cache = open(4096);
+		assertEquals(text(cache.get("http://a")), "complete");
+		assertNull(cache.get("http://b"));
+		assertNull(cache.get("http://c"));
+		assertEquals(cache.size(), 1);
+		cache.close();
+	}
+
+	@Test
+	public void touchedRecordShouldStillBeReadBack() throws Exception {
+		PersistentResponseCache cache = open(4096);
+		cache.put("http://a", bytes("quotes"), null, null);
+		now.addAndGet(30000);
+		cache.touch("http://a");
+		cache.close();
+
+		cache = open(4096);
+		assertEquals(cache.get("http://a").getStoredAt(), 1030000);
+		cache.close();
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void fileShouldNotBeSharedByTwoCaches() throws Exception {
+		PersistentResponseCache cache = open(4096);
+		try {
+			open(4096);
+		} finally {
+			cache.close();
+		}
+	}
+}
@@ -0,0 +1,97 @@
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class QuoteCacheTest {
+	private static StockQuoteInterface quote(String symbol) {
+		return new StockQuote(symbol, 10.0, 11.0, 1.0);
+	}
+
+	@Test
+	public void quoteShouldBeServedUntilItExpires() throws Exception {
+		QuoteCache cache = new QuoteCache(100, 10);
+		assertNull(cache.get("MSFT"));
+		StockQuoteInterface msft = quote("MSFT");
+		cache.put("MSFT", msft);
+		assertSame(cache.get("MSFT"), msft);
+
+		Thread.sleep(150);
+		assertNull(cache.get("MSFT"));
+		assertEquals(cache.getHitCount(), 1);
+		assertEquals(cache.getMissCount(), 2);
+		assertEquals(cache.getHitRatio(), 1 / 3.0, 0.0001);
+	}
+
+	@Test
+	public void sizeShouldStayBounded() {
+		QuoteCache cache = new QuoteCache(60000, 50);
+		for (int index = 0; index < 1000; index++) {
+			String symbol = "S" + index;
+			cache.get(symbol);
+			cache.put(symbol, quote(symbol));
+		}
+		assertTrue(cache.size() <= 50, "size " + cache.size());
+	}
+
+	@Test
+	public void scanOfRareSymbolsShouldNotEvictHotWatchlist() {
+		QuoteCache cache = new QuoteCache(60000, 100);
+		for (int round = 0; round < 5; round++) {
+			for (int index = 0; index < 80; index++) {
+				String symbol = "HOT" + index;
+				if (cache.get(symbol) == null) {
+					cache.put(symbol, quote(symbol));
+				}
+			}
+		}
+		// A one-off sweep over many symbols which are never looked at again.
+		for (int index = 0; index < 2000; index++) {
+			String symbol = "COLD" + index;
+			cache.get(symbol);
+			cache.put(symbol, quote(symbol));
+		}
+
+		int hits = 0;
+		for (int index = 0; index < 80; index++) {
+			if (cache.get("HOT" + index) != null) {
+				hits++;
+			}
+		}
+		assertTrue(hits >= 75, "only " + hits + " of the watchlist survived");
+	}
+
+	@Test
+	public void generatorShouldOnlyFetchOnMiss() throws Exception {
+		int[] fetches = new int[1];
+		StockQuoteGeneratorInterface source = new StockQuoteGeneratorInterface() {
+			private String symbol;
+
+			public StockQuoteInterface getCurrentQuote() {
+				fetches[0]++;
+				return quote(symbol);
+			}
+
+			public String getSymbol() {
+				return symbol;
+			}
+
+			public void setSymbol(String symbol) {
+				this.symbol = symbol;
+			}
+
+			public StockQuoteGeneratorInterface createNewInstance(String symbol) {
+				// One symbol is enough for this test.
+				setSymbol(symbol);
+				return this;
+			}
+		};
+
+		CachingQuoteGenerator prototype = new CachingQuoteGenerator(source, 60000, 10);
+		StockQuoteGeneratorInterface msft = prototype.createNewInstance("MSFT");
+		StockQuoteInterface first = msft.getCurrentQuote();
+		assertSame(msft.getCurrentQuote(), first);
+		assertSame(msft.getCurrentQuoteAsync().get(), first);
+		assertEquals(fetches[0], 1);
+		assertEquals(prototype.getCache().getHitRatio(), 2 / 3.0, 0.0001);
+	}
+}
@@ -0,0 +1,77 @@
+import java.nio.ByteBuffer;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class QuoteDeltaCodecTest {
+	@Test
+	public void varintsShouldSurviveTheRoundTrip() {
+		long[] values = { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE, -1 };
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		for (long value : values) {
+			QuoteDeltaCodec.putVarint(buffer, value);
+		}
+		assertEquals(buffer.position(), 1 + 1 + 1 + 2 + 2 + 3 + 5 + 9 + 10);
+		buffer.flip();
+		for (long value : values) {
+			int before = buffer.position();
+			assertEquals(QuoteDeltaCodec.getVarint(buffer), value);
+			assertEquals(buffer.position() - before, QuoteDeltaCodec.varintSize(value));
+		}
+	}
+
+	@Test
+	public void onlyChangedFieldsShouldBeSent() {
+		QuoteDeltaCodec.Encoder encoder = new QuoteDeltaCodec.Encoder(300);
+		QuoteDeltaCodec.Decoder decoder = new QuoteDeltaCodec.Decoder();
+		encoder.startBaseline(10);
+		encoder.setBaseline(5, 100.00, 99.50);
+		encoder.setBaseline(200, 12.34, 12.00);
+		decoder.setBaseline(10, 5, "IBM", 100.00, 99.50);
+		decoder.setBaseline(10, 200, "MSFT", 12.34, 12.00);
+
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		encoder.put(buffer, 5, 100.00, 99.50);
+		assertEquals(buffer.position(), 2);
+		encoder.put(buffer, 5, 99.37, 99.50);
+		assertEquals(buffer.position(), 2 + 3);
+		encoder.put(buffer, 200, 13.01, 12.34);
+		buffer.flip();
+
+		assertTrue(decoder.next(buffer, 10));
+		assertEquals(decoder.getSymbol(), "IBM");
+		assertEquals(decoder.getLastTrade(), 100.00, 0.0);
+		assertTrue(decoder.next(buffer, 10));
+		assertEquals(decoder.getLastTrade(), 99.37, 0.0);
+		assertEquals(decoder.getPreviousClose(), 99.50, 0.0);
+		assertTrue(decoder.next(buffer, 10));
+		assertEquals(decoder.getSymbol(), "MSFT");
+		assertEquals(decoder.getLastTrade(), 13.01, 0.0);
+		assertEquals(decoder.getPreviousClose(), 12.34, 0.0);
+		assertFalse(buffer.hasRemaining());
+	}
+
+	@Test
+	public void changesAgainstAnotherBaselineShouldBeSkipped() {
+		QuoteDeltaCodec.Encoder encoder = new QuoteDeltaCodec.Encoder(10);
+		QuoteDeltaCodec.Decoder decoder = new QuoteDeltaCodec.Decoder();
+		encoder.startBaseline(20);
+		encoder.setBaseline(1, 50.00, 50.00);
+		encoder.setBaseline(2, 60.00, 60.00);
+		decoder.setBaseline(10, 1, "IBM", 49.00, 50.00);
+		decoder.setBaseline(20, 2, "MSFT", 60.00, 60.00);
+
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		encoder.put(buffer, 1, 50.25, 50.00);
+		encoder.put(buffer, 2, 60.25, 60.00);
+		encoder.put(buffer, 7, 1.00, 1.00);
+		buffer.flip();
+
+		assertFalse(decoder.next(buffer, 20));
+		assertTrue(decoder.next(buffer, 20));
+		assertEquals(decoder.getLastTrade(), 60.25, 0.0);
+		assertFalse(decoder.next(buffer, 20));
+		assertFalse(buffer.hasRemaining());
+	}
+}
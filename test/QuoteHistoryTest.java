@@ -0,0 +1,50 @@
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+import exceptions.InvalidAnalysisState;
+
+import static org.testng.Assert.*;
+
+public class QuoteHistoryTest {
+	@Test
+	public void changeOverTicksShouldLookBackThroughTheRing() throws Exception {
+		QuoteHistory history = new QuoteHistory(4);
+		for (int tick = 0; tick < 6; tick++) {
+			history.add(100.0 + tick * tick, tick);
+		}
+
+		// Only the prices of ticks 2 to 5 are still held.
+		assertEquals(history.size(), 4);
+		assertEquals(history.getTime(3), 2);
+		assertEquals(history.getChangeOverTicks(0), 0.0, 1e-9);
+		assertEquals(history.getChangeOverTicks(1), 25.0 - 16.0, 1e-9);
+		assertEquals(history.getChangeOverTicks(3), 25.0 - 4.0, 1e-9);
+		try {
+			history.getChangeOverTicks(4);
+			fail("The price of tick 1 should have been overwritten.");
+		} catch (InvalidAnalysisState e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void changeSinceShouldUseThePriceInForceAtThatTime() throws Exception {
+		QuoteHistory history = new QuoteHistory(8);
+		for (int minute = 0; minute < 10; minute++) {
+			history.add(100.0 + minute, TimeUnit.MINUTES.toNanos(minute));
+		}
+
+		// The prices of minutes 0 and 1 have been overwritten.
+		assertEquals(history.getChangeSince(TimeUnit.MINUTES.toNanos(5)), 109.0 - 105.0, 1e-9);
+		assertEquals(history.getChangeSince(TimeUnit.SECONDS.toNanos(330)), 109.0 - 105.0, 1e-9);
+		assertEquals(history.getChangeSince(TimeUnit.MINUTES.toNanos(2)), 109.0 - 102.0, 1e-9);
+		assertEquals(history.getChangeSince(TimeUnit.MINUTES.toNanos(10)), 0.0, 1e-9);
+		try {
+			history.getChangeSince(TimeUnit.MINUTES.toNanos(1));
+			fail("The price at minute 1 should have been overwritten.");
+		} catch (InvalidAnalysisState e) {
+			// Expected.
+		}
+	}
+}
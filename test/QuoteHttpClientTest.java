@@ -0,0 +1,529 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import exceptions.HttpStatusError;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import static org.testng.Assert.*;
+
+public class QuoteHttpClientTest {
+	private static final String GOOGLE_BODY = "// [ { \"t\" : \"MSFT\" ,\"l\" : \"72.50\" ,\"c\" : \"0.50\" ,\"pcls_fix\" : \"72.00\" } ]";
+
+	private static final int BATCH_SIZE = 2000;
+
+	private HttpServer server;
+	private volatile int version;
+	private ExecutorService executor;
+	private Set<Integer> remotePorts;
+	private String baseURL;
+	private volatile String acceptEncoding;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		remotePorts = ConcurrentHashMap.newKeySet();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 512);
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.createContext("/finance/info", exchange -> {
+			remotePorts.add(exchange.getRemoteAddress().getPort());
+			byte[] body = GOOGLE_BODY.getBytes("US-ASCII");
+			if (exchange.getRequestURI().getQuery().equals("q=batch")) {
+				StringBuilder batch = new StringBuilder("// [");
+				for (int index = 0; index < BATCH_SIZE; index++) {
+					batch.append(index == 0 ? " " : ",").append(GOOGLE_BODY, 5, GOOGLE_BODY.length() - 2);
+				}
+				body = batch.append("]").toString().getBytes("US-ASCII");
+			}
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(body);
+			}
+		});
+		server.createContext("/validated", exchange -> {
+			byte[] body = GOOGLE_BODY.getBytes("US-ASCII");
+			String eTag = "\"" + version + "\"";
+			String lastModified = "Thu, 08 Jun 2017 20:00:0" + version + " GMT";
+			exchange.getResponseHeaders().set("ETag", eTag);
+			exchange.getResponseHeaders().set("Last-Modified", lastModified);
+			String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+			String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+			if (eTag.equals(ifNoneMatch) || (ifNoneMatch == null && lastModified.equals(ifModifiedSince))) {
+				exchange.sendResponseHeaders(304, -1);
+				exchange.close();
+				return;
+			}
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(body);
+			}
+		});
+		server.createContext("/compressed", exchange -> {
+			acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			String encoding = exchange.getRequestURI().getQuery();
+			byte[] body = compress(batchBody(), encoding);
+			exchange.getResponseHeaders().set("Content-Encoding", encoding.equals("raw") ? "deflate" : encoding);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(body);
+			}
+		});
+		server.createContext("/unavailable", exchange -> {
+			byte[] body = "data: { \"t\" : \"MSFT\" }\n\n".getBytes("US-ASCII");
+			exchange.sendResponseHeaders(503, body.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(body);
+			}
+		});
+		server.createContext("/throttled", exchange -> {
+			exchange.sendResponseHeaders(429, -1);
+			exchange.close();
+		});
+		server.createContext("/slow", exchange -> {
+			try {
+				Thread.sleep(2000);
+				exchange.sendResponseHeaders(200, -1);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (IOException e) {
+				// The client has already given up on the request.
+			} finally {
+				exchange.close();
+			}
+		});
+		server.start();
+		baseURL = "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * @return A batch of quotes whose prices vary enough that the compressed
+	 *         response still spans several reads.
+	 */
+	private static byte[] batchBody() throws IOException {
+		StringBuilder batch = new StringBuilder("// [");
+		for (int index = 0; index < BATCH_SIZE; index++) {
+			batch.append(index == 0 ? " " : ",").append("{ \"t\" : \"S").append(index * 7919 % 10007)
+					.append("\" ,\"l\" : \"").append(index * 104729 % 100003 / 100.0).append("\" ,\"c\" : \"0.")
+					.append(index * 31 % 97).append("\" ,\"pcls_fix\" : \"").append(index * 2 % 1009)
+					.append(".5\" }");
+		}
+		return batch.append("]").toString().getBytes("US-ASCII");
+	}
+
+	private static byte[] compress(byte[] body, String encoding) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		OutputStream os;
+		if (encoding.equals("gzip")) {
+			os = new GZIPOutputStream(bytes);
+		} else {
+			os = new DeflaterOutputStream(bytes, new Deflater(Deflater.DEFAULT_COMPRESSION, encoding.equals("raw")));
+		}
+		os.write(body);
+		os.close();
+		return bytes.toByteArray();
+	}
+
+	@AfterMethod
+	public void tearDown() throws Exception {
+		server.stop(0);
+		executor.shutdownNow();
+		server = null;
+	}
+
+	@Test
+	public void sequentialRequestsShouldReuseOneConnection() throws Exception {
+		QuoteHttpClient client = new QuoteHttpClient(1000, 1000);
+		for (int index = 0; index < 50; index++) {
+			assertEquals(client.get(baseURL + "/finance/info?q=NSE:MSFT"), GOOGLE_BODY);
+		}
+		assertEquals(remotePorts.size(), 1);
+		assertEquals(client.getRequestCount(), 50);
+		assertEquals(client.getFailureCount(), 0);
+		assertEquals(client.getPeakConcurrentRequests(), 1);
+		assertEquals(client.getEstimatedConnectionReuseRatio(), 49 / 50.0, 0.0001);
+	}
+
+	@Test
+	public void warmUpShouldLeaveConnectionsInThePool() throws Exception {
+		QuoteHttpClient client = new QuoteHttpClient(1000, 1000);
+		assertEquals(client.warmUp(baseURL + "/finance/info?q=NSE:MSFT", 3), 3);
+		int warmed = remotePorts.size();
+		assertTrue(warmed >= 1 && warmed <= 3);
+		assertEquals(client.getRequestCount(), 0);
+
+		// The first real request finds a connection already open.
+		client.get(baseURL + "/finance/info?q=NSE:MSFT");
+		assertEquals(remotePorts.size(), warmed);
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void warmUpShouldRejectAnUnknownHost() throws Exception {
+		new QuoteHttpClient(1000, 1000).warmUp("http://no-such-host.invalid/finance/info", 1);
+	}
+
+	@Test
+	public void largeResponseShouldBeParsedFromTheReusedBuffer() throws Exception {
+		QuoteHttpClient client = new QuoteHttpClient(1000, 5000);
+		List<StockQuoteInterface> quotes = client.get(baseURL + "/finance/info?q=batch",
+				new GoogleJSONQuoteParser());
+		assertEquals(quotes.size(), BATCH_SIZE);
+		assertEquals(quotes.get(BATCH_SIZE - 1).getLastTrade(), 72.50, 0.0);
+
+		quotes = client.get(baseURL + "/finance/info?q=NSE:MSFT", new GoogleJSONQuoteParser());
+		assertEquals(quotes.size(), 1);
+		assertEquals(quotes.get(0).getSymbol(), "MSFT");
+	}
+
+	@Test
+	public void unchangedQuoteShouldBeReusedWithoutParsing() throws Exception {
+		QuoteHttpClient client = new QuoteHttpClient(1000, 1000);
+		AtomicInteger parses = new AtomicInteger();
+		GoogleJSONQuoteParser google = new GoogleJSONQuoteParser();
+		QuoteResponseParser<List<StockQuoteInterface>> parser = body -> {
+			parses.incrementAndGet();
+			return google.parse(body);
+		};
+
+		List<StockQuoteInterface> first = client.get(baseURL + "/validated", parser);
+		List<StockQuoteInterface> second = client.get(baseURL + "/validated", parser);
+		assertSame(second, first);
+		assertEquals(parses.get(), 1);
+		assertEquals(client.getNotModifiedCount(), 1);
+		assertEquals(client.getBytesSaved(), GOOGLE_BODY.length());
+		assertEquals(client.getBytesReceived(), GOOGLE_BODY.length());
+
+		// Once the quote changes, the server's validator no longer matches.
+		version++;
+		List<StockQuoteInterface> third = client.getAsync(baseURL + "/validated", parser).get();
+		assertTrue(third != first);
+		assertEquals(parses.get(), 2);
+		assertSame(client.getAsync(baseURL + "/validated", parser).get(), third);
+		assertEquals(client.getNotModifiedCount(), 2);
+	}
+
+	@Test
+	public void restartShouldServeStoredResponseAndRefreshIt() throws Exception {
+		Path file = Files.createTempFile("responses", ".cache");
+		try {
+			GoogleJSONQuoteParser parser = new GoogleJSONQuoteParser();
+			QuoteHttpClient client = new QuoteHttpClient(1000, 1000);
+			PersistentResponseCache cache = new PersistentResponseCache(file, 60000);
+			client.setPersistentCache(cache);
+			client.get(baseURL + "/validated", parser);
+			assertEquals(client.getPersistentHitCount(), 0);
+			cache.close();
+
+			// A new process shows the response found on disk at once, and
+			// refetches it conditional on the stored validators.
+			client = new QuoteHttpClient(1000, 1000);
+			cache = new PersistentResponseCache(file, 60000);
+			client.setPersistentCache(cache);
+			List<StockQuoteInterface> quotes = client.get(baseURL + "/validated", parser);
+			assertEquals(quotes.get(0).getSymbol(), "MSFT");
+			assertEquals(client.getPersistentHitCount(), 1);
+			for (int wait = 0; wait < 200 && client.getNotModifiedCount() == 0; wait++) {
+				Thread.sleep(10);
+			}
+			assertEquals(client.getNotModifiedCount(), 1);
+			assertEquals(client.getBytesReceived(), 0);
+
+			// Later requests go to the provider as usual.
+			assertSame(client.get(baseURL + "/validated", parser), quotes);
+			assertEquals(client.getPersistentHitCount(), 1);
+			assertEquals(client.getNotModifiedCount(), 2);
+			cache.close();
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void multiplexedRequestsShouldShareAFewConnections() throws Exception {
+		QuoteHttpClient client = new QuoteHttpClient(1000, 5000);
+		client.setMultiplexing(4);
+		try {
+			GoogleJSONQuoteParser parser = new GoogleJSONQuoteParser();
+			List<CompletableFuture<List<StockQuoteInterface>>> pending = new ArrayList<CompletableFuture<List<StockQuoteInterface>>>();
+			for (int index = 0; index < 2000; index++) {
+				pending.add(client.getAsync(baseURL + "/finance/info?q=NSE:S" + index, parser));
+			}
+			ExecutorService callers = Executors.newFixedThreadPool(50);
+			List<java.util.concurrent.Future<String>> blocking = new ArrayList<java.util.concurrent.Future<String>>();
+			for (int index = 0; index < 500; index++) {
+				blocking.add(callers.submit(() -> client.get(baseURL + "/finance/info?q=NSE:MSFT")));
+			}
+			for (CompletableFuture<List<StockQuoteInterface>> quotes : pending) {
+				assertEquals(quotes.get().get(0).getSymbol(), "MSFT");
+			}
+			for (java.util.concurrent.Future<String> body : blocking) {
+				assertEquals(body.get(), GOOGLE_BODY);
+			}
+			callers.shutdown();
+
+			// One connection asked for HTTP/2; the rest were pipelined.
+			assertTrue(client.getPipelinedTransport().getConnectionCount() <= 4);
+			assertTrue(remotePorts.size() <= 5, "ports " + remotePorts.size());
+			assertEquals(client.getRequestCount(), 2500);
+			assertEquals(client.getFailureCount(), 0);
+		} finally {
+			client.setMultiplexing(0);
+		}
+	}
+
+	@Test
+	public void pipelinedResponsesShouldKeepTheirOrder() throws Exception {
+		QuoteHttpClient client = new QuoteHttpClient(1000, 5000);
+		client.setMultiplexing(1);
+		try {
+			GoogleJSONQuoteParser parser = new GoogleJSONQuoteParser();
+			client.get(baseURL + "/finance/info?q=NSE:MSFT");
+			CompletableFuture<List<StockQuoteInterface>> validated = client.getAsync(baseURL + "/validated", parser);
+			CompletableFuture<List<StockQuoteInterface>> gzip = client.getAsync(baseURL + "/compressed?gzip", parser);
+			CompletableFuture<List<StockQuoteInterface>> batch = client.getAsync(baseURL + "/finance/info?q=batch",
+					parser);
+			CompletableFuture<List<StockQuoteInterface>> notModified = validated
+					.thenCompose(first -> client.getAsync(baseURL + "/validated", parser));
+			CompletableFuture<String> behind = notModified
+					.thenCompose(first -> client.getAsync(baseURL + "/finance/info?q=NSE:MSFT"));
+			assertEquals(gzip.get().size(), BATCH_SIZE);
+			assertEquals(batch.get().size(), BATCH_SIZE);
+			assertSame(notModified.get(), validated.get());
+			assertEquals(client.getNotModifiedCount(), 1);
+			assertEquals(behind.get(), GOOGLE_BODY);
+			try {
+				client.get(baseURL + "/throttled");
+				fail("The request should have been refused.");
+			} catch (HttpStatusError e) {
+				assertEquals(e.getStatusCode(), 429);
+			}
+			// The stand-in server closes the connection after a response
+			// without a body; whatever was pipelined behind it is sent again.
+			assertEquals(client.get(baseURL + "/finance/info?q=NSE:MSFT"), GOOGLE_BODY);
+			assertTrue(client.getPipelinedTransport().getConnectionCount() >= 2);
+			assertEquals(client.getFailureCount(), 1);
+		} finally {
+			client.setMultiplexing(0);
+		}
+	}
+
+	@Test
+	public void timedOutRequestShouldNotHoldUpThoseBehindIt() throws Exception {
+		PipelinedHttpTransport transport = new PipelinedHttpTransport(1, 1000);
+		try {
+			long start = System.nanoTime();
+			CompletableFuture<HttpResponse<byte[]>> slow = transport.send(HttpRequest
+					.newBuilder(URI.create(baseURL + "/slow")).timeout(Duration.ofMillis(200)).GET().build());
+			CompletableFuture<HttpResponse<byte[]>> behind = transport.send(HttpRequest
+					.newBuilder(URI.create(baseURL + "/finance/info?q=NSE:MSFT")).timeout(Duration.ofSeconds(5))
+					.GET().build());
+			try {
+				slow.get();
+				fail("The request should have timed out.");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof HttpTimeoutException);
+			}
+			// The stuck connection was closed and the request behind it sent
+			// again on a new one, well before the slow response was due.
+			assertEquals(new String(behind.get().body(), "US-ASCII"), GOOGLE_BODY);
+			assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
+			assertEquals(transport.getConnectionCount(), 2);
+		} finally {
+			transport.close();
+		}
+	}
+
+	@Test
+	public void pipelineLongerThanTheSocketBuffersShouldDrain() throws Exception {
+		PipelinedHttpTransport transport = new PipelinedHttpTransport(1, 1000);
+		ExecutorService sender = Executors.newSingleThreadExecutor();
+		try {
+			// Enough requests, and large enough responses, that both ends'
+			// socket buffers fill while the requests are still being written.
+			StringBuilder padding = new StringBuilder();
+			while (padding.length() < 8192) {
+				padding.append("0123456789abcdef");
+			}
+			HttpRequest request = HttpRequest.newBuilder(URI.create(baseURL + "/finance/info?q=batch"))
+					.header("X-Padding", padding.toString()).GET().build();
+			java.util.concurrent.Future<List<CompletableFuture<HttpResponse<byte[]>>>> sent = sender.submit(() -> {
+				List<CompletableFuture<HttpResponse<byte[]>>> pending = new ArrayList<CompletableFuture<HttpResponse<byte[]>>>();
+				for (int index = 0; index < 1000; index++) {
+					pending.add(transport.send(request));
+				}
+				return pending;
+			});
+			for (CompletableFuture<HttpResponse<byte[]>> response : sent.get(60, TimeUnit.SECONDS)) {
+				assertEquals(response.get(60, TimeUnit.SECONDS).statusCode(), 200);
+			}
+			assertEquals(transport.getConnectionCount(), 1);
+		} finally {
+			sender.shutdownNow();
+			transport.close();
+		}
+	}
+
+	@Test
+	public void streamAnsweredWithAnErrorShouldPassOnNoLines() throws Exception {
+		QuoteHttpClient client = new QuoteHttpClient(1000, 1000);
+		List<String> lines = new CopyOnWriteArrayList<String>();
+		try {
+			client.stream(baseURL + "/unavailable", lines::add).get(5, TimeUnit.SECONDS);
+			fail("The stream should have failed.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof HttpStatusError);
+			assertEquals(((HttpStatusError) e.getCause()).getStatusCode(), 503);
+		}
+		assertTrue(lines.isEmpty(), "Passed on " + lines);
+	}
+
+	@Test
+	public void conditionalRequestsCanBeTurnedOff() throws Exception {
+		QuoteHttpClient client = new QuoteHttpClient(1000, 1000);
+		client.setConditionalRequests(false);
+		GoogleJSONQuoteParser parser = new GoogleJSONQuoteParser();
+		client.get(baseURL + "/validated", parser);
+		client.get(baseURL + "/validated", parser);
+		assertEquals(client.getNotModifiedCount(), 0);
+		assertEquals(client.getBytesReceived(), 2 * GOOGLE_BODY.length());
+	}
+
+	@Test
+	public void compressedResponsesShouldBeInflated() throws Exception {
+		QuoteHttpClient client = new QuoteHttpClient(1000, 5000);
+		GoogleJSONQuoteParser parser = new GoogleJSONQuoteParser();
+		List<StockQuoteInterface> expected = parser.parse(ByteBuffer.wrap(batchBody()));
+		for (String encoding : new String[] { "gzip", "deflate", "raw" }) {
+			List<StockQuoteInterface> quotes = client.get(baseURL + "/compressed?" + encoding, parser);
+			assertEquals(acceptEncoding, "gzip, deflate");
+			assertEquals(quotes.size(), BATCH_SIZE);
+			assertEquals(quotes.get(BATCH_SIZE - 1).getLastTrade(), expected.get(BATCH_SIZE - 1).getLastTrade(), 0.0);
+			assertEquals(quotes.get(BATCH_SIZE - 1).getSymbol(), expected.get(BATCH_SIZE - 1).getSymbol());
+
+			quotes = client.getAsync(baseURL + "/compressed?" + encoding, parser).get();
+			assertEquals(quotes.size(), BATCH_SIZE);
+			assertEquals(quotes.get(0).getSymbol(), expected.get(0).getSymbol());
+		}
+		assertEquals(client.getBytesReceived(), 6L * batchBody().length);
+	}
+
+	@Test
+	public void compressionCanBeTurnedOff() throws Exception {
+		QuoteHttpClient client = new QuoteHttpClient(1000, 1000);
+		client.setCompression(false);
+		client.get(baseURL + "/finance/info?q=NSE:MSFT");
+		client.get(baseURL + "/compressed?gzip", new GoogleJSONQuoteParser());
+		assertEquals(acceptEncoding, null);
+	}
+
+	@Test
+	public void throttledProviderShouldBeSlowedDown() throws Exception {
+		QuoteHttpClient client = new QuoteHttpClient(1000, 1000);
+		client.setRateLimits(100, 1, 1000);
+		try {
+			client.get(baseURL + "/throttled");
+			fail("The request should have been refused.");
+		} catch (HttpStatusError e) {
+			assertEquals(e.getStatusCode(), 429);
+		}
+		client.get(baseURL + "/finance/info?q=NSE:MSFT");
+
+		AdaptiveRateLimiter limiter = client.getRateLimiter("127.0.0.1", server.getAddress().getPort());
+		assertEquals(limiter.getThrottleCount(), 1);
+		assertEquals(limiter.getSuccessCount(), 1);
+		assertTrue(limiter.getRate() < 100);
+	}
+
+	@Test
+	public void instancesCreatedFromPrototypeShouldShareTheClient() throws Exception {
+		LocalMarketDataServer provider = new LocalMarketDataServer();
+		try {
+			QuoteHttpClient client = new QuoteHttpClient(1000, 1000);
+			StockQuoteGeneratorInterface prototype = new GoogleStockQuoteJSONDownloader(null, client,
+					provider.getGoogleURL());
+			StockQuoteGeneratorInterface first = prototype.createNewInstance("MSFT");
+			StockQuoteGeneratorInterface second = prototype.createNewInstance("AAPL");
+			assertEquals(first.getCurrentQuote().getSymbol(), "MSFT");
+			assertEquals(second.getCurrentQuote().getSymbol(), "AAPL");
+
+			// Both requests are accounted for by the one shared client.
+			assertEquals(provider.getRequestCount(), 2);
+			assertEquals(client.getRequestCount(), 2);
+		} finally {
+			provider.close();
+		}
+	}
+
+	@Test(expectedExceptions = HttpTimeoutException.class)
+	public void slowResponseShouldTimeOut() throws Exception {
+		QuoteHttpClient client = new QuoteHttpClient(1000, 200);
+		try {
+			client.get(baseURL + "/slow");
+		} finally {
+			assertEquals(client.getTimeoutCount(), 1);
+		}
+	}
+
+	@Test
+	public void manyAsyncRequestsShouldBeInFlightFromOneThread() throws Exception {
+		QuoteHttpClient client = new QuoteHttpClient(5000, 5000);
+		List<CompletableFuture<String>> pending = new ArrayList<CompletableFuture<String>>();
+		for (int index = 0; index < 200; index++) {
+			pending.add(client.getAsync(baseURL + "/finance/info?q=NSE:MSFT"));
+		}
+		for (CompletableFuture<String> future : pending) {
+			assertEquals(future.get(), GOOGLE_BODY);
+		}
+		assertEquals(client.getRequestCount(), 200);
+		assertEquals(client.getFailureCount(), 0);
+	}
+
+	@Test
+	public void asyncTimeoutShouldCompleteExceptionally() throws Exception {
+		QuoteHttpClient client = new QuoteHttpClient(1000, 200);
+		try {
+			client.getAsync(baseURL + "/slow").get();
+			fail("The request should have timed out.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof HttpTimeoutException);
+		}
+		assertEquals(client.getTimeoutCount(), 1);
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void missingPageShouldFail() throws Exception {
+		QuoteHttpClient client = new QuoteHttpClient(1000, 1000);
+		try {
+			client.get(baseURL + "/missing");
+		} finally {
+			assertEquals(client.getFailureCount(), 1);
+		}
+	}
+}
@@ -0,0 +1,125 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class QuoteResponseParserTest {
+	private static ByteBuffer direct(String text) {
+		byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + 8);
+		buffer.put(bytes);
+		buffer.flip();
+		return buffer;
+	}
+
+	@Test
+	public void googleParserShouldReadEveryRecord() throws Exception {
+		List<StockQuoteInterface> quotes = new GoogleJSONQuoteParser()
+				.parse(direct("// [\n{\n\"id\": \"358464\"\n,\"t\" : \"MSFT\"\n,\"e\" : \"NASDAQ\"\n,\"l\" : \"72.50\"\n"
+						+ ",\"c\" : \"+0.50\"\n,\"pcls_fix\" : \"72.00\"\n}\n,{ \"t\" : \"A\" ,\"l\" : \"61.25\" ,"
+						+ "\"c\" : \"-1.75\" ,\"pcls_fix\" : \"63\" } ]\n"));
+		assertEquals(quotes.size(), 2);
+		assertEquals(quotes.get(0).getSymbol(), "MSFT");
+		assertEquals(quotes.get(0).getLastTrade(), 72.50, 0.0);
+		assertEquals(quotes.get(0).getChange(), 0.50, 0.0);
+		assertEquals(quotes.get(0).getClose(), 72.00, 0.0);
+		assertEquals(quotes.get(1).getSymbol(), "A");
+		assertEquals(quotes.get(1).getChange(), -1.75, 0.0);
+		assertEquals(quotes.get(1).getClose(), 63.0, 0.0);
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void googleParserShouldRejectIncompleteRecord() throws Exception {
+		new GoogleJSONQuoteParser().parse(direct("// [ { \"t\" : \"MSFT\" ,\"l\" : \"72.50\" } ]"));
+	}
+
+	@Test
+	public void yahooParserShouldReadEveryLine() throws Exception {
+		List<StockQuoteInterface> quotes = new YahooCSVQuoteParser()
+				.parse(direct("\"MSFT\",72.50,\"6/8/2017\",\"4:00pm\",+0.50,72.10,72.90,71.80,21000000\r\n"
+						+ "\"AAPL\",155.00,\"6/8/2017\",\"4:00pm\",-2.25,157.00,157.50,154.20,30000000\n"));
+		assertEquals(quotes.size(), 2);
+		assertEquals(quotes.get(0).getSymbol(), "MSFT");
+		assertEquals(quotes.get(0).getLastTrade(), 72.50, 0.0);
+		assertEquals(quotes.get(0).getClose(), 72.00, 0.0001);
+		assertEquals(quotes.get(1).getSymbol(), "AAPL");
+		assertEquals(quotes.get(1).getChange(), -2.25, 0.0);
+	}
+
+	@Test
+	public void yahooParserShouldReadAFinalLineWithoutATerminator() throws Exception {
+		List<StockQuoteInterface> quotes = new YahooCSVQuoteParser()
+				.parse(direct("\"MSFT\",72.50,\"6/8/2017\",\"4:00pm\",+0.50,72.10,72.90,71.80,21000000\r\n"
+						+ "\"AAPL\",155.00,\"6/8/2017\",\"4:00pm\",-2.25,157.00,157.50,154.20,30000000"));
+		assertEquals(quotes.size(), 2);
+		assertEquals(quotes.get(1).getSymbol(), "AAPL");
+		assertEquals(quotes.get(1).getClose(), 157.25, 0.0001);
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void yahooParserShouldRejectMissingValues() throws Exception {
+		new YahooCSVQuoteParser().parse(direct("\"ZZZZ\",N/A,\"N/A\",\"N/A\",N/A,N/A,N/A,N/A,N/A\n"));
+	}
+
+	/**
+	 * @return The text compressed with gzip, with a file name in the header.
+	 */
+	private static byte[] gzipWithName(String text) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+			gzip.write(text.getBytes(StandardCharsets.US_ASCII));
+		}
+		byte[] plain = bytes.toByteArray();
+		byte[] name = "quotes.csv\0".getBytes(StandardCharsets.US_ASCII);
+		byte[] retVal = new byte[plain.length + name.length];
+		System.arraycopy(plain, 0, retVal, 0, 10);
+		System.arraycopy(name, 0, retVal, 10, name.length);
+		System.arraycopy(plain, 10, retVal, 10 + name.length, plain.length - 10);
+		retVal[3] |= 8;
+		return retVal;
+	}
+
+	@Test
+	public void gzipResponseShouldBeInflatedFromTheChannel() throws Exception {
+		String text = "\"MSFT\",72.50,\"6/8/2017\",\"4:00pm\",+0.50,72.10,72.90,71.80,21000000\n";
+		ByteBuffer body = QuoteResponseReader
+				.read(Channels.newChannel(new ByteArrayInputStream(gzipWithName(text))), "gzip");
+		assertEquals(StandardCharsets.US_ASCII.decode(body).toString(), text);
+		body = QuoteResponseReader.decode(ByteBuffer.wrap(gzipWithName(text)), "x-gzip");
+		assertEquals(new YahooCSVQuoteParser().parse(body).get(0).getLastTrade(), 72.50, 0.0);
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void corruptGzipResponseShouldBeRejected() throws Exception {
+		byte[] compressed = gzipWithName("\"MSFT\",72.50\n");
+		compressed[compressed.length - 6] ^= 1;
+		QuoteResponseReader.decode(ByteBuffer.wrap(compressed), "gzip");
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void unknownEncodingShouldBeRejected() throws Exception {
+		QuoteResponseReader.decode(ByteBuffer.wrap(new byte[] { 1, 2, 3 }), "br");
+	}
+
+	@DataProvider
+	public Object[][] numbers() {
+		return new Object[][] { { "72.50" }, { "-0.01" }, { "+1.75" }, { "0" }, { "\"123.456\"" }, { " 9007199254.7409" },
+				{ "1.5E3" }, { "0.1" }, { "1234567.891" } };
+	}
+
+	@Test(dataProvider = "numbers")
+	public void parseDoubleShouldMatchDoubleParseDouble(String text) {
+		ByteBuffer buffer = direct(text);
+		double expected = Double.parseDouble(text.replace("\"", "").trim());
+		assertEquals(QuoteBytes.parseDouble(buffer, 0, buffer.limit()), expected, 0.0);
+	}
+}
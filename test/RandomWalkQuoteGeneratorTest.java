@@ -0,0 +1,64 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import exceptions.InvalidStockSymbolException;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class RandomWalkQuoteGeneratorTest {
+	@Test
+	public void everyListedSymbolShouldBeQuoted() throws Exception {
+		RandomWalkQuoteGenerator generator = new RandomWalkQuoteGenerator(7);
+		List<String> symbols = generator.getSymbols();
+		assertEquals(symbols.size(), StockTickerListing.getSingleton().size());
+		for (String symbol : symbols) {
+			StockQuoteInterface quote = generator.createNewInstance(symbol).getCurrentQuote();
+			assertEquals(quote.getSymbol(), symbol);
+			assertTrue(quote.getLastTrade() > 0);
+			assertEquals(quote.getLastTrade() - quote.getClose(), quote.getChange(), 1e-9);
+		}
+	}
+
+	@Test
+	public void sameSeedShouldGiveSamePrices() throws Exception {
+		StockQuoteGeneratorInterface first = new RandomWalkQuoteGenerator(42).createNewInstance("IBM");
+		RandomWalkQuoteGenerator other = new RandomWalkQuoteGenerator(42);
+		StockQuoteGeneratorInterface second = other.createNewInstance("IBM");
+		// Quoting another symbol does not disturb IBM's sequence.
+		other.createNewInstance("MSFT").getCurrentQuote();
+		for (int step = 0; step < 100; step++) {
+			assertEquals(second.getCurrentQuote().getLastTrade(), first.getCurrentQuote().getLastTrade(), 0.0);
+		}
+		assertTrue(new RandomWalkQuoteGenerator(43).createNewInstance("IBM").getCurrentQuote()
+				.getLastTrade() != new RandomWalkQuoteGenerator(42).createNewInstance("IBM").getCurrentQuote()
+						.getLastTrade());
+	}
+
+	@Test
+	public void universeShouldGrowBeyondTheListing() throws Exception {
+		RandomWalkQuoteGenerator generator = new RandomWalkQuoteGenerator(100000, 1, 0, 0.01);
+		List<String> symbols = generator.getSymbols();
+		assertEquals(symbols.size(), 100000);
+		assertEquals(symbols.get(99999),
+				String.format("SYN%06d", 99999 - StockTickerListing.getSingleton().size()));
+		Map<String, StockQuoteInterface> quotes = generator.getCurrentQuotes(symbols);
+		assertEquals(quotes.size(), 100000);
+		assertTrue(quotes.get(symbols.get(99999)).getLastTrade() > 0);
+	}
+
+	@Test(expectedExceptions = InvalidStockSymbolException.class)
+	public void unknownSymbolShouldBeRejected() throws Exception {
+		new RandomWalkQuoteGenerator(1).createNewInstance("NOSUCHSYMBOL").getCurrentQuote();
+	}
+
+	@Test
+	public void unknownSymbolsShouldBeLeftOutOfABatch() throws Exception {
+		Map<String, StockQuoteInterface> quotes = new RandomWalkQuoteGenerator(1)
+				.getCurrentQuotes(Arrays.asList("IBM", "NOSUCHSYMBOL"));
+		assertEquals(quotes.size(), 1);
+		assertTrue(quotes.containsKey("IBM"));
+	}
+}
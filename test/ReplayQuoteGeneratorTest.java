@@ -0,0 +1,166 @@
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import exceptions.WebsiteConnectionError;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class ReplayQuoteGeneratorTest {
+	private static final List<String> SYMBOLS = Arrays.asList("IBM", "MSFT", "F");
+
+	private Path file;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		file = Files.createTempFile("quotes", ".recording");
+		Files.delete(file);
+	}
+
+	@AfterMethod
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(file);
+	}
+
+	/**
+	 * Record a few cycles of quotes from the stand-in server.
+	 *
+	 * @return The last trades seen in each cycle.
+	 */
+	private List<Map<String, StockQuoteInterface>> record(int cycles) throws Exception {
+		List<Map<String, StockQuoteInterface>> seen = new ArrayList<Map<String, StockQuoteInterface>>();
+		try (LocalMarketDataServer server = new LocalMarketDataServer();
+				QuoteResponseRecorder recorder = new QuoteResponseRecorder(file)) {
+			server.setPriceDynamics(0, 0.05);
+			QuoteHttpClient client = new QuoteHttpClient(1000, 2000);
+			client.setRecorder(recorder);
+			StockQuoteGeneratorInterface google = new GoogleStockQuoteJSONDownloader(null, client,
+					server.getGoogleURL());
+			for (int cycle = 0; cycle < cycles; cycle++) {
+				seen.add(google.getCurrentQuotes(SYMBOLS));
+				Thread.sleep(20);
+			}
+			assertEquals(recorder.getRecordCount(), cycles);
+		}
+		return seen;
+	}
+
+	@Test
+	public void maximumSpeedShouldReplayEveryCycleInTurn() throws Exception {
+		List<Map<String, StockQuoteInterface>> recorded = record(5);
+		try (ReplayQuoteGenerator replay = new ReplayQuoteGenerator(file, ReplayQuoteGenerator.MAXIMUM_SPEED)) {
+			for (Map<String, StockQuoteInterface> cycle : recorded) {
+				Map<String, StockQuoteInterface> quotes = replay.getCurrentQuotes(SYMBOLS);
+				for (String symbol : SYMBOLS) {
+					assertEquals(quotes.get(symbol).getLastTrade(), cycle.get(symbol).getLastTrade(), 0.0);
+				}
+			}
+			assertTrue(replay.isFinished());
+			assertEquals(replay.getResponseCount(), 5);
+
+			// The last quotes stay on offer once the recording is over.
+			assertEquals(replay.createNewInstance("IBM").getCurrentQuote().getLastTrade(),
+					recorded.get(4).get("IBM").getLastTrade(), 0.0);
+		}
+	}
+
+	@Test
+	public void replayShouldKeepToTheRecordedTiming() throws Exception {
+		List<Map<String, StockQuoteInterface>> recorded = record(3);
+		List<Long> timestamps = new ArrayList<Long>();
+		try (QuoteResponseRecorder.Reader reader = new QuoteResponseRecorder.Reader(file)) {
+			for (QuoteResponseRecorder.Record record = reader.next(); record != null; record = reader.next()) {
+				timestamps.add(record.getTimestamp());
+			}
+		}
+		assertEquals(timestamps.size(), 3);
+
+		AtomicLong now = new AtomicLong(1000);
+		try (ReplayQuoteGenerator replay = new ReplayQuoteGenerator(file, 10, now::get)) {
+			StockQuoteGeneratorInterface ibm = replay.createNewInstance("IBM");
+			for (int cycle = 0; cycle < 3; cycle++) {
+				now.set(1000 + (timestamps.get(cycle) - timestamps.get(0) + 9) / 10);
+				assertEquals(ibm.getCurrentQuote().getLastTrade(), recorded.get(cycle).get("IBM").getLastTrade(),
+						0.0);
+				assertEquals(replay.getResponseCount(), cycle + 1);
+			}
+		}
+	}
+
+	@Test
+	public void notModifiedAnswerShouldRepeatThePreviousBody() throws Exception {
+		String google = "// [ { \"t\" : \"MSFT\" ,\"l\" : \"72.50\" ,\"c\" : \"0.50\" ,\"pcls_fix\" : \"72.00\" } ]";
+		String yahoo = "\"IBM\",150.25,\"6/8/2017\",\"4:00pm\",+0.50,149.80,151.00,149.50,21000000\r\n";
+		try (QuoteResponseRecorder recorder = new QuoteResponseRecorder(file)) {
+			recorder.record("http://localhost/finance/info?q=NSE:MSFT",
+					ByteBuffer.wrap(google.getBytes(StandardCharsets.US_ASCII)));
+			recorder.record("http://localhost/finance/info?q=NSE:MSFT", null);
+			recorder.record("http://localhost/d/quotes.csv?s=IBM",
+					ByteBuffer.wrap(yahoo.getBytes(StandardCharsets.US_ASCII)));
+		}
+		// A record cut short at the end of the file is not replayed.
+		try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+			raw.seek(raw.length());
+			raw.writeInt(1000);
+			raw.writeLong(0);
+		}
+
+		try (ReplayQuoteGenerator replay = new ReplayQuoteGenerator(file, ReplayQuoteGenerator.MAXIMUM_SPEED)) {
+			StockQuoteGeneratorInterface msft = replay.createNewInstance("MSFT");
+			assertEquals(msft.getCurrentQuote().getLastTrade(), 72.50, 0.0);
+			assertEquals(msft.getCurrentQuote().getLastTrade(), 72.50, 0.0);
+			assertEquals(replay.getResponseCount(), 2);
+			assertEquals(replay.createNewInstance("IBM").getCurrentQuote().getLastTrade(), 150.25, 0.0);
+			assertTrue(replay.isFinished());
+			try {
+				replay.createNewInstance("F").getCurrentQuote();
+				fail("F was never recorded.");
+			} catch (WebsiteConnectionError e) {
+				// Expected.
+			}
+		}
+	}
+
+	@Test
+	public void recordsAppendedAfterACrashShouldBeReadBack() throws Exception {
+		try (QuoteResponseRecorder recorder = new QuoteResponseRecorder(file)) {
+			recorder.record("http://localhost/first", ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+			recorder.record("http://localhost/second", null);
+		}
+		// The crash left the start of a third record.
+		try (RandomAccessFile raw = new RandomAccessFile(file.toFile(), "rw")) {
+			raw.seek(raw.length());
+			raw.writeInt(1000);
+			raw.writeLong(0);
+		}
+
+		QuoteResponseRecorder recorder = new QuoteResponseRecorder(file);
+		recorder.record("http://localhost/third", ByteBuffer.wrap(new byte[] { 4 }));
+		recorder.close();
+		// Once a record fails to be written, nothing more is.
+		recorder.record("http://localhost/fourth", null);
+		assertFalse(recorder.isRecording());
+		assertEquals(recorder.getRecordCount(), 1);
+		assertEquals(recorder.getDroppedCount(), 1);
+
+		List<String> urls = new ArrayList<String>();
+		try (QuoteResponseRecorder.Reader reader = new QuoteResponseRecorder.Reader(file)) {
+			for (QuoteResponseRecorder.Record record = reader.next(); record != null; record = reader.next()) {
+				urls.add(record.getURL());
+			}
+		}
+		assertEquals(urls,
+				Arrays.asList("http://localhost/first", "http://localhost/second", "http://localhost/third"));
+	}
+}
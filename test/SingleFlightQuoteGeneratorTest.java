@@ -0,0 +1,158 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import exceptions.WebsiteConnectionError;
+
+import static org.testng.Assert.*;
+
+public class SingleFlightQuoteGeneratorTest {
+	/**
+	 * This generator blocks every request until it is released, so that
+	 * requests pile up while one is in flight.
+	 */
+	private static class GatedGenerator implements StockQuoteGeneratorInterface {
+		private final CountDownLatch gate;
+		private final AtomicInteger calls;
+		private final boolean fail;
+		private String symbol;
+
+		GatedGenerator(String symbol, CountDownLatch gate, AtomicInteger calls, boolean fail) {
+			this.symbol = symbol;
+			this.gate = gate;
+			this.calls = calls;
+			this.fail = fail;
+		}
+
+		public StockQuoteInterface getCurrentQuote() throws Exception {
+			calls.incrementAndGet();
+			gate.await(5, TimeUnit.SECONDS);
+			if (fail) {
+				throw new WebsiteConnectionError("Unable to connect with " + symbol);
+			}
+			return new StockQuote(symbol, 10.0, 11.0, 1.0);
+		}
+
+		public String getSymbol() {
+			return symbol;
+		}
+
+		public void setSymbol(String symbol) {
+			this.symbol = symbol;
+		}
+
+		public StockQuoteGeneratorInterface createNewInstance(String symbol) {
+			return new GatedGenerator(symbol, gate, calls, fail);
+		}
+	}
+
+	private ExecutorService executor;
+	private CountDownLatch gate;
+	private AtomicInteger calls;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		executor = Executors.newFixedThreadPool(8);
+		gate = new CountDownLatch(1);
+		calls = new AtomicInteger();
+	}
+
+	@AfterMethod
+	public void tearDown() throws Exception {
+		executor.shutdownNow();
+	}
+
+	private List<Future<StockQuoteInterface>> startCallers(SingleFlightQuoteGenerator prototype, int count)
+			throws Exception {
+		List<Future<StockQuoteInterface>> results = new ArrayList<Future<StockQuoteInterface>>();
+		for (int index = 0; index < count; index++) {
+			StockQuoteGeneratorInterface instance = prototype.createNewInstance("MSFT");
+			results.add(executor.submit(() -> instance.getCurrentQuote()));
+		}
+		// Give every caller time to join the request in flight.
+		while (prototype.getUpstreamCount() + prototype.getMergedCount() < count) {
+			Thread.sleep(5);
+		}
+		return results;
+	}
+
+	@Test
+	public void concurrentRequestsShouldShareOneUpstreamRequest() throws Exception {
+		SingleFlightQuoteGenerator prototype = new SingleFlightQuoteGenerator(
+				new GatedGenerator(null, gate, calls, false));
+		List<Future<StockQuoteInterface>> results = startCallers(prototype, 8);
+		gate.countDown();
+
+		StockQuoteInterface first = results.get(0).get();
+		for (Future<StockQuoteInterface> result : results) {
+			assertSame(result.get(), first);
+		}
+		assertEquals(calls.get(), 1);
+		assertEquals(prototype.getUpstreamCount(), 1);
+		assertEquals(prototype.getMergedCount(), 7);
+		assertEquals(prototype.getMergeRatio(), 7 / 8.0, 0.0001);
+	}
+
+	@Test
+	public void everyCallerShouldSeeTheSameFailure() throws Exception {
+		SingleFlightQuoteGenerator prototype = new SingleFlightQuoteGenerator(
+				new GatedGenerator(null, gate, calls, true));
+		List<Future<StockQuoteInterface>> results = startCallers(prototype, 4);
+		gate.countDown();
+
+		for (Future<StockQuoteInterface> result : results) {
+			try {
+				result.get();
+				fail("The merged request should have failed.");
+			} catch (java.util.concurrent.ExecutionException e) {
+				assertTrue(e.getCause() instanceof WebsiteConnectionError);
+			}
+		}
+		assertEquals(calls.get(), 1);
+	}
+
+	@Test
+	public void laterRequestsShouldGoUpstreamAgain() throws Exception {
+		gate.countDown();
+		SingleFlightQuoteGenerator prototype = new SingleFlightQuoteGenerator(
+				new GatedGenerator(null, gate, calls, false));
+		StockQuoteGeneratorInterface instance = prototype.createNewInstance("MSFT");
+		instance.getCurrentQuote();
+		instance.getCurrentQuote();
+		CompletableFuture<StockQuoteInterface> async = instance.getCurrentQuoteAsync();
+		assertEquals(async.get().getSymbol(), "MSFT");
+		assertEquals(calls.get(), 3);
+		assertEquals(prototype.getMergedCount(), 0);
+	}
+
+	@Test
+	public void batchShouldWaitOnSymbolsAlreadyInFlight() throws Exception {
+		SingleFlightQuoteGenerator prototype = new SingleFlightQuoteGenerator(
+				new GatedGenerator(null, gate, calls, false));
+		List<Future<StockQuoteInterface>> single = startCallers(prototype, 1);
+		Future<Map<String, StockQuoteInterface>> batch = executor
+				.submit(() -> prototype.getCurrentQuotes(Arrays.asList("MSFT", "AAPL")));
+		while (calls.get() < 2) {
+			Thread.sleep(5);
+		}
+		gate.countDown();
+
+		Map<String, StockQuoteInterface> quotes = batch.get();
+		assertSame(quotes.get("MSFT"), single.get(0).get());
+		assertEquals(quotes.get("AAPL").getSymbol(), "AAPL");
+		assertEquals(calls.get(), 2);
+		assertEquals(prototype.getMergedCount(), 1);
+	}
+}
@@ -1,8 +1,16 @@
+import exceptions.InvalidAnalysisState;
 import exceptions.InvalidStockSymbolException;
 import exceptions.StockTickerConnectionError;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -18,6 +26,28 @@ import org.testng.annotations.Test;
 import static org.testng.Assert.*;
 
 public class StockQuoteAnalyzerTest {
+    /**
+     * This source hands out quotes which are completed by the test.
+     */
+    private static class PendingSource extends RandomWalkQuoteGenerator {
+        private final Queue<CompletableFuture<StockQuoteInterface>> pending = new ArrayDeque<CompletableFuture<StockQuoteInterface>>();
+
+        PendingSource() {
+            super(1);
+        }
+
+        CompletableFuture<StockQuoteInterface> expect() {
+            CompletableFuture<StockQuoteInterface> quote = new CompletableFuture<StockQuoteInterface>();
+            pending.add(quote);
+            return quote;
+        }
+
+        @Override
+        public CompletableFuture<StockQuoteInterface> getCurrentQuoteAsync() {
+            return pending.remove();
+        }
+    }
+
     @Mock
     private StockQuoteGeneratorInterface generatorMock;
     @Mock
@@ -41,4 +71,81 @@ public class StockQuoteAnalyzerTest {
     public void constructorShouldThrowExceptionWhenSymbolIsInvalid() throws Exception {
         analyzer = new StockQuoteAnalyzer("ZZZZZZZZZ", generatorMock, audioMock);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void refreshAsyncShouldDropAQuoteOvertakenByALaterOne() throws Exception {
+        PendingSource source = new PendingSource();
+        CompletableFuture<StockQuoteInterface> first = source.expect();
+        CompletableFuture<StockQuoteInterface> second = source.expect();
+        CompletableFuture<StockQuoteInterface> third = source.expect();
+        analyzer = new StockQuoteAnalyzer("IBM", source, audioMock);
+
+        CompletableFuture<Void> firstRefresh = analyzer.refreshAsync();
+        CompletableFuture<Void> secondRefresh = analyzer.refreshAsync();
+        second.complete(new StockQuote("IBM", 100.0, 102.0, 2.0));
+        secondRefresh.join();
+        assertEquals(analyzer.getCurrentPrice(), 102.0, 0.0);
+
+        // The first quote arrives late and is dropped.
+        first.complete(new StockQuote("IBM", 100.0, 101.0, 1.0));
+        firstRefresh.join();
+        assertEquals(analyzer.getCurrentPrice(), 102.0, 0.0);
+
+        CompletableFuture<Void> thirdRefresh = analyzer.refreshAsync();
+        third.completeExceptionally(new IOException("Connection reset"));
+        try {
+            thirdRefresh.join();
+            fail("The refresh should have failed.");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof StockTickerConnectionError);
+        }
+        assertEquals(analyzer.getCurrentPrice(), 102.0, 0.0);
+        // Only the quote kept as the current one is in the history.
+        assertEquals(analyzer.getHistorySize(), 1);
+    }
+
+    @Test
+    public void changeOverLastTicksShouldFollowTheQuotesRefreshed() throws Exception {
+        analyzer = new StockQuoteAnalyzer("IBM", new RandomWalkQuoteGenerator(1).createNewInstance("IBM"), audioMock);
+        analyzer.setHistoryCapacity(4);
+        for (int tick = 0; tick < 6; tick++) {
+            analyzer.refresh(new StockQuote("IBM", 100.0, 100.0 + tick * tick, 0.0));
+        }
+
+        assertEquals(analyzer.getHistorySize(), 4);
+        assertEquals(analyzer.getChangeOverLastTicks(1), 25.0 - 16.0, 1e-9);
+        assertEquals(analyzer.getChangeOverLastTicks(3), 25.0 - 4.0, 1e-9);
+        try {
+            analyzer.getChangeOverLastTicks(4);
+            fail("The price of tick 1 should have been overwritten.");
+        } catch (InvalidAnalysisState e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void changeOverLastShouldUseThePriceInForceAtTheStart() throws Exception {
+        VirtualMarketClock clock = new VirtualMarketClock();
+        analyzer = new StockQuoteAnalyzer("IBM", new RandomWalkQuoteGenerator(1).createNewInstance("IBM"), audioMock);
+        analyzer.setHistoryCapacity(8);
+        analyzer.setClock(clock);
+        for (int minute = 0; minute < 10; minute++) {
+            analyzer.refresh(new StockQuote("IBM", 100.0, 100.0 + minute, 0.0));
+            clock.advance(1, TimeUnit.MINUTES);
+        }
+
+        // It is now 10 minutes in; the latest price, 109, came at minute 9,
+        // and the prices of minutes 0 and 1 have been overwritten.
+        assertEquals(analyzer.getHistorySize(), 8);
+        assertEquals(analyzer.getChangeOverLast(5, TimeUnit.MINUTES), 109.0 - 105.0, 1e-9);
+        assertEquals(analyzer.getChangeOverLast(270, TimeUnit.SECONDS), 109.0 - 105.0, 1e-9);
+        assertEquals(analyzer.getChangeOverLast(8, TimeUnit.MINUTES), 109.0 - 102.0, 1e-9);
+        assertEquals(analyzer.getChangeOverLast(30, TimeUnit.SECONDS), 0.0, 1e-9);
+        try {
+            analyzer.getChangeOverLast(9, TimeUnit.MINUTES);
+            fail("The price at minute 1 should have been overwritten.");
+        } catch (InvalidAnalysisState e) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,140 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import exceptions.WebsiteConnectionError;
+
+import static org.testng.Assert.*;
+
+public class StreamingQuoteGeneratorTest {
+	private LocalMarketDataServer server;
+	private StreamingQuoteGenerator generator;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		server = new LocalMarketDataServer();
+		server.setStreamInterval(20);
+		generator = new StreamingQuoteGenerator(server.getStreamURL(), new QuoteHttpClient(1000, 2000));
+	}
+
+	@AfterMethod
+	public void tearDown() throws Exception {
+		generator.close();
+		server.close();
+	}
+
+	@Test
+	public void subscribersShouldBeSentEachChangedPrice() throws Exception {
+		server.setPriceDynamics(0, 0.05);
+		List<StockQuoteInterface> received = new CopyOnWriteArrayList<StockQuoteInterface>();
+		CountDownLatch enough = new CountDownLatch(10);
+		QuoteSubscription subscription = generator.subscribe(Arrays.asList("IBM", "MSFT"), quote -> {
+			received.add(quote);
+			enough.countDown();
+		});
+		assertTrue(enough.await(5, TimeUnit.SECONDS));
+		assertTrue(subscription.isActive());
+		subscription.cancel();
+		assertFalse(subscription.isActive());
+
+		for (StockQuoteInterface quote : received) {
+			assertTrue(quote.getSymbol().equals("IBM") || quote.getSymbol().equals("MSFT"));
+		}
+		// Only the one request was made to the server.
+		assertEquals(server.getRequestCount(), 1);
+
+		int delivered = received.size();
+		Thread.sleep(200);
+		assertTrue(received.size() <= delivered + 2, received.size() + " after cancelling at " + delivered);
+	}
+
+	@Test
+	public void pollingShouldReturnTheLatestStreamedQuote() throws Exception {
+		server.setPriceDynamics(0, 0);
+		GoogleStockQuoteJSONDownloader google = new GoogleStockQuoteJSONDownloader(null,
+				new QuoteHttpClient(1000, 2000), server.getGoogleURL());
+		StockQuoteInterface polled = google.createNewInstance("AAPL").getCurrentQuote();
+
+		StockQuoteInterface streamed = generator.createNewInstance("AAPL").getCurrentQuote();
+		assertEquals(streamed.getSymbol(), "AAPL");
+		assertEquals(streamed.getLastTrade(), polled.getLastTrade(), 0.0);
+
+		// Later polls are answered from the open stream.
+		long requests = server.getRequestCount();
+		Map<String, StockQuoteInterface> quotes = generator.getCurrentQuotes(Arrays.asList("AAPL"));
+		assertEquals(quotes.get("AAPL").getLastTrade(), polled.getLastTrade(), 0.0);
+		assertEquals(server.getRequestCount(), requests);
+	}
+
+	@Test
+	public void aStreamWhichFailsShouldBeReopened() throws Exception {
+		server.setPriceDynamics(0, 0.05);
+		CountDownLatch failed = new CountDownLatch(1);
+		CountDownLatch resumed = new CountDownLatch(1);
+		QuoteSubscription subscription = generator.subscribe(Arrays.asList("IBM"), new QuoteListener() {
+			public void quoteUpdated(StockQuoteInterface quote) {
+				if (failed.getCount() == 0) {
+					resumed.countDown();
+				}
+			}
+
+			public void streamFailed(Exception e) {
+				failed.countDown();
+			}
+		});
+		try {
+			// Restart the server on the same port to drop the stream.
+			Thread.sleep(200);
+			int port = server.getPort();
+			server.close();
+			assertTrue(failed.await(5, TimeUnit.SECONDS));
+			server = new LocalMarketDataServer(port, 1);
+			assertTrue(resumed.await(StreamingQuoteGenerator.RECONNECT_DELAY * 5, TimeUnit.MILLISECONDS));
+		} finally {
+			subscription.cancel();
+		}
+	}
+
+	@Test
+	public void pollShouldNotAnswerWithAQuoteFromAStreamWhichIsDown() throws Exception {
+		server.setPriceDynamics(0, 0);
+		assertEquals(generator.createNewInstance("AAPL").getCurrentQuote().getSymbol(), "AAPL");
+
+		server.close();
+		long deadline = System.currentTimeMillis() + 5000;
+		boolean dropped = false;
+		while (dropped == false && System.currentTimeMillis() < deadline) {
+			try {
+				generator.getCurrentQuotes(Arrays.asList("AAPL"));
+				Thread.sleep(20);
+			} catch (WebsiteConnectionError e) {
+				dropped = true;
+			}
+		}
+		assertTrue(dropped, "The quote was still served after its stream was lost");
+	}
+
+	@Test
+	public void closingShouldStopReopeningThePolledStreams() throws Exception {
+		assertEquals(generator.createNewInstance("IBM").getCurrentQuote().getSymbol(), "IBM");
+
+		int port = server.getPort();
+		server.close();
+		Thread.sleep(200);
+		generator.close();
+		server = new LocalMarketDataServer(port, 1);
+		Thread.sleep(StreamingQuoteGenerator.RECONNECT_DELAY * 2);
+		assertEquals(server.getRequestCount(), 0);
+
+		// Polling again opens a new stream.
+		assertEquals(generator.createNewInstance("IBM").getCurrentQuote().getSymbol(), "IBM");
+		assertEquals(server.getRequestCount(), 1);
+	}
+}
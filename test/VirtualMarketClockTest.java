@@ -0,0 +1,55 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class VirtualMarketClockTest {
+	@Test
+	public void sleepingShouldRunTheTasksDueInOrder() throws Exception {
+		VirtualMarketClock clock = new VirtualMarketClock(1000000);
+		List<String> ran = new CopyOnWriteArrayList<String>();
+		clock.schedule(() -> ran.add("b@" + clock.nanoTime()), 2, TimeUnit.SECONDS);
+		clock.schedule(() -> ran.add("a@" + clock.nanoTime()), 1, TimeUnit.SECONDS);
+		clock.schedule(() -> ran.add("c@" + clock.nanoTime()), 2, TimeUnit.SECONDS);
+		clock.schedule(() -> ran.add("d@" + clock.nanoTime()), 1, TimeUnit.HOURS);
+
+		long start = System.nanoTime();
+		clock.sleep(5, TimeUnit.SECONDS);
+		assertTrue(System.nanoTime() - start < 1000000000L);
+		assertEquals(ran.toString(), "[a@1000000000, b@2000000000, c@2000000000]");
+		assertEquals(clock.nanoTime(), 5000000000L);
+		assertEquals(clock.currentTimeMillis(), 1005000);
+		assertEquals(clock.getPendingCount(), 1);
+
+		assertTrue(clock.runNext());
+		assertEquals(clock.nanoTime(), TimeUnit.HOURS.toNanos(1));
+		assertFalse(clock.runNext());
+	}
+
+	@Test
+	public void tasksShouldBeAbleToScheduleMoreAndBeCancelled() throws Exception {
+		VirtualMarketClock clock = new VirtualMarketClock(0);
+		List<Long> ticks = new CopyOnWriteArrayList<Long>();
+		Runnable[] tick = new Runnable[1];
+		tick[0] = () -> {
+			ticks.add(clock.nanoTime());
+			clock.schedule(tick[0], 10, TimeUnit.MINUTES);
+		};
+		clock.schedule(tick[0], 0, TimeUnit.MINUTES);
+		Future<?> cancelled = clock.schedule(() -> fail("A cancelled task ran"), 15, TimeUnit.MINUTES);
+		cancelled.cancel(false);
+
+		clock.advance(1, TimeUnit.HOURS);
+		assertEquals(ticks.size(), 7);
+		assertEquals(ticks.get(6).longValue(), TimeUnit.MINUTES.toNanos(60));
+		assertTrue(cancelled.isCancelled());
+
+		// The clock never goes backwards.
+		clock.advanceTo(0);
+		assertEquals(clock.nanoTime(), TimeUnit.HOURS.toNanos(1));
+	}
+}